@@ -7,8 +7,8 @@ mvn test-compile
 # Emit the dependencies classpath
 mvn dependency:build-classpath -DincludeScope=test -Dmdep.outputFile=scripts/classpath.txt
 
-# Run the benchmark
-java -cp $(cat scripts/classpath.txt):target/classes:target/test-classes --illegal-access=warn org.openjdk.jmh.Main BenchmarkPruner
+# Run the benchmark (default BenchmarkPruner; pass e.g. BenchmarkCompiler)
+java -cp $(cat scripts/classpath.txt):target/classes:target/test-classes --illegal-access=warn org.openjdk.jmh.Main ${1:-BenchmarkPruner}
 
 # Clean up
 rm scripts/classpath.txt
\ No newline at end of file
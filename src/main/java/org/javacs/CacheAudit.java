@@ -36,6 +36,14 @@ public final class CacheAudit {
         stats(name).stores.increment();
     }
 
+    public static long hits(String name) {
+        return stats(name).hits.sum();
+    }
+
+    public static long misses(String name) {
+        return stats(name).misses.sum();
+    }
+
     public static List<String> summaryLines() {
         var names = new ArrayList<>(STATS.keySet());
         names.sort(Comparator.naturalOrder());
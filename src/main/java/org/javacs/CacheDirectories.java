@@ -0,0 +1,46 @@
+package org.javacs;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Locations of the on-disk caches that survive server restarts.
+ *
+ * <p>Everything lives under {@code $XDG_CACHE_HOME/jls} (or {@code ~/.cache/jls}). Set
+ * {@code -Djls.cacheDir=<dir>} to move it, or {@code -Djls.cacheDir=none} to disable persistence.
+ * Test runs ({@code jls.test}) only persist when {@code jls.cacheDir} is set explicitly, so fixtures
+ * never pick up state from a previous run.
+ */
+public final class CacheDirectories {
+    private CacheDirectories() {}
+
+    /** Root of all persistent caches, or empty when persistence is disabled. */
+    public static Optional<Path> root() {
+        var configured = System.getProperty("jls.cacheDir");
+        if (configured != null && !configured.isBlank()) {
+            if (configured.equals("none")) return Optional.empty();
+            return Optional.of(Paths.get(configured));
+        }
+        if (System.getProperty("jls.test") != null) return Optional.empty();
+        var xdg = System.getenv("XDG_CACHE_HOME");
+        if (xdg != null && !xdg.isBlank()) return Optional.of(Paths.get(xdg).resolve("jls"));
+        return Optional.of(Paths.get(System.getProperty("user.home")).resolve(".cache").resolve("jls"));
+    }
+
+    /** Per-workspace cache directory, keyed by a short hash of the normalized workspace root. */
+    public static Optional<Path> workspace(Path workspaceRoot) {
+        if (workspaceRoot == null) return Optional.empty();
+        var key = workspaceRoot.toAbsolutePath().normalize().toString();
+        return root().map(dir -> dir.resolve("workspaces").resolve(shortHash(key)));
+    }
+
+    public static String shortHash(String value) {
+        return UUID.nameUUIDFromBytes(value.getBytes(StandardCharsets.UTF_8))
+                .toString()
+                .replace("-", "")
+                .substring(0, 8);
+    }
+}
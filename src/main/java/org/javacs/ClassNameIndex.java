@@ -0,0 +1,198 @@
+package org.javacs;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Top-level class names by simple name, so class-name completion visits only the names that match
+ * what was typed instead of every class in the workspace, on the class path and in the JDK.
+ *
+ * <p>Library and JDK names don't change for the life of a class path and are kept in sorted arrays;
+ * workspace names change with every file and are kept in sorted maps, updated one file at a time.
+ * Both are searched by simple-name prefix and by camel humps. Camel humps are looked up through the
+ * initials of each name, so {@code HM} only visits names filed under {@code HM...}, like {@code
+ * HashMap}. When neither finds anything, a longer partial name falls back to a subsequence search over
+ * names with the same first letter.
+ */
+public final class ClassNameIndex {
+    /** Separates the parts of a key, and sorts before any character of a name. */
+    private static final char SEPARATOR = '\0';
+
+    /** Partial names shorter than this are not worth a subsequence search. */
+    private static final int MIN_SUBSEQUENCE = 3;
+
+    private final Sorted libraryNames, libraryHumps;
+    // Keys as in Sorted, to qualified names; guarded by this
+    private final TreeMap<String, String> workspaceNames = new TreeMap<>(), workspaceHumps = new TreeMap<>();
+    private final Map<Path, String> workspaceFiles = new HashMap<>();
+
+    private ClassNameIndex(Collection<String> libraryClasses) {
+        var names = new ArrayList<String>(libraryClasses.size());
+        var humps = new ArrayList<String>();
+        for (var className : new LinkedHashSet<>(libraryClasses)) {
+            names.add(nameKey(className));
+            var humpKey = humpKey(className);
+            if (humpKey != null) humps.add(humpKey);
+        }
+        this.libraryNames = new Sorted(names);
+        this.libraryHumps = new Sorted(humps);
+    }
+
+    /** An index of {@code libraryClasses}, qualified names of top-level classes that aren't in the workspace. */
+    public static ClassNameIndex of(Collection<String> libraryClasses) {
+        return new ClassNameIndex(libraryClasses);
+    }
+
+    /** Record that {@code file} now declares {@code className}, or nothing if {@code className} is null. */
+    public synchronized void updateWorkspaceFile(Path file, String className) {
+        var previous = className == null ? workspaceFiles.remove(file) : workspaceFiles.put(file, className);
+        if (previous != null && !previous.equals(className) && !workspaceFiles.containsValue(previous)) {
+            workspaceNames.remove(nameKey(previous));
+            var humpKey = humpKey(previous);
+            if (humpKey != null) workspaceHumps.remove(humpKey);
+        }
+        if (className != null) {
+            workspaceNames.put(nameKey(className), className);
+            var humpKey = humpKey(className);
+            if (humpKey != null) workspaceHumps.put(humpKey, className);
+        }
+    }
+
+    /** Replace every workspace name with {@code classes}, the class each file declares. */
+    public synchronized void replaceWorkspace(Map<Path, String> classes) {
+        workspaceFiles.clear();
+        workspaceNames.clear();
+        workspaceHumps.clear();
+        for (var entry : classes.entrySet()) {
+            updateWorkspaceFile(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Qualified names whose simple name starts with {@code partial}, then those whose camel humps start
+     * with the humps of {@code partial}, workspace classes before library classes. If neither finds
+     * anything, names that contain {@code partial} as a subsequence.
+     */
+    public synchronized List<String> matching(String partial) {
+        var found = new LinkedHashSet<String>();
+        workspaceNames.subMap(partial, partial + Character.MAX_VALUE).values().forEach(found::add);
+        libraryNames.forPrefix(partial, (key, className) -> found.add(className));
+        if (isCamelQuery(partial)) {
+            var initials = initials(partial);
+            for (var entry : workspaceHumps.subMap(initials, initials + Character.MAX_VALUE).entrySet()) {
+                if (matchesHumps(simpleNameOf(entry.getKey()), partial)) found.add(entry.getValue());
+            }
+            libraryHumps.forPrefix(initials, (key, className) -> {
+                if (matchesHumps(simpleNameOf(key), partial)) found.add(className);
+            });
+        }
+        if (found.isEmpty() && partial.length() >= MIN_SUBSEQUENCE) {
+            var first = partial.substring(0, 1);
+            for (var entry : workspaceNames.subMap(first, first + Character.MAX_VALUE).entrySet()) {
+                if (isSubsequence(partial, entry.getKey())) found.add(entry.getValue());
+            }
+            libraryNames.forPrefix(first, (key, className) -> {
+                if (isSubsequence(partial, key)) found.add(className);
+            });
+        }
+        return new ArrayList<>(found);
+    }
+
+    /** The number of distinct names in the index. */
+    public synchronized int size() {
+        return libraryNames.keys.length + workspaceNames.size();
+    }
+
+    private static String simpleName(String className) {
+        return className.substring(className.lastIndexOf('.') + 1);
+    }
+
+    /** {@code HashMap\0java.util.HashMap} */
+    private static String nameKey(String className) {
+        return simpleName(className) + SEPARATOR + className;
+    }
+
+    /** {@code HM\0HashMap\0java.util.HashMap}, or null if the name doesn't start with a hump. */
+    private static String humpKey(String className) {
+        var simpleName = simpleName(className);
+        if (simpleName.isEmpty() || !Character.isUpperCase(simpleName.charAt(0))) return null;
+        return initials(simpleName) + SEPARATOR + simpleName + SEPARATOR + className;
+    }
+
+    private static String simpleNameOf(String humpKey) {
+        var start = humpKey.indexOf(SEPARATOR) + 1;
+        return humpKey.substring(start, humpKey.indexOf(SEPARATOR, start));
+    }
+
+    private static String initials(String name) {
+        var initials = new StringBuilder();
+        for (var i = 0; i < name.length(); i++) {
+            if (Character.isUpperCase(name.charAt(i))) initials.append(name.charAt(i));
+        }
+        return initials.toString();
+    }
+
+    /** A partial name like {@code HM} or {@code HaMa}: a hump, then at least one more. */
+    private static boolean isCamelQuery(String partial) {
+        if (partial.isEmpty() || !Character.isUpperCase(partial.charAt(0))) return false;
+        for (var i = 1; i < partial.length(); i++) {
+            if (Character.isUpperCase(partial.charAt(i))) return true;
+        }
+        return false;
+    }
+
+    /** Whether each hump of {@code partial} starts the corresponding hump of {@code simpleName}. */
+    static boolean matchesHumps(String simpleName, String partial) {
+        var n = 0;
+        for (var p = 0; p < partial.length(); p++) {
+            var c = partial.charAt(p);
+            if (Character.isUpperCase(c)) {
+                // Skip the rest of the current hump of the name
+                while (n < simpleName.length() && !Character.isUpperCase(simpleName.charAt(n))) n++;
+                if (p == 0) n = 0;
+            }
+            if (n >= simpleName.length() || simpleName.charAt(n) != c) return false;
+            n++;
+        }
+        return true;
+    }
+
+    /** Whether the characters of {@code partial} appear in order in the simple name of {@code key}, ignoring case. */
+    private static boolean isSubsequence(String partial, String key) {
+        var p = 0;
+        for (var n = 0; n < key.length() && key.charAt(n) != SEPARATOR && p < partial.length(); n++) {
+            if (Character.toLowerCase(key.charAt(n)) == Character.toLowerCase(partial.charAt(p))) p++;
+        }
+        return p == partial.length();
+    }
+
+    /** Keys in sorted order, each ending with the qualified name it stands for. */
+    private static final class Sorted {
+        final String[] keys;
+
+        Sorted(List<String> keys) {
+            this.keys = keys.toArray(String[]::new);
+            Arrays.sort(this.keys);
+        }
+
+        interface Visitor {
+            void visit(String key, String className);
+        }
+
+        void forPrefix(String prefix, Visitor visitor) {
+            var i = Arrays.binarySearch(keys, prefix);
+            if (i < 0) i = -i - 1;
+            for (; i < keys.length && keys[i].startsWith(prefix); i++) {
+                var key = keys[i];
+                visitor.visit(key, key.substring(key.lastIndexOf(SEPARATOR) + 1));
+            }
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package org.javacs;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.logging.Logger;
+
+/**
+ * Top-level class names of each jar on the class path, and of the JDK, kept across restarts.
+ *
+ * <p>Jars are keyed by path and checked against their size and modification time, so a changed
+ * class path only opens the jars that are new or were rebuilt. The JDK is keyed by its
+ * {@code java.home} and runtime version. Class directories (build output) change all the time and
+ * are cheap to list, so they are never cached.
+ *
+ * <p>The catalog lives in {@code <cacheDir>/classpath/catalog.bin}; it is read on first use and
+ * written in the background after a scan adds to it.
+ */
+final class ClassPathCatalog {
+    private static final Logger LOG = Logger.getLogger("main");
+    private static final int MAGIC = 0x4a4c4350; // "JLCP"
+    static final int FORMAT_VERSION = 1;
+    private static final String FILE_NAME = "catalog.bin";
+    static final long SAVE_DELAY_MS = 2_000;
+
+    /**
+     * What one jar contributes: its top-level classes, plus the jars its manifest {@code Class-Path}
+     * pulls in, which are cataloged on their own.
+     */
+    record Jar(long size, long modified, List<String> classes, List<Path> manifestClassPath) {
+        static final Jar EMPTY = new Jar(-1, -1, List.of(), List.of());
+    }
+
+    private static final Map<String, Jar> ENTRIES = new ConcurrentHashMap<>();
+
+    private static final ScheduledExecutorService SAVER =
+            Executors.newSingleThreadScheduledExecutor(
+                    Thread.ofPlatform().daemon().name("jls-classpath-catalog-save").factory());
+
+    private static final AtomicBoolean loaded = new AtomicBoolean();
+    private static final AtomicBoolean saveScheduled = new AtomicBoolean();
+    private static volatile boolean dirty;
+
+    private ClassPathCatalog() {}
+
+    /** Top-level classes of the running JDK, calling {@code scan} when this JDK isn't cataloged. */
+    static List<String> jdk(Supplier<Collection<String>> scan) {
+        loadOnce();
+        var key = "jrt:" + System.getProperty("java.home") + "@" + Runtime.version();
+        var cached = ENTRIES.get(key);
+        if (cached != null) {
+            CacheAudit.hit("classpath_catalog.jdk");
+            return cached.classes();
+        }
+        CacheAudit.miss("classpath_catalog.jdk");
+        var jdk = new Jar(0, 0, List.copyOf(scan.get()), List.of());
+        put(key, jdk);
+        return jdk.classes();
+    }
+
+    /** The catalog of {@code jar}, scanning it if it is new or has changed since it was cataloged. */
+    static Jar jar(Path jar) {
+        loadOnce();
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(jar, BasicFileAttributes.class);
+        } catch (IOException e) {
+            return Jar.EMPTY;
+        }
+        var key = jar.toString();
+        var size = attributes.size();
+        var modified = attributes.lastModifiedTime().toMillis();
+        var cached = ENTRIES.get(key);
+        if (cached != null && cached.size() == size && cached.modified() == modified) {
+            CacheAudit.hit("classpath_catalog.jar");
+            return cached;
+        }
+        CacheAudit.miss("classpath_catalog.jar");
+        var scanned = scan(jar, size, modified);
+        put(key, scanned);
+        return scanned;
+    }
+
+    private static Jar scan(Path jar, long size, long modified) {
+        var classes = new ArrayList<String>();
+        var manifestClassPath = new ArrayList<Path>();
+        try (var file = new JarFile(jar.toFile())) {
+            var manifest = file.getManifest();
+            var attribute = manifest == null ? null : manifest.getMainAttributes().getValue(Attributes.Name.CLASS_PATH);
+            if (attribute != null) {
+                for (var entry : attribute.split(" ")) {
+                    var resolved = manifestEntry(jar, entry);
+                    if (resolved != null) manifestClassPath.add(resolved);
+                }
+            }
+            var entries = file.entries();
+            while (entries.hasMoreElements()) {
+                var name = topLevelClassName(entries.nextElement().getName());
+                if (name != null) classes.add(name);
+            }
+        } catch (IOException e) {
+            // Not a jar; it contributes nothing, but remember that so it isn't reopened
+            LOG.fine(String.format("[classpath] skipping %s: %s", jar, e.getMessage()));
+        }
+        return new Jar(size, modified, List.copyOf(classes), List.copyOf(manifestClassPath));
+    }
+
+    /** A {@code Class-Path} entry, which is a URL relative to the jar, as a local file, or null. */
+    private static Path manifestEntry(Path jar, String entry) {
+        if (entry.isEmpty()) return null;
+        try {
+            var url = new URL(jar.toUri().toURL(), entry);
+            if (!url.getProtocol().equals("file")) return null;
+            return Paths.get(url.toURI()).normalize();
+        } catch (MalformedURLException | URISyntaxException | IllegalArgumentException e) {
+            LOG.warning("Invalid Class-Path entry: " + entry);
+            return null;
+        }
+    }
+
+    /**
+     * {@code resource} ({@code a/b/C.class}) as a top-level class name ({@code a.b.C}), or null for
+     * nested classes, {@code module-info}, {@code package-info}, versioned entries and non-classes.
+     */
+    static String topLevelClassName(String resource) {
+        if (!resource.endsWith(".class") || resource.startsWith("META-INF/") || resource.indexOf('$') != -1) {
+            return null;
+        }
+        var name = resource.substring(0, resource.length() - ".class".length());
+        if (name.endsWith("module-info") || name.endsWith("package-info")) return null;
+        return name.replace('/', '.');
+    }
+
+    private static void put(String key, Jar jar) {
+        ENTRIES.put(key, jar);
+        CacheAudit.store("classpath_catalog");
+        dirty = true;
+        saveSoon();
+    }
+
+    static void clear() {
+        ENTRIES.clear();
+    }
+
+    private static Path diskFile() {
+        return CacheDirectories.root().map(dir -> dir.resolve("classpath").resolve(FILE_NAME)).orElse(null);
+    }
+
+    private static void loadOnce() {
+        if (loaded.get() || !loaded.compareAndSet(false, true)) return;
+        load(diskFile());
+    }
+
+    private static void saveSoon() {
+        if (diskFile() == null || !saveScheduled.compareAndSet(false, true)) return;
+        SAVER.schedule(
+                () -> {
+                    saveScheduled.set(false);
+                    save(diskFile());
+                },
+                SAVE_DELAY_MS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    static void load(Path file) {
+        if (file == null || !Files.isRegularFile(file)) return;
+        var started = System.nanoTime();
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                LOG.info(String.format("[classpath] ignoring %s: unknown format", file));
+                return;
+            }
+            var count = in.readInt();
+            var classCount = 0;
+            for (var i = 0; i < count; i++) {
+                var key = in.readUTF();
+                var size = in.readLong();
+                var modified = in.readLong();
+                var manifestClassPath = new Path[in.readInt()];
+                for (var j = 0; j < manifestClassPath.length; j++) {
+                    manifestClassPath[j] = Paths.get(in.readUTF());
+                }
+                var classes = new String[in.readInt()];
+                for (var j = 0; j < classes.length; j++) {
+                    classes[j] = in.readUTF();
+                }
+                classCount += classes.length;
+                // Anything scanned since startup is at least as fresh as the saved copy
+                ENTRIES.putIfAbsent(key, new Jar(size, modified, List.of(classes), List.of(manifestClassPath)));
+            }
+            CacheAudit.load("classpath_catalog");
+            LOG.info(String.format("[perf] classpath_catalog_load jars=%d classes=%d took=%dms",
+                    count, classCount, (System.nanoTime() - started) / 1_000_000));
+        } catch (NoSuchFileException e) {
+            // Nothing saved yet
+        } catch (IOException | RuntimeException e) {
+            LOG.warning(String.format("[classpath] discarding unreadable catalog %s: %s", file, e.getMessage()));
+        }
+    }
+
+    static void save(Path file) {
+        if (file == null || !dirty) return;
+        dirty = false;
+        var entries = new ArrayList<Map.Entry<String, Jar>>();
+        for (var e : ENTRIES.entrySet()) {
+            // Jars that are gone would only grow the file
+            if (e.getKey().startsWith("jrt:") || Files.exists(Paths.get(e.getKey()))) entries.add(e);
+        }
+        var started = System.nanoTime();
+        try {
+            Files.createDirectories(file.getParent());
+            var tmp = Files.createTempFile(file.getParent(), FILE_NAME, ".tmp");
+            try {
+                try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+                    out.writeInt(MAGIC);
+                    out.writeInt(FORMAT_VERSION);
+                    out.writeInt(entries.size());
+                    for (var e : entries) {
+                        var jar = e.getValue();
+                        out.writeUTF(e.getKey());
+                        out.writeLong(jar.size());
+                        out.writeLong(jar.modified());
+                        out.writeInt(jar.manifestClassPath().size());
+                        for (var path : jar.manifestClassPath()) out.writeUTF(path.toString());
+                        out.writeInt(jar.classes().size());
+                        for (var name : jar.classes()) out.writeUTF(name);
+                    }
+                }
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+            LOG.info(String.format("[perf] classpath_catalog_save jars=%d took=%dms",
+                    entries.size(), (System.nanoTime() - started) / 1_000_000));
+        } catch (IOException e) {
+            LOG.warning(String.format("[classpath] failed to write %s: %s", file, e.getMessage()));
+        }
+    }
+}
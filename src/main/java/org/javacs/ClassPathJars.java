@@ -0,0 +1,227 @@
+package org.javacs;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Class files of a class path, found with one map lookup instead of opening each jar in turn.
+ *
+ * <p>Every jar is a {@link JarArchive}, mapped once and shared by all class paths that include it
+ * until its size or modification time changes. Each class path gets a map from class file name to
+ * the first jar that has it, built once per fingerprint of its roots. Class directories are still
+ * checked on disk, since the build rewrites them; a directory that comes before the jar holding a
+ * class still wins, as on a real class path.
+ *
+ * <p>Callers keep their view and ask {@link #current} for it before a lookup. That costs no system
+ * call until {@link #changed} reports a jar or build file event, or the view's mappings were
+ * released; only then are the roots checked again.
+ */
+public final class ClassPathJars {
+    private static final Logger LOG = Logger.getLogger("main");
+
+    private record Root(Path path, long size, long modified) {}
+
+    private static final Map<Path, JarArchive> ARCHIVES = new ConcurrentHashMap<>();
+
+    /** Bumped by {@link #changed}; a view checked its roots at {@link #checkedAt}. */
+    private static final AtomicLong GENERATION = new AtomicLong();
+
+    /** Recent class paths; {@link #of} stats the roots on every call, so a changed jar gets a new view. */
+    private static final Cache<List<Root>, ClassPathJars> SHARED = Caffeine.newBuilder()
+            .maximumSize(4)
+            .executor(Runnable::run)
+            .<List<Root>, ClassPathJars>removalListener((key, view, cause) -> {
+                if (view != null) view.release();
+            })
+            .build();
+
+    private final List<Root> roots;
+    /** For each root, its archive, or null for directories and unreadable jars. */
+    private final JarArchive[] archives;
+    /** Class file name to the index of the first jar containing it. */
+    private final Object2IntOpenHashMap<String> owners;
+    private volatile long checkedAt;
+    private volatile boolean released;
+
+    private ClassPathJars(List<Root> roots) {
+        this.roots = roots;
+        this.archives = new JarArchive[roots.size()];
+        this.owners = new Object2IntOpenHashMap<>();
+        owners.defaultReturnValue(-1);
+        for (var i = 0; i < roots.size(); i++) {
+            var root = roots.get(i);
+            if (root.size() < 0) continue;
+            var archive = ARCHIVES.compute(root.path(), (path, existing) -> {
+                if (existing != null && existing.size == root.size() && existing.modified == root.modified()) {
+                    existing.views++;
+                    return existing;
+                }
+                // Rebuilt in place; views still holding the old mapping fall back to ZipFile
+                if (existing != null) existing.close();
+                var opened = JarArchive.open(path, root.size(), root.modified());
+                if (opened != null) opened.views++;
+                return opened;
+            });
+            archives[i] = archive;
+            if (archive == null) continue;
+            for (var name : archive.names()) {
+                if (name.endsWith(".class")) owners.putIfAbsent(name, i);
+            }
+        }
+        owners.trim();
+    }
+
+    /** Drop this view's hold on its archives, closing those no other cached view holds. */
+    private void release() {
+        released = true;
+        for (var archive : archives) {
+            if (archive == null) continue;
+            ARCHIVES.compute(archive.path, (path, existing) -> {
+                if (--archive.views > 0) return existing;
+                archive.close();
+                return existing == archive ? null : existing;
+            });
+        }
+    }
+
+    /**
+     * Note that a jar may have been rebuilt, replaced or deleted, e.g. on a watched-file or build file
+     * event. Views check their roots again the next time they are asked for {@link #current}.
+     */
+    public static void changed() {
+        GENERATION.incrementAndGet();
+    }
+
+    /** True if no {@link #changed} came since this view's roots were checked, and its mappings are open. */
+    public boolean isCurrent() {
+        return !released && checkedAt == GENERATION.get();
+    }
+
+    /** This view, or a fresh one of the same roots if a jar changed since; see {@link #isCurrent}. */
+    public ClassPathJars current() {
+        if (isCurrent()) return this;
+        var paths = new ArrayList<Path>(roots.size());
+        for (var root : roots) {
+            paths.add(root.path());
+        }
+        return of(paths);
+    }
+
+    /** The shared view of {@code classPath}, in its iteration order; stats every root. */
+    public static ClassPathJars of(Collection<Path> classPath) {
+        var generation = GENERATION.get();
+        var roots = new ArrayList<Root>(classPath.size());
+        for (var path : classPath) {
+            roots.add(root(path));
+        }
+        var key = List.copyOf(roots);
+        var cached = SHARED.getIfPresent(key);
+        if (cached != null && !cached.released) {
+            CacheAudit.hit("classpath_jars");
+            cached.checkedAt = generation;
+            return cached;
+        }
+        CacheAudit.miss("classpath_jars");
+        var started = System.nanoTime();
+        var built = SHARED.get(key, ClassPathJars::new);
+        built.checkedAt = generation;
+        LOG.info(String.format("[perf] classpath_jars roots=%d classes=%d took=%dms",
+                key.size(), built.owners.size(), (System.nanoTime() - started) / 1_000_000));
+        return built;
+    }
+
+    private static Root root(Path path) {
+        try {
+            var attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            if (attributes.isDirectory()) return new Root(path, -1, -1);
+            return new Root(path, attributes.size(), attributes.lastModifiedTime().toMillis());
+        } catch (IOException e) {
+            // Missing; treated like an empty directory
+            return new Root(path, -1, -1);
+        }
+    }
+
+    /** The bytes of {@code relative} ({@code a/b/C.class}) from the first root that has it. */
+    public Optional<byte[]> read(String relative) {
+        var jar = owners.getInt(relative);
+        var directory = directoryBefore(jar, relative);
+        if (directory != -1) {
+            var file = roots.get(directory).path().resolve(relative);
+            try {
+                return Optional.of(Files.readAllBytes(file));
+            } catch (IOException e) {
+                LOG.fine("[classfile] failed to read " + file + ": " + e.getMessage());
+            }
+        }
+        if (jar == -1) return Optional.empty();
+        return Optional.ofNullable(archives[jar].read(relative));
+    }
+
+    /** The class path root that {@code relative} would be loaded from. */
+    public Optional<Path> rootOf(String relative) {
+        var jar = owners.getInt(relative);
+        var directory = directoryBefore(jar, relative);
+        if (directory != -1) return Optional.of(roots.get(directory).path());
+        if (jar == -1) return Optional.empty();
+        return Optional.of(roots.get(jar).path());
+    }
+
+    /** A readable jar on the class path, with the size and modification time it was mapped at. */
+    public record Archive(Path path, long size, long modified) {}
+
+    /** Every readable jar root, in class path order. */
+    public List<Archive> archives() {
+        var result = new ArrayList<Archive>();
+        for (var archive : archives) {
+            if (archive != null) result.add(new Archive(archive.path, archive.size, archive.modified));
+        }
+        return result;
+    }
+
+    /** Class file names ({@code a/b/C$D.class}) in {@code archive}, one of {@link #archives}. */
+    public List<String> classFiles(Archive archive) {
+        var jar = archive(archive);
+        if (jar == null) return List.of();
+        var names = new ArrayList<String>();
+        for (var name : jar.names()) {
+            if (name.endsWith(".class") && !name.startsWith("META-INF/")) names.add(name);
+        }
+        return names;
+    }
+
+    /** The bytes of {@code relative} from {@code archive} itself, even if an earlier root shadows it. */
+    public Optional<byte[]> read(Archive archive, String relative) {
+        var jar = archive(archive);
+        return jar == null ? Optional.empty() : Optional.ofNullable(jar.read(relative));
+    }
+
+    private JarArchive archive(Archive archive) {
+        for (var jar : archives) {
+            if (jar != null && jar.path.equals(archive.path())) return jar;
+        }
+        return null;
+    }
+
+    /** Index of a directory root before root {@code jar} (or anywhere, if -1) that has {@code relative}. */
+    private int directoryBefore(int jar, String relative) {
+        var end = jar == -1 ? roots.size() : jar;
+        for (var i = 0; i < end; i++) {
+            if (roots.get(i).size() >= 0) continue;
+            if (Files.isRegularFile(roots.get(i).path().resolve(relative))) return i;
+        }
+        return -1;
+    }
+}
@@ -3,87 +3,191 @@ package org.javacs;
 import com.sun.source.tree.*;
 import com.sun.source.util.*;
 import com.sun.tools.javac.api.JavacTaskImpl;
+import com.sun.tools.javac.code.Symtab;
 import com.sun.tools.javac.main.JavaCompiler;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 import javax.lang.model.element.Modifier;
 import javax.lang.model.util.*;
 import javax.tools.*;
+import org.javacs.lsp.CancelToken;
 
 public class CompileBatch implements AutoCloseable {
     private static final Logger LOG = Logger.getLogger("main");
 
     final JavaCompilerService parent;
     boolean closed;
+    private final ReusableCompiler.Borrow borrow;
+    /** Open {@link CompileTask}s plus the owner (the compile cache, or the single caller). */
+    private int references = 1;
+    /** Token of the request using the batch now, which javac's phase events check; see {@link #retain()}. */
+    private volatile CancelToken cancel;
 
     final JavacTask task;
     final Trees trees;
     final Elements elements;
     final Types types;
     final List<CompilationUnitTree> roots;
+    /** The sources as passed in; javac wraps them, so {@code roots} don't expose these objects. */
+    final List<JavaFileObject> sources;
     final List<Diagnostic<? extends JavaFileObject>> diagnostics;
+    /** True if every root went through attribution and flow without javac failing. */
+    final boolean attributed;
+    /**
+     * Workspace sources this batch was built from: the files javac parsed, plus the sources of the
+     * workspace classes it loaded from the build output.
+     */
+    final Set<Path> dependencies;
+    /** {@link JavaCompilerService#classPathGeneration} of the class path this batch compiled against. */
+    final long classPathGeneration;
+
     CompileBatch(JavaCompilerService parent, Collection<? extends JavaFileObject> files) {
+        this(parent, files, parent.compiler, parent.fileManager, parent.diags);
+    }
+
+    /**
+     * Compile on a context from {@code pool} with {@code fileManager}. Batches that must not touch the
+     * compile lock's state, like the reference search workers, bring their own of both plus their own
+     * {@code diags} collector.
+     */
+    CompileBatch(
+            JavaCompilerService parent,
+            Collection<? extends JavaFileObject> files,
+            ReusableCompiler pool,
+            SourceFileManager fileManager,
+            List<Diagnostic<? extends JavaFileObject>> diags) {
         this.parent = parent;
+        this.sources = List.copyOf(files);
         LOG.info("[compile] CompileBatch — starting compile of " + files.size() + " file(s)");
-        parent.diags.clear();
+        diags.clear();
+        // Read before the class path; swapClassPath replaces the class path first
+        this.classPathGeneration = parent.classPathGeneration;
         var options = options(parent.classPath, parent.addExports, parent.extraArgs);
 
-        // single mutable holder to extract result from worker lambda
-        var holder = new Object() {
-            JavacTask task;
-            Trees trees;
-            Elements elements;
-            Types types;
-            List<CompilationUnitTree> roots;
-        };
+        this.borrow = pool.borrow(fileManager, diags::add, options, files);
+        this.task = borrow.task;
+        var cancel = CancelToken.current();
+        this.cancel = cancel;
+        task.addTaskListener(new CancelListener(this));
+        var parsed = new HashSet<Path>();
+        task.addTaskListener(new DependencyListener(parsed));
+        this.trees = Trees.instance(task);
+        this.elements = task.getElements();
+        this.types = task.getTypes();
+        this.roots = new ArrayList<>();
+        var analyzed = false;
+        var started = System.nanoTime();
+        try {
+            for (var t : task.parse()) {
+                roots.add(t);
+            }
+            cancel.checkCancelled();
+            try {
+                var impl = (JavacTaskImpl) task;
+                impl.enter();
+                var entered = System.nanoTime();
+                var compiler = JavaCompiler.instance(impl.getContext());
+                var attr = compiler.attribute(compiler.todo);
+                compiler.flow(attr);
+                analyzed = true;
+                LOG.info(String.format("[perf] compile_batch roots=%d parse_enter=%dms attribute_flow=%dms",
+                        roots.size(), (entered - started) / 1_000_000, (System.nanoTime() - entered) / 1_000_000));
+            } catch (Throwable e) {
+                borrow.markBroken();
+                if (isCancellation(e)) throw new CancellationException();
+                LOG.warning("[compiler] analyze failed: "
+                        + e.getClass().getName() + ": " + e.getMessage());
+            }
+        } catch (IOException | RuntimeException e) {
+            borrow.markBroken();
+            borrow.close();
+            if (isCancellation(e)) {
+                LOG.info("[compile] CompileBatch cancelled after " + roots.size() + " parsed file(s)");
+                throw new CancellationException();
+            }
+            if (e instanceof RuntimeException runtime) throw runtime;
+            throw new RuntimeException(e);
+        }
+        this.diagnostics = new ArrayList<>(diags);
+        this.attributed = analyzed;
+        addBuildOutputSources(parsed);
+        this.dependencies = Set.copyOf(parsed);
+        // The compile is done; later work on the batch is cancelled by whoever retains it
+        this.cancel = CancelToken.NONE;
+    }
 
-        parent.compiler.compile(
-                parent.fileManager,
-                parent.diags::add,
-                options,
-                files,
-                task -> {
-                    holder.task = task;
-                    holder.trees = Trees.instance(task);
-                    holder.elements = task.getElements();
-                    holder.types = task.getTypes();
-                    holder.roots = new ArrayList<>();
-                    try {
-                        for (var t : task.parse()) {
-                            holder.roots.add(t);
-                        }
-                        try {
-                            var impl = (JavacTaskImpl) task;
-                            impl.enter();
-                            var compiler = JavaCompiler.instance(impl.getContext());
-                            var attr = compiler.attribute(compiler.todo);
-                            compiler.flow(attr);
-                        } catch (Throwable e) {
-                            LOG.warning("[compiler] analyze failed: "
-                                    + e.getClass().getName() + ": " + e.getMessage());
-                        }
-                    } catch (IOException e) {
-                        throw new RuntimeException(e);
-                    }
-                    return null;
-                });
+    /**
+     * Adds the sources of every class javac read from a class directory, i.e. the workspace build
+     * output rather than a jar or the JDK. A class is matched to the file named after its top-level
+     * class, or to its whole package when no such file exists.
+     */
+    private void addBuildOutputSources(Set<Path> into) {
+        var context = ((JavacTaskImpl) task).getContext();
+        var seen = new HashSet<String>();
+        for (var c : Symtab.instance(context).getAllClasses()) {
+            if (c.classfile == null || !"file".equals(c.classfile.toUri().getScheme())) continue;
+            var outer = c.outermostClass();
+            var packageName = outer.packge().getQualifiedName().toString();
+            if (!seen.add(packageName + "/" + outer.getSimpleName())) continue;
+            var sources = FileStore.list(packageName);
+            var fileName = outer.getSimpleName() + ".java";
+            var matched = false;
+            for (var file : sources) {
+                if (file.getFileName().toString().equals(fileName)) {
+                    into.add(file);
+                    matched = true;
+                }
+            }
+            if (!matched) into.addAll(sources);
+        }
+    }
 
-        this.task = holder.task;
-        this.trees = holder.trees;
-        this.elements = holder.elements;
-        this.types = holder.types;
-        this.roots = holder.roots;
-        this.diagnostics = new ArrayList<>(parent.diags);
+    /** Records every workspace source javac parses, whether it was asked to or found it on the source path. */
+    private record DependencyListener(Set<Path> parsed) implements TaskListener {
+        @Override
+        public void finished(TaskEvent e) {
+            if (e.getKind() != TaskEvent.Kind.PARSE || e.getSourceFile() == null) return;
+            var uri = e.getSourceFile().toUri();
+            if (!"file".equals(uri.getScheme())) return;
+            parsed.add(Paths.get(uri));
+        }
+    }
+
+    /**
+     * Abandons the compile at the next javac phase boundary (each file's parse and enter, each class's
+     * attribution and flow) once the request using the batch has been cancelled. A cached batch outlives the
+     * request that built it, so the token is looked up on every event rather than captured.
+     */
+    private record CancelListener(CompileBatch batch) implements TaskListener {
+        @Override
+        public void started(TaskEvent e) {
+            batch.cancel.checkCancelled();
+        }
+
+        @Override
+        public void finished(TaskEvent e) {
+            batch.cancel.checkCancelled();
+        }
+    }
+
+    /** javac wraps exceptions thrown by listeners in {@code ClientCodeException}; look through it. */
+    private static boolean isCancellation(Throwable e) {
+        for (var cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof CancellationException) return true;
+        }
+        return false;
     }
 
     Set<Path> needsAdditionalSources() {
         var addFiles = new HashSet<Path>();
-        for (var err : parent.diags) {
+        for (var err : diagnostics) {
             var code = err.getCode();
             if (code.equals("compiler.err.cant.resolve.location")) {
                 if (!isValidFileRange(err)) continue;
@@ -180,9 +284,50 @@ public class CompileBatch implements AutoCloseable {
         return FILE_NOT_FOUND;
     }
 
+    /**
+     * True if every one of {@code files} was compiled in this batch with its full text. The cache is keyed by the
+     * first file only. A supporting file compiled without its method bodies doesn't count, since a caller that
+     * asked for it will look inside them.
+     */
+    boolean covers(Collection<? extends JavaFileObject> files) {
+        var compiled = new HashSet<java.net.URI>();
+        for (var source : sources) {
+            if (source instanceof SourceFileObject s && s.signaturesOnly) continue;
+            compiled.add(source.toUri());
+        }
+        for (var file : files) {
+            if (!compiled.contains(file.toUri())) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Registers another user and returns its release. The release gives the reference back the first
+     * time it runs and does nothing after that, so a task closed twice can't drop the owner's reference.
+     *
+     * <p>Until then, javac work on the batch (such as symbols completed lazily from the source path) is
+     * cancelled with the calling thread's {@link CancelToken} rather than that of the request that built
+     * the batch, and the release detaches it again.
+     */
+    synchronized Runnable retain() {
+        if (closed) throw new IllegalStateException("batch already closed");
+        references++;
+        var previous = cancel;
+        cancel = CancelToken.current();
+        var released = new AtomicBoolean();
+        return () -> {
+            if (!released.compareAndSet(false, true)) return;
+            cancel = previous;
+            close();
+        };
+    }
+
+    /** Drops one reference; the last one hands the javac context back for reuse. */
     @Override
-    public void close() {
+    public synchronized void close() {
+        if (closed || --references > 0) return;
         closed = true;
+        borrow.close();
     }
 
     static List<String> options(Set<Path> classPath, Set<String> addExports, List<String> extraArgs) {
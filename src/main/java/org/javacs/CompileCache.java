@@ -0,0 +1,152 @@
+package org.javacs;
+
+import java.net.URI;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.logging.Logger;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Compiled batches kept for reuse, keyed by the first source like the requests that ask for them.
+ *
+ * <p>A batch stays valid until one of its {@link CompileBatch#dependencies} changes in
+ * {@link FileStore}, so typing in one file leaves the batches of unrelated files alone. Batches that
+ * failed to resolve something are dropped on any change, because the change may be what declares the
+ * missing symbol, and so are all batches when the change history is gone.
+ *
+ * <p>The cache is sized by an estimate of retained memory: every batch pins a javac context full of
+ * completed classpath symbols, plus the trees of what it compiled. The estimate is only rough, and a
+ * context on a large classpath can weigh several times {@link #CONTEXT_BYTES}, so the number of
+ * batches, and with it the number of live javac contexts, is also capped at {@link #MAX_BATCHES}
+ * however large the heap. The most recently used batch is always kept, whatever it weighs.
+ *
+ * <p>Not thread-safe; callers hold the compile lock. The cache owns one reference to each batch and
+ * closes it on eviction.
+ */
+final class CompileCache {
+    private static final Logger LOG = Logger.getLogger("main");
+
+    /** Rough retained size of a javac context with the JDK and a typical classpath completed. */
+    static final long CONTEXT_BYTES = 32L << 20;
+    /** Rough retained size of one attributed compilation unit. */
+    static final long ROOT_BYTES = 2L << 20;
+    /** Rough retained size of one source javac only parsed and entered to resolve symbols. */
+    static final long DEPENDENCY_BYTES = 256L << 10;
+    /** Batches kept at most, whatever the budget; each holds its own javac context. */
+    static final int MAX_BATCHES = 6;
+
+    private record Entry(CompileBatch batch, long revision, long weight) {}
+
+    private final long budget;
+    private final int maxBatches;
+    private final LinkedHashMap<URI, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight;
+    private long sweptRevision = -1;
+
+    CompileCache() {
+        this(Runtime.getRuntime().maxMemory() / 4);
+    }
+
+    CompileCache(long budget) {
+        this(budget, MAX_BATCHES);
+    }
+
+    CompileCache(long budget, int maxBatches) {
+        this.budget = budget;
+        this.maxBatches = maxBatches;
+    }
+
+    /** A batch that compiled all of {@code sources} and is still current, or null. */
+    CompileBatch get(Collection<? extends JavaFileObject> sources) {
+        sweep();
+        var key = sources.iterator().next().toUri();
+        var entry = entries.get(key);
+        if (entry == null || !entry.batch.covers(sources)) return null;
+        return entry.batch;
+    }
+
+    /** Cache {@code batch}, compiled from the contents at {@code revision}, replacing any for the same key. */
+    void put(Collection<? extends JavaFileObject> sources, CompileBatch batch, long revision) {
+        var key = sources.iterator().next().toUri();
+        var entry = new Entry(batch, revision, weigh(batch));
+        var previous = entries.put(key, entry);
+        weight += entry.weight;
+        if (previous != null) drop(previous);
+        var evicted = 0;
+        for (var it = entries.values().iterator();
+                (weight > budget || entries.size() > maxBatches) && entries.size() > 1; ) {
+            var eldest = it.next();
+            it.remove();
+            drop(eldest);
+            evicted++;
+        }
+        if (evicted > 0) {
+            LOG.info(String.format("[perf] compile_cache evicted=%d kept=%d max=%d weight=%dMB budget=%dMB",
+                    evicted, entries.size(), maxBatches, weight >> 20, budget >> 20));
+        }
+    }
+
+    void clear() {
+        for (var entry : entries.values()) entry.batch.close();
+        entries.clear();
+        weight = 0;
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    /** Drop every batch an edit since it was compiled may have changed. */
+    private void sweep() {
+        var current = FileStore.contentRevision();
+        if (current == sweptRevision) return;
+        sweptRevision = current;
+        var invalidated = 0;
+        for (var it = entries.entrySet().iterator(); it.hasNext(); ) {
+            var e = it.next();
+            var entry = e.getValue();
+            if (entry.revision == current) continue;
+            if (isStale(entry)) {
+                it.remove();
+                drop(entry);
+                invalidated++;
+            } else {
+                // Later checks only need the changes after this one, which keeps them in the log
+                e.setValue(new Entry(entry.batch, current, entry.weight));
+            }
+        }
+        if (invalidated > 0) {
+            LOG.info(String.format("[cache] compile_cache invalidated=%d kept=%d revision=%d",
+                    invalidated, entries.size(), current));
+        }
+    }
+
+    private static boolean isStale(Entry entry) {
+        var changed = FileStore.changedSince(entry.revision);
+        if (changed.isEmpty()) return true;
+        if (changed.get().isEmpty()) return false;
+        if (hasErrors(entry.batch)) return true;
+        for (var file : changed.get()) {
+            if (entry.batch.dependencies.contains(file)) return true;
+        }
+        return false;
+    }
+
+    private static boolean hasErrors(CompileBatch batch) {
+        for (var d : batch.diagnostics) {
+            if (d.getKind() == Diagnostic.Kind.ERROR) return true;
+        }
+        return false;
+    }
+
+    private void drop(Entry entry) {
+        weight -= entry.weight;
+        entry.batch.close();
+    }
+
+    private static long weigh(CompileBatch batch) {
+        var implicit = Math.max(0, batch.dependencies.size() - batch.roots.size());
+        return CONTEXT_BYTES + batch.roots.size() * ROOT_BYTES + implicit * DEPENDENCY_BYTES;
+    }
+}
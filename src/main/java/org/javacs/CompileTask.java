@@ -21,6 +21,7 @@ public class CompileTask implements AutoCloseable {
     public final List<CompilationUnitTree> roots;
     public final List<Diagnostic<? extends JavaFileObject>> diagnostics;
     private final Runnable close;
+    private boolean closed;
 
     public CompilationUnitTree root() {
         if (roots.isEmpty()) throw new RuntimeException("0");
@@ -61,8 +62,11 @@ public class CompileTask implements AutoCloseable {
         this.close = close;
     }
 
+    /** Idempotent: callers that hand the compiler back early still close the task on the way out. */
     @Override
     public void close() {
+        if (closed) return;
+        closed = true;
         close.run();
     }
 }
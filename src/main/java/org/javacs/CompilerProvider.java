@@ -7,13 +7,21 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
 import javax.tools.JavaFileObject;
+import org.javacs.lsp.SymbolInformation;
 
 public interface CompilerProvider {
     Set<String> imports();
 
     List<String> publicTopLevelTypes();
 
+    /** Top-level classes whose simple name matches {@code partial}, best matches first; see {@link ClassNameIndex}. */
+    default List<String> topLevelTypesMatching(String partial) {
+        return ClassNameIndex.of(publicTopLevelTypes()).matching(partial);
+    }
+
     default Set<Path> classPathRoots() {
         return Set.of();
     }
@@ -22,6 +30,11 @@ public interface CompilerProvider {
 
     Iterable<Path> search(String query);
 
+    /** Declarations matching {@code query} from an index, or empty if callers must {@link #search} files. */
+    default Optional<List<SymbolInformation>> searchSymbols(String query, int limit) {
+        return Optional.empty();
+    }
+
     Optional<JavaFileObject> findAnywhere(String className);
 
     Path findTypeDeclaration(String className);
@@ -42,6 +55,22 @@ public interface CompilerProvider {
         return compile(files);
     }
 
+    /**
+     * Compile each chunk on its own and apply {@code work} (given the chunk's index) while it is open.
+     * Results reach {@code onResult} on the calling thread as each chunk finishes. Chunks may be
+     * compiled in parallel, so {@code work} must not call back into this provider.
+     */
+    default <T> void compileChunks(
+            List<List<Path>> chunks, BiFunction<Integer, CompileTask, T> work, Consumer<? super T> onResult) {
+        for (var i = 0; i < chunks.size(); i++) {
+            T result;
+            try (var task = compileFresh(chunks.get(i).toArray(Path[]::new))) {
+                result = work.apply(i, task);
+            }
+            onResult.accept(result);
+        }
+    }
+
     default List<ParseTask> parseAll(Collection<Path> files) {
         var result = new ArrayList<ParseTask>(files.size());
         for (var file : files) {
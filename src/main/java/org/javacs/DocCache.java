@@ -0,0 +1,264 @@
+package org.javacs;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.sun.source.tree.MethodTree;
+import com.sun.source.tree.Tree;
+import com.sun.source.util.DocTrees;
+import com.sun.source.util.Trees;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+import javax.tools.JavaFileObject;
+
+/**
+ * Rendered javadoc, keyed by symbol and by the fingerprint of the source it was read from.
+ *
+ * <p>Rendering a doc comment means finding the source (often inside {@code src.zip}), parsing it and
+ * turning the comment into Markdown through an HTML DOM, which is most of the cost of hover and
+ * completion-item resolve for JDK and dependency symbols. Entries are keyed by the source's URI and
+ * modification time, so an edited or upgraded source simply misses.
+ *
+ * <p>Entries read from archives (JDK {@code src.zip}, source jars) are also written to
+ * {@code <cacheDir>/docs/javadoc.bin} and read back on the first lookup after a restart. Workspace
+ * sources change constantly and are cheap to re-render, so they only live in memory.
+ */
+public final class DocCache {
+    private static final Logger LOG = Logger.getLogger("main");
+    private static final String METRIC = "docs.rendered";
+    private static final int MAGIC = 0x4a4c4443; // "JLDC"
+    static final int FORMAT_VERSION = 1;
+    private static final String FILE_NAME = "javadoc.bin";
+    private static final long MAX_ENTRIES = 20_000;
+    static final long SAVE_DELAY_MS = 5_000;
+
+    /** Detail line and Markdown documentation for one symbol; either may be null. */
+    public record Rendered(String detail, String markdown) {}
+
+    /** Cached result for symbols that have no source declaration or no doc comment. */
+    public static final Rendered NONE = new Rendered(null, null);
+
+    private static final Cache<String, Rendered> CACHE = Caffeine.newBuilder().maximumSize(MAX_ENTRIES).build();
+
+    private static final ScheduledExecutorService SAVER =
+            Executors.newSingleThreadScheduledExecutor(
+                    Thread.ofPlatform().daemon().name("jls-doc-cache-save").factory());
+
+    /** Prewarm renders whole types; one thread keeps it from competing with requests. */
+    private static final ExecutorService PREWARM =
+            Executors.newSingleThreadExecutor(Thread.ofPlatform().daemon().name("jls-doc-prewarm").factory());
+
+    private static final Set<Path> PENDING_PREWARM = ConcurrentHashMap.newKeySet();
+    private static final AtomicBoolean diskLoaded = new AtomicBoolean();
+    private static final AtomicBoolean saveScheduled = new AtomicBoolean();
+    private static volatile boolean dirty;
+
+    private DocCache() {}
+
+    /** Stable key of a type, field or method, in the form completion items carry. */
+    public static String symbolKey(String className, String memberName, String[] erasedParameterTypes) {
+        var key = new StringBuilder(className);
+        if (memberName != null) key.append('#').append(memberName);
+        if (erasedParameterTypes != null) key.append('(').append(String.join(",", erasedParameterTypes)).append(')');
+        return key.toString();
+    }
+
+    /**
+     * Rendered docs for {@code symbolKey} as declared in {@code source}, calling {@code render} on a
+     * miss. {@code render} returns {@link #NONE} rather than null when there is nothing to show.
+     */
+    public static Rendered get(JavaFileObject source, String symbolKey, Supplier<Rendered> render) {
+        loadDiskTierSoon();
+        var key = fingerprint(source) + '|' + symbolKey;
+        var cached = CACHE.getIfPresent(key);
+        if (cached != null) {
+            CacheAudit.hit(METRIC);
+            return cached;
+        }
+        CacheAudit.miss(METRIC);
+        var rendered = render.get();
+        if (rendered == null) rendered = NONE;
+        CACHE.put(key, rendered);
+        CacheAudit.store(METRIC);
+        if (isArchive(key)) {
+            dirty = true;
+            saveSoon();
+        }
+        return rendered;
+    }
+
+    /** Detail line (methods only) and rendered doc comment of {@code declaration} in {@code parse}. */
+    public static Rendered render(ParseTask parse, Tree declaration) {
+        String detail = null;
+        if (declaration instanceof MethodTree method) {
+            var parameters = new StringJoiner(", ");
+            for (var p : method.getParameters()) {
+                parameters.add(p.getType() + " " + p.getName());
+            }
+            detail = method.getReturnType() + " " + method.getName() + "(" + parameters + ")";
+            if (!method.getThrows().isEmpty()) {
+                var exceptions = new StringJoiner(", ");
+                for (var e : method.getThrows()) {
+                    exceptions.add(e.toString());
+                }
+                detail += " throws " + exceptions;
+            }
+        }
+        var path = Trees.instance(parse.task()).getPath(parse.root(), declaration);
+        var docTree = path == null ? null : DocTrees.instance(parse.task()).getDocCommentTree(path);
+        var markdown = docTree == null ? null : MarkdownHelper.asMarkdown(docTree);
+        return detail == null && markdown == null ? NONE : new Rendered(detail, markdown);
+    }
+
+    /** Run {@code work} for {@code file} in the background, unless a prewarm for it is already queued. */
+    public static void prewarm(Path file, Runnable work) {
+        if (!PENDING_PREWARM.add(file)) return;
+        PREWARM.submit(() -> {
+            PENDING_PREWARM.remove(file);
+            var started = System.nanoTime();
+            try {
+                work.run();
+            } catch (RuntimeException e) {
+                LOG.fine(String.format("[docs] prewarm failed file=%s reason=%s", file.getFileName(), e));
+            }
+            LOG.info(String.format("[perf] doc_prewarm file=%s cached=%d took=%dms",
+                    file.getFileName(), CACHE.estimatedSize(), (System.nanoTime() - started) / 1_000_000));
+        });
+    }
+
+    /**
+     * Open documents are keyed by version and text, since two edits can land in the same millisecond;
+     * files on disk by modification time.
+     */
+    private static String fingerprint(JavaFileObject source) {
+        if (source instanceof SourceFileObject file && file.contents != null) {
+            return source.toUri() + "@v" + file.version + "#" + Integer.toHexString(file.contents.hashCode());
+        }
+        return source.toUri() + "@" + source.getLastModified();
+    }
+
+    private static boolean isArchive(String key) {
+        return key.startsWith("jar:");
+    }
+
+    static void clear() {
+        CACHE.invalidateAll();
+    }
+
+    private static Path diskFile() {
+        return CacheDirectories.root().map(dir -> dir.resolve("docs").resolve(FILE_NAME)).orElse(null);
+    }
+
+    private static void loadDiskTierSoon() {
+        if (diskLoaded.get() || !diskLoaded.compareAndSet(false, true)) return;
+        var file = diskFile();
+        if (file == null) return;
+        SAVER.submit(() -> load(file));
+    }
+
+    private static void saveSoon() {
+        if (diskFile() == null || !saveScheduled.compareAndSet(false, true)) return;
+        SAVER.schedule(
+                () -> {
+                    saveScheduled.set(false);
+                    save(diskFile());
+                },
+                SAVE_DELAY_MS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    static void load(Path file) {
+        if (file == null || !Files.isRegularFile(file)) return;
+        var started = System.nanoTime();
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                LOG.info(String.format("[docs] ignoring %s: unknown format", file));
+                return;
+            }
+            var count = in.readInt();
+            for (var i = 0; i < count; i++) {
+                var key = readString(in);
+                var rendered = new Rendered(readString(in), readString(in));
+                // Anything rendered since startup is at least as fresh as the saved copy
+                CACHE.asMap().putIfAbsent(key, rendered);
+            }
+            CacheAudit.load(METRIC);
+            LOG.info(String.format("[perf] doc_cache_load entries=%d took=%dms",
+                    count, (System.nanoTime() - started) / 1_000_000));
+        } catch (NoSuchFileException e) {
+            // Nothing saved yet
+        } catch (IOException | RuntimeException e) {
+            LOG.warning(String.format("[docs] discarding unreadable cache %s: %s", file, e.getMessage()));
+        }
+    }
+
+    static void save(Path file) {
+        if (file == null || !dirty) return;
+        dirty = false;
+        var entries = new ArrayList<Map.Entry<String, Rendered>>();
+        for (var e : CACHE.asMap().entrySet()) {
+            if (isArchive(e.getKey())) entries.add(e);
+        }
+        var started = System.nanoTime();
+        try {
+            Files.createDirectories(file.getParent());
+            var tmp = Files.createTempFile(file.getParent(), FILE_NAME, ".tmp");
+            try {
+                try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+                    out.writeInt(MAGIC);
+                    out.writeInt(FORMAT_VERSION);
+                    out.writeInt(entries.size());
+                    for (var e : entries) {
+                        writeString(out, e.getKey());
+                        writeString(out, e.getValue().detail());
+                        writeString(out, e.getValue().markdown());
+                    }
+                }
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+            LOG.info(String.format("[perf] doc_cache_save entries=%d took=%dms",
+                    entries.size(), (System.nanoTime() - started) / 1_000_000));
+        } catch (IOException e) {
+            LOG.warning(String.format("[docs] failed to write %s: %s", file, e.getMessage()));
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        var bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        var length = in.readInt();
+        if (length < 0) return null;
+        var bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
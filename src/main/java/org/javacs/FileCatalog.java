@@ -0,0 +1,118 @@
+package org.javacs;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * What {@link FileStore} learned about each source file under a workspace root, saved between runs.
+ *
+ * <p>Finding a file's package means opening it, which dominates startup on a cold or network-backed
+ * checkout. A file whose modification time and size still match its entry keeps the saved package,
+ * so a warm start is a stat of every file rather than a read. The same goes for whether the file
+ * imports Lombok, which decides if the compiler loads the Lombok annotation processor.
+ */
+final class FileCatalog {
+    private static final Logger LOG = Logger.getLogger("main");
+    private static final int MAGIC = 0x4a4c4643; // "JLFC"
+    static final int FORMAT_VERSION = 2;
+    private static final String FILE_NAME = "file-catalog.bin";
+
+    record Entry(long modified, long size, String packageName, boolean importsLombok) {}
+
+    static final FileCatalog DISABLED = new FileCatalog(null);
+
+    private final Path file;
+
+    FileCatalog(Path file) {
+        this.file = file;
+    }
+
+    /** Catalog of {@code workspaceRoot}, or {@link #DISABLED} when persistent caches are off. */
+    static FileCatalog forWorkspace(Path workspaceRoot) {
+        return CacheDirectories.workspace(workspaceRoot)
+                .map(dir -> new FileCatalog(dir.resolve(FILE_NAME)))
+                .orElse(DISABLED);
+    }
+
+    /** The saved entries, or none if there is no catalog or it cannot be read. */
+    Map<Path, Entry> load() {
+        if (file == null || !Files.isRegularFile(file)) {
+            return Map.of();
+        }
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                LOG.info(String.format("[file-catalog] ignoring %s: unknown format", file));
+                return Map.of();
+            }
+            var packages = new ArrayList<String>();
+            var count = in.readInt();
+            var entries = new HashMap<Path, Entry>(count * 2);
+            for (var i = 0; i < count; i++) {
+                var path = Paths.get(in.readUTF());
+                var modified = in.readLong();
+                var size = in.readLong();
+                // Packages repeat, so each is written once and then referred to by number
+                var packageId = in.readInt();
+                if (packageId == packages.size()) packages.add(in.readUTF());
+                var importsLombok = in.readBoolean();
+                entries.put(path, new Entry(modified, size, packages.get(packageId), importsLombok));
+            }
+            return entries;
+        } catch (NoSuchFileException e) {
+            return Map.of();
+        } catch (IOException | RuntimeException e) {
+            LOG.warning(String.format("[file-catalog] discarding unreadable catalog %s: %s", file, e.getMessage()));
+            return Map.of();
+        }
+    }
+
+    void save(Map<Path, Entry> entries) {
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.createDirectories(file.getParent());
+            var tmp = Files.createTempFile(file.getParent(), FILE_NAME, ".tmp");
+            try {
+                try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+                    out.writeInt(MAGIC);
+                    out.writeInt(FORMAT_VERSION);
+                    out.writeInt(entries.size());
+                    var packages = new HashMap<String, Integer>();
+                    for (var e : entries.entrySet()) {
+                        out.writeUTF(e.getKey().toString());
+                        out.writeLong(e.getValue().modified());
+                        out.writeLong(e.getValue().size());
+                        var packageName = e.getValue().packageName();
+                        var packageId = packages.get(packageName);
+                        if (packageId != null) {
+                            out.writeInt(packageId);
+                        } else {
+                            out.writeInt(packages.size());
+                            out.writeUTF(packageName);
+                            packages.put(packageName, packages.size());
+                        }
+                        out.writeBoolean(e.getValue().importsLombok());
+                    }
+                }
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        } catch (IOException e) {
+            LOG.warning(String.format("[file-catalog] failed to write %s: %s", file, e.getMessage()));
+        }
+    }
+}
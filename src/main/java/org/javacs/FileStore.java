@@ -8,6 +8,9 @@ import java.nio.file.attribute.*;
 import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListMap;
@@ -27,6 +30,11 @@ public class FileStore {
     private static final Map<Path, VersionedContent> activeDocuments = new ConcurrentHashMap<>();
     private static final Set<Path> dirtyDocuments = ConcurrentHashMap.newKeySet();
     private static final AtomicLong contentRevision = new AtomicLong();
+    /** The file each recent revision touched, so indexes can catch up without rechecking every file. */
+    private static final ConcurrentSkipListMap<Long, Path> changeLog = new ConcurrentSkipListMap<>();
+    /** Revisions before this one are not in {@link #changeLog}: they were trimmed, or changed everything. */
+    private static volatile long changeLogStart;
+    private static final int MAX_CHANGE_LOG = 4096;
 
     /** javaSources[file] is the javaSources time of a .java source file. */
     private static final ConcurrentSkipListMap<Path, Info> javaSources = new ConcurrentSkipListMap<>();
@@ -34,16 +42,25 @@ public class FileStore {
     private static final ConcurrentHashMap<String, CopyOnWriteArrayList<Path>>
             packageIndex = new ConcurrentHashMap<>();
 
+    /** How many files in {@link #javaSources} count toward {@link #workspaceUsesLombok()}. */
+    private static final AtomicInteger lombokImports = new AtomicInteger();
+
     private static class Info {
         final Instant modified;
         final String packageName;
+        final boolean importsLombok;
 
-        Info(Instant modified, String packageName) {
+        Info(Instant modified, String packageName, boolean importsLombok) {
             this.modified = modified;
             this.packageName = packageName;
+            this.importsLombok = importsLombok;
         }
     }
 
+    /** Crawls list directories in parallel; on a network file system most of a crawl is waiting. */
+    private static final ForkJoinPool CRAWLERS =
+            new ForkJoinPool(Math.max(4, Runtime.getRuntime().availableProcessors()));
+
     static Set<Path> workspaceRoots() {
         return Set.copyOf(workspaceRoots);
     }
@@ -52,9 +69,10 @@ public class FileStore {
         newRoots = normalize(newRoots);
         for (var root : workspaceRoots) {
             if (!newRoots.contains(root)) {
-                javaSources.keySet().removeIf(f -> {
-                    if (f.startsWith(root)) {
-                        removeFromPackageIndex(f);
+                javaSources.entrySet().removeIf(e -> {
+                    if (e.getKey().startsWith(root)) {
+                        removeFromPackageIndex(e.getKey());
+                        lombokImports.addAndGet(-lombokWeight(e.getKey(), e.getValue()));
                         return true;
                     }
                     return false;
@@ -80,47 +98,108 @@ public class FileStore {
     }
 
     private static void addFiles(Path root) {
-        try {
-            Files.walkFileTree(root, new FindJavaSources());
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+        addFiles(root, FileCatalog.forWorkspace(root));
+    }
+
+    /**
+     * Add the sources under {@code root}, taking the package of each file that {@code catalog} saw
+     * with the same modification time and size from the catalog. Returns how many files were read.
+     */
+    static int addFiles(Path root, FileCatalog catalog) {
+        var started = System.nanoTime();
+        var saved = catalog.load();
+        var found = new ConcurrentHashMap<Path, FileCatalog.Entry>();
+        var read = new AtomicInteger();
+        var name = root.getFileName();
+        if (name == null || !EXCLUDED_DIRS.contains(name.toString())) {
+            CRAWLERS.invoke(new CrawlDirectory(root, saved, found, read));
+        }
+        var byPackage = new HashMap<String, List<Path>>();
+        for (var e : found.entrySet()) {
+            var file = e.getKey();
+            var entry = e.getValue();
+            removeFromPackageIndex(file);
+            putInfo(file, new Info(Instant.ofEpochMilli(entry.modified()), entry.packageName(), entry.importsLombok()));
+            byPackage.computeIfAbsent(entry.packageName(), k -> new ArrayList<>()).add(file);
+        }
+        for (var e : byPackage.entrySet()) {
+            Collections.sort(e.getValue());
+            packageIndex.computeIfAbsent(e.getKey(), k -> new CopyOnWriteArrayList<>()).addAllAbsent(e.getValue());
         }
+        if (read.get() > 0 || found.size() != saved.size()) {
+            catalog.save(found);
+        }
+        LOG.info(String.format("[perf] workspace_crawl root=%s files=%d read=%d took=%dms",
+                root, found.size(), read.get(), (System.nanoTime() - started) / 1_000_000));
+        return read.get();
     }
 
     private static final Set<String> EXCLUDED_DIRS = Set.of(
             "build", "out", "target", ".gradle", ".git", "generated", "generated-sources",
             "generated-test-sources", "node_modules", ".idea", ".metals");
 
-    static class FindJavaSources extends SimpleFileVisitor<Path> {
-        @Override
-        public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
-            if (attrs.isSymbolicLink()) {
-                LOG.warning("Don't check " + dir + " for java sources");
-                return FileVisitResult.SKIP_SUBTREE;
-            }
-            var name = dir.getFileName();
-            if (name != null && EXCLUDED_DIRS.contains(name.toString())) {
-                return FileVisitResult.SKIP_SUBTREE;
-            }
-            return FileVisitResult.CONTINUE;
+    /** Lists one directory, forking a task per subdirectory and reading only new or changed sources. */
+    private static class CrawlDirectory extends RecursiveAction {
+        private final Path dir;
+        private final Map<Path, FileCatalog.Entry> saved, found;
+        private final AtomicInteger read;
+
+        CrawlDirectory(
+                Path dir,
+                Map<Path, FileCatalog.Entry> saved,
+                Map<Path, FileCatalog.Entry> found,
+                AtomicInteger read) {
+            this.dir = dir;
+            this.saved = saved;
+            this.found = found;
+            this.read = read;
         }
 
         @Override
-        public FileVisitResult visitFile(Path file, BasicFileAttributes _attrs) {
-            if (isJavaFile(file)) {
-                readInfoFromDisk(file);
+        protected void compute() {
+            var subdirectories = new ArrayList<CrawlDirectory>();
+            try (var entries = Files.newDirectoryStream(dir)) {
+                for (var entry : entries) {
+                    try {
+                        var attrs = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                        if (attrs.isDirectory()) {
+                            if (!EXCLUDED_DIRS.contains(entry.getFileName().toString())) {
+                                subdirectories.add(new CrawlDirectory(entry, saved, found, read));
+                            }
+                        } else if (isJavaFile(entry)) {
+                            // Symlinked directories aren't crawled, but symlinked sources are read through
+                            if (attrs.isSymbolicLink()) attrs = Files.readAttributes(entry, BasicFileAttributes.class);
+                            addFile(entry, attrs);
+                        }
+                    } catch (NoSuchFileException e) {
+                        // Temp files created by git and other tools may disappear mid-crawl. Skip silently.
+                    } catch (IOException e) {
+                        LOG.warning("Failed to visit " + entry + ": " + e.getMessage());
+                    }
+                }
+            } catch (NoSuchFileException e) {
+                // Deleted mid-crawl
+            } catch (IOException e) {
+                LOG.warning("Failed to visit " + dir + ": " + e.getMessage());
             }
-            return FileVisitResult.CONTINUE;
+            invokeAll(subdirectories);
         }
 
-        @Override
-        public FileVisitResult visitFileFailed(Path file, IOException e) {
-            // Temp files created by git and other tools may disappear mid-walk. Skip silently.
-            if (e instanceof java.nio.file.NoSuchFileException) {
-                return FileVisitResult.CONTINUE;
+        private void addFile(Path file, BasicFileAttributes attrs) {
+            var modified = attrs.lastModifiedTime().toMillis();
+            var size = attrs.size();
+            var cached = saved.get(file);
+            if (cached != null && cached.modified() == modified && cached.size() == size) {
+                found.put(file, cached);
+                return;
+            }
+            try {
+                var header = StringSearch.header(file);
+                read.incrementAndGet();
+                found.put(file, new FileCatalog.Entry(modified, size, header.packageName(), header.importsLombok()));
+            } catch (CharacterCodingException e) {
+                LOG.warning(e.getMessage());
             }
-            LOG.warning("Failed to visit " + file + ": " + e.getMessage());
-            return FileVisitResult.CONTINUE;
         }
     }
 
@@ -134,10 +213,41 @@ public class FileStore {
         dirtyDocuments.clear();
         workspaceRoots.clear();
         javaSources.clear();
+        lombokImports.set(0);
         packageIndex.clear();
         bumpContentRevision();
     }
 
+    /**
+     * Whether any workspace source imports Lombok, kept up to date as files are crawled, changed and
+     * deleted rather than by reading every file again.
+     */
+    static boolean workspaceUsesLombok() {
+        return lombokImports.get() > 0;
+    }
+
+    private static int lombokWeight(Path file, Info info) {
+        if (info == null || !info.importsLombok) return 0;
+        // Skip test fixtures/resources/examples (not actual project source)
+        var path = file.toString();
+        // TODO: jls.test is temporary — needs proper multi-workspace support
+        // to separate test fixtures from main workspace without breaking Lombok detection
+        if (System.getProperty("jls.test") == null
+                && (path.contains("/test/resources/") || path.contains("/test/examples/")
+                || path.contains("/test-resources/"))) return 0;
+        return 1;
+    }
+
+    private static void putInfo(Path file, Info info) {
+        var previous = javaSources.put(file, info);
+        lombokImports.addAndGet(lombokWeight(file, info) - lombokWeight(file, previous));
+    }
+
+    private static void removeInfo(Path file) {
+        var previous = javaSources.remove(file);
+        lombokImports.addAndGet(-lombokWeight(file, previous));
+    }
+
     static List<Path> list(String packageName) {
         var files = packageIndex.get(packageName);
         return files == null ? List.of() : List.copyOf(files);
@@ -179,7 +289,7 @@ public class FileStore {
      */
     static int contentHash(Path file) {
         var active = activeDocuments.get(file);
-        if (active != null) return active.contentHash;
+        if (active != null) return active.contentHash();
         // For closed files, use disk mtime as a proxy (avoids reading the whole file)
         if (!javaSources.containsKey(file)) readInfoFromDisk(file);
         var info = javaSources.get(file);
@@ -247,31 +357,32 @@ public class FileStore {
 
     static void externalCreate(Path file) {
         readInfoFromDisk(file);
-        bumpContentRevision();
+        bumpContentRevision(file);
     }
 
     static void externalChange(Path file) {
         readInfoFromDisk(file);
-        bumpContentRevision();
+        bumpContentRevision(file);
     }
 
     static void externalDelete(Path file) {
         removeFromPackageIndex(file);
-        javaSources.remove(file);
-        bumpContentRevision();
+        removeInfo(file);
+        bumpContentRevision(file);
     }
 
     private static void readInfoFromDisk(Path file) {
         try {
             var time = Files.getLastModifiedTime(file).toInstant();
-            var packageName = StringSearch.packageName(file);
+            var header = StringSearch.header(file);
+            var packageName = header.packageName();
             removeFromPackageIndex(file);
-            javaSources.put(file, new Info(time, packageName));
+            putInfo(file, new Info(time, packageName, header.importsLombok()));
             packageIndex.computeIfAbsent(packageName, k -> new CopyOnWriteArrayList<>()).addIfAbsent(file);
         } catch (NoSuchFileException | CharacterCodingException e) {
             LOG.warning(e.getMessage());
             removeFromPackageIndex(file);
-            javaSources.remove(file);
+            removeInfo(file);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -293,8 +404,8 @@ public class FileStore {
         var newContent = new VersionedContent(document.text, document.version);
         activeDocuments.put(file, newContent);
         // Only invalidate caches if the content actually changed (not just opened)
-        if (existing == null || existing.contentHash != newContent.contentHash) {
-            bumpContentRevision();
+        if (existing == null || existing.contentHash() != newContent.contentHash()) {
+            bumpContentRevision(file);
         }
     }
 
@@ -311,19 +422,20 @@ public class FileStore {
             LOG.warning("Ignored change with version " + document.version + " <= " + existing.version);
             return;
         }
-        var newText = existing.content;
-        for (var change : params.contentChanges) {
-            if (change.range == null) newText = change.text;
-            else newText = patch(newText, change);
-        }
-        activeDocuments.put(file, new VersionedContent(newText, document.version));
-        bumpContentRevision();
+        var updated = existing.apply(params.contentChanges, document.version);
+        activeDocuments.put(file, updated);
+        bumpContentRevision(file);
         // If content now matches disk (e.g. undo), clear dirty flag — no cross-file errors needed
         var diskInfo = javaSources.get(file);
         if (diskInfo != null) {
             try {
+                // UTF-8 never has fewer bytes than chars, so a longer buffer can't match the file
+                if (updated.length() > Files.size(file)) {
+                    dirtyDocuments.add(file);
+                    return;
+                }
                 var diskContent = Files.readString(file);
-                if (diskContent.equals(newText)) {
+                if (diskContent.contentEquals(updated.text())) {
                     dirtyDocuments.remove(file);
                     LOG.info("[dirty] change() content matches disk — clearing dirty: " + file.getFileName());
                 } else {
@@ -341,13 +453,14 @@ public class FileStore {
         if (!isWorkspaceJavaFile(params.textDocument.uri)) return;
         var file = Paths.get(params.textDocument.uri);
         var removed = activeDocuments.remove(file);
+        ParseCache.invalidate(file);
         // If the in-memory content differed from disk, caches are stale.
         if (removed != null) {
             readInfoFromDisk(file);
             var diskHash = javaSources.containsKey(file)
                     ? Long.hashCode(javaSources.get(file).modified.toEpochMilli()) : 0;
-            if (diskHash != removed.contentHash) {
-                bumpContentRevision();
+            if (diskHash != removed.contentHash()) {
+                bumpContentRevision(file);
             }
         }
     }
@@ -357,7 +470,7 @@ public class FileStore {
             return;
         }
         LOG.info("[dirty] save() clearing dirty: " + file.getFileName());
-        bumpContentRevision();
+        bumpContentRevision(file);
         dirtyDocuments.remove(file);
     }
 
@@ -373,8 +486,33 @@ public class FileStore {
         return contentRevision.get();
     }
 
+    /**
+     * The files touched after {@code revision}, or empty if that history is gone (the workspace roots
+     * changed, or too much happened since), in which case callers must recheck {@link #all()}.
+     */
+    static Optional<Set<Path>> changedSince(long revision) {
+        if (revision < changeLogStart) return Optional.empty();
+        var changed = new HashSet<>(changeLog.tailMap(revision, false).values());
+        // The log may have been trimmed while we copied it
+        if (revision < changeLogStart) return Optional.empty();
+        return Optional.of(changed);
+    }
+
+    /** A change that may touch any file. */
     private static void bumpContentRevision() {
-        contentRevision.incrementAndGet();
+        var revision = contentRevision.incrementAndGet();
+        changeLogStart = revision;
+        changeLog.headMap(revision).clear();
+    }
+
+    private static void bumpContentRevision(Path file) {
+        var revision = contentRevision.incrementAndGet();
+        changeLog.put(revision, file);
+        while (changeLog.size() > MAX_CHANGE_LOG) {
+            var trimmed = changeLog.pollFirstEntry();
+            if (trimmed == null) break;
+            changeLogStart = Math.max(changeLogStart, trimmed.getKey());
+        }
     }
 
     static VersionedContent activeDocument(Path file) {
@@ -392,7 +530,7 @@ public class FileStore {
             throw new RuntimeException(file + " is not a java file");
         }
         if (activeDocuments.containsKey(file)) {
-            return activeDocuments.get(file).content;
+            return activeDocuments.get(file).content();
         }
         try {
             return Files.readString(file);
@@ -406,7 +544,7 @@ public class FileStore {
 
     static InputStream inputStream(Path file) {
         if (activeDocuments.containsKey(file)) {
-            var string = activeDocuments.get(file).content;
+            var string = activeDocuments.get(file).content();
             var bytes = string.getBytes();
             return new ByteArrayInputStream(bytes);
         }
@@ -423,7 +561,7 @@ public class FileStore {
 
     static BufferedReader bufferedReader(Path file) {
         if (activeDocuments.containsKey(file)) {
-            var string = activeDocuments.get(file).content;
+            var string = activeDocuments.get(file).content();
             return new BufferedReader(new StringReader(string));
         }
         try {
@@ -440,95 +578,30 @@ public class FileStore {
         return bufferedReader(file);
     }
 
-    /** Convert from line/column (1-based) to offset (0-based) */
+    /**
+     * Convert from line/column (1-based) to offset (0-based). The column is not clamped to the line,
+     * only to the end of the text.
+     */
     public static int offset(String contents, int line, int column) {
+        var lines = LineIndex.of(contents);
         line--;
         column--;
-        int cursor = 0;
-        while (line > 0 && cursor < contents.length()) {
-            if (contents.charAt(cursor) == '\n') {
-                line--;
-            }
-            cursor++;
-        }
-        return Math.min(cursor + column, contents.length());
-    }
-
-    private static String patch(String sourceText, TextDocumentContentChangeEvent change) {
-        var range = change.range;
-        if (range == null) return change.text;
-
-        var start = offsetAt(sourceText, range.start.line, range.start.character);
-        var end = offsetAt(sourceText, range.end.line, range.end.character);
-        if (end < start) {
-            LOG.fine(
-                    String.format(
-                            "Invalid change range start=%d end=%d for %s; clamping end to start",
-                            start, end, range));
-            end = start;
-        }
-        return sourceText.substring(0, start) + change.text + sourceText.substring(end);
-    }
-
-    private static int offsetAt(String sourceText, int targetLine, int targetCharacter) {
-        if (targetLine < 0) targetLine = 0;
-        if (targetCharacter < 0) targetCharacter = 0;
-
-        var line = 0;
-        var i = 0;
-        while (line < targetLine && i < sourceText.length()) {
-            var c = sourceText.charAt(i++);
-            if (c == '\n') {
-                line++;
-            } else if (c == '\r') {
-                if (i < sourceText.length() && sourceText.charAt(i) == '\n') {
-                    i++;
-                }
-                line++;
-            }
-        }
-        if (line < targetLine) {
-            return sourceText.length();
-        }
-
-        var character = 0;
-        while (character < targetCharacter && i < sourceText.length()) {
-            var c = sourceText.charAt(i);
-            if (c == '\n' || c == '\r') break;
-            i++;
-            character++;
-        }
-        return i;
+        int start;
+        if (line <= 0) start = 0;
+        else if (line >= lines.lineCount()) start = contents.length();
+        else start = lines.lineStart(line);
+        return Math.min(start + column, contents.length());
     }
 
     public static Position positionAt(String sourceText, int targetOffset) {
-        if (targetOffset < 0) targetOffset = 0;
-        if (targetOffset > sourceText.length()) targetOffset = sourceText.length();
-
-        var line = 0;
-        var character = 0;
-        for (var i = 0; i < targetOffset; i++) {
-            var c = sourceText.charAt(i);
-            if (c == '\n') {
-                line++;
-                character = 0;
-            } else if (c == '\r') {
-                if (i + 1 < targetOffset && sourceText.charAt(i + 1) == '\n') {
-                    i++;
-                }
-                line++;
-                character = 0;
-            } else {
-                character++;
-            }
-        }
-        return new Position(line, character);
+        return LineIndex.of(sourceText).positionAt(targetOffset);
     }
 
     public static Range range(String sourceText, long start, long end) {
         var safeStart = (int) Math.max(0, Math.min(Integer.MAX_VALUE, start));
         var safeEnd = (int) Math.max(safeStart, Math.min(Integer.MAX_VALUE, end));
-        return new Range(positionAt(sourceText, safeStart), positionAt(sourceText, safeEnd));
+        var lines = LineIndex.of(sourceText);
+        return new Range(lines.positionAt(safeStart), lines.positionAt(safeEnd));
     }
 
     static boolean isJavaFile(Path file) {
@@ -570,16 +643,80 @@ public class FileStore {
     private static final Logger LOG = Logger.getLogger("main");
 }
 
+/**
+ * One version of an open document. The text is a {@link PieceTable} and the line starts are kept
+ * alongside it, so an incremental edit neither copies the whole text nor rescans it; the flat
+ * {@link String} is built on the first {@link #content()} after an edit.
+ */
 class VersionedContent {
-    final String content;
+    private static final Logger LOG = Logger.getLogger("main");
+
+    private final PieceTable text;
+    private final LineIndex lines;
     final int version;
     final Instant modified = Instant.now();
-    final int contentHash;
+    private String content;
 
     VersionedContent(String content, int version) {
         Objects.requireNonNull(content, "content is null");
+        this.text = PieceTable.of(content);
+        this.lines = LineIndex.scan(content);
         this.content = content;
         this.version = version;
-        this.contentHash = content.hashCode();
+    }
+
+    private VersionedContent(PieceTable text, LineIndex lines, int version) {
+        this.text = text;
+        this.lines = lines;
+        this.version = version;
+    }
+
+    /** This document after applying {@code changes} in order. */
+    VersionedContent apply(List<TextDocumentContentChangeEvent> changes, int newVersion) {
+        var text = this.text;
+        var lines = this.lines;
+        for (var change : changes) {
+            if (change.range == null) {
+                text = PieceTable.of(change.text);
+                lines = LineIndex.scan(change.text);
+                continue;
+            }
+            var range = change.range;
+            var start = lines.offsetAt(range.start.line, range.start.character);
+            var end = lines.offsetAt(range.end.line, range.end.character);
+            if (end < start) {
+                LOG.fine(
+                        String.format(
+                                "Invalid change range start=%d end=%d for %s; clamping end to start",
+                                start, end, range));
+                end = start;
+            }
+            text = text.replace(start, end, change.text);
+            lines = lines.edit(text, start, end, change.text.length());
+        }
+        return new VersionedContent(text, lines, newVersion);
+    }
+
+    String content() {
+        var result = content;
+        if (result == null) {
+            result = text.toString();
+            LineIndex.remember(result, lines);
+            content = result;
+        }
+        return result;
+    }
+
+    /** {@link String} caches its own hash, so this is computed once per version. */
+    int contentHash() {
+        return content().hashCode();
+    }
+
+    CharSequence text() {
+        return text;
+    }
+
+    int length() {
+        return text.length();
     }
 }
@@ -0,0 +1,223 @@
+package org.javacs;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipFile;
+
+/**
+ * A jar mapped into memory, with its central directory parsed once.
+ *
+ * <p>Reading an entry is a lookup in the directory plus a read from the mapping: no file is opened
+ * and no zip header is parsed again. Stored entries are copied straight out of the mapping, and
+ * deflated ones are inflated from it, with no stream or intermediate buffer in between. Archives
+ * that can't be mapped (over 2 GB) or whose directory doesn't parse fall back to {@link ZipFile}.
+ *
+ * <p>Like {@link java.util.jar.JarFile} opened without a runtime version, only base entries are
+ * visible to callers that look names up; {@code META-INF/versions/} entries are just other names.
+ *
+ * <p>The mapping belongs to an arena of its own, so {@link #close} releases it right away instead of
+ * whenever the collector gets to it; Windows won't let a build replace a jar that is still mapped.
+ */
+final class JarArchive {
+    private static final Logger LOG = Logger.getLogger("main");
+
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_OF_DIRECTORY = 0x06054b50;
+    private static final int ZIP64_END_LOCATOR = 0x07064b50;
+    private static final int ZIP64_END_OF_DIRECTORY = 0x06064b50;
+    private static final int ZIP64_EXTRA = 0x0001;
+    private static final int STORED = 0, DEFLATED = 8;
+
+    /** Location of one entry's data inside the mapping. */
+    record Entry(long headerOffset, int method, long compressedSize, long uncompressedSize) {}
+
+    final Path path;
+    final long size, modified;
+    private final Arena arena;
+    private final ByteBuffer mapped;
+    private final Map<String, Entry> entries;
+    /** Class path views holding this archive; only changed inside ClassPathJars' compute on {@link #path}. */
+    int views;
+
+    private JarArchive(
+            Path path, long size, long modified, Arena arena, ByteBuffer mapped, Map<String, Entry> entries) {
+        this.path = path;
+        this.size = size;
+        this.modified = modified;
+        this.arena = arena;
+        this.mapped = mapped;
+        this.entries = entries;
+    }
+
+    /** Map {@code path} and parse its central directory; null if it isn't a readable zip. */
+    static JarArchive open(Path path, long size, long modified) {
+        if (size <= Integer.MAX_VALUE) {
+            var arena = Arena.ofShared();
+            try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size, arena).asByteBuffer();
+                buffer.order(ByteOrder.LITTLE_ENDIAN);
+                var entries = new HashMap<String, Entry>();
+                readDirectory(buffer, entries::put);
+                return new JarArchive(path, size, modified, arena, buffer, Collections.unmodifiableMap(entries));
+            } catch (IOException | RuntimeException e) {
+                arena.close();
+                LOG.fine(String.format("[jar] can't map %s (%s), using ZipFile", path.getFileName(), e.getMessage()));
+            }
+        }
+        try (var zip = new ZipFile(path.toFile())) {
+            var entries = new HashMap<String, Entry>();
+            var it = zip.entries();
+            while (it.hasMoreElements()) {
+                var e = it.nextElement();
+                entries.put(e.getName(), new Entry(-1, -1, e.getCompressedSize(), e.getSize()));
+            }
+            return new JarArchive(path, size, modified, null, null, Collections.unmodifiableMap(entries));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Unmap the archive. Reads that are running or come later fail on the closed mapping and go
+     * through {@link ZipFile} instead, so a view still holding this archive keeps working.
+     */
+    void close() {
+        if (arena == null) return;
+        try {
+            arena.close();
+        } catch (IllegalStateException ignored) {
+            // Already closed
+        }
+    }
+
+    boolean contains(String name) {
+        return entries.containsKey(name);
+    }
+
+    /** Every entry name, e.g. to build a class-name map over several archives. */
+    Iterable<String> names() {
+        return entries.keySet();
+    }
+
+    /** The bytes of entry {@code name}, or null if there is no such entry or it can't be read. */
+    byte[] read(String name) {
+        var entry = entries.get(name);
+        if (entry == null) return null;
+        if (mapped == null) return readUnmapped(name);
+        try {
+            var data = data(entry);
+            var bytes = new byte[(int) entry.uncompressedSize()];
+            if (entry.method() == STORED) {
+                data.get(0, bytes);
+                return bytes;
+            }
+            if (entry.method() != DEFLATED) return readUnmapped(name);
+            var inflater = new Inflater(true);
+            try {
+                inflater.setInput(data);
+                var read = 0;
+                while (read < bytes.length && !inflater.finished()) {
+                    var n = inflater.inflate(bytes, read, bytes.length - read);
+                    if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                    read += n;
+                }
+                if (read != bytes.length) throw new DataFormatException("short entry " + read + "/" + bytes.length);
+                return bytes;
+            } finally {
+                inflater.end();
+            }
+        } catch (DataFormatException | RuntimeException | InternalError e) {
+            // InternalError is how a mapping of a file truncated since reports the fault
+            LOG.fine(String.format("[jar] bad entry %s in %s: %s", name, path.getFileName(), e.getMessage()));
+            return readUnmapped(name);
+        }
+    }
+
+    /** The stored or deflated data of {@code entry}, as a slice of the mapping. */
+    private ByteBuffer data(Entry entry) {
+        var header = (int) entry.headerOffset();
+        if (mapped.getInt(header) != LOCAL_HEADER) throw new IllegalStateException("no local header");
+        var nameLength = Short.toUnsignedInt(mapped.getShort(header + 26));
+        var extraLength = Short.toUnsignedInt(mapped.getShort(header + 28));
+        return mapped.slice(header + 30 + nameLength + extraLength, (int) entry.compressedSize());
+    }
+
+    private byte[] readUnmapped(String name) {
+        try (var zip = new ZipFile(path.toFile())) {
+            var entry = zip.getEntry(name);
+            if (entry == null) return null;
+            try (var in = zip.getInputStream(entry)) {
+                return in.readAllBytes();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /** Parse the central directory at the end of {@code zip}. */
+    static void readDirectory(ByteBuffer zip, BiConsumer<String, Entry> into) {
+        var end = findEndOfDirectory(zip);
+        long count = Short.toUnsignedInt(zip.getShort(end + 10));
+        long offset = Integer.toUnsignedLong(zip.getInt(end + 16));
+        if (count == 0xffff || offset == 0xffffffffL) {
+            var locator = end - 20;
+            if (locator < 0 || zip.getInt(locator) != ZIP64_END_LOCATOR) throw new IllegalStateException("no zip64 locator");
+            var zip64End = (int) zip.getLong(locator + 8);
+            if (zip.getInt(zip64End) != ZIP64_END_OF_DIRECTORY) throw new IllegalStateException("bad zip64 end");
+            count = zip.getLong(zip64End + 32);
+            offset = zip.getLong(zip64End + 48);
+        }
+        var at = (int) offset;
+        for (long i = 0; i < count; i++) {
+            if (zip.getInt(at) != CENTRAL_HEADER) throw new IllegalStateException("bad central header at " + at);
+            var method = Short.toUnsignedInt(zip.getShort(at + 10));
+            long compressed = Integer.toUnsignedLong(zip.getInt(at + 20));
+            long uncompressed = Integer.toUnsignedLong(zip.getInt(at + 24));
+            var nameLength = Short.toUnsignedInt(zip.getShort(at + 28));
+            var extraLength = Short.toUnsignedInt(zip.getShort(at + 30));
+            var commentLength = Short.toUnsignedInt(zip.getShort(at + 32));
+            long header = Integer.toUnsignedLong(zip.getInt(at + 42));
+            var nameBytes = new byte[nameLength];
+            zip.get(at + 46, nameBytes);
+            // Zip64 sizes and offset, in that order, replace the fields that overflowed
+            var extra = at + 46 + nameLength;
+            for (var e = extra; e + 4 <= extra + extraLength; ) {
+                var id = Short.toUnsignedInt(zip.getShort(e));
+                var length = Short.toUnsignedInt(zip.getShort(e + 2));
+                if (id == ZIP64_EXTRA) {
+                    var field = e + 4;
+                    if (uncompressed == 0xffffffffL) { uncompressed = zip.getLong(field); field += 8; }
+                    if (compressed == 0xffffffffL) { compressed = zip.getLong(field); field += 8; }
+                    if (header == 0xffffffffL) header = zip.getLong(field);
+                }
+                e += 4 + length;
+            }
+            var name = new String(nameBytes, StandardCharsets.UTF_8);
+            if (!name.endsWith("/")) into.accept(name, new Entry(header, method, compressed, uncompressed));
+            at += 46 + nameLength + extraLength + commentLength;
+        }
+    }
+
+    private static int findEndOfDirectory(ByteBuffer zip) {
+        // The record is 22 bytes plus a comment of up to 64 KB
+        var last = zip.limit() - 22;
+        for (var at = last; at >= 0 && at >= last - 0xffff; at--) {
+            if (zip.getInt(at) == END_OF_DIRECTORY) return at;
+        }
+        throw new IllegalStateException("no end of central directory");
+    }
+}
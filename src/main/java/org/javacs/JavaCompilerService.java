@@ -6,29 +6,73 @@ import java.net.URI;
 import java.nio.file.*;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import javax.tools.*;
 import org.javacs.completion.ExternalBinaryDecompiler;
+import org.javacs.index.ReferenceIndex;
+import org.javacs.index.ReferenceIndexStore;
+import org.javacs.index.SymbolIndex;
+import org.javacs.index.SymbolIndexStore;
+import org.javacs.index.WorkspaceIndexSnapshotStore.FileFingerprint;
+import org.javacs.lsp.CancelToken;
+import org.javacs.lsp.Location;
+import org.javacs.lsp.Position;
+import org.javacs.lsp.Range;
+import org.javacs.lsp.SymbolInformation;
 
 class JavaCompilerService implements CompilerProvider {
     private static final Logger LOG = Logger.getLogger("main");
 
-    // classpath is effectively immutable per compiler instance.
-    // Upgrade: addClassPathEntries() for multi-module support.
+    // Replaced, never mutated: by addClassPathEntries() for module outputs and by swapClassPath().
     volatile Set<Path> classPath;
     final Set<Path> docPath;
     final Set<String> addExports;
     final List<String> extraArgs;
     final ReusableCompiler compiler = new ReusableCompiler();
-    final Set<String> jdkClasses, classPathClasses;
-    final boolean lombokPresentOnClasspath;
+    final Set<String> jdkClasses;
+    volatile Set<String> classPathClasses;
+    volatile boolean lombokPresentOnClasspath;
+    /** Entries addClassPathEntries() added, which a class path swap keeps. */
+    private final Set<Path> addedClassPathEntries = ConcurrentHashMap.newKeySet();
     final List<Diagnostic<? extends JavaFileObject>> diags = new ArrayList<>();
     final SourceFileManager fileManager;
     final SourceFileManager docsFileManager;
 
+    // javac contexts, the shared file manager and the compile cache are single-threaded.
+    // compile() takes this lock and the returned task releases it on close(), so concurrent
+    // LSP requests take turns on the compiler while parse-only work runs in parallel.
+    private final ReentrantLock compileLock = new ReentrantLock();
+
+    // Reference searches compile candidate chunks here, on their own contexts and outside compileLock.
+    private final ParallelCompiler parallelCompiler = new ParallelCompiler(this);
+
+    // Narrows findTypeReferences/findMemberReferences; in memory only until loadReferenceIndex().
+    private volatile ReferenceIndex referenceIndex = new ReferenceIndex();
+    private volatile ReferenceIndexStore referenceIndexStore = ReferenceIndexStore.DISABLED;
+    private volatile Path referenceIndexRoot; // set by loadReferenceIndex(), to rebind the store on a swap
+    // Bumped by swapClassPath() after it replaces classPath; each CompileBatch records the value it saw.
+    volatile long classPathGeneration; // written under referenceFactsLock
+    // Held while recording attributed facts, so none resolved against an old class path land after a swap.
+    private final Object referenceFactsLock = new Object();
+
+    // Answers workspace/symbol; catches up with FileStore's change log before each query.
+    private volatile SymbolIndex symbolIndex = new SymbolIndex();
+    private volatile SymbolIndexStore symbolIndexStore = SymbolIndexStore.DISABLED;
+    private final Object symbolIndexLock = new Object();
+    private long symbolIndexRevision = -1; // guarded by symbolIndexLock
+
+    // Answers class-name completion; workspace names catch up with FileStore's change log like symbolIndex.
+    private ClassNameIndex classNames; // guarded by classNamesLock
+    private final Object classNamesLock = new Object();
+    private long classNamesRevision = -1; // guarded by classNamesLock
+
     JavaCompilerService(Set<Path> classPath, Set<Path> docPath, Set<String> addExports, Collection<String> extraArgs) {
         this.classPath = Collections.unmodifiableSet(classPath);
         this.docPath = Collections.unmodifiableSet(docPath);
@@ -36,10 +80,8 @@ class JavaCompilerService implements CompilerProvider {
         this.extraArgs = List.copyOf(extraArgs);
         this.jdkClasses = ScanClassPath.jdkTopLevelClasses();
         this.classPathClasses = ScanClassPath.classPathTopLevelClasses(classPath);
-        this.lombokPresentOnClasspath = classPath.stream().anyMatch(p -> {
-            var name = p.getFileName().toString().toLowerCase();
-            return name.startsWith("lombok") && (name.endsWith(".jar") || name.endsWith("-all.jar"));
-        }) && workspaceUsesLombok();
+        this.classNames = libraryClassNames(classPathClasses, jdkClasses);
+        this.lombokPresentOnClasspath = hasLombokJar(classPath) && FileStore.workspaceUsesLombok();
         this.fileManager = new SourceFileManager();
         this.docsFileManager = new Docs(docPath).createFileManager();
     }
@@ -49,28 +91,17 @@ class JavaCompilerService implements CompilerProvider {
         this(classPath, docPath, addExports, (Collection<String>) extraArgs);
     }
 
-    private static boolean workspaceUsesLombok() {
-        for (var file : FileStore.all()) {
-            // Skip test fixtures/resources/examples (not actual project source)
-            var path = file.toString();
-            // TODO: jls.test is temporary — needs proper multi-workspace support
-            // to separate test fixtures from main workspace without breaking Lombok detection
-            if (System.getProperty("jls.test") == null
-                    && (path.contains("/test/resources/") || path.contains("/test/examples/")
-                    || path.contains("/test-resources/"))) continue;
-            try (var reader = FileStore.lines(file)) {
-                for (var line = reader.readLine(); line != null; line = reader.readLine()) {
-                    if (line.startsWith("import lombok")) return true;
-                    if (line.contains("class ") || line.contains("interface ") || line.contains("enum ")) break;
-                }
-            } catch (Exception ignored) {}
-        }
-        return false;
+    private static boolean hasLombokJar(Set<Path> classPath) {
+        return classPath.stream().anyMatch(p -> {
+            var name = p.getFileName().toString().toLowerCase();
+            return name.startsWith("lombok") && (name.endsWith(".jar") || name.endsWith("-all.jar"));
+        });
     }
 
     /** Atomically extend the classpath with new entries (e.g. compiled module output dirs). */
     void addClassPathEntries(Set<Path> entries) {
         if (entries.isEmpty()) return;
+        addedClassPathEntries.addAll(entries);
         var updated = new LinkedHashSet<>(this.classPath);
         if (updated.addAll(entries)) {
             this.classPath = Collections.unmodifiableSet(updated);
@@ -78,25 +109,58 @@ class JavaCompilerService implements CompilerProvider {
         }
     }
 
-    // --- Small LRU compile cache ---
-    // Invalidation: global contentRevision (bumps on any edit/save).
-    // Eviction: LRU, max 4 entries. No cross-file tracking needed.
-    private final Map<URI, CompileBatch> compileCache = new LinkedHashMap<>(4, 0.75f, true) {
-        @Override
-        protected boolean removeEldestEntry(Map.Entry<URI, CompileBatch> eldest) {
-            return size() > 4;
+    /**
+     * Switch this compiler to {@code next} in place, for a build file change that left the other
+     * compiler settings alone. Jar catalogs and dependency shards are kept per jar, so only jars that
+     * weren't on the old class path are read. The workspace indexes don't depend on the class path and
+     * are kept, except for the reference index's attributed facts, which were resolved against the old
+     * one; its store is keyed by class path too. Compiled batches are dropped. Returns whether the class
+     * path changed.
+     */
+    boolean swapClassPath(Set<Path> next) {
+        var updated = new LinkedHashSet<>(next);
+        updated.addAll(addedClassPathEntries);
+        var previous = classPath;
+        if (previous.equals(updated)) return false;
+        var started = System.nanoTime();
+        var added = updated.stream().filter(p -> !previous.contains(p)).count();
+        var removed = previous.stream().filter(p -> !updated.contains(p)).count();
+        var classes = ScanClassPath.classPathTopLevelClasses(updated);
+        var lombok = hasLombokJar(updated) && FileStore.workspaceUsesLombok();
+        compileLock.lock();
+        try {
+            compileCache.clear();
+            classPath = Collections.unmodifiableSet(updated);
+            classPathClasses = classes;
+            lombokPresentOnClasspath = lombok;
+            decompiler = null;
+        } finally {
+            compileLock.unlock();
         }
-    };
-    private long cachedRevision = -1;
-
-    private boolean needsCompile() {
-        return FileStore.contentRevision() != cachedRevision;
+        // Reference search chunks compile without compileLock and may still be running against the old
+        // class path; recordReferences drops their facts by generation
+        synchronized (referenceFactsLock) {
+            classPathGeneration++;
+            referenceIndex.dropAttributed();
+        }
+        var root = referenceIndexRoot;
+        if (root != null) {
+            var store = ReferenceIndexStore.forWorkspace(root, updated);
+            referenceIndexStore = store;
+            store.saveSoon(referenceIndex);
+        }
+        var names = libraryClassNames(classes, jdkClasses);
+        synchronized (classNamesLock) {
+            classNames = names;
+            classNamesRevision = -1;
+        }
+        LOG.info(String.format("[perf] classpath_swap added=%d removed=%d classes=%d took=%dms",
+                added, removed, classes.size(), (System.nanoTime() - started) / 1_000_000));
+        return true;
     }
 
-    private void loadCompile(URI key, Collection<? extends JavaFileObject> sources) {
-        compileCache.put(key, doCompile(sources));
-        cachedRevision = FileStore.contentRevision();
-    }
+    // Compiled batches, invalidated per batch by the files each one parsed; see CompileCache.
+    private final CompileCache compileCache = new CompileCache();
 
     private CompileBatch doCompile(Collection<? extends JavaFileObject> sources) {
         if (sources.isEmpty()) throw new RuntimeException("empty sources");
@@ -111,29 +175,39 @@ class JavaCompilerService implements CompilerProvider {
             throw e;
         }
 
-        if (addFiles.isEmpty()) return firstAttempt;
+        if (addFiles.isEmpty()) {
+            recordReferences(firstAttempt);
+            return firstAttempt;
+        }
 
         LOG.info("...need to recompile with " + addFiles);
         firstAttempt.close();
 
+        // The added files only supply declarations, so javac gets them without method bodies
         var moreSources = new ArrayList<JavaFileObject>(sources);
         for (var add : addFiles) {
-            moreSources.add(new SourceFileObject(add));
+            moreSources.add(PrunedSources.signaturesOnly(add));
         }
-        return new CompileBatch(this, moreSources);
+        var batch = new CompileBatch(this, moreSources);
+        recordReferences(batch);
+        return batch;
     }
 
     private CompileBatch compileBatch(Collection<? extends JavaFileObject> sources) {
         LOG.info("[cache] compileBatch " + sources.size() + " source(s)");
-        var key = sources.iterator().next().toUri();
-        var needsFresh = needsCompile() || !compileCache.containsKey(key);
-        if (!needsFresh) {
+        var cached = compileCache.get(sources);
+        if (cached != null) {
             LOG.info("[cache] HIT");
-            return compileCache.get(key);
+            CacheAudit.hit("compile.batch");
+            return cached;
         }
-        LOG.info("[cache] MISS revision=" + FileStore.contentRevision() + " prev=" + cachedRevision);
-        loadCompile(key, sources);
-        return compileCache.get(key);
+        CacheAudit.miss("compile.batch");
+        // Read before compiling, so an edit that races the compile still invalidates the result
+        var revision = FileStore.contentRevision();
+        LOG.info("[cache] MISS revision=" + revision + " cached=" + compileCache.size());
+        var batch = doCompile(sources);
+        compileCache.put(sources, batch, revision);
+        return batch;
     }
 
     @Override
@@ -145,26 +219,87 @@ class JavaCompilerService implements CompilerProvider {
 
     @Override
     public CompileTask compile(Collection<? extends JavaFileObject> sources) {
-        var batch = compileBatch(sources);
-        return new CompileTask(batch.task, batch.trees, batch.elements, batch.types, batch.roots, batch.diagnostics, batch::close);
+        compileLock.lock();
+        CompileBatch batch;
+        Runnable release;
+        try {
+            batch = compileBatch(sources);
+            release = batch.retain();
+        } catch (RuntimeException | Error e) {
+            compileLock.unlock();
+            throw e;
+        }
+        return new CompileTask(
+                batch.task, batch.trees, batch.elements, batch.types, batch.roots, batch.diagnostics,
+                closeLocked(release));
+    }
+
+    /**
+     * The close action of a task that holds {@link #compileLock}: runs {@code release} and unlocks, once, however
+     * often the task is closed. Only the thread that locked can unlock, so closing from any other thread fails
+     * without using up the close.
+     */
+    private Runnable closeLocked(Runnable release) {
+        var owner = Thread.currentThread();
+        var closed = new AtomicBoolean();
+        return () -> {
+            if (Thread.currentThread() != owner) {
+                throw new IllegalStateException(
+                        "compile task locked on " + owner.getName() + " closed on " + Thread.currentThread().getName());
+            }
+            if (!closed.compareAndSet(false, true)) return;
+            try {
+                release.run();
+            } finally {
+                compileLock.unlock();
+            }
+        };
     }
 
     @Override
     public ParseTask parse(Path file) {
-        var parser = Parser.parseJavaFileObject(new SourceFileObject(file));
-        return new ParseTask(parser.task, parser.root);
+        return parse(new SourceFileObject(file));
+    }
+
+    @Override
+    public List<ParseTask> parseAll(Collection<Path> files) {
+        return parseAllTimed(files).tasks();
+    }
+
+    /** Parse on the shared worker pool and keep the per-phase timings for perf logging. */
+    ParallelParser.Result parseAllTimed(Collection<Path> files) {
+        return ParallelParser.parseAll(files);
     }
 
     @Override
     public CompileTask compileFresh(Path... files) {
         var sources = new ArrayList<JavaFileObject>(files.length);
         for (var f : files) sources.add(new SourceFileObject(f));
-        var batch = new CompileBatch(this, sources);
-        return new CompileTask(batch.task, batch.trees, batch.elements, batch.types, batch.roots, batch.diagnostics, batch::close);
+        compileLock.lock();
+        CompileBatch batch;
+        try {
+            batch = doCompile(sources);
+        } catch (RuntimeException | Error e) {
+            compileLock.unlock();
+            throw e;
+        }
+        return new CompileTask(
+                batch.task, batch.trees, batch.elements, batch.types, batch.roots, batch.diagnostics,
+                closeLocked(batch::close));
+    }
+
+    @Override
+    public <T> void compileChunks(
+            List<List<Path>> chunks, BiFunction<Integer, CompileTask, T> work, Consumer<? super T> onResult) {
+        parallelCompiler.compileChunks(chunks, work, onResult);
     }
 
     @Override
     public ParseTask parse(JavaFileObject file) {
+        // Open documents are shared per version; see ParseCache
+        if (file instanceof SourceFileObject source && source.version >= 0 && source.contents != null) {
+            return ParseCache.get(source);
+        }
         var parser = Parser.parseJavaFileObject(file);
         return new ParseTask(parser.task, parser.root);
     }
@@ -239,19 +374,6 @@ class JavaCompilerService implements CompilerProvider {
         cacheFileImports.load(file, null, list);
     }
 
-    private boolean containsImport(Path file, String className) {
-        var pkg = packageName(className);
-        if (pkg.equals(FileStore.packageName(file))) return true;
-        var packageStar = pkg + ".*";
-        var staticStar = className + ".*";
-        var staticMemberPrefix = className + ".";
-        for (var i : readImports(file)) {
-            if (i.equals(className) || i.equals(packageStar) || i.equals(staticStar) || i.startsWith(staticMemberPrefix))
-                return true;
-        }
-        return false;
-    }
-
     // --- CompilerProvider interface ---
 
     @Override
@@ -300,20 +422,25 @@ class JavaCompilerService implements CompilerProvider {
         options.addAll(List.of("-d", outputDir.toString()));
         var cp = classPath.stream().map(Path::toString).collect(Collectors.joining(File.pathSeparator));
         options.addAll(List.of("-processorpath", cp));
-        compiler.compile(
-                fileManager,
-                diags::add,
-                options,
-                sources,
-                task -> {
-                    try {
-                        task.analyze();
-                        task.generate();
-                    } catch (IOException e) {
-                        LOG.warning("[build] fullCompileWithAP failed: " + e.getMessage());
-                    }
-                    return null;
-                });
+        compileLock.lock();
+        try {
+            compiler.compile(
+                    fileManager,
+                    diags::add,
+                    options,
+                    sources,
+                    task -> {
+                        try {
+                            task.analyze();
+                            task.generate();
+                        } catch (IOException e) {
+                            LOG.warning("[build] fullCompileWithAP failed: " + e.getMessage());
+                        }
+                        return null;
+                    });
+        } finally {
+            compileLock.unlock();
+        }
         LOG.info("[build] fullCompileWithAP complete");
     }
 
@@ -328,21 +455,26 @@ class JavaCompilerService implements CompilerProvider {
             var cp = classPath.stream().map(Path::toString).collect(Collectors.joining(File.pathSeparator));
             options.addAll(List.of("-processorpath", cp));
         }
-        compiler.compile(
-                fileManager,
-                diags::add,
-                options,
-                List.of(new SourceFileObject(file)),
-                task -> {
-                    try {
-                        task.analyze();
-                        task.generate();
-                    } catch (IOException e) {
-                        LOG.warning(String.format("[build] refreshBuildOutput failed for %s: %s",
-                                file.getFileName(), e.getMessage()));
-                    }
-                    return null;
-                });
+        compileLock.lock();
+        try {
+            compiler.compile(
+                    fileManager,
+                    diags::add,
+                    options,
+                    List.of(new SourceFileObject(file)),
+                    task -> {
+                        try {
+                            task.analyze();
+                            task.generate();
+                        } catch (IOException e) {
+                            LOG.warning(String.format("[build] refreshBuildOutput failed for %s: %s",
+                                    file.getFileName(), e.getMessage()));
+                        }
+                        return null;
+                    });
+        } finally {
+            compileLock.unlock();
+        }
         LOG.info(String.format("[build] refreshBuildOutput compiled %s", file.getFileName()));
     }
 
@@ -359,20 +491,63 @@ class JavaCompilerService implements CompilerProvider {
     public List<String> publicTopLevelTypes() {
         var all = new ArrayList<String>();
         for (var file : FileStore.all()) {
-            var fileName = file.getFileName().toString();
-            if (!fileName.endsWith(".java")) continue;
-            var className = fileName.substring(0, fileName.length() - ".java".length());
-            var packageName = FileStore.packageName(file);
-            if (packageName != null && !packageName.isEmpty()) {
-                className = packageName + "." + className;
-            }
-            all.add(className);
+            var className = workspaceClassName(file);
+            if (className != null) all.add(className);
         }
         all.addAll(classPathClasses);
         all.addAll(jdkClasses);
         return all;
     }
 
+    /** The top-level class {@code file} is named for, or null if it isn't a workspace source file. */
+    private static String workspaceClassName(Path file) {
+        var fileName = file.getFileName().toString();
+        if (!fileName.endsWith(".java") || !FileStore.contains(file)) return null;
+        var className = fileName.substring(0, fileName.length() - ".java".length());
+        var packageName = FileStore.packageName(file);
+        if (packageName != null && !packageName.isEmpty()) {
+            className = packageName + "." + className;
+        }
+        return className;
+    }
+
+    private static ClassNameIndex libraryClassNames(Set<String> classPathClasses, Set<String> jdkClasses) {
+        var started = System.nanoTime();
+        var names = new ArrayList<String>(classPathClasses.size() + jdkClasses.size());
+        names.addAll(classPathClasses);
+        names.addAll(jdkClasses);
+        var index = ClassNameIndex.of(names);
+        LOG.info(String.format("[perf] class_name_index classes=%d took=%dms",
+                index.size(), (System.nanoTime() - started) / 1_000_000));
+        return index;
+    }
+
+    @Override
+    public List<String> topLevelTypesMatching(String partial) {
+        ClassNameIndex index;
+        synchronized (classNamesLock) {
+            var revision = FileStore.contentRevision();
+            if (revision != classNamesRevision) {
+                var changed = FileStore.changedSince(classNamesRevision);
+                if (changed.isPresent()) {
+                    for (var file : changed.get()) {
+                        classNames.updateWorkspaceFile(file, workspaceClassName(file));
+                    }
+                } else {
+                    var all = new HashMap<Path, String>();
+                    for (var file : FileStore.all()) {
+                        var className = workspaceClassName(file);
+                        if (className != null) all.put(file, className);
+                    }
+                    classNames.replaceWorkspace(all);
+                }
+                classNamesRevision = revision;
+            }
+            index = classNames;
+        }
+        return index.matching(partial);
+    }
+
     @Override
     public Set<Path> classPathRoots() {
         return classPath;
@@ -450,11 +625,14 @@ class JavaCompilerService implements CompilerProvider {
 
     private Path findPublicTypeDeclaration(String className) {
         JavaFileObject source;
+        compileLock.lock();
         try {
             source = fileManager.getJavaFileForInput(
                     StandardLocation.SOURCE_PATH, className, JavaFileObject.Kind.SOURCE);
         } catch (IOException e) {
             throw new RuntimeException(e);
+        } finally {
+            compileLock.unlock();
         }
         if (source == null) return NOT_FOUND;
         if (!source.toUri().getScheme().equals("file")) return NOT_FOUND;
@@ -465,26 +643,208 @@ class JavaCompilerService implements CompilerProvider {
 
     @Override
     public Path[] findTypeReferences(String className) {
-        var pkg = packageName(className);
-        var simple = simpleName(className);
-        var candidates = new ArrayList<Path>();
-        for (var f : FileStore.all()) {
-            if (containsWord(f, pkg) && containsImport(f, className) && containsWord(f, simple)) {
-                candidates.add(f);
+        var files = FileStore.all();
+        refreshReferenceIndex(files);
+        var candidates = referenceIndex.typeReferences(className, packageName(className), simpleName(className), files);
+        LOG.info(String.format("[perf] reference_candidates type=%s files=%d candidates=%d",
+                className, files.size(), candidates.length));
+        return candidates;
+    }
+
+    @Override
+    public Path[] findMemberReferences(String className, String memberName) {
+        var files = FileStore.all();
+        refreshReferenceIndex(files);
+        var candidates = referenceIndex.memberReferences(className, memberName, files);
+        LOG.info(String.format("[perf] reference_candidates member=%s#%s files=%d candidates=%d",
+                className, memberName, files.size(), candidates.length));
+        return candidates;
+    }
+
+    // --- Reference index ---
+
+    /** Restore the persisted reference index of {@code workspaceRoot} and keep it saved from now on. */
+    void loadReferenceIndex(Path workspaceRoot) {
+        var store = ReferenceIndexStore.forWorkspace(workspaceRoot, classPath);
+        if (!store.enabled()) return;
+        referenceIndex = store.load();
+        referenceIndexStore = store;
+        referenceIndexRoot = workspaceRoot;
+    }
+
+    /** Version of {@code file} the reference index is keyed by: disk mtime and size, or the open document's text. */
+    static FileFingerprint referenceFingerprint(Path file) {
+        var active = FileStore.activeDocument(file);
+        if (active != null) return new FileFingerprint(-1, active.contentHash());
+        return FileFingerprint.of(file).orElse(null);
+    }
+
+    /** Parse every file whose reference-index entry is missing or out of date. */
+    private void refreshReferenceIndex(Collection<Path> files) {
+        var index = referenceIndex;
+        var cancel = CancelToken.current();
+        var stale = new ArrayList<Path>();
+        var fingerprints = new HashMap<Path, FileFingerprint>();
+        for (var f : files) {
+            cancel.checkCancelled();
+            var fingerprint = referenceFingerprint(f);
+            if (fingerprint != null && index.isStale(f, fingerprint)) {
+                stale.add(f);
+                fingerprints.put(f, fingerprint);
+            }
+        }
+        index.retainOnly(files);
+        if (stale.isEmpty()) {
+            index.markComplete();
+            return;
+        }
+        var parsed = ParallelParser.parseAll(stale);
+        for (var i = 0; i < stale.size(); i++) {
+            var file = stale.get(i);
+            index.updateParsed(file, fingerprints.get(file), parsed.tasks().get(i).root());
+        }
+        index.markComplete();
+        LOG.info(String.format("[perf] reference_index_parse files=%d workers=%d took=%dms",
+                stale.size(), parsed.workers(), parsed.wallMs()));
+        referenceIndexStore.saveSoon(index);
+    }
+
+    /** Bring the reference index up to date with freshly parsed workspace files, e.g. after a save. */
+    void updateReferenceIndex(List<ParseTask> parsed) {
+        var index = referenceIndex;
+        for (var task : parsed) {
+            var uri = task.root().getSourceFile().toUri();
+            if (!"file".equals(uri.getScheme())) continue;
+            var file = Paths.get(uri);
+            var fingerprint = referenceFingerprint(file);
+            if (fingerprint != null) index.updateParsed(file, fingerprint, task.root());
+        }
+        referenceIndexStore.saveSoon(index);
+    }
+
+    /**
+     * Record what the workspace files of a finished compile resolved to. Only sources that match the
+     * file's current version count; completion compiles patched text that no fingerprint describes.
+     */
+    void recordReferences(CompileBatch batch) {
+        if (!batch.attributed) return;
+        var started = System.nanoTime();
+        var index = referenceIndex;
+        var recorded = new HashMap<Path, ReferenceIndex.Entry>();
+        var sources = new HashMap<URI, SourceFileObject>();
+        for (var source : batch.sources) {
+            if (source instanceof SourceFileObject file) sources.put(file.toUri(), file);
+        }
+        for (var root : batch.roots) {
+            var source = sources.get(root.getSourceFile().toUri());
+            if (source == null || !FileStore.isWorkspaceJavaFile(source.path)) continue;
+            var fingerprint = referenceFingerprint(source.path);
+            if (fingerprint == null || !index.needsAttribution(source.path, fingerprint)) continue;
+            var active = FileStore.activeDocument(source.path);
+            // Also skips pruned supporting sources, whose bodies are blank
+            var current = active == null ? source.contents == null : active.content().equals(source.contents);
+            if (!current) continue;
+            try {
+                recorded.put(source.path, ReferenceIndex.attribute(fingerprint, root, batch.trees, batch.types));
+            } catch (RuntimeException e) {
+                LOG.warning("[reference-index] failed to record " + source.path + ": " + e.getMessage());
+            }
+        }
+        if (recorded.isEmpty()) return;
+        synchronized (referenceFactsLock) {
+            if (batch.classPathGeneration != classPathGeneration) {
+                LOG.fine(String.format("[reference-index] dropping facts of %d files compiled against an old class path",
+                        recorded.size()));
+                return;
             }
+            index.updateAttributed(recorded);
         }
-        return candidates.toArray(Path[]::new);
+        LOG.fine(String.format("[perf] reference_index_record files=%d took=%dms",
+                recorded.size(), (System.nanoTime() - started) / 1_000_000));
+        referenceIndexStore.saveSoon(index);
+    }
+
+    // --- Symbol index ---
+
+    /** Restore the persisted symbol index of {@code workspaceRoot} and keep it saved from now on. */
+    void loadSymbolIndex(Path workspaceRoot) {
+        var store = SymbolIndexStore.forWorkspace(workspaceRoot);
+        if (!store.enabled()) return;
+        symbolIndex = store.load();
+        symbolIndexStore = store;
     }
 
     @Override
-    public Path[] findMemberReferences(String className, String memberName) {
-        var candidates = new ArrayList<Path>();
-        for (var f : FileStore.all()) {
-            if (containsWord(f, memberName)) {
-                candidates.add(f);
+    public Optional<List<SymbolInformation>> searchSymbols(String query, int limit) {
+        var started = System.nanoTime();
+        refreshSymbolIndex();
+        var matches = symbolIndex.search(query, limit);
+        var result = new ArrayList<SymbolInformation>(matches.size());
+        for (var match : matches) {
+            var symbol = match.symbol();
+            var info = new SymbolInformation();
+            info.name = symbol.name();
+            info.kind = symbol.kind();
+            info.containerName = symbol.container();
+            info.location = new Location(
+                    match.file().toUri(),
+                    new Range(
+                            new Position(symbol.startLine(), symbol.startColumn()),
+                            new Position(symbol.endLine(), symbol.endColumn())));
+            result.add(info);
+        }
+        LOG.info(String.format("[perf] workspace_symbols results=%d took=%dms",
+                result.size(), (System.nanoTime() - started) / 1_000_000));
+        return Optional.of(result);
+    }
+
+    /** Re-parse the files FileStore changed since the last query, or every stale file if it can't say which. */
+    private void refreshSymbolIndex() {
+        synchronized (symbolIndexLock) {
+            var revision = FileStore.contentRevision();
+            if (revision == symbolIndexRevision) return;
+            var index = symbolIndex;
+            var changed = FileStore.changedSince(symbolIndexRevision);
+            Collection<Path> check = changed.isPresent() ? changed.get() : FileStore.all();
+            if (changed.isEmpty()) index.retainOnly(check);
+            var cancel = CancelToken.current();
+            var stale = new ArrayList<Path>();
+            var fingerprints = new HashMap<Path, FileFingerprint>();
+            for (var f : check) {
+                cancel.checkCancelled();
+                var fingerprint = FileStore.contains(f) ? referenceFingerprint(f) : null;
+                if (fingerprint == null) {
+                    index.remove(f);
+                } else if (index.isStale(f, fingerprint)) {
+                    stale.add(f);
+                    fingerprints.put(f, fingerprint);
+                }
+            }
+            if (!stale.isEmpty()) {
+                var parsed = ParallelParser.parseAll(stale);
+                for (var i = 0; i < stale.size(); i++) {
+                    var file = stale.get(i);
+                    index.update(file, fingerprints.get(file), parsed.tasks().get(i));
+                }
+                LOG.info(String.format("[perf] symbol_index_parse files=%d incremental=%b workers=%d took=%dms",
+                        stale.size(), changed.isPresent(), parsed.workers(), parsed.wallMs()));
             }
+            symbolIndexRevision = revision;
+            symbolIndexStore.saveSoon(index);
+        }
+    }
+
+    /** Bring the symbol index up to date with freshly parsed workspace files, e.g. while indexing. */
+    void updateSymbolIndex(List<ParseTask> parsed) {
+        var index = symbolIndex;
+        for (var task : parsed) {
+            var uri = task.root().getSourceFile().toUri();
+            if (!"file".equals(uri.getScheme())) continue;
+            var file = Paths.get(uri);
+            var fingerprint = referenceFingerprint(file);
+            if (fingerprint != null && index.isStale(file, fingerprint)) index.update(file, fingerprint, task);
         }
-        return candidates.toArray(Path[]::new);
+        symbolIndexStore.saveSoon(index);
     }
 
     private volatile ExternalBinaryDecompiler decompiler;
@@ -509,30 +869,22 @@ class JavaCompilerService implements CompilerProvider {
 
     @Override
     public Optional<byte[]> findClassFile(String qualifiedName) {
-        var relative = qualifiedName.replace('.', '/') + ".class";
-        for (var root : classPath) {
-            if (Files.isDirectory(root)) {
-                var classFile = root.resolve(relative);
-                if (Files.exists(classFile)) {
-                    try {
-                        return Optional.of(Files.readAllBytes(classFile));
-                    } catch (IOException e) {
-                        LOG.fine("[classfile] failed to read " + classFile + ": " + e.getMessage());
-                    }
-                }
-            } else if (root.toString().endsWith(".jar") && Files.exists(root)) {
-                try (var jar = new java.util.jar.JarFile(root.toFile())) {
-                    var entry = jar.getEntry(relative);
-                    if (entry != null) {
-                        try (var in = jar.getInputStream(entry)) {
-                            return Optional.of(in.readAllBytes());
-                        }
-                    }
-                } catch (IOException e) {
-                    LOG.fine("[classfile] failed to read " + relative + " from " + root.getFileName() + ": " + e.getMessage());
-                }
-            }
+        return classPathJars().read(qualifiedName.replace('.', '/') + ".class");
+    }
+
+    /** Jar view of the current classpath, rebuilt when it changes or a jar on it may have. */
+    private ClassPathJars classPathJars() {
+        var current = classPath;
+        var view = classPathJars;
+        if (view != null && view.classPath() == current && view.jars().isCurrent()) {
+            return view.jars();
         }
-        return Optional.empty();
+        var jars = view != null && view.classPath() == current ? view.jars().current() : ClassPathJars.of(current);
+        classPathJars = new ClassPathJarsView(current, jars);
+        return jars;
     }
+
+    private record ClassPathJarsView(Set<Path> classPath, ClassPathJars jars) {}
+
+    private volatile ClassPathJarsView classPathJars;
 }
@@ -17,6 +17,7 @@ import java.nio.file.Paths;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -25,6 +26,7 @@ import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 import java.util.logging.Logger;
 import javax.lang.model.element.*;
 import javax.tools.JavaFileObject;
@@ -32,6 +34,7 @@ import org.javacs.action.CodeActionProvider;
 import org.javacs.provider.CompletionProvider;
 import org.javacs.index.ExternalBinaryTypeIndex;
 import org.javacs.provider.SignatureProvider;
+import org.javacs.index.WorkspaceIndexSnapshotStore;
 import org.javacs.index.WorkspaceTypeIndex;
 import org.javacs.index.TypeIndexRouter;
 import org.javacs.fold.FoldProvider;
@@ -56,6 +59,7 @@ import org.javacs.rewrite.*;
  */
 class JavaLanguageServer extends LanguageServer {
     private static final Logger LOG = Logger.getLogger("main");
+    private static final Gson GSON = new Gson();
 
     private static final long COMPLETION_INDEX_DEBOUNCE_MS = 100;
     private static final long COMPLETION_BOOTSTRAP_WAIT_MS = 700;
@@ -103,8 +107,9 @@ class JavaLanguageServer extends LanguageServer {
     private final LanguageClient client;
     private final CompletionIndexScheduler completionIndexScheduler = new CompletionIndexScheduler();
 
-    // Single compiler — all requests (interactive + diagnostics) run on the main LSP thread.
-    // parse() is thread-safe (standalone javac tasks), so background index builds share the instance.
+    // Single compiler — read requests run concurrently on the LSP workers, and compile() serializes
+    // javac access internally. parse() is thread-safe (standalone javac tasks), so background
+    // index builds and parse-only requests share the instance without waiting.
     private volatile JavaCompilerService compiler;
 
     // Background thread for Gradle module dep compilation only.
@@ -112,6 +117,14 @@ class JavaLanguageServer extends LanguageServer {
             Executors.newSingleThreadExecutor(
                     Thread.ofPlatform().daemon().name("javacs-background").factory());
 
+    // Background thread that persists dependency type shards for the current classpath.
+    private final ExecutorService dependencyScanExecutor =
+            Executors.newSingleThreadExecutor(
+                    Thread.ofPlatform().daemon().name("javacs-dependency-scan").factory());
+
+    /** Token of the running dependency prescan; a new classpath cancels the previous one. */
+    private volatile CancelToken dependencyScan = CancelToken.NONE;
+
     // Gradle module graph — populated during createCompilers() for Gradle projects.
     // Null until first compiler initialization; EMPTY for non-Gradle projects.
     private ModuleGraph moduleGraph = ModuleGraph.EMPTY;
@@ -133,6 +146,23 @@ class JavaLanguageServer extends LanguageServer {
     private final Object completionIndexCompileMutex = new Object();
 
     private ScheduledFuture<?> pendingCompletionIndex;
+    private CompletionIndexRefreshMode pendingCompletionIndexMode; // guarded by this
+    /**
+     * Files waiting for a declaration merge, with the revision that last queued each. Every merge
+     * takes all of them, so a burst of watched-file events becomes one merge; guarded by this.
+     */
+    private final Map<Path, Long> pendingMergeFiles = new LinkedHashMap<>();
+
+    /**
+     * Edits to one open document since its last change analysis. {@code lastChanges} is null once
+     * several didChange batches were coalesced.
+     */
+    private record PendingChange(boolean whitespaceOnly, List<TextDocumentContentChangeEvent> lastChanges) {}
+
+    private final Map<Path, PendingChange> pendingChangeAnalysis = new ConcurrentHashMap<>();
+
+    /** The scheduled analysis of each open document, pushed back by every didChange. */
+    private final Map<Path, ScheduledFuture<?>> changeAnalysisTimers = new ConcurrentHashMap<>();
 
     private final Set<String> shownWorkspaceWarnings = ConcurrentHashMap.newKeySet();
 
@@ -209,6 +239,23 @@ class JavaLanguageServer extends LanguageServer {
                 externalIndex,
                 currentSnapshot.version(),
                 currentSnapshot.scope());
+        prescanDependencies(externalIndex);
+    }
+
+    private void prescanDependencies(ExternalBinaryTypeIndex externalIndex) {
+        dependencyScan.cancel();
+        var scan = new CancelToken();
+        dependencyScan = scan;
+        dependencyScanExecutor.execute(
+                () -> {
+                    try (var ignored = scan.install()) {
+                        externalIndex.preScanAll();
+                    } catch (CancellationException e) {
+                        LOG.fine("[perf] dependency_prescan cancelled");
+                    } catch (RuntimeException e) {
+                        LOG.warning("[external-binary] dependency prescan failed: " + e);
+                    }
+                });
     }
 
     private synchronized void initializeCompilers() {
@@ -228,11 +275,20 @@ class JavaLanguageServer extends LanguageServer {
         }
         lastCompilerRecreateMs = now;
         LOG.info(String.format("[perf] compiler_recreate trigger=%s", trigger));
-        completionIndexScheduler.cancel(trigger);
-        createCompilers();
+        var rootsBefore = FileStore.workspaceRoots();
+        var classPathBefore = compiler == null ? Set.<Path>of() : compiler.classPath;
+        var replaced = createCompilers();
         appliedCompilerSettings = compilerSettingsSnapshot(settings);
-        publishExternalBinaryIndexSnapshot();
-        refreshStateForCompilerRecreated();
+        if (replaced || !classPathBefore.equals(compiler.classPath)) {
+            publishExternalBinaryIndexSnapshot();
+        }
+        // The workspace index is built from parse trees, so a class path swap doesn't invalidate it
+        if (replaced || !rootsBefore.equals(FileStore.workspaceRoots())) {
+            completionIndexScheduler.cancel(trigger);
+            refreshStateForCompilerRecreated();
+        } else {
+            LOG.info(String.format("[perf] compiler_recreate_skipped_reindex trigger=%s", trigger));
+        }
         client.customNotification("workspace/diagnostic/refresh", null);
     }
 
@@ -263,25 +319,57 @@ class JavaLanguageServer extends LanguageServer {
         }
     }
 
+    /**
+     * Note an edit to an open document and analyze the document once its edits pause for {@link
+     * #COMPLETION_INDEX_DEBOUNCE_MS}. The analysis parses the document, which flattens its piece
+     * table, so it runs once per burst of keystrokes on the completion index thread rather than on
+     * every didChange.
+     */
+    private void scheduleChangeAnalysis(Path file, List<TextDocumentContentChangeEvent> contentChanges) {
+        var whitespaceOnly = contentChanges != null && isWhitespaceOnlyChange(contentChanges);
+        pendingChangeAnalysis.merge(
+                file,
+                new PendingChange(whitespaceOnly, contentChanges),
+                (pending, next) -> new PendingChange(pending.whitespaceOnly() && next.whitespaceOnly(), null));
+        var timer = completionIndexExecutor.schedule(
+                () -> runChangeAnalysis(file), COMPLETION_INDEX_DEBOUNCE_MS, TimeUnit.MILLISECONDS);
+        var previous = changeAnalysisTimers.put(file, timer);
+        if (previous != null) previous.cancel(false);
+    }
+
+    private void runChangeAnalysis(Path file) {
+        var pending = pendingChangeAnalysis.remove(file);
+        if (pending == null || !FileStore.activeDocuments().contains(file)) return;
+        if (analyzeActiveDocumentChange(file, pending.lastChanges(), pending.whitespaceOnly())) {
+            completionIndexScheduler.scheduleRefresh(
+                    List.of(file), "didChange", 0, CompletionIndexRefreshMode.WORKSPACE_DECLARATION_MERGE);
+        }
+    }
+
+    /**
+     * Whether edits to {@code file} may have changed its declarations. {@code contentChanges} are the
+     * edits when there was a single didChange since the last analysis, or null when several were
+     * coalesced and their ranges no longer line up with the current text.
+     */
     private boolean analyzeActiveDocumentChange(
-            Path file, List<TextDocumentContentChangeEvent> contentChanges) {
+            Path file, List<TextDocumentContentChangeEvent> contentChanges, boolean whitespaceOnly) {
+        if (whitespaceOnly) {
+            LOG.fine(
+                    "[perf] completion_index_didChange_skip file="
+                            + file.getFileName()
+                            + " reason=whitespace_only");
+            return false;
+        }
         try {
             var parse = getOrCreateCompiler().parse(file);
             var contents = FileStore.contents(file);
-            if (hasLikelyIncompleteSource(FileStore.contents(file))) {
+            if (hasLikelyIncompleteSource(contents)) {
                 LOG.fine(
                         "[perf] completion_index_didChange_skip file="
                                 + file.getFileName()
                                 + " reason=incomplete_source");
                 return false;
             }
-            if (contentChanges != null && isWhitespaceOnlyChange(contentChanges)) {
-                LOG.fine(
-                        "[perf] completion_index_didChange_skip file="
-                                + file.getFileName()
-                                + " reason=whitespace_only");
-                return false;
-            }
             if (contentChanges != null && !contentChanges.isEmpty()) {
                 var positions = Trees.instance(parse.task()).getSourcePositions();
                 var spans = new ArrayList<long[]>();
@@ -665,7 +753,11 @@ class JavaLanguageServer extends LanguageServer {
     /**
      * Recreate the paired compiler services used for interactive requests and pull-diagnostics.
      */
-    private void createCompilers() {
+    /**
+     * Configure javac from the settings and build files. Returns true if that needed a new compiler,
+     * false if the current one only had its class path swapped.
+     */
+    private boolean createCompilers() {
         Objects.requireNonNull(workspaceRoot, "Can't create compiler because workspaceRoot has not been initialized");
         var started = Instant.now();
         var progressToken = beginWorkDoneProgress("Configure javac", "Finding source roots");
@@ -795,10 +887,25 @@ class JavaLanguageServer extends LanguageServer {
 
         endWorkDoneProgress(progressToken, "Configured javac");
 
-        compiler = new JavaCompilerService(classPath, resolvedDocPath, addExports, extraArgs);
+        var previous = compiler;
+        var replaced =
+                previous == null
+                        || !previous.docPath.equals(resolvedDocPath)
+                        || !previous.addExports.equals(addExports)
+                        || !previous.extraArgs.equals(List.copyOf(extraArgs));
+        if (replaced) {
+            compiler = new JavaCompilerService(classPath, resolvedDocPath, addExports, extraArgs);
+            if (workspaceRoot != null) {
+                compiler.loadReferenceIndex(workspaceRoot);
+                compiler.loadSymbolIndex(workspaceRoot);
+            }
+        } else {
+            previous.swapClassPath(classPath);
+        }
 
         LOG.info(String.format(
-                "[perf] create_compilers classpath=%d docpath=%d extra_args=%d add_exports=%d settings=%dms inference=%dms total=%dms",
+                "[perf] create_compilers replaced=%b classpath=%d docpath=%d extra_args=%d add_exports=%d settings=%dms inference=%dms total=%dms",
+                replaced,
                 classPath.size(),
                 resolvedDocPath.size(),
                 extraArgs.size(),
@@ -806,6 +913,7 @@ class JavaLanguageServer extends LanguageServer {
                 Duration.between(started, settingsLoaded).toMillis(),
                 Duration.between(settingsLoaded, inferenceFinished).toMillis(),
                 Duration.between(started, Instant.now()).toMillis()));
+        return replaced;
     }
 
     private Set<String> externalDependencies() {
@@ -1049,6 +1157,7 @@ class JavaLanguageServer extends LanguageServer {
 
     private static final String[] watchFiles = {
         "**/*.java",
+        "**/*.jar",
         "**/pom.xml",
         "**/BUILD",
         "**/WORKSPACE",
@@ -1142,10 +1251,10 @@ class JavaLanguageServer extends LanguageServer {
                         } else {
                             FileStore.externalCreate(file);
                             completionIndexScheduler.scheduleRefresh(
-                                    FileStore.all(),
+                                    List.of(file),
                                     "didChangeWatchedFiles:javaCreated",
-                                    0,
-                                    CompletionIndexRefreshMode.FULL_REBUILD);
+                                    COMPLETION_INDEX_DEBOUNCE_MS,
+                                    CompletionIndexRefreshMode.WORKSPACE_DECLARATION_MERGE);
                         }
                         break;
                     case FileChangeType.Changed:
@@ -1164,11 +1273,12 @@ class JavaLanguageServer extends LanguageServer {
                         break;
                     case FileChangeType.Deleted:
                         FileStore.externalDelete(file);
+                        // The merge drops the declarations of files that are gone
                         completionIndexScheduler.scheduleRefresh(
-                                FileStore.all(),
+                                List.of(file),
                                 "didChangeWatchedFiles:javaDeleted",
-                                0,
-                                CompletionIndexRefreshMode.FULL_REBUILD);
+                                COMPLETION_INDEX_DEBOUNCE_MS,
+                                CompletionIndexRefreshMode.WORKSPACE_DECLARATION_MERGE);
                         break;
                 }
                 if (!activeDocuments.isEmpty()) {
@@ -1182,8 +1292,13 @@ class JavaLanguageServer extends LanguageServer {
                 }
                 continue;            }
             var name = file.getFileName().toString();
+            if (name.endsWith(".jar")) {
+                // Views of class paths holding it check their jars again on the next lookup
+                ClassPathJars.changed();
+            }
             if (isCompilerConfigFile(name)) {
                 LOG.info(String.format("Compiler needs to be re-created because %s has changed", file));
+                ClassPathJars.changed();
                 compilerInputsChanged = true;
             }
         }
@@ -1247,7 +1362,9 @@ class JavaLanguageServer extends LanguageServer {
         if (!FileStore.isJavaFile(uri)) return Optional.empty();
         var file = Paths.get(uri);
         ensureTypeIndexReady("hoverBootstrap", NAVIGATION_BOOTSTRAP_WAIT_MS, true);
-        var content = new HoverProvider(getOrCreateCompiler()).hover(file, line, column);
+        var content =
+                new HoverProvider(getOrCreateCompiler(), completionSnapshotRef.get().typeIndex())
+                        .hover(file, line, column);
         if (content == null) {
             return Optional.empty();
         }
@@ -1298,16 +1415,35 @@ class JavaLanguageServer extends LanguageServer {
         var line = position.position.line + 1;
         var column = position.position.character + 1;
         ensureTypeIndexReady("referencesBootstrap", NAVIGATION_BOOTSTRAP_WAIT_MS, true);
+        var token = position.partialResultToken;
+        var streamed = new boolean[1];
+        // Partial results may only be sent when the client asked for them with a token
+        var streams = token != null && token.isJsonPrimitive();
+        Consumer<List<Location>> partialResults = !streams ? found -> {} : found -> {
+            sendPartialResult(token, found);
+            streamed[0] = true;
+        };
         var found =
                 new ReferenceProvider(
-                                getOrCreateCompiler(), file, line, column)
+                                getOrCreateCompiler(), file, line, column, partialResults)
                         .find();
         if (found == ReferenceProvider.NOT_SUPPORTED) {
             return Optional.empty();
         }
+        // Once anything went out as a partial result, the response itself must carry nothing.
+        if (streamed[0]) {
+            return Optional.of(List.of());
+        }
         return Optional.of(found);
     }
 
+    private void sendPartialResult(JsonElement token, List<Location> found) {
+        var progress = new JsonObject();
+        progress.add("token", token);
+        progress.add("value", GSON.toJsonTree(found));
+        client.customNotification("$/progress", progress);
+    }
+
     @Override
     public List<SymbolInformation> documentSymbol(DocumentSymbolParams params) {
         if (!FileStore.isJavaFile(params.textDocument.uri)) return List.of();
@@ -1442,7 +1578,7 @@ class JavaLanguageServer extends LanguageServer {
                 var notificationParams = new HashMap<String, String>();
                 notificationParams.put("oldPath", oldPath);
                 notificationParams.put("newPath", newPath);
-                client.customNotification("java/renameFile", new Gson().toJsonTree(notificationParams));
+                client.customNotification("java/renameFile", GSON.toJsonTree(notificationParams));
             }
         }
         return response;
@@ -1636,6 +1772,13 @@ class JavaLanguageServer extends LanguageServer {
         }
         FileStore.open(params);
         if (!FileStore.isWorkspaceJavaFile(params.textDocument.uri)) return;
+        var opened = Paths.get(params.textDocument.uri);
+        DocCache.prewarm(opened, () -> {
+            ensureTypeIndexReady("docPrewarm", NAVIGATION_BOOTSTRAP_WAIT_MS, false);
+            var snapshot = completionSnapshotRef.get();
+            new CompletionProvider(getOrCreateCompiler(), snapshot.typeIndex(), snapshot.version())
+                    .prewarmImportedDocs(opened);
+        });
         // For large workspaces, defer full index — only index the open file initially.
         // Full workspace index is built lazily on first completion/navigation that needs it.
         if (FileStore.all().size() > LARGE_WORKSPACE_THRESHOLD) {
@@ -1650,15 +1793,10 @@ class JavaLanguageServer extends LanguageServer {
         FileStore.change(params);
         if (!FileStore.isWorkspaceJavaFile(params.textDocument.uri)) return;
         var file = Paths.get(params.textDocument.uri);
-        var refreshCompletionIndex = analyzeActiveDocumentChange(file, params.contentChanges);
         if (completionSnapshotRef.get().scope() == CompletionIndexScope.EMPTY) {
             completionIndexScheduler.scheduleActiveBootstrapIfNeeded("didChangeActiveBootstrap");
-        } else if (refreshCompletionIndex) {
-            completionIndexScheduler.scheduleRefresh(
-                    List.of(file),
-                    "didChange",
-                    COMPLETION_INDEX_DEBOUNCE_MS,
-                    CompletionIndexRefreshMode.WORKSPACE_DECLARATION_MERGE);
+        } else {
+            scheduleChangeAnalysis(file, params.contentChanges);
         }
     }
 
@@ -1886,18 +2024,28 @@ class JavaLanguageServer extends LanguageServer {
             if (javaFiles.isEmpty()) {
                 return;
             }
-            var filesBatch = List.copyOf(javaFiles);
             synchronized (JavaLanguageServer.this) {
+                var busy = pendingCompletionIndex != null && !pendingCompletionIndex.isDone();
                 // Don't cancel an in-progress full rebuild to schedule another identical one
-                if (pendingCompletionIndex != null
-                        && !pendingCompletionIndex.isDone()
-                        && mode == CompletionIndexRefreshMode.FULL_REBUILD) {
+                if (busy && mode == CompletionIndexRefreshMode.FULL_REBUILD) {
+                    return;
+                }
+                var merge = mode == CompletionIndexRefreshMode.WORKSPACE_DECLARATION_MERGE;
+                if (busy && merge && pendingCompletionIndexMode == CompletionIndexRefreshMode.FULL_REBUILD) {
+                    // Nor for a merge; the rebuild schedules queued merges when it finishes
+                    for (var file : javaFiles) pendingMergeFiles.put(file, completionIndexRevision.get());
                     return;
                 }
                 if (pendingCompletionIndex != null) {
                     pendingCompletionIndex.cancel(false);
                 }
                 var revision = completionIndexRevision.incrementAndGet();
+                if (merge) {
+                    // Take over the files of any merge this one replaced
+                    for (var file : javaFiles) pendingMergeFiles.put(file, revision);
+                }
+                var filesBatch = merge ? List.copyOf(pendingMergeFiles.keySet()) : List.copyOf(javaFiles);
+                pendingCompletionIndexMode = mode;
                 pendingCompletionIndex =
                         completionIndexExecutor.schedule(
                                 () -> runRefresh(filesBatch, revision, trigger, mode),
@@ -1914,6 +2062,69 @@ class JavaLanguageServer extends LanguageServer {
             if (revision != completionIndexRevision.get()) {
                 return;
             }
+            // Newer schedules bump the revision; the token lets the parse stop mid-batch instead of
+            // finishing every file before the post_parse check notices.
+            var stale = CancelToken.polling(() -> revision != completionIndexRevision.get());
+            try (var scope = stale.install()) {
+                refreshLocked(files, revision, trigger, mode);
+            }
+            if (mode == CompletionIndexRefreshMode.FULL_REBUILD) {
+                List<Path> queued;
+                synchronized (JavaLanguageServer.this) {
+                    if (revision != completionIndexRevision.get()) return;
+                    pendingCompletionIndexMode = null;
+                    queued = List.copyOf(pendingMergeFiles.keySet());
+                }
+                if (!queued.isEmpty()) {
+                    scheduleRefresh(
+                            queued,
+                            trigger + ":queuedMerge",
+                            0,
+                            CompletionIndexRefreshMode.WORKSPACE_DECLARATION_MERGE);
+                }
+            }
+        }
+
+        /**
+         * Files declaring subtypes of the types that {@code files} created or deleted. Their
+         * declarations still carry the members inherited from before, so the merge re-parses them
+         * too. {@code delta} is the parse of {@code files}.
+         */
+        private List<Path> dependentSubtypeFiles(List<Path> files, WorkspaceTypeIndex delta) {
+            var base = completionSnapshotRef.get().workspaceIndex();
+            var types = new ArrayList<String>();
+            for (var file : files) {
+                var before = base.sourceFile(file);
+                if (!FileStore.contains(file)) {
+                    before.ifPresent(snapshot -> types.addAll(snapshot.declaredTypes));
+                } else if (before.isEmpty()) {
+                    delta.sourceFile(file).ifPresent(snapshot -> types.addAll(snapshot.declaredTypes));
+                }
+            }
+            if (types.isEmpty()) {
+                return List.of();
+            }
+            var batch = new HashSet<>(files);
+            var dependents = new ArrayList<Path>();
+            for (var file : base.subtypeFiles(types)) {
+                if (!batch.contains(file) && FileStore.contains(file)) {
+                    dependents.add(file);
+                }
+            }
+            return dependents;
+        }
+
+        /** Forget the queued merges that the merge at {@code revision} covered. */
+        private void forgetMergedFiles(Collection<Path> files, long revision) {
+            synchronized (JavaLanguageServer.this) {
+                for (var file : files) {
+                    pendingMergeFiles.computeIfPresent(file, (f, queuedAt) -> queuedAt <= revision ? null : queuedAt);
+                }
+            }
+        }
+
+        private void refreshLocked(
+                List<Path> files, long revision, String trigger, CompletionIndexRefreshMode mode) {
             synchronized (completionIndexCompileMutex) {
                 var started = Instant.now();
                 CompileTask task = null;
@@ -1933,13 +2144,24 @@ class JavaLanguageServer extends LanguageServer {
                     WorkspaceTypeIndex nextIndex;
                     Instant indexStarted;
                     if (mode == CompletionIndexRefreshMode.FULL_REBUILD) {
+                        // Warm start: reuse the persisted snapshot for every file whose
+                        // fingerprint still matches, and only parse the rest.
+                        var snapshotStore = WorkspaceIndexSnapshotStore.forWorkspace(workspaceRoot);
+                        var volatileFiles = Set.copyOf(FileStore.activeDocuments());
+                        var restored = snapshotStore.restore(files, volatileFiles);
+                        var filesToParse = restored.isPresent() ? List.copyOf(restored.get().staleFiles()) : files;
+                        var fingerprints = restored.isPresent()
+                                ? restored.get().fingerprints()
+                                : WorkspaceIndexSnapshotStore.fingerprints(files);
                         // Parse-only path: ~15x faster than compilation for large workspaces.
                         reportWorkDoneProgress(bootstrapProgressToken,
-                                "Parsing " + files.size() + " files");
-                        var parseStarted = Instant.now();
-                        var parseTasks = compiler.parseAll(files);
-                        var parseTook = Duration.between(parseStarted, Instant.now()).toMillis();
-                        LOG.info(String.format("[perf] index_parse files=%d took=%dms", files.size(), parseTook));
+                                "Parsing " + filesToParse.size() + " files");
+                        var parsed = compiler.parseAllTimed(filesToParse);
+                        var parseTasks = parsed.tasks();
+                        LOG.info(String.format(
+                                "[perf] index_parse files=%d restored=%d workers=%d parse_cpu=%dms slowest_worker=%dms took=%dms",
+                                filesToParse.size(), files.size() - filesToParse.size(), parsed.workers(),
+                                parsed.parseMs(), parsed.slowestWorkerMs(), parsed.wallMs()));
                         if (revision != completionIndexRevision.get()) {
                             LOG.fine(String.format(
                                     "[perf] completion_index_refresh_skip trigger=%s phase=post_parse expected=%d current=%d",
@@ -1948,16 +2170,29 @@ class JavaLanguageServer extends LanguageServer {
                             return;
                         }
                         indexStarted = Instant.now();
-                        nextIndex = WorkspaceTypeIndex.fromParseTrees(parseTasks);
+                        compiler.updateReferenceIndex(parseTasks);
+                        compiler.updateSymbolIndex(parseTasks);
+                        var parsedIndex = WorkspaceTypeIndex.fromParseTrees(parseTasks);
+                        nextIndex = restored.isPresent()
+                                ? restored.get().index().replaceWorkspaceDeclarations(
+                                        parsedIndex, new LinkedHashSet<>(filesToParse))
+                                : parsedIndex;
                         LOG.info(String.format("[perf] index_build files=%d types=%d took=%dms",
-                                files.size(), nextIndex.size(),
+                                filesToParse.size(), nextIndex.size(),
                                 Duration.between(indexStarted, Instant.now()).toMillis()));
+                        if (restored.isEmpty() || !filesToParse.isEmpty()) {
+                            snapshotStore.save(nextIndex, fingerprints, volatileFiles);
+                        }
                     } else {
                         // WORKSPACE_DECLARATION_MERGE / ACTIVE_DOCUMENT_BOOTSTRAP:
                         // Use parse-only for index updates — compile (ATTR) hangs on large
                         // multi-module projects due to javac internal errors.
                         // Parse captures type declarations and member signatures accurately.
-                        var parseTasks = compiler.parseAll(files);
+                        // Deleted files have nothing to parse; the merge just drops their declarations.
+                        var parseTasks = compiler.parseAll(
+                                mode == CompletionIndexRefreshMode.WORKSPACE_DECLARATION_MERGE
+                                        ? files.stream().filter(FileStore::contains).toList()
+                                        : files);
                         if (revision != completionIndexRevision.get()) {
                             LOG.fine(String.format(
                                     "[perf] completion_index_refresh_skip trigger=%s phase=post_compile expected=%d current=%d",
@@ -1965,10 +2200,22 @@ class JavaLanguageServer extends LanguageServer {
                             endWorkDoneProgress(bootstrapProgressToken, null);
                             return;
                         }
+                        nextIndex = WorkspaceTypeIndex.fromParseTrees(parseTasks);
+                        if (mode == CompletionIndexRefreshMode.WORKSPACE_DECLARATION_MERGE) {
+                            var dependents = dependentSubtypeFiles(files, nextIndex);
+                            if (!dependents.isEmpty()) {
+                                parseTasks = new ArrayList<>(parseTasks);
+                                parseTasks.addAll(compiler.parseAll(dependents));
+                                nextIndex = WorkspaceTypeIndex.fromParseTrees(parseTasks);
+                                files = new ArrayList<>(files);
+                                files.addAll(dependents);
+                            }
+                        }
                         indexStarted = Instant.now();
                         reportWorkDoneProgress(bootstrapProgressToken,
                                 "Indexed " + files.size() + " files");
-                        nextIndex = WorkspaceTypeIndex.fromParseTrees(parseTasks);
+                        compiler.updateReferenceIndex(parseTasks);
+                        compiler.updateSymbolIndex(parseTasks);
                     }
                     if (revision != completionIndexRevision.get()) {
                         LOG.fine(String.format(
@@ -1984,6 +2231,7 @@ class JavaLanguageServer extends LanguageServer {
                     if (mode == CompletionIndexRefreshMode.WORKSPACE_DECLARATION_MERGE) {
                         installMergedTypeMemberIndex(
                                 nextIndex, files, indexVersion, "index:" + trigger, installTook);
+                        forgetMergedFiles(files, revision);
                     } else {
                         var scope =
                                 mode == CompletionIndexRefreshMode.FULL_REBUILD
@@ -2014,6 +2262,11 @@ class JavaLanguageServer extends LanguageServer {
                             mode.name().toLowerCase(),
                             Duration.between(started, indexStarted).toMillis(),
                             totalMs));
+                } catch (CancellationException e) {
+                    LOG.fine(String.format(
+                            "[perf] completion_index_refresh_skip trigger=%s phase=cancelled expected=%d current=%d",
+                            trigger, revision, completionIndexRevision.get()));
+                    endWorkDoneProgress(bootstrapProgressToken, null);
                 } catch (RuntimeException e) {
                     endWorkDoneProgress(bootstrapProgressToken, "Index failed");
                     LOG.warning(
@@ -2040,6 +2293,7 @@ class JavaLanguageServer extends LanguageServer {
                 completionIndexRevision.incrementAndGet();
                 pendingCompletionIndex.cancel(false);
                 pendingCompletionIndex = null;
+                pendingCompletionIndexMode = null;
             }
             LOG.fine(String.format("[perf] completion_index_cancel reason=%s", reason));
         }
@@ -0,0 +1,126 @@
+package org.javacs;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import java.util.Arrays;
+import org.javacs.lsp.Position;
+
+/**
+ * Start offset of every line of a text, so line/column and offset conversions are a binary search
+ * instead of a walk from the start of the file.
+ *
+ * <p>{@code \n}, {@code \r\n} and a lone {@code \r} all end a line, as in LSP. Indexes are immutable;
+ * {@link #edit} derives the index of an edited text by rescanning only the edited lines and shifting
+ * the starts after them.
+ */
+final class LineIndex {
+    /** Indexes of recently converted texts, by identity, so per-location conversions share one scan. */
+    private static final Cache<CharSequence, LineIndex> RECENT =
+            Caffeine.newBuilder().weakKeys().maximumSize(64).build();
+
+    private final CharSequence text;
+    private final int[] starts;
+
+    private LineIndex(CharSequence text, int[] starts) {
+        this.text = text;
+        this.starts = starts;
+    }
+
+    /** Index of {@code text}, reusing the one built for this same instance if there is one. */
+    static LineIndex of(CharSequence text) {
+        return RECENT.get(text, LineIndex::scan);
+    }
+
+    /** Let {@link #of} find {@code index} for {@code text} without scanning it. */
+    static void remember(CharSequence text, LineIndex index) {
+        RECENT.put(text, new LineIndex(text, index.starts));
+    }
+
+    static LineIndex scan(CharSequence text) {
+        var starts = new IntArrayList();
+        starts.add(0);
+        scan(text, 0, text.length(), Integer.MAX_VALUE, starts);
+        return new LineIndex(text, starts.toIntArray());
+    }
+
+    /**
+     * Index of {@code edited}, which is this index's text with {@code [start, end)} replaced by
+     * {@code insertedLength} characters.
+     */
+    LineIndex edit(CharSequence edited, int start, int end, int insertedLength) {
+        var delta = insertedLength - (end - start);
+        var editedEnd = start + insertedLength;
+        // A '\r' just before the edit may pair with a '\n' the edit inserts or removes
+        var firstLine = lineOf(Math.max(0, start - 1));
+        // Starts past end + 1 follow a terminator the edit didn't touch, so they only shift
+        var keptFrom = Arrays.binarySearch(starts, end + 2);
+        keptFrom = keptFrom >= 0 ? keptFrom : -keptFrom - 1;
+
+        var result = new IntArrayList(firstLine + 1 + (starts.length - keptFrom) + 16);
+        result.addElements(0, starts, 0, firstLine + 1);
+        scan(edited, starts[firstLine], Math.min(edited.length(), editedEnd + 1), editedEnd + 1, result);
+        for (var i = keptFrom; i < starts.length; i++) {
+            result.add(starts[i] + delta);
+        }
+        return new LineIndex(edited, result.toIntArray());
+    }
+
+    /**
+     * Add the start of every line whose terminator begins in {@code [from, to)} and which starts at
+     * or before {@code limit}.
+     */
+    private static void scan(CharSequence text, int from, int to, int limit, IntArrayList into) {
+        for (var i = from; i < to; i++) {
+            var c = text.charAt(i);
+            if (c == '\r' && i + 1 < text.length() && text.charAt(i + 1) == '\n') {
+                i++;
+            } else if (c != '\n' && c != '\r') {
+                continue;
+            }
+            if (i + 1 > limit) return;
+            into.add(i + 1);
+        }
+    }
+
+    int lineCount() {
+        return starts.length;
+    }
+
+    /** 0-based line containing {@code offset}. */
+    int lineOf(int offset) {
+        var found = Arrays.binarySearch(starts, offset);
+        return found >= 0 ? found : -found - 2;
+    }
+
+    int lineStart(int line) {
+        return starts[line];
+    }
+
+    /** Offset of the end of {@code line}'s content, before its line terminator. */
+    int lineEnd(int line) {
+        if (line + 1 >= starts.length) return text.length();
+        var next = starts[line + 1];
+        if (next >= 2 && text.charAt(next - 1) == '\n' && text.charAt(next - 2) == '\r') return next - 2;
+        return next - 1;
+    }
+
+    /** 0-based line and character to offset; characters past the end of the line stop at its end. */
+    int offsetAt(int line, int character) {
+        if (line < 0) line = 0;
+        if (character < 0) character = 0;
+        if (line >= starts.length) return text.length();
+        return Math.min(starts[line] + character, lineEnd(line));
+    }
+
+    Position positionAt(int offset) {
+        if (offset < 0) offset = 0;
+        if (offset > text.length()) offset = text.length();
+        var line = lineOf(offset);
+        // Between the '\r' and '\n' of one terminator counts as the start of the next line
+        if (offset > 0 && offset < text.length() && text.charAt(offset - 1) == '\r' && text.charAt(offset) == '\n') {
+            return new Position(line + 1, 0);
+        }
+        return new Position(line, offset - starts[line]);
+    }
+}
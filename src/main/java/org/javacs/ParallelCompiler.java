@@ -0,0 +1,112 @@
+package org.javacs;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import org.javacs.lsp.CancelToken;
+
+/**
+ * Compiles independent chunks of files at once, for searches that only need each file attributed
+ * once and can combine per-chunk results, like find-references over hundreds of candidates.
+ *
+ * <p>One compile of every candidate holds all of their trees and symbols at once and keeps the
+ * compile lock for the whole search. Here each worker owns its own file manager and javac context,
+ * so chunks never touch the state the compile lock guards and the lock stays free for other
+ * requests. Contexts come from a separate pool, so the search doesn't evict the contexts that
+ * {@link JavaCompilerService#compile} keeps warm.
+ */
+final class ParallelCompiler {
+    private static final Logger LOG = Logger.getLogger("main");
+
+    /** Each worker keeps a javac context alive; past a few the memory costs more than the speedup. */
+    static final int MAX_WORKERS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+
+    private static final ExecutorService POOL =
+            Executors.newFixedThreadPool(
+                    MAX_WORKERS, Thread.ofPlatform().daemon().name("javacs-compile-", 0).factory());
+
+    private static final ThreadLocal<SourceFileManager> WORKER_FILE_MANAGER =
+            ThreadLocal.withInitial(SourceFileManager::new);
+
+    private static final ThreadLocal<List<Diagnostic<? extends JavaFileObject>>> WORKER_DIAGS =
+            ThreadLocal.withInitial(ArrayList::new);
+
+    private final JavaCompilerService parent;
+    private final ReusableCompiler contexts = new ReusableCompiler(MAX_WORKERS);
+
+    ParallelCompiler(JavaCompilerService parent) {
+        this.parent = parent;
+    }
+
+    /**
+     * Compile every chunk on the worker pool and apply {@code work} to it while its task is open.
+     * Results reach {@code onResult} on the calling thread, in the order the chunks finish.
+     */
+    <T> void compileChunks(
+            List<List<Path>> chunks, BiFunction<Integer, CompileTask, T> work, Consumer<? super T> onResult) {
+        var started = System.nanoTime();
+        // Workers don't inherit the caller's token, so pass it along explicitly.
+        var cancel = CancelToken.current();
+        var done = new ExecutorCompletionService<T>(POOL);
+        var futures = new ArrayList<Future<T>>(chunks.size());
+        for (var i = 0; i < chunks.size(); i++) {
+            var index = i;
+            var chunk = chunks.get(i);
+            futures.add(done.submit(() -> compileChunk(index, chunk, work, cancel)));
+        }
+        for (var i = 0; i < chunks.size(); i++) {
+            onResult.accept(await(done, futures));
+        }
+        LOG.info(String.format("[perf] compile_chunks chunks=%d files=%d workers=%d took=%dms",
+                chunks.size(),
+                chunks.stream().mapToInt(List::size).sum(),
+                Math.min(MAX_WORKERS, chunks.size()),
+                (System.nanoTime() - started) / 1_000_000));
+    }
+
+    private <T> T compileChunk(
+            int index, List<Path> chunk, BiFunction<Integer, CompileTask, T> work, CancelToken cancel) {
+        try (var scope = cancel.install()) {
+            cancel.checkCancelled();
+            var sources = new ArrayList<JavaFileObject>(chunk.size());
+            for (var f : chunk) sources.add(new SourceFileObject(f));
+            var batch = new CompileBatch(parent, sources, contexts, WORKER_FILE_MANAGER.get(), WORKER_DIAGS.get());
+            try {
+                parent.recordReferences(batch);
+                var task = new CompileTask(
+                        batch.task, batch.trees, batch.elements, batch.types, batch.roots, batch.diagnostics,
+                        batch::close);
+                return work.apply(index, task);
+            } finally {
+                batch.close();
+            }
+        }
+    }
+
+    private static <T> T await(ExecutorCompletionService<T> done, List<Future<T>> all) {
+        try {
+            return done.take().get();
+        } catch (InterruptedException e) {
+            all.forEach(f -> f.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            all.forEach(f -> f.cancel(true));
+            if (e.getCause() instanceof CancellationException cancelled) throw cancelled;
+            LOG.warning("[compile] parallel compile failed: " + e.getCause());
+            if (e.getCause() instanceof RuntimeException runtime) throw runtime;
+            throw new RuntimeException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package org.javacs;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+import org.javacs.lsp.CancelToken;
+
+/**
+ * Parses many files at once on a bounded pool of worker threads.
+ *
+ * <p>{@link Parser} shares one static {@link SourceFileManager} across every parse, which is fine
+ * for one-off request parses but keeps a full index rebuild of thousands of files on one core.
+ * Each worker here owns its own file manager and pulls the next file from a shared cursor, so slow
+ * files don't leave other workers idle. Results keep the input order.
+ */
+final class ParallelParser {
+    private static final Logger LOG = Logger.getLogger("main");
+
+    /** Below this many files per worker, the pool overhead is larger than the parse. */
+    private static final int MIN_FILES_PER_WORKER = 16;
+
+    static final int MAX_WORKERS = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+
+    private static final ExecutorService POOL =
+            Executors.newFixedThreadPool(
+                    MAX_WORKERS, Thread.ofPlatform().daemon().name("javacs-parse-", 0).factory());
+
+    private static final ThreadLocal<SourceFileManager> WORKER_FILE_MANAGER =
+            ThreadLocal.withInitial(SourceFileManager::new);
+
+    /**
+     * Parsed trees plus timings for the {@code [perf] index_parse} log line.
+     *
+     * @param wallMs elapsed time for the whole batch
+     * @param parseMs parse time summed over all workers
+     * @param slowestWorkerMs busy time of the most loaded worker
+     */
+    record Result(List<ParseTask> tasks, int workers, long wallMs, long parseMs, long slowestWorkerMs) {}
+
+    private ParallelParser() {}
+
+    static Result parseAll(Collection<Path> files) {
+        var started = System.nanoTime();
+        var sources = List.copyOf(files);
+        var workers = workerCount(sources.size());
+        var results = new ParseTask[sources.size()];
+        var busyNanos = new long[workers];
+        // Workers don't inherit the caller's token, so pass it along explicitly.
+        var cancel = CancelToken.current();
+        if (workers <= 1) {
+            busyNanos[0] = parseRange(sources, results, new AtomicInteger(), null, cancel);
+        } else {
+            var cursor = new AtomicInteger();
+            var futures = new ArrayList<Future<Long>>(workers);
+            for (var i = 0; i < workers; i++) {
+                futures.add(POOL.submit(() -> parseRange(sources, results, cursor, WORKER_FILE_MANAGER.get(), cancel)));
+            }
+            for (var i = 0; i < workers; i++) {
+                busyNanos[i] = await(futures.get(i), futures);
+            }
+        }
+        var parseNanos = Arrays.stream(busyNanos).sum();
+        var slowestNanos = Arrays.stream(busyNanos).max().orElse(0);
+        return new Result(
+                Arrays.asList(results),
+                workers,
+                (System.nanoTime() - started) / 1_000_000,
+                parseNanos / 1_000_000,
+                slowestNanos / 1_000_000);
+    }
+
+    private static int workerCount(int files) {
+        return Math.max(1, Math.min(MAX_WORKERS, files / MIN_FILES_PER_WORKER));
+    }
+
+    private static long parseRange(
+            List<Path> sources,
+            ParseTask[] results,
+            AtomicInteger cursor,
+            SourceFileManager fileManager,
+            CancelToken cancel) {
+        var busy = 0L;
+        for (var i = cursor.getAndIncrement(); i < sources.size(); i = cursor.getAndIncrement()) {
+            cancel.checkCancelled();
+            var fileStarted = System.nanoTime();
+            var file = new SourceFileObject(sources.get(i));
+            // Small batches run on the caller and share Parser's file manager, like parse(file).
+            var parser = fileManager == null
+                    ? Parser.parseJavaFileObject(file)
+                    : Parser.parseJavaFileObject(file, fileManager);
+            results[i] = new ParseTask(parser.task, parser.root);
+            busy += System.nanoTime() - fileStarted;
+        }
+        return busy;
+    }
+
+    private static long await(Future<Long> future, List<Future<Long>> all) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            all.forEach(f -> f.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            all.forEach(f -> f.cancel(true));
+            if (e.getCause() instanceof CancellationException cancelled) throw cancelled;
+            LOG.warning("[parse] parallel parse failed: " + e.getCause());
+            if (e.getCause() instanceof RuntimeException runtime) throw runtime;
+            throw new RuntimeException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package org.javacs;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.sun.source.tree.ClassTree;
+import com.sun.source.tree.MethodTree;
+import com.sun.source.tree.VariableTree;
+import com.sun.source.util.DocTrees;
+import com.sun.source.util.TreePathScanner;
+import java.nio.file.Path;
+
+/**
+ * The parse of each open document at its latest version, shared by every provider that asks.
+ *
+ * <p>Editors send completion, signature help and inlay hints for the same version within a few
+ * milliseconds of each other; each used to build its own parser and {@code JavacTask}. Concurrent
+ * requests for the same version wait for one parse instead. A new version whose text is unchanged
+ * (an edit and its undo between two requests, or an edit that replaced text with itself) keeps the
+ * parse it already has.
+ *
+ * <p>Sharing is only safe because nothing in the javac context changes after {@link #parse}: parse
+ * trees are only read, {@link com.sun.source.util.Trees#instance} was registered by the parser, and
+ * doc comments, which javac parses lazily into a plain map on first {@link
+ * DocTrees#getDocCommentTree}, are all parsed before the entry is published.
+ *
+ * <p>Files that aren't open have no version and are parsed fresh every time.
+ */
+final class ParseCache {
+    private static final String METRIC = "parse_tree";
+    /** Parse tasks hold a javac context each, so only the documents being worked on are kept. */
+    private static final int MAX_DOCUMENTS = 8;
+
+    private record Entry(int version, String contents, ParseTask parse) {}
+
+    private static final Cache<Path, Entry> CACHE = Caffeine.newBuilder().maximumSize(MAX_DOCUMENTS).build();
+
+    private ParseCache() {}
+
+    /** The parse of {@code source}, which must carry the contents and version of an open document. */
+    static ParseTask get(SourceFileObject source) {
+        var hit = new boolean[1];
+        var entry =
+                CACHE.asMap()
+                        .compute(
+                                source.path,
+                                (path, existing) -> {
+                                    if (existing != null && existing.contents().equals(source.contents)) {
+                                        // Versions of one document share their text, so this is usually identity
+                                        hit[0] = true;
+                                        return existing.version() == source.version
+                                                ? existing
+                                                : new Entry(source.version, source.contents, existing.parse());
+                                    }
+                                    if (existing != null && existing.version() > source.version) {
+                                        // A late request for an older version; don't replace the newer one
+                                        return existing;
+                                    }
+                                    return new Entry(source.version, source.contents, parse(source));
+                                });
+        if (!entry.contents().equals(source.contents)) {
+            CacheAudit.miss(METRIC);
+            return parse(source);
+        }
+        if (hit[0]) {
+            CacheAudit.hit(METRIC);
+        } else {
+            CacheAudit.miss(METRIC);
+            CacheAudit.store(METRIC);
+        }
+        return entry.parse();
+    }
+
+    /** Forget the parse of {@code file}, e.g. when its document closes. */
+    static void invalidate(Path file) {
+        CACHE.invalidate(file);
+    }
+
+    private static ParseTask parse(SourceFileObject source) {
+        var parser = Parser.parseJavaFileObject(source);
+        var parse = new ParseTask(parser.task, parser.root);
+        parseDocComments(parse);
+        return parse;
+    }
+
+    /** Parse every doc comment now, so threads sharing {@code parse} only read javac's comment table. */
+    private static void parseDocComments(ParseTask parse) {
+        var docs = DocTrees.instance(parse.task());
+        new TreePathScanner<Void, Void>() {
+            @Override
+            public Void visitClass(ClassTree tree, Void unused) {
+                docs.getDocCommentTree(getCurrentPath());
+                return super.visitClass(tree, null);
+            }
+
+            @Override
+            public Void visitMethod(MethodTree tree, Void unused) {
+                docs.getDocCommentTree(getCurrentPath());
+                return super.visitMethod(tree, null);
+            }
+
+            @Override
+            public Void visitVariable(VariableTree tree, Void unused) {
+                docs.getDocCommentTree(getCurrentPath());
+                return super.visitVariable(tree, null);
+            }
+        }.scan(parse.root(), null);
+    }
+}
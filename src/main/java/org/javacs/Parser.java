@@ -15,9 +15,9 @@ class Parser {
     private static final SourceFileManager FILE_MANAGER = new SourceFileManager();
 
     /** Create a task that compiles a single file */
-    private static JavacTask singleFileTask(JavaFileObject file) {
+    private static JavacTask singleFileTask(JavaFileObject file, SourceFileManager fileManager) {
         return (JavacTask)
-                COMPILER.getTask(null, FILE_MANAGER, Parser::ignoreError, List.of(), List.of(), List.of(file));
+                COMPILER.getTask(null, fileManager, Parser::ignoreError, List.of(), List.of(), List.of(file));
     }
 
     final JavaFileObject file;
@@ -26,14 +26,14 @@ class Parser {
     final CompilationUnitTree root;
     final Trees trees;
 
-    private Parser(JavaFileObject file) {
+    private Parser(JavaFileObject file, SourceFileManager fileManager) {
         this.file = file;
         try {
             this.contents = file.getCharContent(false).toString();
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
-        this.task = singleFileTask(file);
+        this.task = singleFileTask(file, fileManager);
         try {
             this.root = task.parse().iterator().next();
         } catch (IOException e) {
@@ -49,7 +49,12 @@ class Parser {
     static Parser parseJavaFileObject(JavaFileObject file) {
         // Parse directly from the current SourceFileObject document contents.
         // This avoids cross-request stale AST races on shared global parse state.
-        return new Parser(file);
+        return new Parser(file, FILE_MANAGER);
+    }
+
+    /** Parse with a caller-owned file manager, so parallel workers don't share one. */
+    static Parser parseJavaFileObject(JavaFileObject file, SourceFileManager fileManager) {
+        return new Parser(file, fileManager);
     }
 
 
@@ -0,0 +1,108 @@
+package org.javacs;
+
+import java.util.Arrays;
+
+/**
+ * Immutable text made of slices of other strings, so an incremental edit to an open document costs
+ * a copy of the slice list instead of a copy of the whole text.
+ *
+ * <p>Each edit splits at most one slice and adds one for the inserted text, which is referenced, not
+ * copied. Once there are more than {@link #MAX_PIECES} slices the next edit flattens them into one
+ * string, so lookups stay cheap on documents that are edited for a long time. {@link #toString} is
+ * computed once per instance.
+ */
+final class PieceTable implements CharSequence {
+    static final int MAX_PIECES = 256;
+
+    private final String[] sources;
+    private final int[] offsets;
+    /** ends[i] is the offset in this text just past piece i. */
+    private final int[] ends;
+    private String flat;
+
+    private PieceTable(String[] sources, int[] offsets, int[] ends) {
+        this.sources = sources;
+        this.offsets = offsets;
+        this.ends = ends;
+    }
+
+    static PieceTable of(String text) {
+        var table = new PieceTable(new String[] {text}, new int[] {0}, new int[] {text.length()});
+        table.flat = text;
+        return table;
+    }
+
+    /** This text with {@code [start, end)} replaced by {@code text}. */
+    PieceTable replace(int start, int end, String text) {
+        if (ends.length >= MAX_PIECES) {
+            var flattened = toString();
+            return of(flattened.substring(0, start) + text + flattened.substring(end));
+        }
+        // The piece containing the edit may be split in two, plus one piece for the inserted text
+        var capacity = ends.length + 2;
+        var next = new PieceTable(new String[capacity], new int[capacity], new int[capacity]);
+        var count = 0;
+        for (var i = 0; i < ends.length && pieceStart(i) < start; i++) {
+            count = next.append(count, sources[i], offsets[i], Math.min(ends[i], start) - pieceStart(i));
+        }
+        if (!text.isEmpty()) {
+            count = next.append(count, text, 0, text.length());
+        }
+        for (var i = 0; i < ends.length; i++) {
+            if (ends[i] <= end) continue;
+            var skip = Math.max(end, pieceStart(i)) - pieceStart(i);
+            count = next.append(count, sources[i], offsets[i] + skip, ends[i] - pieceStart(i) - skip);
+        }
+        return new PieceTable(
+                Arrays.copyOf(next.sources, count), Arrays.copyOf(next.offsets, count), Arrays.copyOf(next.ends, count));
+    }
+
+    private int pieceStart(int piece) {
+        return piece == 0 ? 0 : ends[piece - 1];
+    }
+
+    private int append(int count, String source, int offset, int length) {
+        sources[count] = source;
+        offsets[count] = offset;
+        ends[count] = (count == 0 ? 0 : ends[count - 1]) + length;
+        return count + 1;
+    }
+
+    int pieceCount() {
+        return ends.length;
+    }
+
+    @Override
+    public int length() {
+        return ends.length == 0 ? 0 : ends[ends.length - 1];
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (flat != null) return flat.charAt(index);
+        if (index < 0 || index >= length()) throw new IndexOutOfBoundsException(index);
+        var piece = Arrays.binarySearch(ends, index);
+        // ends are exclusive, so an exact hit belongs to the next piece
+        piece = piece >= 0 ? piece + 1 : -piece - 1;
+        return sources[piece].charAt(offsets[piece] + index - pieceStart(piece));
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().substring(start, end);
+    }
+
+    @Override
+    public String toString() {
+        var result = flat;
+        if (result == null) {
+            var builder = new StringBuilder(length());
+            for (var i = 0; i < ends.length; i++) {
+                builder.append(sources[i], offsets[i], offsets[i] + ends[i] - pieceStart(i));
+            }
+            result = builder.toString();
+            flat = result;
+        }
+        return result;
+    }
+}
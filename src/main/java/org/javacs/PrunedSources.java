@@ -0,0 +1,91 @@
+package org.javacs;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.sun.source.tree.MethodTree;
+import com.sun.source.util.TreeScanner;
+import java.nio.file.Path;
+import java.time.Instant;
+import javax.tools.JavaFileObject;
+
+/**
+ * Supporting sources for a compile, with method bodies blanked so javac enters and attributes only
+ * their signatures.
+ *
+ * <p>A batch needs the declarations of the package-private classes its focus files use, but not their
+ * statements, and attributing those is most of what compiling an extra file costs. Each body's
+ * interior becomes whitespace plus {@code throw null;} on one of its lines, so every declaration
+ * keeps its offset and line, and non-void methods still pass flow analysis. Constructors keep their
+ * bodies, since their {@code super(...)} calls and final field assignments are checked. Bodies with
+ * no room for the placeholder are left alone; they cost nothing to attribute anyway.
+ *
+ * <p>Pruned text is cached by file and content hash, so a file that supports many compiles is parsed
+ * for pruning once per edit.
+ */
+final class PrunedSources {
+    private static final String PLACEHOLDER = "throw null;";
+    private static final long MAX_CACHED_CHARS = 32L << 20;
+
+    private record Key(Path file, int contentHash, int length) {}
+
+    private static final Cache<Key, String> CACHE =
+            Caffeine.newBuilder()
+                    .maximumWeight(MAX_CACHED_CHARS)
+                    .weigher((Key key, String text) -> text.length())
+                    .build();
+
+    private PrunedSources() {}
+
+    /** {@code file} as javac should see it when it only supports the files being compiled. */
+    static JavaFileObject signaturesOnly(Path file) {
+        var contents = FileStore.contents(file);
+        var key = new Key(file, contents.hashCode(), contents.length());
+        var pruned = CACHE.getIfPresent(key);
+        if (pruned != null) {
+            CacheAudit.hit("compile.pruned_source");
+        } else {
+            CacheAudit.miss("compile.pruned_source");
+            pruned = prune(file, contents);
+            CACHE.put(key, pruned);
+        }
+        var modified = FileStore.modified(file);
+        return new SourceFileObject(file, pruned, modified == null ? Instant.EPOCH : modified, -1, true);
+    }
+
+    /** {@code contents} of {@code file} with the bodies of its methods blanked. */
+    static String prune(Path file, String contents) {
+        var parse = Parser.parseJavaFileObject(new SourceFileObject(file, contents, Instant.EPOCH));
+        var positions = parse.trees.getSourcePositions();
+        var root = parse.root;
+        var text = new StringBuilder(contents);
+        new TreeScanner<Void, Void>() {
+            @Override
+            public Void visitMethod(MethodTree method, Void __) {
+                var body = method.getBody();
+                if (body == null || method.getName().contentEquals("<init>")) return null;
+                var start = (int) positions.getStartPosition(root, body) + 1;
+                var end = (int) positions.getEndPosition(root, body) - 1;
+                if (start <= 0 || end > text.length()) return null;
+                var at = placeholderAt(text, start, end);
+                if (at == -1) return null;
+                for (var i = start; i < end; i++) {
+                    if (!Character.isWhitespace(text.charAt(i))) text.setCharAt(i, ' ');
+                }
+                text.replace(at, at + PLACEHOLDER.length(), PLACEHOLDER);
+                return null;
+            }
+        }.scan(root, null);
+        return text.toString();
+    }
+
+    /** Start of the first run in {@code [start, end)} that fits the placeholder without crossing a line, or -1. */
+    private static int placeholderAt(CharSequence text, int start, int end) {
+        var run = 0;
+        for (var i = start; i < end; i++) {
+            var c = text.charAt(i);
+            run = c == '\n' || c == '\r' ? 0 : run + 1;
+            if (run == PLACEHOLDER.length()) return i + 1 - run;
+        }
+        return -1;
+    }
+}
@@ -1,30 +1,405 @@
 package org.javacs;
 
+import com.sun.source.tree.ClassTree;
+import com.sun.source.tree.CompilationUnitTree;
 import com.sun.source.util.JavacTask;
+import com.sun.source.util.TaskEvent;
+import com.sun.source.util.TaskListener;
+import com.sun.source.util.TreeScanner;
+import com.sun.tools.javac.api.JavacTool;
+import com.sun.tools.javac.api.JavacTrees;
+import com.sun.tools.javac.api.MultiTaskListener;
+import com.sun.tools.javac.code.ClassFinder;
+import com.sun.tools.javac.code.Kinds;
+import com.sun.tools.javac.code.Preview;
+import com.sun.tools.javac.code.Symbol;
+import com.sun.tools.javac.code.Symbol.ClassSymbol;
+import com.sun.tools.javac.code.Symbol.PackageSymbol;
+import com.sun.tools.javac.code.Symtab;
+import com.sun.tools.javac.code.Type.ClassType;
+import com.sun.tools.javac.code.TypeTag;
+import com.sun.tools.javac.code.Types;
+import com.sun.tools.javac.comp.Annotate;
+import com.sun.tools.javac.comp.Check;
+import com.sun.tools.javac.comp.CompileStates;
+import com.sun.tools.javac.comp.Enter;
+import com.sun.tools.javac.comp.Modules;
+import com.sun.tools.javac.main.Arguments;
+import com.sun.tools.javac.main.JavaCompiler;
+import com.sun.tools.javac.model.JavacElements;
+import com.sun.tools.javac.tree.JCTree.JCClassDecl;
+import com.sun.tools.javac.util.Context;
+import com.sun.tools.javac.util.Log;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.function.Function;
+import java.util.logging.Logger;
+import javax.tools.Diagnostic;
 import javax.tools.DiagnosticListener;
-import javax.tools.JavaCompiler;
 import javax.tools.JavaFileManager;
 import javax.tools.JavaFileObject;
-import javax.tools.ToolProvider;
 
+/**
+ * Hands out javac tasks that reuse one javac {@link Context} across compiles, in the style of the
+ * JDK's own {@code JavacTaskPool} (used by JShell).
+ *
+ * <p>A fresh context re-reads every classpath jar and re-completes {@code java.*} and dependency
+ * symbols for each compile. A reused context keeps those completed symbols and only drops what came
+ * from sources: classes entered from the previous roots, classes read from class directories (the
+ * workspace build output, which {@link JavaCompilerService#refreshBuildOutput} rewrites), and the
+ * package listings that contained them. Symbols read from jars and the JDK image stay loaded.
+ *
+ * <p>Each {@link Borrow} owns its context until it is closed, so several {@link CompileBatch}es can
+ * stay alive in the compile cache at once; only closed contexts go back to the idle pool. Contexts
+ * are keyed by file manager and options, because most option values are cached inside javac
+ * components. Compiles that run annotation processors always get a fresh context.
+ *
+ * <p>A context is not reused after a compile crashed, after sources redefined a {@code java.*}
+ * class, or after {@link #MAX_USES} compiles, which bounds the growth of javac's name table.
+ */
 class ReusableCompiler {
-    private final JavaCompiler compiler =
-            ToolProvider.getSystemJavaCompiler();
+    private static final Logger LOG = Logger.getLogger("main");
+    private static final JavacTool SYSTEM_PROVIDER = JavacTool.create();
+
+    /** Idle contexts kept for reuse; each one holds every classpath symbol it has completed. */
+    static final int MAX_IDLE_CONTEXTS = 2;
+
+    static final int MAX_USES = 100;
+
+    private final ArrayDeque<ReusableContext> idle = new ArrayDeque<>();
+    private final int maxIdleContexts;
+    private int created, reused, retired;
+
+    ReusableCompiler() {
+        this(MAX_IDLE_CONTEXTS);
+    }
+
+    /** A pool that keeps up to {@code maxIdleContexts}, e.g. one per worker that compiles through it. */
+    ReusableCompiler(int maxIdleContexts) {
+        this.maxIdleContexts = maxIdleContexts;
+    }
 
-    @SuppressWarnings("unchecked")
     <T> T compile(
             JavaFileManager fileManager,
             DiagnosticListener<? super JavaFileObject> diagnosticListener,
             List<String> options,
             Collection<? extends JavaFileObject> compilationUnits,
             Function<JavacTask, T> worker) {
+        var borrow = borrow(fileManager, diagnosticListener, options, compilationUnits);
+        try {
+            return worker.apply(borrow.task);
+        } catch (RuntimeException | Error e) {
+            borrow.markBroken();
+            throw e;
+        } finally {
+            borrow.close();
+        }
+    }
+
+    /**
+     * Creates a task whose context may have been used by earlier compiles. The task stays valid
+     * until the borrow is closed.
+     */
+    Borrow borrow(
+            JavaFileManager fileManager,
+            DiagnosticListener<? super JavaFileObject> diagnosticListener,
+            List<String> options,
+            Collection<? extends JavaFileObject> compilationUnits) {
+        var opts = List.copyOf(options);
+        if (!opts.contains("-proc:none")) {
+            // Annotation processing state is not reset between rounds; never share it.
+            var task = SYSTEM_PROVIDER.getTask(null, fileManager, diagnosticListener, opts, null, compilationUnits);
+            return new Borrow(task, null);
+        }
+        var context = take(fileManager, opts);
+        context.uses++;
+        JavacTask task;
+        try {
+            task = SYSTEM_PROVIDER.getTask(
+                    null, fileManager, diagnosticListener, opts, null, compilationUnits, context);
+        } catch (RuntimeException | Error e) {
+            // Option errors surface here; the half-initialized context can't be trusted.
+            synchronized (this) {
+                retired++;
+            }
+            throw e;
+        }
+        task.addTaskListener(context);
+        return new Borrow(task, context);
+    }
+
+    private synchronized ReusableContext take(JavaFileManager fileManager, List<String> options) {
+        for (var it = idle.iterator(); it.hasNext(); ) {
+            var context = it.next();
+            if (context.fileManager == fileManager && context.arguments.equals(options)) {
+                it.remove();
+                reused++;
+                LOG.fine(String.format(
+                        "[perf] compiler_context reused uses=%d reused=%d created=%d retired=%d",
+                        context.uses, reused, created, retired));
+                return context;
+            }
+        }
+        created++;
+        LOG.fine(String.format(
+                "[perf] compiler_context created reused=%d created=%d retired=%d", reused, created, retired));
+        return new ReusableContext(fileManager, options);
+    }
+
+    private void release(ReusableContext context) {
+        try {
+            context.clear();
+        } catch (RuntimeException | Error e) {
+            LOG.warning("[compiler] context reset failed, discarding: " + e);
+            context.polluted = true;
+        }
+        synchronized (this) {
+            if (context.polluted || context.uses >= MAX_USES) {
+                retired++;
+                return;
+            }
+            idle.addFirst(context);
+            while (idle.size() > maxIdleContexts) {
+                idle.removeLast();
+                retired++;
+            }
+        }
+    }
+
+    /** A task checked out of the pool. Closing it returns the context for reuse. */
+    final class Borrow implements AutoCloseable {
+        final JavacTask task;
+        private final ReusableContext context;
+        private boolean closed;
+
+        private Borrow(JavacTask task, ReusableContext context) {
+            this.task = task;
+            this.context = context;
+        }
+
+        /** The task failed part way; its context may be inconsistent and must not be reused. */
+        void markBroken() {
+            if (context != null) {
+                context.polluted = true;
+            }
+        }
+
+        @Override
+        public synchronized void close() {
+            if (closed) return;
+            closed = true;
+            if (context != null) {
+                release(context);
+            }
+        }
+    }
+
+    static class ReusableContext extends Context implements TaskListener {
+        final JavaFileManager fileManager;
+        final List<String> arguments;
+        final Set<CompilationUnitTree> roots = new HashSet<>();
+        boolean polluted;
+        int uses;
+
+        ReusableContext(JavaFileManager fileManager, List<String> arguments) {
+            this.fileManager = fileManager;
+            this.arguments = arguments;
+            put(Log.logKey, ReusableLog.factory);
+            put(JavaCompiler.compilerKey, ReusableJavaCompiler.factory);
+        }
+
+        /** Drops task-scoped components and source-derived symbols so the next task starts clean. */
+        void clear() {
+            drop(Arguments.argsKey);
+            drop(DiagnosticListener.class);
+            drop(Log.outKey);
+            drop(Log.errKey);
+            drop(JavaFileManager.class);
+            drop(JavacTask.class);
+            drop(JavacTrees.class);
+            drop(JavacElements.class);
+            dropOptional("com.sun.tools.javac.platform.PlatformDescription");
+
+            if (!(ht.get(Log.logKey) instanceof ReusableLog log)) {
+                // Nothing was compiled yet.
+                return;
+            }
+            log.clear();
+            Enter.instance(this).newRound();
+            ((ReusableJavaCompiler) JavaCompiler.instance(this)).clear();
+            Types.instance(this).newRound();
+            Check.instance(this).newRound();
+            // Mandatory-warning handlers; these methods moved between JDK releases.
+            invokeOptional(Check.instance(this), "clear");
+            invokeOptional(Preview.instance(this), "clear");
+            Modules.instance(this).newRound();
+            Annotate.instance(this).newRound();
+            CompileStates.instance(this).clear();
+            MultiTaskListener.instance(this).clear();
+
+            var syms = Symtab.instance(this);
+            var stalePackages = new HashSet<PackageSymbol>();
+            pollutionScanner.scan(roots, stalePackages);
+            roots.clear();
+            if (polluted) {
+                return;
+            }
+            dropWorkspaceClasses(syms, stalePackages);
+            var completer = ClassFinder.instance(this).getCompleter();
+            for (var p : stalePackages) {
+                p.members_field = null;
+                p.completer = completer;
+            }
+        }
+
+        /**
+         * Removes every class that did not come from a jar or the JDK image, and collects the
+         * packages that held them so their listings are re-read on the next lookup.
+         */
+        private void dropWorkspaceClasses(Symtab syms, Set<PackageSymbol> stalePackages) {
+            var stale = new ArrayList<ClassSymbol>();
+            for (var c : syms.getAllClasses()) {
+                if (c.classfile != null && !isStableClassFile(c.classfile)) {
+                    stale.add(c);
+                }
+            }
+            for (var c : stale) {
+                syms.removeClass(c.packge().modle, c.flatName());
+                stalePackages.add(c.packge());
+            }
+        }
+
+        private static boolean isStableClassFile(JavaFileObject file) {
+            var scheme = file.toUri().getScheme();
+            return "jar".equals(scheme) || "jrt".equals(scheme);
+        }
+
+        /**
+         * Detects sources that redefine a core class, or that touched the kind of a core class
+         * (typically through cyclic inheritance). Such a context can't be cleaned and is discarded.
+         */
+        private final TreeScanner<Void, Set<PackageSymbol>> pollutionScanner = new TreeScanner<>() {
+            @Override
+            public Void visitClass(ClassTree node, Set<PackageSymbol> stalePackages) {
+                Symbol sym = ((JCClassDecl) node).sym;
+                if (sym != null) {
+                    Symtab.instance(ReusableContext.this).removeClass(sym.packge().modle, sym.flatName());
+                    stalePackages.add(sym.packge());
+                    var sup = supertype(sym);
+                    if (isCoreClass(sym)
+                            || (sup != null && isCoreClass(sup) && sup.kind != Kinds.Kind.TYP)) {
+                        polluted = true;
+                    }
+                }
+                return super.visitClass(node, stalePackages);
+            }
+
+            private boolean isCoreClass(Symbol s) {
+                return s.flatName().toString().startsWith("java.");
+            }
+
+            private Symbol supertype(Symbol s) {
+                if (s.type == null || !s.type.hasTag(TypeTag.CLASS)) {
+                    return null;
+                }
+                var supertype = ((ClassType) s.type).supertype_field;
+                return supertype == null ? null : supertype.tsym;
+            }
+        };
+
+        @Override
+        public void started(TaskEvent e) {}
+
+        @Override
+        public void finished(TaskEvent e) {
+            if (e.getKind() == TaskEvent.Kind.PARSE) {
+                roots.add(e.getCompilationUnit());
+            }
+        }
+
+        <T> void drop(Key<T> k) {
+            ht.remove(k);
+        }
+
+        <T> void drop(Class<T> c) {
+            ht.remove(key(c));
+        }
+
+        private void dropOptional(String className) {
+            try {
+                drop(Class.forName(className, false, Context.class.getClassLoader()));
+            } catch (ClassNotFoundException ignored) {
+                // Not present in this JDK.
+            }
+        }
+
+        private static void invokeOptional(Object target, String method) {
+            try {
+                target.getClass().getMethod(method).invoke(target);
+            } catch (NoSuchMethodException ignored) {
+                // Not present in this JDK.
+            } catch (ReflectiveOperationException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        /** JavaCompiler that tolerates being run more than once and clears its work queues. */
+        static class ReusableJavaCompiler extends JavaCompiler {
+            static final Context.Factory<JavaCompiler> factory = ReusableJavaCompiler::new;
+
+            ReusableJavaCompiler(Context context) {
+                super(context);
+            }
+
+            @Override
+            public void close() {
+                // The context outlives the task.
+            }
+
+            void clear() {
+                newRound();
+            }
+
+            @Override
+            protected void checkReusable() {
+                // Reuse is the point.
+            }
+        }
+
+        /** Log that forgets reported positions and counters between compiles. */
+        static class ReusableLog extends Log {
+            static final Context.Factory<Log> factory = ReusableLog::new;
+
+            private final Context context;
+
+            ReusableLog(Context context) {
+                super(context);
+                this.context = context;
+            }
+
+            void clear() {
+                recorded.clear();
+                sourceMap.clear();
+                nerrors = 0;
+                nwarnings = 0;
+                // Log captures the listener once at construction; look up each new task's listener lazily.
+                diagListener = new DiagnosticListener<JavaFileObject>() {
+                    DiagnosticListener<JavaFileObject> cachedListener;
 
-        var task = (JavacTask) compiler.getTask(
-                null, fileManager, diagnosticListener, options,
-                null, compilationUnits);
-        return worker.apply(task);
+                    @Override
+                    @SuppressWarnings("unchecked")
+                    public void report(Diagnostic<? extends JavaFileObject> diagnostic) {
+                        if (cachedListener == null) {
+                            cachedListener = context.get(DiagnosticListener.class);
+                        }
+                        cachedListener.report(diagnostic);
+                    }
+                };
+            }
+        }
     }
 }
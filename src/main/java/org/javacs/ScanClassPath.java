@@ -2,26 +2,23 @@ package org.javacs;
 
 import java.io.File;
 import java.io.IOException;
-import java.net.MalformedURLException;
+import java.io.UncheckedIOException;
 import java.net.URI;
-import java.net.URL;
-import java.net.URLClassLoader;
 import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayDeque;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
-import org.javacs.guava.ClassPath;
 
 public class ScanClassPath {
     private static final Map<Path, Set<String>> JDK_TOP_LEVEL_CLASSES_CACHE = new ConcurrentHashMap<>();
-    private static final Map<Set<Path>, Set<String>> CLASS_PATH_TOP_LEVEL_CLASSES_CACHE =
-            new ConcurrentHashMap<>();
 
     // TODO delete this and implement findPublicTypeDeclarationInJdk some other way
     /** All exported modules that are present in JDK 10 or 11 */
@@ -126,6 +123,19 @@ public class ScanClassPath {
             return cached;
         }
         CacheAudit.miss("scan_classpath.jdk_top_level");
+        var started = Instant.now();
+        var immutable = Set.copyOf(ClassPathCatalog.jdk(ScanClassPath::scanJdk));
+        LOG.info(
+                String.format(
+                        "[perf] jdk_classes classes=%d took=%dms",
+                        immutable.size(), Duration.between(started, Instant.now()).toMillis()));
+        JDK_TOP_LEVEL_CLASSES_CACHE.put(javaHome, immutable);
+        CacheAudit.load("scan_classpath.jdk_top_level");
+        CacheAudit.store("scan_classpath.jdk_top_level");
+        return immutable;
+    }
+
+    private static Set<String> scanJdk() {
         LOG.info("Searching for top-level classes in the JDK");
         var started = Instant.now();
 
@@ -153,55 +163,53 @@ public class ScanClassPath {
                 String.format(
                         "[perf] jdk_class_scan modules=%d classes=%d took=%dms",
                         JDK_MODULES.length, classes.size(), Duration.between(started, Instant.now()).toMillis()));
-
-        var immutable = Set.copyOf(classes);
-        JDK_TOP_LEVEL_CLASSES_CACHE.put(javaHome, immutable);
-        CacheAudit.load("scan_classpath.jdk_top_level");
-        CacheAudit.store("scan_classpath.jdk_top_level");
-        return immutable;
+        return classes;
     }
 
+    /**
+     * Top-level classes of every jar and class directory in {@code classPath}, and of the jars their
+     * manifests add. Only jars missing from {@link ClassPathCatalog} or changed since are opened.
+     */
     public static Set<String> classPathTopLevelClasses(Set<Path> classPath) {
-        var key = Set.copyOf(classPath);
-        var cached = CLASS_PATH_TOP_LEVEL_CLASSES_CACHE.get(key);
-        if (cached != null) {
-            CacheAudit.hit("scan_classpath.classpath_top_level");
-            return cached;
-        }
-        CacheAudit.miss("scan_classpath.classpath_top_level");
-        LOG.info(String.format("Searching for top-level classes in %d classpath locations", classPath.size()));
         var started = Instant.now();
-
-        var urls = classPath.stream().map(ScanClassPath::toUrl).toArray(URL[]::new);
-        var classLoader = new URLClassLoader(urls, null);
-        ClassPath scanner;
-        try {
-            scanner = ClassPath.from(classLoader);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
         var classes = new HashSet<String>();
-        for (var c : scanner.getTopLevelClasses()) {
-            classes.add(c.getName());
+        var seen = new HashSet<Path>();
+        var pending = new ArrayDeque<Path>(classPath);
+        var jars = 0;
+        var directories = 0;
+        while (!pending.isEmpty()) {
+            var location = pending.pop().toAbsolutePath().normalize();
+            if (!seen.add(location)) continue;
+            if (Files.isDirectory(location)) {
+                scanDirectory(location, classes);
+                directories++;
+            } else if (Files.isRegularFile(location)) {
+                var jar = ClassPathCatalog.jar(location);
+                classes.addAll(jar.classes());
+                pending.addAll(jar.manifestClassPath());
+                jars++;
+            }
         }
 
         LOG.info(
                 String.format(
-                        "[perf] classpath_scan locations=%d classes=%d took=%dms",
-                        classPath.size(), classes.size(), Duration.between(started, Instant.now()).toMillis()));
-
-        var immutable = Set.copyOf(classes);
-        CLASS_PATH_TOP_LEVEL_CLASSES_CACHE.put(key, immutable);
-        CacheAudit.load("scan_classpath.classpath_top_level");
-        CacheAudit.store("scan_classpath.classpath_top_level");
-        return immutable;
+                        "[perf] classpath_scan locations=%d jars=%d directories=%d classes=%d took=%dms",
+                        classPath.size(), jars, directories, classes.size(),
+                        Duration.between(started, Instant.now()).toMillis()));
+        return Set.copyOf(classes);
     }
 
-    private static URL toUrl(Path p) {
-        try {
-            return p.toUri().toURL();
-        } catch (MalformedURLException e) {
-            throw new RuntimeException(e);
+    private static void scanDirectory(Path directory, Set<String> classes) {
+        try (var stream = Files.walk(directory, FileVisitOption.FOLLOW_LINKS)) {
+            var it = stream.iterator();
+            while (it.hasNext()) {
+                var file = it.next();
+                var relative = directory.relativize(file).toString().replace(File.separatorChar, '/');
+                var name = ClassPathCatalog.topLevelClassName(relative);
+                if (name != null) classes.add(name);
+            }
+        } catch (IOException | UncheckedIOException e) {
+            LOG.warning("Cannot read directory " + directory + ": " + e.getMessage());
         }
     }
 
@@ -33,8 +33,9 @@ class SourceFileManager extends ForwardingJavaFileManager<StandardJavaFileManage
     }
 
     private JavaFileObject asJavaFileObject(Path file) {
-        // TODO erase method bodies of files that are not open
-        return new SourceFileObject(file);
+        // Source path files only support the compile, so open ones are read whole and the rest pruned
+        if (FileStore.activeDocument(file) != null) return new SourceFileObject(file);
+        return PrunedSources.signaturesOnly(file);
     }
 
     @Override
@@ -17,13 +17,15 @@ public class SourceFileObject implements JavaFileObject {
     final Instant modified;
     /** if contents is set from an open document, this is its LSP version, otherwise -1 */
     final int version;
+    /** true if contents has its method bodies blanked; see {@link PrunedSources} */
+    final boolean signaturesOnly;
 
     public SourceFileObject(Path path) {
         if (!FileStore.isJavaFile(path)) throw new RuntimeException(path + " is not a java source");
         this.path = path;
         var active = FileStore.activeDocument(path);
         if (active != null) {
-            this.contents = active.content;
+            this.contents = active.content();
             this.modified = active.modified;
             this.version = active.version;
         } else {
@@ -31,6 +33,7 @@ public class SourceFileObject implements JavaFileObject {
             this.modified = Instant.EPOCH;
             this.version = -1;
         }
+        this.signaturesOnly = false;
     }
 
     public SourceFileObject(Path path, String contents, Instant modified) {
@@ -38,11 +41,16 @@ public class SourceFileObject implements JavaFileObject {
     }
 
     public SourceFileObject(Path path, String contents, Instant modified, int version) {
+        this(path, contents, modified, version, false);
+    }
+
+    SourceFileObject(Path path, String contents, Instant modified, int version, boolean signaturesOnly) {
         if (!FileStore.isJavaFile(path)) throw new RuntimeException(path + " is not a java source");
         this.path = path;
         this.contents = contents;
         this.modified = modified;
         this.version = version;
+        this.signaturesOnly = signaturesOnly;
     }
 
     @Override
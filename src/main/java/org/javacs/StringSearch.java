@@ -370,16 +370,24 @@ public class StringSearch {
         return parts[parts.length - 1];
     }
 
-    static String packageName(Path file) throws CharacterCodingException {
-        var packagePattern = Pattern.compile("^package +(.*);");
-        var startOfClass = Pattern.compile("^[\\w ]*class +\\w+");
+    /** What {@link FileStore} keeps about a source file, read from the lines before its first type. */
+    record SourceHeader(String packageName, boolean importsLombok) {}
+
+    private static final Pattern PACKAGE_LINE = Pattern.compile("^package +(.*);");
+    private static final Pattern START_OF_TYPE =
+            Pattern.compile("^[\\w@ ]*\\b(class|interface|enum|record) +\\w+");
+
+    static SourceHeader header(Path file) throws CharacterCodingException {
+        String packageName = null;
+        var importsLombok = false;
         try (var lines = FileStore.lines(file)) {
             for (var line = lines.readLine(); line != null; line = lines.readLine()) {
-                if (startOfClass.matcher(line).find()) return "";
-                var matchPackage = packagePattern.matcher(line);
-                if (matchPackage.matches()) {
-                    var id = matchPackage.group(1);
-                    return id;
+                if (START_OF_TYPE.matcher(line).find()) break;
+                if (line.startsWith("import lombok")) {
+                    importsLombok = true;
+                } else if (packageName == null) {
+                    var matchPackage = PACKAGE_LINE.matcher(line);
+                    if (matchPackage.matches()) packageName = matchPackage.group(1);
                 }
             }
         } catch (CharacterCodingException e) {
@@ -388,7 +396,7 @@ public class StringSearch {
             throw new RuntimeException(e);
         }
         // TODO fall back on parsing file
-        return "";
+        return new SourceHeader(packageName == null ? "" : packageName, importsLombok);
     }
 
     public static boolean matchesPartialName(CharSequence candidate, CharSequence partialName) {
@@ -12,6 +12,7 @@ import java.util.Set;
 import java.time.Instant;
 import java.util.jar.JarFile;
 import java.util.logging.Logger;
+import org.javacs.ClassPathJars;
 import org.jetbrains.java.decompiler.api.Decompiler;
 import org.jetbrains.java.decompiler.main.extern.IFernflowerLogger;
 import org.jetbrains.java.decompiler.main.extern.IFernflowerPreferences;
@@ -24,6 +25,7 @@ public final class ExternalBinaryDecompiler {
     private final Set<Path> classPathRoots;
     private final String classPathFingerprint;
     private final ClassLoader classLoader;
+    private volatile ClassPathJars jars;
 
     public ExternalBinaryDecompiler(Set<Path> classPathRoots, String classPathFingerprint, ClassLoader classLoader) {
         this.classPathRoots = classPathRoots == null ? Set.of() : Set.copyOf(classPathRoots);
@@ -237,37 +239,19 @@ public final class ExternalBinaryDecompiler {
     }
 
     private Optional<BinaryTarget> findBinaryTarget(String qualifiedName) {
+        var jars = jars();
         for (var binaryName : binaryNameCandidates(qualifiedName)) {
-            var relative = binaryName.replace('.', '/') + ".class";
-            for (var root : classPathRoots) {
-                if (Files.isDirectory(root) && Files.isRegularFile(root.resolve(relative))) {
-                    return Optional.of(createTarget(qualifiedName, root, binaryName));
-                }
-                if (Files.isRegularFile(root)) {
-                    try (var jar = new JarFile(root.toFile())) {
-                        if (jar.getJarEntry(relative) != null) {
-                            return Optional.of(createTarget(qualifiedName, root, binaryName));
-                        }
-                    } catch (IOException ignored) {
-                    }
-                }
+            var root = jars.rootOf(binaryName.replace('.', '/') + ".class");
+            if (root.isPresent()) {
+                return Optional.of(createTarget(qualifiedName, root.get(), binaryName));
             }
         }
         var reflective = resolveReflectiveTopLevel(qualifiedName);
         if (reflective.isPresent()) {
             var target = reflective.get();
-            for (var root : classPathRoots) {
-                if (Files.isDirectory(root) && Files.isRegularFile(root.resolve(target.topLevelRelativePath()))) {
-                    return Optional.of(target.withRoot(root));
-                }
-                if (Files.isRegularFile(root)) {
-                    try (var jar = new JarFile(root.toFile())) {
-                        if (jar.getJarEntry(target.topLevelRelativePath()) != null) {
-                            return Optional.of(target.withRoot(root));
-                        }
-                    } catch (IOException ignored) {
-                    }
-                }
+            var root = jars.rootOf(target.topLevelRelativePath());
+            if (root.isPresent()) {
+                return Optional.of(target.withRoot(root.get()));
             }
             // Not found in any classpath jar/dir (e.g. JDK module classes accessed via jrt:/).
             // Return a null-root target; materializeInputs will load bytes via the classloader.
@@ -276,6 +260,13 @@ public final class ExternalBinaryDecompiler {
         return Optional.empty();
     }
 
+    private ClassPathJars jars() {
+        var view = jars;
+        view = view == null ? ClassPathJars.of(classPathRoots) : view.current();
+        jars = view;
+        return view;
+    }
+
     private Optional<BinaryTarget> resolveReflectiveTopLevel(String qualifiedName) {
         for (var binaryName : binaryNameCandidates(qualifiedName)) {
             try {
@@ -0,0 +1,577 @@
+package org.javacs.index;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import java.io.IOException;
+import java.lang.classfile.Attributes;
+import java.lang.classfile.ClassFile;
+import java.lang.classfile.MethodModel;
+import java.lang.classfile.Signature;
+import java.lang.classfile.constantpool.ClassEntry;
+import java.lang.constant.ClassDesc;
+import java.lang.constant.MethodTypeDesc;
+import java.lang.reflect.AccessFlag;
+import java.net.URI;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.logging.Logger;
+import org.javacs.lsp.CompletionItemKind;
+import org.javacs.resolve.TypeNames;
+
+/**
+ * Dependency type metadata read straight from class files, without loading any class.
+ *
+ * <p>Produces the same {@link IndexedType} shape the reflection-based index used to: public fields
+ * and methods of the type and all of its supertypes (the nearest declaration wins), the type's own
+ * non-private constructors, generic signatures as {@code declaredReturnType} and {@code
+ * declaredParameterTypes}, and parameter names from {@code MethodParameters}, then the {@code
+ * LocalVariableTable}, then attached source. Nothing is linked or initialized in the server JVM, so
+ * an incomplete class path only drops the missing supertypes instead of failing the whole type, and
+ * any number of threads may read at once.
+ *
+ * <p>Each class's own declarations ({@link DeclaredClass}) come from {@code declarations}, keyed by
+ * internal name, which either parses them with {@link #parse} or decodes them from a {@link
+ * DependencyTypeShards} shard. They are shared by every subtype that inherits them.
+ */
+final class ClassFileTypeReader {
+    private static final Logger LOG = Logger.getLogger("main");
+
+    /** Names from attached source, for methods compiled without {@code -parameters} or {@code -g}. */
+    interface SourceParameterNames {
+        /** Parameter names of {@code declaringType#methodName(erasedParameterTypes)}, or null. */
+        String[] find(String declaringType, String methodName, String[] erasedParameterTypes);
+    }
+
+    private static final SourceParameterNames NO_SOURCE = (declaringType, methodName, erasedParameterTypes) -> null;
+
+    private final Function<String, Optional<DeclaredClass>> declarations;
+    private final SourceParameterNames sourceNames;
+    /** Internal name to that class's own declarations; supertypes are shared across subtypes. */
+    private final Cache<String, Optional<DeclaredClass>> declared;
+
+    ClassFileTypeReader(
+            Function<String, Optional<DeclaredClass>> declarations, SourceParameterNames sourceNames) {
+        this.declarations = declarations;
+        this.sourceNames = sourceNames == null ? NO_SOURCE : sourceNames;
+        this.declared =
+                Caffeine.newBuilder()
+                        .maximumSize(5_000)
+                        .expireAfterAccess(Duration.ofMinutes(30))
+                        .build();
+    }
+
+    /** The type {@code qualifiedName} (a top-level class), with its inherited public members. */
+    Optional<IndexedType> read(String qualifiedName) {
+        var internalName = qualifiedName.replace('.', '/');
+        var type = declared(internalName);
+        if (type.isEmpty()) {
+            return Optional.empty();
+        }
+        var fields = new LinkedHashMap<String, DeclaredField>();
+        var methods = new LinkedHashMap<String, DeclaredMethod>();
+        collectVisible(internalName, false, fields, methods, new HashSet<>());
+
+        var seen = new LinkedHashMap<String, IndexedMember>();
+        for (var field : fields.values()) {
+            var member = fieldMember(qualifiedName, field);
+            seen.putIfAbsent(member.canonicalKey, member);
+        }
+        for (var method : methods.values()) {
+            var member = methodMember(qualifiedName, method);
+            var existing = seen.get(member.canonicalKey);
+            if (existing == null || member.priority < existing.priority) {
+                seen.put(member.canonicalKey, member);
+            }
+        }
+        for (var constructor : type.get().constructors()) {
+            var member = constructorMember(qualifiedName, constructor);
+            seen.putIfAbsent(member.canonicalKey, member);
+        }
+        var members = new ArrayList<>(seen.values());
+        IndexedMember.sort(members);
+
+        var superclass =
+                type.get().isInterface() || type.get().superclass() == null
+                        ? null
+                        : canonical(binaryName(type.get().superclass()));
+        var interfaces = new ArrayList<String>(type.get().interfaces().size());
+        for (var iface : type.get().interfaces()) {
+            interfaces.add(canonical(binaryName(iface)));
+        }
+        return Optional.of(
+                new IndexedType(
+                        qualifiedName,
+                        TypeNames.simpleName(qualifiedName),
+                        members,
+                        null,
+                        superclass,
+                        interfaces,
+                        IndexedMember.Provenance.EXTERNAL_BINARY));
+    }
+
+    /**
+     * Public fields and methods of {@code internalName}, then of its superclass chain, then of its
+     * interfaces, keeping the first declaration of each field name and method signature. Static
+     * methods of a superinterface aren't inherited, so only the type's own are kept. Missing
+     * supertypes are skipped.
+     */
+    private void collectVisible(
+            String internalName,
+            boolean inherited,
+            Map<String, DeclaredField> fields,
+            Map<String, DeclaredMethod> methods,
+            Set<String> visited) {
+        if (internalName == null || !visited.add(internalName)) {
+            return;
+        }
+        var type = declared(internalName);
+        if (type.isEmpty()) {
+            LOG.fine(String.format("[external-binary] missing supertype %s", internalName));
+            return;
+        }
+        for (var field : type.get().fields()) {
+            fields.putIfAbsent(field.name(), field);
+        }
+        for (var method : type.get().methods()) {
+            if (inherited && type.get().isInterface() && method.isStatic()) {
+                continue;
+            }
+            methods.putIfAbsent(method.name() + "(" + String.join(",", method.erasedParameterTypes()) + ")", method);
+        }
+        collectVisible(type.get().superclass(), true, fields, methods, visited);
+        for (var iface : type.get().interfaces()) {
+            collectVisible(iface, true, fields, methods, visited);
+        }
+    }
+
+    private Optional<DeclaredClass> declared(String internalName) {
+        var cached = declared.getIfPresent(internalName);
+        if (cached != null) {
+            return cached;
+        }
+        var loaded = declarations.apply(internalName);
+        declared.put(internalName, loaded);
+        return loaded;
+    }
+
+    /** The declarations of class file {@code bytes}, or empty if it doesn't parse. */
+    static Optional<DeclaredClass> parse(String internalName, byte[] bytes) {
+        try {
+            var model = ClassFile.of().parse(bytes);
+            var binaryName = binaryName(internalName);
+            var fields = new ArrayList<DeclaredField>();
+            for (var field : model.fields()) {
+                if (!field.flags().has(AccessFlag.PUBLIC) || field.flags().has(AccessFlag.SYNTHETIC)) {
+                    continue;
+                }
+                fields.add(
+                        new DeclaredField(
+                                binaryName,
+                                field.fieldName().stringValue(),
+                                field.flags().has(AccessFlag.STATIC),
+                                typeName(field.fieldTypeSymbol())));
+            }
+            var methods = new ArrayList<DeclaredMethod>();
+            var constructors = new ArrayList<DeclaredMethod>();
+            for (var method : model.methods()) {
+                var flags = method.flags();
+                if (flags.has(AccessFlag.SYNTHETIC) || flags.has(AccessFlag.BRIDGE)) {
+                    continue;
+                }
+                var name = method.methodName().stringValue();
+                if ("<clinit>".equals(name)) {
+                    continue;
+                }
+                var constructor = "<init>".equals(name);
+                if (constructor ? flags.has(AccessFlag.PRIVATE) : !flags.has(AccessFlag.PUBLIC)) {
+                    continue;
+                }
+                var declaredMethod = declaredMethod(binaryName, name, method);
+                (constructor ? constructors : methods).add(declaredMethod);
+            }
+            var interfaces = new ArrayList<String>(model.interfaces().size());
+            for (var iface : model.interfaces()) {
+                interfaces.add(iface.asInternalName());
+            }
+            return Optional.of(
+                    new DeclaredClass(
+                            model.flags().has(AccessFlag.INTERFACE),
+                            model.superclass().map(ClassEntry::asInternalName).orElse(null),
+                            List.copyOf(interfaces),
+                            List.copyOf(fields),
+                            List.copyOf(methods),
+                            List.copyOf(constructors)));
+        } catch (IllegalArgumentException | IllegalStateException ex) {
+            LOG.fine(
+                    String.format(
+                            "[external-binary] classfile miss type=%s reason=%s",
+                            internalName,
+                            ex.getClass().getSimpleName()));
+            return Optional.empty();
+        }
+    }
+
+    private static DeclaredMethod declaredMethod(String declaringType, String name, MethodModel method) {
+        var descriptor = method.methodTypeSymbol();
+        var isStatic = method.flags().has(AccessFlag.STATIC);
+        var erased = new String[descriptor.parameterCount()];
+        for (int i = 0; i < erased.length; i++) {
+            erased[i] = typeName(descriptor.parameterType(i));
+        }
+        var returnType = typeName(descriptor.returnType());
+        var names = parameterNames(method, descriptor, isStatic);
+
+        var declaredReturnType = returnType;
+        var declaredParameterTypes = erased;
+        var signature = method.findAttribute(Attributes.signature());
+        if (signature.isPresent()) {
+            try {
+                var generic = signature.get().asMethodSignature();
+                if (generic.arguments().size() == erased.length) {
+                    declaredReturnType = render(generic.result());
+                    declaredParameterTypes = new String[erased.length];
+                    for (int i = 0; i < erased.length; i++) {
+                        declaredParameterTypes[i] = render(generic.arguments().get(i));
+                    }
+                }
+            } catch (IllegalArgumentException ex) {
+                declaredReturnType = returnType;
+                declaredParameterTypes = erased;
+            }
+        }
+        return new DeclaredMethod(
+                declaringType, name, isStatic, erased, names, returnType, declaredReturnType, declaredParameterTypes);
+    }
+
+    /**
+     * Names from {@code MethodParameters} ({@code javac -parameters}), else from the {@code
+     * LocalVariableTable} ({@code javac -g}), else null.
+     */
+    private static String[] parameterNames(MethodModel method, MethodTypeDesc descriptor, boolean isStatic) {
+        var count = descriptor.parameterCount();
+        if (count == 0) {
+            return new String[0];
+        }
+        var parameters = method.findAttribute(Attributes.methodParameters());
+        if (parameters.isPresent() && parameters.get().parameters().size() == count) {
+            var names = new String[count];
+            var complete = true;
+            for (int i = 0; i < count; i++) {
+                var name = parameters.get().parameters().get(i).name();
+                if (name.isEmpty()) {
+                    complete = false;
+                    break;
+                }
+                names[i] = name.get().stringValue();
+            }
+            if (complete) {
+                return names;
+            }
+        }
+        var code = method.findAttribute(Attributes.code());
+        if (code.isEmpty()) {
+            return null;
+        }
+        var table = code.get().findAttribute(Attributes.localVariableTable());
+        if (table.isEmpty()) {
+            return null;
+        }
+        // Parameters occupy the first slots, after 'this'; long and double take two
+        var slots = new int[count];
+        var slot = isStatic ? 0 : 1;
+        for (int i = 0; i < count; i++) {
+            slots[i] = slot;
+            var type = descriptor.parameterType(i).descriptorString();
+            slot += "J".equals(type) || "D".equals(type) ? 2 : 1;
+        }
+        var names = new String[count];
+        var found = 0;
+        for (var entry : table.get().localVariables()) {
+            if (entry.startPc() != 0) continue;
+            for (int i = 0; i < count; i++) {
+                if (slots[i] == entry.slot() && names[i] == null) {
+                    names[i] = entry.name().stringValue();
+                    found++;
+                }
+            }
+        }
+        return found == count ? names : null;
+    }
+
+    private static IndexedMember fieldMember(String qualifiedName, DeclaredField field) {
+        var key = IndexedMember.canonicalKey(field.declaringType(), CompletionItemKind.Field, field.name(), null);
+        return new IndexedMember(
+                field.declaringType(),
+                field.name(),
+                CompletionItemKind.Field,
+                field.isStatic(),
+                false,
+                memberPriority(qualifiedName, field.declaringType()),
+                field.typeName() + " " + field.name(),
+                canonical(field.typeName()),
+                null,
+                null,
+                key,
+                key,
+                null,
+                false,
+                IndexedMember.Provenance.EXTERNAL_BINARY);
+    }
+
+    private IndexedMember methodMember(String qualifiedName, DeclaredMethod method) {
+        var erased = method.erasedParameterTypes();
+        var names = method.parameterNames();
+        if (names == null) {
+            names = sourceNames.find(method.declaringType(), method.name(), erased);
+        }
+        if (names == null || names.length != erased.length) {
+            names = syntheticParameterNames(erased.length);
+        }
+        var parameters = new StringJoiner(", ");
+        for (int i = 0; i < erased.length; i++) {
+            parameters.add(TypeNames.simpleName(erased[i]) + " " + names[i]);
+        }
+        var returnType = canonical(method.returnType());
+        var detail = TypeNames.simpleName(returnType) + " " + method.name() + "(" + parameters + ")";
+        var key = IndexedMember.canonicalKey(method.declaringType(), CompletionItemKind.Method, method.name(), erased);
+        var member =
+                new IndexedMember(
+                        method.declaringType(),
+                        method.name(),
+                        CompletionItemKind.Method,
+                        method.isStatic(),
+                        false,
+                        memberPriority(qualifiedName, method.declaringType()),
+                        detail,
+                        returnType,
+                        names.clone(),
+                        erased.clone(),
+                        key,
+                        key,
+                        null,
+                        false,
+                        IndexedMember.Provenance.EXTERNAL_BINARY);
+        // Generic (non-erased) declared types let ParseTypeResolver bind method-level type
+        // variables from call-site Class<T> arguments (e.g. mapper.readValue(json, Foo.class)).
+        return member.withDeclaredTypes(method.declaredReturnType(), method.declaredParameterTypes().clone());
+    }
+
+    private static IndexedMember constructorMember(String qualifiedName, DeclaredMethod constructor) {
+        var erased = constructor.erasedParameterTypes();
+        var names = constructor.parameterNames();
+        if (names == null) {
+            names = syntheticParameterNames(erased.length);
+        }
+        var parameters = new StringJoiner(", ");
+        for (int i = 0; i < erased.length; i++) {
+            parameters.add(canonical(erased[i]) + " " + names[i]);
+        }
+        var detail = TypeNames.simpleName(qualifiedName) + "(" + parameters + ")";
+        var key = IndexedMember.canonicalKey(qualifiedName, CompletionItemKind.Constructor, "<init>", erased);
+        return new IndexedMember(
+                qualifiedName,
+                "<init>",
+                CompletionItemKind.Constructor,
+                false,
+                false,
+                0,
+                detail,
+                "void",
+                names.clone(),
+                erased.clone(),
+                key,
+                key,
+                null,
+                false,
+                IndexedMember.Provenance.EXTERNAL_BINARY);
+    }
+
+    private static int memberPriority(String targetType, String declaringType) {
+        if (Objects.equals(targetType, declaringType)) {
+            return 0;
+        }
+        if (Objects.equals("java.lang.Object", declaringType)) {
+            return 2;
+        }
+        return 1;
+    }
+
+    private static String[] syntheticParameterNames(int count) {
+        var names = new String[count];
+        for (int i = 0; i < count; i++) {
+            names[i] = "arg" + i;
+        }
+        return names;
+    }
+
+    /** Source form of a generic signature, spelled like {@link java.lang.reflect.Type#getTypeName}. */
+    private static String render(Signature signature) {
+        if (signature instanceof Signature.TypeVarSig variable) {
+            return variable.identifier();
+        }
+        if (signature instanceof Signature.ArrayTypeSig array) {
+            return render(array.componentSignature()) + "[]";
+        }
+        if (signature instanceof Signature.ClassTypeSig type) {
+            var raw = typeName(type.classDesc());
+            String name;
+            if (type.outerType().isPresent()) {
+                var outer = type.outerType().get();
+                var outerRaw = typeName(outer.classDesc());
+                var nested = raw.startsWith(outerRaw + "$") ? raw.substring(outerRaw.length() + 1) : type.className();
+                name = render(outer) + "$" + nested;
+            } else {
+                name = raw;
+            }
+            if (type.typeArgs().isEmpty()) {
+                return name;
+            }
+            var arguments = new StringJoiner(", ", "<", ">");
+            for (var argument : type.typeArgs()) {
+                arguments.add(render(argument));
+            }
+            return name + arguments;
+        }
+        // Base types spell their descriptor
+        return descriptorName(signature.signatureString());
+    }
+
+    private static String render(Signature.TypeArg argument) {
+        if (!(argument instanceof Signature.TypeArg.Bounded bounded)) {
+            return "?";
+        }
+        var bound = render(bounded.boundType());
+        return switch (bounded.wildcardIndicator()) {
+            case EXTENDS -> "java.lang.Object".equals(bound) ? "?" : "? extends " + bound;
+            case SUPER -> "? super " + bound;
+            default -> bound;
+        };
+    }
+
+    /** Binary name of a type, with {@code $} for nested classes and {@code []} per dimension. */
+    private static String typeName(ClassDesc type) {
+        return descriptorName(type.descriptorString());
+    }
+
+    private static String binaryName(String internalName) {
+        return internalName.replace('/', '.');
+    }
+
+    private static String descriptorName(String descriptor) {
+        int dimensions = 0;
+        while (dimensions < descriptor.length() && descriptor.charAt(dimensions) == '[') {
+            dimensions++;
+        }
+        var base = descriptor.substring(dimensions);
+        var name =
+                switch (base) {
+                    case "B" -> "byte";
+                    case "C" -> "char";
+                    case "D" -> "double";
+                    case "F" -> "float";
+                    case "I" -> "int";
+                    case "J" -> "long";
+                    case "S" -> "short";
+                    case "Z" -> "boolean";
+                    case "V" -> "void";
+                    default ->
+                            base.startsWith("L") && base.endsWith(";")
+                                    ? binaryName(base.substring(1, base.length() - 1))
+                                    : binaryName(base);
+                };
+        return name + "[]".repeat(dimensions);
+    }
+
+    /** Source-style name: nested classes separated by dots. */
+    private static String canonical(String binaryName) {
+        return binaryName.replace('$', '.');
+    }
+
+    private static final Map<String, List<String>> JDK_PACKAGE_MODULES = new ConcurrentHashMap<>();
+
+    private static volatile FileSystem jrt;
+
+    /**
+     * The bytes of {@code relative} from the running JDK's modules image, looked up through its
+     * {@code /packages} directory so no class loader is involved.
+     */
+    static Optional<byte[]> readJdk(String relative) {
+        var slash = relative.lastIndexOf('/');
+        if (slash < 0) {
+            return Optional.empty();
+        }
+        var fs = jrt();
+        if (fs == null) {
+            return Optional.empty();
+        }
+        var packageName = relative.substring(0, slash).replace('/', '.');
+        for (var module : JDK_PACKAGE_MODULES.computeIfAbsent(packageName, ClassFileTypeReader::jdkModules)) {
+            try {
+                return Optional.of(Files.readAllBytes(fs.getPath("/modules", module, relative)));
+            } catch (NoSuchFileException e) {
+                // Split package; try the next module
+            } catch (IOException e) {
+                LOG.fine("[classfile] failed to read jrt:/" + module + "/" + relative + ": " + e.getMessage());
+            }
+        }
+        return Optional.empty();
+    }
+
+    private static List<String> jdkModules(String packageName) {
+        var fs = jrt();
+        try (var modules = Files.list(fs.getPath("/packages", packageName))) {
+            return modules.map(path -> path.getFileName().toString()).toList();
+        } catch (IOException e) {
+            return List.of();
+        }
+    }
+
+    private static FileSystem jrt() {
+        var fs = jrt;
+        if (fs == null) {
+            try {
+                fs = FileSystems.getFileSystem(URI.create("jrt:/"));
+                jrt = fs;
+            } catch (RuntimeException e) {
+                LOG.warning("[classfile] no jrt file system: " + e.getMessage());
+            }
+        }
+        return fs;
+    }
+
+    /** What one class file declares itself; supertypes are internal names. */
+    record DeclaredClass(
+            boolean isInterface,
+            String superclass,
+            List<String> interfaces,
+            List<DeclaredField> fields,
+            List<DeclaredMethod> methods,
+            List<DeclaredMethod> constructors) {}
+
+    record DeclaredField(String declaringType, String name, boolean isStatic, String typeName) {}
+
+    /** {@code parameterNames} is null when the class file doesn't record them. */
+    record DeclaredMethod(
+            String declaringType,
+            String name,
+            boolean isStatic,
+            String[] erasedParameterTypes,
+            String[] parameterNames,
+            String returnType,
+            String declaredReturnType,
+            String[] declaredParameterTypes) {}
+}
@@ -0,0 +1,622 @@
+package org.javacs.index;
+
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.logging.Logger;
+import org.javacs.CacheDirectories;
+import org.javacs.ClassPathJars;
+import org.javacs.index.ClassFileTypeReader.DeclaredClass;
+import org.javacs.index.ClassFileTypeReader.DeclaredField;
+import org.javacs.index.ClassFileTypeReader.DeclaredMethod;
+import org.javacs.lsp.CancelToken;
+
+/**
+ * The own declarations of every class in each dependency jar and in the JDK, persisted one shard
+ * file per jar.
+ *
+ * <p>A shard is named by a hash of the jar's path plus its size and modification time, so a rebuilt
+ * jar gets a new shard and only new or changed jars are ever scanned again. It holds each class's
+ * {@link DeclaredClass}, not the flattened type: {@link ClassFileTypeReader} merges supertypes at
+ * lookup, so a shard never depends on another jar. The JDK shard is keyed by {@code java.home} and
+ * runtime version. Class directories change with every build and are always read from disk.
+ *
+ * <p>Shards are memory-mapped the first time a class of their jar is looked up, and searched in
+ * place: a sorted class table and an interned string pool, so a lookup decodes one class and nothing
+ * is held on the heap or evicted. A class with no shard (or not in it) is parsed from its class
+ * file, as before the scan.
+ *
+ * <p>Shards live in {@code <cacheDir>/dependency-types/}. The format is private to this class; bump
+ * {@link #FORMAT_VERSION} whenever {@link DeclaredClass} changes shape.
+ */
+final class DependencyTypeShards {
+    private static final Logger LOG = Logger.getLogger("main");
+    private static final int MAGIC = 0x4a4c4454; // "JLDT"
+    static final int FORMAT_VERSION = 1;
+    private static final String DIRECTORY = "dependency-types";
+    private static final String SUFFIX = ".shard";
+    private static final int HEADER_BYTES = 7 * Integer.BYTES;
+
+    /** Below this many classes per worker, the pool overhead is larger than the parse. */
+    private static final int MIN_CLASSES_PER_WORKER = 64;
+
+    static final int MAX_WORKERS = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+
+    private static final ExecutorService POOL =
+            Executors.newFixedThreadPool(
+                    MAX_WORKERS, Thread.ofPlatform().daemon().name("jls-dependency-scan-", 0).factory());
+
+    /** Where shards are kept, or null when persistent caches are off. */
+    private final Path directory;
+    private final ClassPathJars jars;
+    private final Map<Path, ClassPathJars.Archive> archives = new HashMap<>();
+    /** Jar path to its mapped shard, or empty if it has none yet. */
+    private final Map<Path, Optional<Shard>> shards = new ConcurrentHashMap<>();
+    private volatile Optional<Shard> jdkShard;
+
+    DependencyTypeShards(Path directory, ClassPathJars jars) {
+        this.directory = directory;
+        this.jars = jars;
+        for (var archive : jars.archives()) {
+            archives.put(archive.path(), archive);
+        }
+    }
+
+    /** The class path view these shards were built for; see {@link ClassPathJars#isCurrent}. */
+    ClassPathJars jars() {
+        return jars;
+    }
+
+    /** The shard directory under the persistent cache root, or null when persistence is disabled. */
+    static Path defaultDirectory() {
+        return CacheDirectories.root().map(dir -> dir.resolve(DIRECTORY)).orElse(null);
+    }
+
+    /** What class {@code internalName} declares, from the JDK first, then the class path. */
+    Optional<DeclaredClass> declared(String internalName) {
+        var relative = internalName + ".class";
+        var jdk = jdkShard().flatMap(shard -> shard.find(internalName));
+        if (jdk.isPresent()) {
+            return jdk;
+        }
+        var jdkBytes = ClassFileTypeReader.readJdk(relative);
+        if (jdkBytes.isPresent()) {
+            return ClassFileTypeReader.parse(internalName, jdkBytes.get());
+        }
+        var root = jars.rootOf(relative);
+        if (root.isEmpty()) {
+            return Optional.empty();
+        }
+        var archive = archives.get(root.get());
+        if (archive != null) {
+            var sharded = shards.computeIfAbsent(archive.path(), path -> open(shardFile(archive)))
+                    .flatMap(shard -> shard.find(internalName));
+            if (sharded.isPresent()) {
+                return sharded;
+            }
+        }
+        return jars.read(relative).flatMap(bytes -> ClassFileTypeReader.parse(internalName, bytes));
+    }
+
+    private Optional<Shard> jdkShard() {
+        var shard = jdkShard;
+        if (shard == null) {
+            shard = open(jdkShardFile());
+            jdkShard = shard;
+        }
+        return shard;
+    }
+
+    /**
+     * Write a shard for the JDK and for every jar that doesn't have one for its current size and
+     * modification time. All their classes go through one pool of workers, and each shard is written
+     * and mapped as soon as its last class is parsed. Stops between classes once the current {@link
+     * CancelToken} is cancelled; shards already written are kept.
+     *
+     * @param jdkClasses top-level JDK classes worth indexing; their nested classes come along
+     * @return the number of classes parsed
+     */
+    int prescan(Set<String> jdkClasses) {
+        if (directory == null) {
+            LOG.fine("[external-binary] persistent caches are off; dependency types are parsed on demand");
+            return 0;
+        }
+        var started = System.nanoTime();
+        var cancel = CancelToken.current();
+        var pending = new ArrayList<Pending>();
+        if (jdkShard().isEmpty()) {
+            pending.add(new Pending(null, jdkShardFile(), jdkClassFiles(jdkClasses), ClassFileTypeReader::readJdk));
+        }
+        for (var archive : archives.values()) {
+            if (shards.computeIfAbsent(archive.path(), path -> open(shardFile(archive))).isPresent()) {
+                continue;
+            }
+            pending.add(
+                    new Pending(
+                            archive,
+                            shardFile(archive),
+                            indexable(jars.classFiles(archive)),
+                            relative -> jars.read(archive, relative)));
+        }
+        var total = 0;
+        for (var shard : pending) {
+            shard.first = total;
+            total += shard.classFiles.size();
+            if (shard.classFiles.isEmpty()) {
+                // Nothing to parse; an empty shard still records that this jar was scanned
+                finish(shard);
+            }
+        }
+        var shardOf = new int[total];
+        for (var i = 0; i < pending.size(); i++) {
+            var shard = pending.get(i);
+            Arrays.fill(shardOf, shard.first, shard.first + shard.classFiles.size(), i);
+        }
+        var workers = Math.max(1, Math.min(MAX_WORKERS, total / MIN_CLASSES_PER_WORKER));
+        var cursor = new AtomicInteger();
+        if (workers <= 1) {
+            scanRange(pending, shardOf, cursor, cancel);
+        } else {
+            var futures = new ArrayList<Future<?>>(workers);
+            for (var i = 0; i < workers; i++) {
+                futures.add(POOL.submit(() -> scanRange(pending, shardOf, cursor, cancel)));
+            }
+            for (var future : futures) {
+                await(future, futures);
+            }
+        }
+        LOG.info(
+                String.format(
+                        "[perf] dependency_prescan jars=%d shards=%d classes=%d workers=%d took=%dms",
+                        archives.size(),
+                        pending.size(),
+                        total,
+                        workers,
+                        (System.nanoTime() - started) / 1_000_000));
+        return total;
+    }
+
+    /** A shard being built: its class files, where they're read from, and the parsed results. */
+    private static final class Pending {
+        final ClassPathJars.Archive archive;
+        final Path file;
+        final List<String> classFiles;
+        final Function<String, Optional<byte[]>> read;
+        final DeclaredClass[] results;
+        /** Offset of this shard's first class in the flattened work list. */
+        int first;
+        final AtomicInteger remaining;
+
+        Pending(
+                ClassPathJars.Archive archive,
+                Path file,
+                List<String> classFiles,
+                Function<String, Optional<byte[]>> read) {
+            this.archive = archive;
+            this.file = file;
+            this.classFiles = classFiles;
+            this.read = read;
+            this.results = new DeclaredClass[classFiles.size()];
+            this.remaining = new AtomicInteger(classFiles.size());
+        }
+    }
+
+    private void scanRange(List<Pending> pending, int[] shardOf, AtomicInteger cursor, CancelToken cancel) {
+        for (var i = cursor.getAndIncrement(); i < shardOf.length; i = cursor.getAndIncrement()) {
+            cancel.checkCancelled();
+            var shard = pending.get(shardOf[i]);
+            var index = i - shard.first;
+            var relative = shard.classFiles.get(index);
+            var internalName = relative.substring(0, relative.length() - ".class".length());
+            shard.results[index] =
+                    shard.read.apply(relative)
+                            .flatMap(bytes -> ClassFileTypeReader.parse(internalName, bytes))
+                            .orElse(null);
+            if (shard.remaining.decrementAndGet() == 0) {
+                finish(shard);
+            }
+        }
+    }
+
+    private void finish(Pending shard) {
+        try {
+            write(shard.file, shard.classFiles, shard.results);
+        } catch (IOException e) {
+            LOG.warning(String.format("[external-binary] failed to write %s: %s", shard.file, e.getMessage()));
+            return;
+        }
+        var mapped = open(shard.file);
+        if (shard.archive == null) {
+            jdkShard = mapped;
+            return;
+        }
+        shards.put(shard.archive.path(), mapped);
+        removeOlderShards(shard.archive, shard.file);
+    }
+
+    private static void await(Future<?> future, List<Future<?>> all) {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            all.forEach(f -> f.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            all.forEach(f -> f.cancel(true));
+            if (e.getCause() instanceof CancellationException cancelled) throw cancelled;
+            LOG.warning("[external-binary] dependency prescan failed: " + e.getCause());
+            if (e.getCause() instanceof RuntimeException runtime) throw runtime;
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /** Class files worth a shard entry: not anonymous or local classes, module-info or package-info. */
+    private static List<String> indexable(List<String> classFiles) {
+        var result = new ArrayList<String>(classFiles.size());
+        for (var relative : classFiles) {
+            if (relative.endsWith("module-info.class") || relative.endsWith("package-info.class")) continue;
+            var dollar = relative.indexOf('$');
+            var local = false;
+            while (dollar != -1 && !local) {
+                local = dollar + 1 < relative.length() && Character.isDigit(relative.charAt(dollar + 1));
+                dollar = relative.indexOf('$', dollar + 1);
+            }
+            if (!local) result.add(relative);
+        }
+        return result;
+    }
+
+    private static List<String> jdkClassFiles(Set<String> jdkClasses) {
+        var result = new ArrayList<String>();
+        var fs = FileSystems.getFileSystem(URI.create("jrt:/"));
+        try (var modules = Files.list(fs.getPath("/modules"))) {
+            for (var module : modules.toList()) {
+                try (var files = Files.walk(module)) {
+                    var it = files.iterator();
+                    while (it.hasNext()) {
+                        var relative = module.relativize(it.next()).toString();
+                        if (!relative.endsWith(".class")) continue;
+                        var dollar = relative.indexOf('$');
+                        var topLevel = dollar == -1 ? relative.substring(0, relative.length() - ".class".length())
+                                : relative.substring(0, dollar);
+                        if (jdkClasses.contains(topLevel.replace('/', '.'))) result.add(relative);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            LOG.warning("[external-binary] cannot list JDK classes: " + e.getMessage());
+        }
+        return indexable(result);
+    }
+
+    private Path shardFile(ClassPathJars.Archive archive) {
+        return directory == null
+                ? null
+                : directory.resolve(
+                        shardPrefix(archive)
+                                + Long.toHexString(archive.size())
+                                + "-"
+                                + Long.toHexString(archive.modified())
+                                + SUFFIX);
+    }
+
+    private static String shardPrefix(ClassPathJars.Archive archive) {
+        return CacheDirectories.shortHash(archive.path().toAbsolutePath().normalize().toString()) + "-";
+    }
+
+    private Path jdkShardFile() {
+        var key = System.getProperty("java.home") + "@" + Runtime.version();
+        return directory == null ? null : directory.resolve("jdk-" + CacheDirectories.shortHash(key) + SUFFIX);
+    }
+
+    /** Shards of earlier builds of {@code archive} would only fill the disk. */
+    private void removeOlderShards(ClassPathJars.Archive archive, Path current) {
+        var prefix = shardPrefix(archive);
+        try (var files = Files.list(directory)) {
+            for (var file : files.toList()) {
+                var name = file.getFileName().toString();
+                if (name.startsWith(prefix) && name.endsWith(SUFFIX) && !file.equals(current)) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        } catch (IOException e) {
+            LOG.fine(String.format("[external-binary] failed to clean up shards of %s: %s", archive.path(), e.getMessage()));
+        }
+    }
+
+    /*
+     * Layout, big-endian:
+     *
+     *   header   MAGIC, FORMAT_VERSION, classCount, stringCount, recordsOffset, stringIndexOffset,
+     *            classIndexOffset
+     *   records  one per class; strings are ids into the pool
+     *   strings  length + UTF-8 bytes, each string once
+     *   string index  offset of each string, by id
+     *   class index   (name id, record offset) per class, sorted by the name's UTF-8 bytes
+     */
+
+    static void write(Path file, List<String> classFiles, DeclaredClass[] results) throws IOException {
+        var strings = new Object2IntOpenHashMap<String>();
+        strings.defaultReturnValue(-1);
+        var pool = new ArrayList<String>();
+        var records = new ByteArrayOutputStream();
+        var out = new DataOutputStream(records);
+        var names = new ArrayList<String>();
+        var offsets = new ArrayList<Integer>();
+        for (var i = 0; i < classFiles.size(); i++) {
+            var type = results[i];
+            if (type == null) continue;
+            var relative = classFiles.get(i);
+            names.add(relative.substring(0, relative.length() - ".class".length()));
+            offsets.add(HEADER_BYTES + out.size());
+            out.writeByte(type.isInterface() ? 1 : 0);
+            out.writeInt(id(type.superclass(), strings, pool));
+            out.writeInt(type.interfaces().size());
+            for (var iface : type.interfaces()) out.writeInt(id(iface, strings, pool));
+            out.writeInt(type.fields().size());
+            for (var field : type.fields()) {
+                out.writeInt(id(field.name(), strings, pool));
+                out.writeBoolean(field.isStatic());
+                out.writeInt(id(field.typeName(), strings, pool));
+            }
+            out.writeInt(type.methods().size());
+            for (var method : type.methods()) writeMethod(out, method, strings, pool);
+            out.writeInt(type.constructors().size());
+            for (var constructor : type.constructors()) writeMethod(out, constructor, strings, pool);
+        }
+        var classIds = new int[names.size()];
+        for (var i = 0; i < classIds.length; i++) classIds[i] = id(names.get(i), strings, pool);
+        var stringsOffset = HEADER_BYTES + out.size();
+        var stringOffsets = new int[pool.size()];
+        var position = stringsOffset;
+        for (var i = 0; i < pool.size(); i++) {
+            var bytes = pool.get(i).getBytes(StandardCharsets.UTF_8);
+            stringOffsets[i] = position;
+            out.writeInt(bytes.length);
+            out.write(bytes);
+            position += Integer.BYTES + bytes.length;
+        }
+        var stringIndexOffset = HEADER_BYTES + out.size();
+        for (var offset : stringOffsets) out.writeInt(offset);
+        var classIndexOffset = HEADER_BYTES + out.size();
+        var order = new Integer[names.size()];
+        for (var i = 0; i < order.length; i++) order[i] = i;
+        var encoded = names.stream().map(name -> name.getBytes(StandardCharsets.UTF_8)).toList();
+        Arrays.sort(order, (a, b) -> Arrays.compareUnsigned(encoded.get(a), encoded.get(b)));
+        for (var i : order) {
+            out.writeInt(classIds[i]);
+            out.writeInt(offsets.get(i));
+        }
+        out.flush();
+
+        Files.createDirectories(file.getParent());
+        var tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            try (var channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                var header = ByteBuffer.allocate(HEADER_BYTES);
+                header.putInt(MAGIC)
+                        .putInt(FORMAT_VERSION)
+                        .putInt(names.size())
+                        .putInt(pool.size())
+                        .putInt(HEADER_BYTES)
+                        .putInt(stringIndexOffset)
+                        .putInt(classIndexOffset)
+                        .flip();
+                while (header.hasRemaining()) channel.write(header);
+                var body = ByteBuffer.wrap(records.toByteArray());
+                while (body.hasRemaining()) channel.write(body);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static void writeMethod(
+            DataOutputStream out, DeclaredMethod method, Object2IntOpenHashMap<String> strings, List<String> pool)
+            throws IOException {
+        out.writeInt(id(method.name(), strings, pool));
+        out.writeBoolean(method.isStatic());
+        writeArray(out, method.erasedParameterTypes(), strings, pool);
+        writeArray(out, method.parameterNames(), strings, pool);
+        out.writeInt(id(method.returnType(), strings, pool));
+        out.writeInt(id(method.declaredReturnType(), strings, pool));
+        writeArray(out, method.declaredParameterTypes(), strings, pool);
+    }
+
+    private static void writeArray(
+            DataOutputStream out, String[] values, Object2IntOpenHashMap<String> strings, List<String> pool)
+            throws IOException {
+        if (values == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(values.length);
+        for (var value : values) out.writeInt(id(value, strings, pool));
+    }
+
+    private static int id(String value, Object2IntOpenHashMap<String> strings, List<String> pool) {
+        if (value == null) return -1;
+        var id = strings.getInt(value);
+        if (id >= 0) return id;
+        id = pool.size();
+        strings.put(value, id);
+        pool.add(value);
+        return id;
+    }
+
+    /** Map {@code file} if it is a shard of the current format. */
+    static Optional<Shard> open(Path file) {
+        if (file == null || !Files.isRegularFile(file)) {
+            return Optional.empty();
+        }
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            var size = channel.size();
+            if (size < HEADER_BYTES || size > Integer.MAX_VALUE) {
+                return Optional.empty();
+            }
+            var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT_VERSION) {
+                LOG.info(String.format("[external-binary] ignoring %s: unknown format", file));
+                return Optional.empty();
+            }
+            return Optional.of(new Shard(file, buffer));
+        } catch (IOException | RuntimeException e) {
+            LOG.warning(String.format("[external-binary] discarding unreadable shard %s: %s", file, e.getMessage()));
+            return Optional.empty();
+        }
+    }
+
+    /** One mapped shard, searched and decoded in place; safe for concurrent readers. */
+    static final class Shard {
+        private final Path file;
+        private final ByteBuffer buffer;
+        private final int classCount, stringIndexOffset, classIndexOffset;
+
+        private Shard(Path file, ByteBuffer buffer) {
+            this.file = file;
+            this.buffer = buffer;
+            this.classCount = buffer.getInt(8);
+            this.stringIndexOffset = buffer.getInt(20);
+            this.classIndexOffset = buffer.getInt(24);
+        }
+
+        int size() {
+            return classCount;
+        }
+
+        Optional<DeclaredClass> find(String internalName) {
+            try {
+                var key = internalName.getBytes(StandardCharsets.UTF_8);
+                int low = 0, high = classCount - 1;
+                while (low <= high) {
+                    var mid = (low + high) >>> 1;
+                    var entry = classIndexOffset + mid * 2 * Integer.BYTES;
+                    var order = compare(buffer.getInt(entry), key);
+                    if (order < 0) {
+                        low = mid + 1;
+                    } else if (order > 0) {
+                        high = mid - 1;
+                    } else {
+                        return Optional.of(decode(internalName, buffer.getInt(entry + Integer.BYTES)));
+                    }
+                }
+                return Optional.empty();
+            } catch (RuntimeException e) {
+                LOG.warning(String.format("[external-binary] corrupt shard %s: %s", file, e.getMessage()));
+                return Optional.empty();
+            }
+        }
+
+        /** Compare string {@code id} with {@code key} as unsigned bytes, like the writer sorted them. */
+        private int compare(int id, byte[] key) {
+            var offset = buffer.getInt(stringIndexOffset + id * Integer.BYTES);
+            var length = buffer.getInt(offset);
+            var common = Math.min(length, key.length);
+            for (var i = 0; i < common; i++) {
+                var order = Byte.compareUnsigned(buffer.get(offset + Integer.BYTES + i), key[i]);
+                if (order != 0) return order;
+            }
+            return Integer.compare(length, key.length);
+        }
+
+        private DeclaredClass decode(String internalName, int offset) {
+            var in = new Cursor(offset);
+            var declaringType = internalName.replace('/', '.');
+            var isInterface = buffer.get(in.advance(1)) != 0;
+            var superclass = string(in.nextInt());
+            var interfaces = new ArrayList<String>();
+            for (var count = in.nextInt(); count > 0; count--) interfaces.add(string(in.nextInt()));
+            var fields = new ArrayList<DeclaredField>();
+            for (var count = in.nextInt(); count > 0; count--) {
+                var name = string(in.nextInt());
+                var isStatic = buffer.get(in.advance(1)) != 0;
+                fields.add(new DeclaredField(declaringType, name, isStatic, string(in.nextInt())));
+            }
+            var methods = new ArrayList<DeclaredMethod>();
+            for (var count = in.nextInt(); count > 0; count--) methods.add(method(declaringType, in));
+            var constructors = new ArrayList<DeclaredMethod>();
+            for (var count = in.nextInt(); count > 0; count--) constructors.add(method(declaringType, in));
+            return new DeclaredClass(
+                    isInterface,
+                    superclass,
+                    List.copyOf(interfaces),
+                    List.copyOf(fields),
+                    List.copyOf(methods),
+                    List.copyOf(constructors));
+        }
+
+        private DeclaredMethod method(String declaringType, Cursor in) {
+            var name = string(in.nextInt());
+            var isStatic = buffer.get(in.advance(1)) != 0;
+            var erased = array(in);
+            var parameterNames = array(in);
+            var returnType = string(in.nextInt());
+            var declaredReturnType = string(in.nextInt());
+            var declaredParameterTypes = array(in);
+            return new DeclaredMethod(
+                    declaringType, name, isStatic, erased, parameterNames, returnType, declaredReturnType,
+                    declaredParameterTypes);
+        }
+
+        private String[] array(Cursor in) {
+            var count = in.nextInt();
+            if (count < 0) return null;
+            var values = new String[count];
+            for (var i = 0; i < count; i++) values[i] = string(in.nextInt());
+            return values;
+        }
+
+        private String string(int id) {
+            if (id < 0) return null;
+            var offset = buffer.getInt(stringIndexOffset + id * Integer.BYTES);
+            var bytes = new byte[buffer.getInt(offset)];
+            buffer.get(offset + Integer.BYTES, bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        /** Read position within a record; absolute reads keep the shared buffer's state untouched. */
+        private final class Cursor {
+            private int position;
+
+            Cursor(int position) {
+                this.position = position;
+            }
+
+            int advance(int bytes) {
+                var at = position;
+                position += bytes;
+                return at;
+            }
+
+            int nextInt() {
+                return buffer.getInt(advance(Integer.BYTES));
+            }
+        }
+    }
+}
@@ -5,22 +5,12 @@ import com.github.benmanes.caffeine.cache.Caffeine;
 import com.sun.source.tree.CompilationUnitTree;
 import com.sun.source.tree.VariableTree;
 import java.io.IOException;
-import java.io.InputStream;
-import java.lang.reflect.Modifier;
-import java.lang.classfile.ClassFile;
-import java.lang.classfile.constantpool.ConstantPoolException;
-import java.lang.constant.ClassDesc;
-import java.lang.constant.MethodTypeDesc;
-import java.lang.reflect.AccessFlag;
-import java.lang.reflect.Field;
-import java.lang.reflect.Method;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Duration;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
@@ -28,13 +18,12 @@ import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
-import java.util.StringJoiner;
-import java.util.jar.JarFile;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 import java.util.function.Function;
 import org.javacs.CompilerProvider;
 import org.javacs.CacheAudit;
+import org.javacs.ClassPathJars;
 import org.javacs.FindHelper;
 import org.javacs.LombokAnnotations;
 import org.javacs.ScanClassPath;
@@ -60,12 +49,13 @@ public final class ExternalBinaryTypeIndex {
     private final CompilerProvider compiler;
     private final String classPathFingerprint;
     private final Set<Path> classPathRoots;
+    private volatile DependencyTypeShards shards;
     private final ClassLoader classLoader;
     private final Set<String> knownClassNames;
     private final Cache<String, Optional<IndexedType>> rawTypeCache;
     private final Cache<String, Optional<IndexedType>> typeCache;
     private final Cache<String, Optional<Path>> decompiledSourceCache;
-    private final Cache<String, Optional<BinaryClassModel>> classFileCache;
+    private final ClassFileTypeReader classFiles;
     private final ExternalBinaryDecompiler decompiler;
 
     /**
@@ -88,7 +78,7 @@ public final class ExternalBinaryTypeIndex {
         this.rawTypeCache = Caffeine.newBuilder().maximumSize(1).build();
         this.typeCache = Caffeine.newBuilder().maximumSize(1).build();
         this.decompiledSourceCache = Caffeine.newBuilder().maximumSize(1).build();
-        this.classFileCache = Caffeine.newBuilder().maximumSize(1).build();
+        this.classFiles = new ClassFileTypeReader(internalName -> Optional.empty(), null);
         this.decompiler = new ExternalBinaryDecompiler(Set.of(), "", classLoader);
     }
 
@@ -104,7 +94,9 @@ public final class ExternalBinaryTypeIndex {
      * <p>{@code classPathFingerprint}: stable cache key derived from those roots so decompiled
      * artifacts can be reused safely
      *
-     * <p>{@code classLoader}: runtime loader used for reflection-based dependency metadata
+     * <p>{@code classLoader}: runtime loader the decompiler uses to find class bytes for
+     * navigation; member metadata is read from class files by {@link ClassFileTypeReader} and never
+     * loads a class
      *
      * <p>The caches store already-decoded dependency facts. They do not hold workspace symbols.
      *
@@ -144,11 +136,12 @@ public final class ExternalBinaryTypeIndex {
                         .maximumSize(5_000)
                         .expireAfterAccess(Duration.ofMinutes(30))
                         .build();
-        this.classFileCache =
-                Caffeine.newBuilder()
-                        .maximumSize(20_000)
-                        .expireAfterAccess(Duration.ofMinutes(30))
-                        .build();
+        this.classFiles =
+                new ClassFileTypeReader(
+                        internalName -> shards().declared(internalName),
+                        (declaringType, methodName, erasedParameterTypes) ->
+                                resolveParameterNamesFromSource(
+                                        declaringType, methodName, erasedParameterTypes.length, erasedParameterTypes));
         this.decompiler = new ExternalBinaryDecompiler(this.classPathRoots, this.classPathFingerprint, this.classLoader);
     }
 
@@ -157,29 +150,17 @@ public final class ExternalBinaryTypeIndex {
     }
 
     /**
-     * Eagerly load all known class types into the raw type cache on a background thread.
-     * After this completes, all subsequent {@link #members}, {@link #typeInfo}, and
-     * {@link #containsType} calls are pure cache hits — zero reflection on the hot path.
+     * Parse every dependency class that has no persisted shard yet, in parallel, and persist the
+     * results per jar in {@link DependencyTypeShards}. Only jars that are new or changed since an
+     * earlier run are parsed, so after a restart this finds nothing to do and lookups are served
+     * from the mapped shards straight away.
      *
-     * <p>Call this once after construction. Safe to call from any thread.
+     * <p>Stops with {@link java.util.concurrent.CancellationException} once the current {@link
+     * org.javacs.lsp.CancelToken} is cancelled. Safe to call from any thread.
      */
     public void preScanAll() {
-        if (knownClassNames.isEmpty()) return;
-        var started = java.time.Instant.now();
-        int loaded = 0;
-        int failed = 0;
-        for (var className : knownClassNames) {
-            try {
-                rawTypeInfo(className);
-                loaded++;
-            } catch (Exception e) {
-                failed++;
-            }
-        }
-        LOG.info(String.format(
-                "[perf] external_binary_prescan classes=%d loaded=%d failed=%d took=%dms",
-                knownClassNames.size(), loaded, failed,
-                java.time.Duration.between(started, java.time.Instant.now()).toMillis()));
+        if (compiler == null || knownClassNames.isEmpty()) return;
+        shards().prescan(ScanClassPath.jdkTopLevelClasses());
     }
 
     public Optional<IndexedType> typeInfo(String qualifiedName) {
@@ -192,9 +173,9 @@ public final class ExternalBinaryTypeIndex {
 
     public boolean containsType(String qualifiedName) {
         // knownClassNames is the authoritative set of top-level classes on the classpath.
-        // Names not in this set can never resolve via Class.forName (workspace types aren't on the
+        // Names not in this set can never resolve to a class file (workspace types aren't on the
         // classpath; inner classes use $ notation which normalize() converts to dots). Skipping the
-        // expensive reflection/classfile fallback eliminates ~2s of wasted I/O on large projects.
+        // class file lookup for them eliminates ~2s of wasted I/O on large projects.
         return knownClassNames.contains(qualifiedName);
     }
 
@@ -329,223 +310,11 @@ public final class ExternalBinaryTypeIndex {
     }
 
     private Optional<IndexedType> loadRawTypeInfo(String qualifiedName) {
-        try {
-            var binaryClass = Class.forName(qualifiedName, false, classLoader);
-            if (binaryClass.isArray()) {
-                return Optional.empty();
-            }
-            var publicFields = visibleFields(binaryClass);
-            var seen = new LinkedHashMap<String, IndexedMember>();
-            for (var field : publicFields) {
-                try {
-                    if (field.isSynthetic()) {
-                        continue;
-                    }
-                    var declaring = field.getDeclaringClass().getName();
-                    var priority = memberPriority(qualifiedName, declaring);
-                    var member =
-                            new IndexedMember(
-                                    declaring,
-                                    field.getName(),
-                                    CompletionItemKind.Field,
-                                    Modifier.isStatic(field.getModifiers()),
-                                    Modifier.isPrivate(field.getModifiers()),
-                                    priority,
-                                    field.getType().getTypeName() + " " + field.getName(),
-                                    canonicalTypeName(field.getType()),
-                                    null,
-                                    null,
-                                    IndexedMember.canonicalKey(
-                                            declaring, CompletionItemKind.Field, field.getName(), null),
-                                    IndexedMember.canonicalKey(
-                                            declaring, CompletionItemKind.Field, field.getName(), null),
-                                    null,
-                                    false,
-                                    IndexedMember.Provenance.EXTERNAL_BINARY);
-                    seen.putIfAbsent(memberKey(member), member);
-                } catch (TypeNotPresentException | LinkageError ex) {
-                    LOG.fine(
-                            String.format(
-                                    "[external-binary] skip field owner=%s field=%s reason=%s",
-                                    qualifiedName,
-                                    field.getName(),
-                            ex.getClass().getSimpleName()));
-                }
-            }
-            var publicMethods = visibleMethods(binaryClass);
-            for (var method : publicMethods) {
-                try {
-                    if (method.isSynthetic() || method.isBridge()) {
-                        continue;
-                    }
-                    var declaring = method.getDeclaringClass().getName();
-                    var priority = memberPriority(qualifiedName, declaring);
-                    var parameterNames = new String[method.getParameterCount()];
-                    var erasedParameterTypes = new String[method.getParameterCount()];
-                    var parameters = new StringJoiner(", ");
-                    boolean hasSyntheticNames = false;
-                    for (int i = 0; i < method.getParameterCount(); i++) {
-                        var parameter = method.getParameters()[i];
-                        parameterNames[i] = parameter.getName();
-                        if (!parameter.isNamePresent()) hasSyntheticNames = true;
-                        erasedParameterTypes[i] = method.getParameterTypes()[i].getTypeName();
-                        parameters.add(TypeNames.simpleName(erasedParameterTypes[i]) + " " + parameter.getName());
-                    }
-                    if (hasSyntheticNames && method.getParameterCount() > 0) {
-                        var sourceNames = resolveParameterNamesFromSource(
-                                declaring, method.getName(), method.getParameterCount(), erasedParameterTypes);
-                        if (sourceNames == null) {
-                            sourceNames = resolveParameterNamesFromClassFile(
-                                    declaring, method.getName(), method.getParameterCount(),
-                                    Modifier.isStatic(method.getModifiers()));
-                        }
-                        if (sourceNames != null) {
-                            parameters = new StringJoiner(", ");
-                            for (int i = 0; i < method.getParameterCount(); i++) {
-                                parameterNames[i] = sourceNames[i];
-                                parameters.add(TypeNames.simpleName(erasedParameterTypes[i]) + " " + sourceNames[i]);
-                            }
-                        }
-                    }
-                    var detail =
-                            TypeNames.simpleName(canonicalTypeName(method.getReturnType()))
-                                    + " "
-                                    + method.getName()
-                                    + "("
-                                    + parameters
-                                    + ")";
-                    IndexedMember member;
-                    {
-                        var base =
-                                new IndexedMember(
-                                        declaring,
-                                        method.getName(),
-                                        CompletionItemKind.Method,
-                                        Modifier.isStatic(method.getModifiers()),
-                                        Modifier.isPrivate(method.getModifiers()),
-                                        priority,
-                                        detail,
-                                        canonicalTypeName(method.getReturnType()),
-                                        parameterNames,
-                                        erasedParameterTypes,
-                                        IndexedMember.canonicalKey(
-                                                declaring, CompletionItemKind.Method, method.getName(), erasedParameterTypes),
-                                        IndexedMember.canonicalKey(
-                                                declaring, CompletionItemKind.Method, method.getName(), erasedParameterTypes),
-                                        null,
-                                        false,
-                                        IndexedMember.Provenance.EXTERNAL_BINARY);
-                        // Enrich with generic (non-erased) declared types so that
-                        // ParseTypeResolver can bind method-level type variables from
-                        // call-site Class<T> arguments (e.g. mapper.readValue(json, Foo.class)).
-                        try {
-                            var genericReturn = method.getGenericReturnType().getTypeName();
-                            var genericParams = method.getGenericParameterTypes();
-                            var declaredParamTypes = new String[genericParams.length];
-                            for (int gi = 0; gi < genericParams.length; gi++) {
-                                declaredParamTypes[gi] = genericParams[gi].getTypeName();
-                            }
-                            member = base.withDeclaredTypes(genericReturn, declaredParamTypes);
-                        } catch (Exception ignored) {
-                            member = base;
-                        }
-                    }
-                    var key = memberKey(member);
-                    var existing = seen.get(key);
-                    if (existing == null || member.priority < existing.priority) {
-                        seen.put(key, member);
-                    }
-                } catch (TypeNotPresentException | LinkageError ex) {
-                    LOG.fine(
-                            String.format(
-                                    "[external-binary] skip method owner=%s method=%s reason=%s",
-                                    qualifiedName,
-                                    method.getName(),
-                            ex.getClass().getSimpleName()));
-                }
-            }
-            // Index constructors via reflection
-            for (var ctor : binaryClass.getDeclaredConstructors()) {
-                try {
-                    if (ctor.isSynthetic()) continue;
-                    if (java.lang.reflect.Modifier.isPrivate(ctor.getModifiers())) continue;
-                    var parameterNames = new String[ctor.getParameterCount()];
-                    var erasedParameterTypes = new String[ctor.getParameterCount()];
-                    var parameters = new StringJoiner(", ");
-                    for (int i = 0; i < ctor.getParameterCount(); i++) {
-                        var parameter = ctor.getParameters()[i];
-                        parameterNames[i] = parameter.isNamePresent() ? parameter.getName() : "arg" + i;
-                        erasedParameterTypes[i] = ctor.getParameterTypes()[i].getTypeName();
-                        parameters.add(canonicalTypeName(ctor.getParameterTypes()[i]) + " " + parameterNames[i]);
-                    }
-                    var simpleName = binaryClass.getSimpleName();
-                    var detail = simpleName + "(" + parameters + ")";
-                    var member = new IndexedMember(
-                            qualifiedName,
-                            "<init>",
-                            CompletionItemKind.Constructor,
-                            false,
-                            false,
-                            0,
-                            detail,
-                            "void",
-                            parameterNames,
-                            erasedParameterTypes,
-                            IndexedMember.canonicalKey(qualifiedName, CompletionItemKind.Constructor, "<init>", erasedParameterTypes),
-                            IndexedMember.canonicalKey(qualifiedName, CompletionItemKind.Constructor, "<init>", erasedParameterTypes),
-                            null,
-                            false,
-                            IndexedMember.Provenance.EXTERNAL_BINARY);
-                    seen.putIfAbsent(memberKey(member), member);
-                } catch (TypeNotPresentException | LinkageError ex) {
-                    // skip
-                }
-            }
-            var members = new ArrayList<>(seen.values());
-            IndexedMember.sort(members);
-            var superclass =
-                    binaryClass.getSuperclass() == null ? null : canonicalTypeName(binaryClass.getSuperclass());
-            var interfaces =
-                    java.util.Arrays.stream(binaryClass.getInterfaces())
-                            .map(this::canonicalTypeName)
-                            .collect(Collectors.toList());
-            var linked =
-                    new IndexedType(
-                            qualifiedName,
-                            binaryClass.getSimpleName(),
-                            members,
-                            null,
-                            superclass,
-                            interfaces,
-                            IndexedMember.Provenance.EXTERNAL_BINARY);
-            return Optional.of(linked);
-        } catch (ClassNotFoundException | LinkageError ex) {
-            LOG.fine(
-                    String.format(
-                            "[external-binary] reflect miss type=%s reason=%s",
-                            qualifiedName,
-                            ex.getClass().getSimpleName()));
-            var fallback =
-                    lookup(
-                            classFileCache,
-                            qualifiedName,
-                            this::loadBinaryClassModel,
-                            "external_binary.classfile");
-            if (fallback.isPresent()) {
-                LOG.fine(String.format("[external-binary] classfile fallback type=%s", qualifiedName));
-                return Optional.of(
-                        new IndexedType(
-                                fallback.get().qualifiedName(),
-                                fallback.get().simpleName(),
-                                fallback.get().members(),
-                                null,
-                                null,
-                                List.of(),
-                                IndexedMember.Provenance.EXTERNAL_BINARY));
-            }
-            LOG.fine(String.format("[external-binary] miss type=%s reason=%s", qualifiedName, ex.getClass().getSimpleName()));
-            return Optional.empty();
+        var type = classFiles.read(qualifiedName);
+        if (type.isEmpty()) {
+            LOG.fine(String.format("[external-binary] miss type=%s", qualifiedName));
         }
+        return type;
     }
 
     private <T> Optional<T> lookup(
@@ -565,213 +334,19 @@ public final class ExternalBinaryTypeIndex {
         CacheAudit.store(metricName);
         return loaded;
     }
-    private Optional<BinaryClassModel> loadBinaryClassModel(String qualifiedName) {
-        var relative = qualifiedName.replace('.', '/') + ".class";
-        for (var root : classPathRoots) {
-            try {
-                if (Files.isDirectory(root)) {
-                    var classFile = root.resolve(relative);
-                    if (!Files.isRegularFile(classFile)) {
-                        continue;
-                    }
-                    try (var in = Files.newInputStream(classFile)) {
-                        return Optional.of(parseBinaryClassModel(qualifiedName, in));
-                    }
-                }
-                if (!Files.isRegularFile(root)) {
-                    continue;
-                }
-                try (var jar = new JarFile(root.toFile())) {
-                    var entry = jar.getJarEntry(relative);
-                    if (entry == null) {
-                        continue;
-                    }
-                    try (var in = jar.getInputStream(entry)) {
-                        return Optional.of(parseBinaryClassModel(qualifiedName, in));
-                    }
-                }
-            } catch (IOException | ConstantPoolException ex) {
-                LOG.fine(
-                        String.format(
-                                "[external-binary] classfile miss type=%s root=%s reason=%s",
-                                qualifiedName,
-                                root.getFileName(),
-                                ex.getClass().getSimpleName()));
-            }
-        }
-        return Optional.empty();
-    }
-
-    private BinaryClassModel parseBinaryClassModel(String qualifiedName, InputStream input)
-            throws IOException, ConstantPoolException {
-        var classFile = ClassFile.of().parse(input.readAllBytes());
-        var simpleName = TypeNames.simpleName(qualifiedName);
-        var seenMembers = new LinkedHashMap<String, IndexedMember>();
-
-        for (var field : classFile.fields()) {
-            if (field.flags().has(AccessFlag.SYNTHETIC)) {
-                continue;
-            }
-            var name = field.fieldName().stringValue();
-            if (name == null || name.isBlank()) {
-                continue;
-            }
-            var type = normalizeBinaryType(field.fieldTypeSymbol());
-            var staticMember = field.flags().has(AccessFlag.STATIC);
-            var privateMember = field.flags().has(AccessFlag.PRIVATE);
-            var member =
-                    new IndexedMember(
-                            qualifiedName,
-                            name,
-                            CompletionItemKind.Field,
-                            staticMember,
-                            privateMember,
-                            0,
-                            type + " " + name,
-                            type,
-                            null,
-                            null,
-                            IndexedMember.canonicalKey(qualifiedName, CompletionItemKind.Field, name, null),
-                            IndexedMember.canonicalKey(qualifiedName, CompletionItemKind.Field, name, null),
-                            null,
-                            false,
-                            IndexedMember.Provenance.EXTERNAL_BINARY);
-            seenMembers.putIfAbsent(memberKey(member), member);
-        }
-
-        for (var method : classFile.methods()) {
-            if (method.flags().has(AccessFlag.SYNTHETIC)
-                    || method.flags().has(AccessFlag.BRIDGE)) {
-                continue;
-            }
-            var name = method.methodName().stringValue();
-            if (name == null || name.isBlank() || "<clinit>".equals(name)) {
-                continue;
-            }
-            var methodType = method.methodTypeSymbol();
-            var parameterTypes = parseBinaryParameterTypes(methodType);
-            var parameterNames = syntheticParameterNames(parameterTypes.length);
-            if ("<init>".equals(name)) {
-                // Index constructor
-                var privateMember = method.flags().has(AccessFlag.PRIVATE);
-                var ctorDetail = TypeNames.simpleName(qualifiedName) + "(" + renderParameters(parameterTypes, parameterNames) + ")";
-                var member = new IndexedMember(
-                        qualifiedName,
-                        name,
-                        CompletionItemKind.Constructor,
-                        false,
-                        privateMember,
-                        0,
-                        ctorDetail,
-                        "void",
-                        parameterNames,
-                        parameterTypes,
-                        IndexedMember.canonicalKey(qualifiedName, CompletionItemKind.Constructor, name, parameterTypes),
-                        IndexedMember.canonicalKey(qualifiedName, CompletionItemKind.Constructor, name, parameterTypes),
-                        null,
-                        false,
-                        IndexedMember.Provenance.EXTERNAL_BINARY);
-                seenMembers.putIfAbsent(memberKey(member), member);
-                continue;
-            }
-            var returnType = normalizeBinaryType(methodType.returnType());
-            var staticMember = method.flags().has(AccessFlag.STATIC);
-            var privateMember = method.flags().has(AccessFlag.PRIVATE);
-            var detail =
-                    returnType
-                            + " "
-                            + name
-                            + "("
-                            + renderParameters(parameterTypes, parameterNames)
-                            + ")";
-            var member =
-                    new IndexedMember(
-                            qualifiedName,
-                            name,
-                            CompletionItemKind.Method,
-                            staticMember,
-                            privateMember,
-                            0,
-                            detail,
-                            returnType,
-                            parameterNames,
-                            parameterTypes,
-                            IndexedMember.canonicalKey(qualifiedName, CompletionItemKind.Method, name, parameterTypes),
-                            IndexedMember.canonicalKey(qualifiedName, CompletionItemKind.Method, name, parameterTypes),
-                            null,
-                            false,
-                            IndexedMember.Provenance.EXTERNAL_BINARY);
-            var key = memberKey(member);
-            var existing = seenMembers.get(key);
-            if (existing == null || member.priority < existing.priority) {
-                seenMembers.put(key, member);
-            }
-        }
-
-        var members = new ArrayList<>(seenMembers.values());
-        IndexedMember.sort(members);
-        return new BinaryClassModel(qualifiedName, simpleName, members);
-    }
-
-    private int memberPriority(String targetType, String declaringType) {
-        if (Objects.equals(targetType, declaringType)) {
-            return 0;
-        }
-        if (Objects.equals("java.lang.Object", declaringType)) {
-            return 2;
-        }
-        return 1;
-    }
-
-    private List<Field> visibleFields(Class<?> binaryClass) {
-        var ordered = new LinkedHashMap<String, Field>();
-        collectVisibleFields(binaryClass, ordered, new HashSet<>());
-        return new ArrayList<>(ordered.values());
-    }
-
-    private void collectVisibleFields(Class<?> type, LinkedHashMap<String, Field> ordered, Set<Class<?>> visited) {
-        if (type == null || !visited.add(type)) {
-            return;
-        }
-        for (var field : type.getDeclaredFields()) {
-            if (!Modifier.isPublic(field.getModifiers()) || field.isSynthetic()) {
-                continue;
-            }
-            ordered.putIfAbsent(field.getName(), field);
-        }
-        collectVisibleFields(type.getSuperclass(), ordered, visited);
-        for (var iface : type.getInterfaces()) {
-            collectVisibleFields(iface, ordered, visited);
-        }
-    }
-
-    private List<Method> visibleMethods(Class<?> binaryClass) {
-        var ordered = new LinkedHashMap<String, Method>();
-        collectVisibleMethods(binaryClass, ordered, new HashSet<>());
-        return new ArrayList<>(ordered.values());
-    }
 
-    private void collectVisibleMethods(Class<?> type, LinkedHashMap<String, Method> ordered, Set<Class<?>> visited) {
-        if (type == null || !visited.add(type)) {
-            return;
-        }
-        for (var method : type.getDeclaredMethods()) {
-            if (!Modifier.isPublic(method.getModifiers())
-                    || method.isSynthetic()
-                    || method.isBridge()) {
-                continue;
-            }
-            var key = method.getName() + Arrays.toString(method.getParameterTypes());
-            ordered.putIfAbsent(key, method);
-        }
-        collectVisibleMethods(type.getSuperclass(), ordered, visited);
-        for (var iface : type.getInterfaces()) {
-            collectVisibleMethods(iface, ordered, visited);
+    /**
+     * Built on the first class file lookup, since indexing every jar's directory isn't free, and
+     * again once a jar may have changed, so reads stay on open mappings of the current jars.
+     */
+    private DependencyTypeShards shards() {
+        var view = shards;
+        if (view == null || !view.jars().isCurrent()) {
+            var jars = view == null ? ClassPathJars.of(classPathRoots) : view.jars().current();
+            view = new DependencyTypeShards(DependencyTypeShards.defaultDirectory(), jars);
+            shards = view;
         }
-    }
-
-    private String memberKey(IndexedMember member) {
-        return member.canonicalKey;
+        return view;
     }
 
     private IndexedMember ensureExternalProvenance(IndexedMember member) {
@@ -1017,13 +592,6 @@ public final class ExternalBinaryTypeIndex {
         }
     }
 
-    private String canonicalTypeName(Class<?> type) {
-        if (type.isArray()) {
-            return canonicalTypeName(type.getComponentType()) + "[]";
-        }
-        return type.getTypeName().replace('$', '.');
-    }
-
     private static String fingerprint(Set<Path> classPath) {
         return Integer.toHexString(
                 classPath.stream()
@@ -1049,133 +617,6 @@ public final class ExternalBinaryTypeIndex {
         return new URLClassLoader(urls, ExternalBinaryTypeIndex.class.getClassLoader());
     }
 
-    private String[] parseBinaryParameterTypes(MethodTypeDesc methodType) {
-        if (methodType == null || methodType.parameterCount() == 0) {
-            return new String[0];
-        }
-        var normalized = new String[methodType.parameterCount()];
-        for (int i = 0; i < methodType.parameterCount(); i++) {
-            normalized[i] = normalizeBinaryType(methodType.parameterType(i));
-        }
-        return normalized;
-    }
-
-    private String renderParameters(String[] parameterTypes, String[] parameterNames) {
-        var parameters = new StringJoiner(", ");
-        for (int i = 0; i < parameterTypes.length; i++) {
-            parameters.add(parameterTypes[i] + " " + parameterNames[i]);
-        }
-        return parameters.toString();
-    }
-
-    private String[] syntheticParameterNames(int count) {
-        var names = new String[count];
-        for (int i = 0; i < count; i++) {
-            names[i] = "arg" + i;
-        }
-        return names;
-    }
-
-       private String normalizeBinaryType(ClassDesc typeDesc) {
-        if (typeDesc == null) {
-            return "java.lang.Object";
-        }
-        return normalizeBinaryDescriptor(typeDesc.descriptorString());
-    }
-
-    private String normalizeBinaryDescriptor(String descriptor) {
-        if (descriptor == null || descriptor.isBlank()) {
-            return "java.lang.Object";
-        }
-        int dimensions = 0;
-        while (dimensions < descriptor.length() && descriptor.charAt(dimensions) == '[') {
-            dimensions++;
-        }
-        var baseDescriptor = descriptor.substring(dimensions);
-        String baseType;
-        switch (baseDescriptor) {
-            case "B":
-                baseType = "byte";
-                break;
-            case "C":
-                baseType = "char";
-                break;
-            case "D":
-                baseType = "double";
-                break;
-            case "F":
-                baseType = "float";
-                break;
-            case "I":
-                baseType = "int";
-                break;
-            case "J":
-                baseType = "long";
-                break;
-            case "S":
-                baseType = "short";
-                break;
-            case "Z":
-                baseType = "boolean";
-                break;
-            case "V":
-                baseType = "void";
-                break;
-            default:
-                if (baseDescriptor.startsWith("L") && baseDescriptor.endsWith(";")) {
-                    baseType =
-                            baseDescriptor
-                                    .substring(1, baseDescriptor.length() - 1)
-                                    .replace('/', '.')
-                                    .replace('$', '.');
-                } else {
-                    baseType = baseDescriptor.replace('/', '.').replace('$', '.');
-                }
-                break;
-        }
-        return baseType + "[]".repeat(dimensions);
-    }
-
-    /** Read parameter names from the classfile's LocalVariableTable (available when compiled with -g). */
-    private String[] resolveParameterNamesFromClassFile(
-            String className, String methodName, int paramCount, boolean isStatic) {
-        if (compiler == null) return null;
-        var classFile = compiler.findClassFile(className);
-        if (classFile.isEmpty()) {
-            LOG.fine("[param-names] classfile not found for " + className);
-            return null;
-        }
-        try {
-            var model = ClassFile.of().parse(classFile.get());
-            for (var m : model.methods()) {
-                if (!m.methodName().equalsString(methodName)) continue;
-                var code = m.findAttribute(java.lang.classfile.Attributes.code()).orElse(null);
-                if (code == null) continue;
-                var lvt = code.findAttribute(java.lang.classfile.Attributes.localVariableTable()).orElse(null);
-                if (lvt == null) {
-                    LOG.fine("[param-names] no LocalVariableTable for " + className + "#" + methodName);
-                    continue;
-                }
-                // LocalVariableTable slots: instance methods start at 1 (0=this), static at 0
-                int firstSlot = isStatic ? 0 : 1;
-                var names = new String[paramCount];
-                int found = 0;
-                for (var entry : lvt.localVariables()) {
-                    int idx = entry.slot() - firstSlot;
-                    if (idx < 0 || idx >= paramCount) continue;
-                    if (entry.startPc() != 0) continue; // params have startPc=0
-                    names[idx] = entry.name().stringValue();
-                    found++;
-                }
-                if (found == paramCount) return names;
-                LOG.fine("[param-names] partial match for " + className + "#" + methodName + " found=" + found + "/" + paramCount);
-            }
-        } catch (Exception e) {
-            LOG.fine("[param-names] failed to read classfile for " + className + ": " + e.getMessage());
-        }
-        return null;
-    }
-
     private String[] resolveParameterNamesFromSource(
             String className, String methodName, int paramCount, String[] erasedParameterTypes) {
         if (compiler == null) return null;
@@ -1237,8 +678,6 @@ public final class ExternalBinaryTypeIndex {
         return null;
     }
 
-    private record BinaryClassModel(
-            String qualifiedName, String simpleName, List<IndexedMember> members) {}
     private record SourceLombokMetadata(
             java.util.Map<String, String> accessorToField,
             List<IndexedMember> syntheticAccessors) {}
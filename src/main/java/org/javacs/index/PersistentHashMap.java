@@ -0,0 +1,379 @@
+package org.javacs.index;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Immutable hash array mapped trie. {@link #plus} and {@link #minus} return a new map that shares
+ * every untouched node with the old one, so publishing a one-file index update copies a handful of
+ * small arrays instead of the whole workspace map.
+ *
+ * <p>Readers see a plain read-only {@link Map}: lookups walk at most seven 32-way levels, and
+ * iteration order follows the key hashes, not insertion order. Null keys and values are rejected.
+ */
+final class PersistentHashMap<K, V> extends AbstractMap<K, V> {
+    private static final PersistentHashMap<?, ?> EMPTY = new PersistentHashMap<>(null, 0);
+
+    private final Node root;
+    private final int size;
+
+    private PersistentHashMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <K, V> PersistentHashMap<K, V> empty() {
+        return (PersistentHashMap<K, V>) EMPTY;
+    }
+
+    static <K, V> PersistentHashMap<K, V> copyOf(Map<? extends K, ? extends V> source) {
+        if (source instanceof PersistentHashMap<?, ?>) {
+            @SuppressWarnings("unchecked")
+            var same = (PersistentHashMap<K, V>) source;
+            return same;
+        }
+        PersistentHashMap<K, V> result = empty();
+        for (var entry : source.entrySet()) {
+            result = result.plus(entry.getKey(), entry.getValue());
+        }
+        return result;
+    }
+
+    /** Map with {@code key} bound to {@code value}; returns {@code this} if nothing changes. */
+    PersistentHashMap<K, V> plus(K key, V value) {
+        Objects.requireNonNull(key, "key");
+        Objects.requireNonNull(value, "value");
+        var added = new boolean[1];
+        var start = root == null ? BitmapNode.EMPTY : root;
+        var next = start.assoc(0, hash(key), key, value, added);
+        if (next == root) {
+            return this;
+        }
+        return new PersistentHashMap<>(next, added[0] ? size + 1 : size);
+    }
+
+    /** Map without {@code key}; returns {@code this} if the key is absent. */
+    PersistentHashMap<K, V> minus(Object key) {
+        if (root == null || key == null) {
+            return this;
+        }
+        var next = root.without(0, hash(key), key);
+        if (next == root) {
+            return this;
+        }
+        if (next == null) {
+            return empty();
+        }
+        return new PersistentHashMap<>(next, size - 1);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        if (root == null || key == null) {
+            return null;
+        }
+        return (V) root.find(0, hash(key), key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<K, V>> iterator() {
+                return new EntryIterator<>(root);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    private static int hash(Object key) {
+        var h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private static int bitpos(int hash, int shift) {
+        return 1 << ((hash >>> shift) & 0x1f);
+    }
+
+    /**
+     * Trie node. {@link #array} stores key/value pairs; a pair with a null key holds a child node in
+     * its value slot.
+     */
+    private abstract static class Node {
+        abstract Object[] array();
+
+        abstract Object find(int shift, int hash, Object key);
+
+        abstract Node assoc(int shift, int hash, Object key, Object value, boolean[] added);
+
+        /** Returns {@code this} when the key is absent, or null when the node becomes empty. */
+        abstract Node without(int shift, int hash, Object key);
+    }
+
+    private static final class BitmapNode extends Node {
+        static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+        final int bitmap;
+        final Object[] array;
+
+        BitmapNode(int bitmap, Object[] array) {
+            this.bitmap = bitmap;
+            this.array = array;
+        }
+
+        @Override
+        Object[] array() {
+            return array;
+        }
+
+        private int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        @Override
+        Object find(int shift, int hash, Object key) {
+            var bit = bitpos(hash, shift);
+            if ((bitmap & bit) == 0) {
+                return null;
+            }
+            var idx = index(bit);
+            var keyOrNull = array[2 * idx];
+            var valOrNode = array[2 * idx + 1];
+            if (keyOrNull == null) {
+                return ((Node) valOrNode).find(shift + 5, hash, key);
+            }
+            return key.equals(keyOrNull) ? valOrNode : null;
+        }
+
+        @Override
+        Node assoc(int shift, int hash, Object key, Object value, boolean[] added) {
+            var bit = bitpos(hash, shift);
+            var idx = index(bit);
+            if ((bitmap & bit) != 0) {
+                var keyOrNull = array[2 * idx];
+                var valOrNode = array[2 * idx + 1];
+                if (keyOrNull == null) {
+                    var child = (Node) valOrNode;
+                    var next = child.assoc(shift + 5, hash, key, value, added);
+                    return next == child ? this : withSlot(2 * idx + 1, next);
+                }
+                if (key.equals(keyOrNull)) {
+                    return value == valOrNode ? this : withSlot(2 * idx + 1, value);
+                }
+                added[0] = true;
+                var child = createNode(shift + 5, keyOrNull, valOrNode, hash, key, value);
+                var next = array.clone();
+                next[2 * idx] = null;
+                next[2 * idx + 1] = child;
+                return new BitmapNode(bitmap, next);
+            }
+            added[0] = true;
+            var next = new Object[array.length + 2];
+            System.arraycopy(array, 0, next, 0, 2 * idx);
+            next[2 * idx] = key;
+            next[2 * idx + 1] = value;
+            System.arraycopy(array, 2 * idx, next, 2 * idx + 2, array.length - 2 * idx);
+            return new BitmapNode(bitmap | bit, next);
+        }
+
+        @Override
+        Node without(int shift, int hash, Object key) {
+            var bit = bitpos(hash, shift);
+            if ((bitmap & bit) == 0) {
+                return this;
+            }
+            var idx = index(bit);
+            var keyOrNull = array[2 * idx];
+            var valOrNode = array[2 * idx + 1];
+            if (keyOrNull == null) {
+                var child = (Node) valOrNode;
+                var next = child.without(shift + 5, hash, key);
+                if (next == child) {
+                    return this;
+                }
+                if (next != null) {
+                    return withSlot(2 * idx + 1, next);
+                }
+            } else if (!key.equals(keyOrNull)) {
+                return this;
+            }
+            if (bitmap == bit) {
+                return null;
+            }
+            var next = new Object[array.length - 2];
+            System.arraycopy(array, 0, next, 0, 2 * idx);
+            System.arraycopy(array, 2 * idx + 2, next, 2 * idx, array.length - 2 * idx - 2);
+            return new BitmapNode(bitmap ^ bit, next);
+        }
+
+        private BitmapNode withSlot(int slot, Object value) {
+            var next = array.clone();
+            next[slot] = value;
+            return new BitmapNode(bitmap, next);
+        }
+
+        private static Node createNode(int shift, Object key1, Object value1, int hash2, Object key2, Object value2) {
+            var hash1 = hash(key1);
+            if (hash1 == hash2) {
+                return new CollisionNode(hash1, new Object[] {key1, value1, key2, value2});
+            }
+            var ignored = new boolean[1];
+            return EMPTY.assoc(shift, hash1, key1, value1, ignored).assoc(shift, hash2, key2, value2, ignored);
+        }
+    }
+
+    /** Keys whose full 32-bit hashes are equal, searched linearly. */
+    private static final class CollisionNode extends Node {
+        final int hash;
+        final Object[] array;
+
+        CollisionNode(int hash, Object[] array) {
+            this.hash = hash;
+            this.array = array;
+        }
+
+        @Override
+        Object[] array() {
+            return array;
+        }
+
+        private int indexOf(Object key) {
+            for (var i = 0; i < array.length; i += 2) {
+                if (key.equals(array[i])) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        Object find(int shift, int hash, Object key) {
+            if (hash != this.hash) {
+                return null;
+            }
+            var i = indexOf(key);
+            return i < 0 ? null : array[i + 1];
+        }
+
+        @Override
+        Node assoc(int shift, int hash, Object key, Object value, boolean[] added) {
+            if (hash == this.hash) {
+                var i = indexOf(key);
+                if (i >= 0) {
+                    if (array[i + 1] == value) {
+                        return this;
+                    }
+                    var next = array.clone();
+                    next[i + 1] = value;
+                    return new CollisionNode(hash, next);
+                }
+                added[0] = true;
+                var next = new Object[array.length + 2];
+                System.arraycopy(array, 0, next, 0, array.length);
+                next[array.length] = key;
+                next[array.length + 1] = value;
+                return new CollisionNode(hash, next);
+            }
+            // Different hash at this depth: push this node one level down behind a bitmap node.
+            return new BitmapNode(bitpos(this.hash, shift), new Object[] {null, this})
+                    .assoc(shift, hash, key, value, added);
+        }
+
+        @Override
+        Node without(int shift, int hash, Object key) {
+            var i = hash == this.hash ? indexOf(key) : -1;
+            if (i < 0) {
+                return this;
+            }
+            if (array.length == 2) {
+                return null;
+            }
+            var next = new Object[array.length - 2];
+            System.arraycopy(array, 0, next, 0, i);
+            System.arraycopy(array, i + 2, next, i, array.length - i - 2);
+            return new CollisionNode(hash, next);
+        }
+    }
+
+    private static final class EntryIterator<K, V> implements Iterator<Entry<K, V>> {
+        // 32-bit hashes give at most 7 bitmap levels, plus one collision level.
+        private final Object[][] arrays = new Object[9][];
+        private final int[] positions = new int[9];
+        private int depth = -1;
+        private Entry<K, V> next;
+
+        EntryIterator(Node root) {
+            if (root != null) {
+                depth = 0;
+                arrays[0] = root.array();
+            }
+            advance();
+        }
+
+        @SuppressWarnings("unchecked")
+        private void advance() {
+            next = null;
+            while (depth >= 0) {
+                var array = arrays[depth];
+                var pos = positions[depth];
+                if (pos >= array.length) {
+                    arrays[depth] = null;
+                    positions[depth] = 0;
+                    depth--;
+                    continue;
+                }
+                positions[depth] = pos + 2;
+                var keyOrNull = array[pos];
+                var valOrNode = array[pos + 1];
+                if (keyOrNull != null) {
+                    next = new SimpleImmutableEntry<>((K) keyOrNull, (V) valOrNode);
+                    return;
+                }
+                depth++;
+                arrays[depth] = ((Node) valOrNode).array();
+                positions[depth] = 0;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Entry<K, V> next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            var result = next;
+            advance();
+            return result;
+        }
+    }
+}
@@ -0,0 +1,551 @@
+package org.javacs.index;
+
+import com.sun.source.tree.ClassTree;
+import com.sun.source.tree.CompilationUnitTree;
+import com.sun.source.tree.IdentifierTree;
+import com.sun.source.tree.MemberReferenceTree;
+import com.sun.source.tree.MemberSelectTree;
+import com.sun.source.tree.MethodTree;
+import com.sun.source.tree.NewClassTree;
+import com.sun.source.tree.VariableTree;
+import com.sun.source.util.TreePath;
+import com.sun.source.util.TreePathScanner;
+import com.sun.source.util.TreeScanner;
+import com.sun.source.util.Trees;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectLinkedOpenHashSet;
+import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Types;
+import org.javacs.index.WorkspaceIndexSnapshotStore.FileFingerprint;
+
+/**
+ * Cross-file reference index that picks the files find-references and rename have to compile.
+ *
+ * <p>Every workspace file has syntactic facts from its parse tree: package, imports, declared types,
+ * and the names it mentions outside comments and string literals. Files that javac has attributed
+ * since they last changed also carry {@link Attributed} facts: the types and members those names
+ * resolved to. A query keeps the files whose syntax could refer to the symbol, then drops the ones
+ * whose attributed facts prove they don't. Nothing is dropped on a guess, so the result is always a
+ * superset of what {@code FindReferences} will match.
+ *
+ * <p>Example, looking for {@code Repo#get} in a workspace where many files call {@code list.get(i)}:
+ *
+ * <pre>{@code
+ * A.java  names={repo, get, ...}  members[get]={app.Repo}           -> kept
+ * B.java  names={list, get, ...}  members[get]={java.util.List}     -> dropped
+ * C.java  names={get, ...}        not attributed yet                -> kept
+ * }</pre>
+ *
+ * <p>Attributed facts depend on declarations in other files. When a file changes, every file that
+ * resolved something against one of its types, or mentions the simple name of a type it added or
+ * removed, loses its attributed facts until it is compiled again.
+ *
+ * <p>All methods are thread-safe. {@link ReferenceIndexStore} persists the index between sessions.
+ */
+public final class ReferenceIndex {
+    /**
+     * What one version of a file may refer to.
+     *
+     * @param fingerprint the version of the file these facts describe
+     * @param names identifiers, member names and declared names in the file
+     * @param attributed resolved facts, or null until javac has attributed this version
+     */
+    public record Entry(
+            FileFingerprint fingerprint,
+            String packageName,
+            List<String> imports,
+            Set<String> names,
+            List<String> declaredTypes,
+            Attributed attributed) {
+        Entry withoutAttributed() {
+            return new Entry(fingerprint, packageName, imports, names, declaredTypes, null);
+        }
+    }
+
+    /**
+     * What javac resolved the names of one file to.
+     *
+     * @param types qualified names of the types the file references or declares
+     * @param members member name to the types that declare it: the owner of each resolved member plus
+     *     any supertype of the owner that declares the same name, so overriding matches in either
+     *     direction. Constructors are keyed by the simple class name, like {@code ReferenceProvider}.
+     * @param overrides for each method or field declared in the file, {@code Type#name} to the
+     *     supertypes of {@code Type} that also declare {@code name}
+     * @param unresolved names that did not resolve; {@code FindReferences} matches those by name
+     * @param dependsOn types whose declarations the facts above were resolved against
+     */
+    public record Attributed(
+            Set<String> types,
+            Map<String, Set<String>> members,
+            Map<String, Set<String>> overrides,
+            Set<String> unresolved,
+            Set<String> dependsOn) {}
+
+    private final Object2ObjectOpenHashMap<Path, Entry> entries = new Object2ObjectOpenHashMap<>();
+    private boolean complete, dirty;
+
+    public ReferenceIndex() {}
+
+    ReferenceIndex(Map<Path, Entry> restored, boolean complete) {
+        entries.putAll(restored);
+        this.complete = complete;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized Entry entry(Path file) {
+        return entries.get(file);
+    }
+
+    /** True if {@code file} has no entry for this version, so it must be parsed before a query. */
+    public synchronized boolean isStale(Path file, FileFingerprint fingerprint) {
+        var entry = entries.get(file);
+        return entry == null || !entry.fingerprint.equals(fingerprint);
+    }
+
+    /** True if {@code file} at this version has no attributed facts yet. */
+    public synchronized boolean needsAttribution(Path file, FileFingerprint fingerprint) {
+        var entry = entries.get(file);
+        return entry == null || entry.attributed == null || !entry.fingerprint.equals(fingerprint);
+    }
+
+    /** Record the syntactic facts of {@code file}; keeps existing facts if the version is unchanged. */
+    public void updateParsed(Path file, FileFingerprint fingerprint, CompilationUnitTree root) {
+        var next = parse(root, fingerprint, null);
+        synchronized (this) {
+            var previous = entries.get(file);
+            if (previous != null && previous.fingerprint.equals(fingerprint)) return;
+            put(file, previous, next, Set.of(file));
+        }
+    }
+
+    /** Facts of a file that javac has just attributed, for {@link #updateAttributed}. */
+    public static Entry attribute(FileFingerprint fingerprint, CompilationUnitTree root, Trees trees, Types types) {
+        var attributed = new AttributedScan(trees, types).scan(root);
+        return parse(root, fingerprint, attributed);
+    }
+
+    /**
+     * Record the facts of files that were attributed by the same compile. They saw each other's
+     * current declarations, so recording one never invalidates another.
+     */
+    public synchronized void updateAttributed(Map<Path, Entry> attributed) {
+        for (var e : attributed.entrySet()) {
+            put(e.getKey(), entries.get(e.getKey()), e.getValue(), attributed.keySet());
+        }
+    }
+
+    /**
+     * Called once every workspace file has an entry. Until then a file without an entry may just not
+     * have been indexed yet, rather than be new, so adding it invalidates nothing.
+     */
+    public synchronized void markComplete() {
+        if (!complete) dirty = true;
+        complete = true;
+    }
+
+    /** Drop every file's attributed facts but keep its syntactic ones, e.g. after a class path change. */
+    public synchronized void dropAttributed() {
+        for (var e : entries.object2ObjectEntrySet()) {
+            if (e.getValue().attributed == null) continue;
+            e.setValue(e.getValue().withoutAttributed());
+            dirty = true;
+        }
+    }
+
+    /** Forget every file not in {@code files}, e.g. after deletes. */
+    public synchronized void retainOnly(Collection<Path> files) {
+        var keep = files instanceof Set<Path> set ? set : new ObjectOpenHashSet<>(files);
+        if (entries.keySet().removeIf(path -> !keep.contains(path))) dirty = true;
+    }
+
+    /**
+     * Files among {@code files} that may refer to the type {@code className}. Files without an entry
+     * are included.
+     */
+    public synchronized Path[] typeReferences(
+            String className, String packageName, String simpleName, Collection<Path> files) {
+        var result = new ArrayList<Path>();
+        for (var file : files) {
+            var entry = entries.get(file);
+            if (entry == null) {
+                result.add(file);
+            } else if (entry.attributed != null) {
+                if (entry.attributed.types.contains(className) || entry.attributed.unresolved.contains(simpleName)) {
+                    result.add(file);
+                }
+            } else if (entry.names.contains(simpleName) && mayImport(entry, className, packageName)) {
+                result.add(file);
+            }
+        }
+        return result.toArray(Path[]::new);
+    }
+
+    /**
+     * Files among {@code files} that may refer to member {@code memberName} of {@code className}.
+     * Attributed facts only narrow the result when the declaration of the member has been attributed
+     * too, since that is what says which supertypes its overrides live in.
+     */
+    public synchronized Path[] memberReferences(String className, String memberName, Collection<Path> files) {
+        var declarers = declarers(className, memberName);
+        var result = new ArrayList<Path>();
+        for (var file : files) {
+            var entry = entries.get(file);
+            if (entry == null) {
+                result.add(file);
+            } else if (!entry.names.contains(memberName)) {
+                continue;
+            } else if (entry.attributed == null || declarers == null) {
+                result.add(file);
+            } else if (entry.attributed.unresolved.contains(memberName)
+                    || intersects(entry.attributed.members.get(memberName), declarers)) {
+                result.add(file);
+            }
+        }
+        return result.toArray(Path[]::new);
+    }
+
+    /** {@code className} plus the supertypes it may override {@code memberName} from, or null if unknown. */
+    private Set<String> declarers(String className, String memberName) {
+        var key = className + "#" + memberName;
+        for (var entry : entries.values()) {
+            if (entry.attributed == null) {
+                if (entry.declaredTypes.contains(className)) return null;
+                continue;
+            }
+            var supertypes = entry.attributed.overrides.get(key);
+            if (supertypes != null) {
+                var result = new ObjectOpenHashSet<String>(supertypes);
+                result.add(className);
+                return result;
+            }
+        }
+        return null;
+    }
+
+    private static boolean mayImport(Entry entry, String className, String packageName) {
+        if (packageName.equals(entry.packageName)) return true;
+        var packageStar = packageName + ".*";
+        var staticStar = className + ".*";
+        var staticMemberPrefix = className + ".";
+        for (var i : entry.imports) {
+            if (i.equals(className) || i.equals(packageStar) || i.equals(staticStar) || i.startsWith(staticMemberPrefix))
+                return true;
+        }
+        return false;
+    }
+
+    private static boolean intersects(Set<String> a, Set<String> b) {
+        if (a == null) return false;
+        for (var each : a) {
+            if (b.contains(each)) return true;
+        }
+        return false;
+    }
+
+    private void put(Path file, Entry previous, Entry next, Set<Path> unaffected) {
+        entries.put(file, next);
+        dirty = true;
+        if (previous == null ? complete : !previous.fingerprint.equals(next.fingerprint)) {
+            invalidateDependents(previous, next, unaffected);
+        }
+    }
+
+    /** Drop the attributed facts that a change from {@code previous} to {@code next} may have broken. */
+    private void invalidateDependents(Entry previous, Entry next, Set<Path> unaffected) {
+        var changed = new ObjectOpenHashSet<String>(next.declaredTypes);
+        var addedOrRemoved = new ObjectOpenHashSet<String>();
+        if (previous == null) {
+            addSimpleNames(next.declaredTypes, addedOrRemoved);
+        } else {
+            changed.addAll(previous.declaredTypes);
+            for (var type : changed) {
+                if (!previous.declaredTypes.contains(type) || !next.declaredTypes.contains(type)) {
+                    addedOrRemoved.add(simpleName(type));
+                }
+            }
+        }
+        if (changed.isEmpty()) return;
+        for (var e : entries.object2ObjectEntrySet()) {
+            var entry = e.getValue();
+            if (entry.attributed == null || unaffected.contains(e.getKey())) continue;
+            if (intersects(entry.attributed.dependsOn, changed) || intersects(addedOrRemoved, entry.names)) {
+                e.setValue(entry.withoutAttributed());
+            }
+        }
+    }
+
+    private static void addSimpleNames(List<String> types, Set<String> into) {
+        for (var type : types) into.add(simpleName(type));
+    }
+
+    private static String simpleName(String qualifiedName) {
+        return qualifiedName.substring(qualifiedName.lastIndexOf('.') + 1);
+    }
+
+    /** Copy of every entry for {@link ReferenceIndexStore}; clears the dirty flag. */
+    synchronized Map<Path, Entry> snapshotForSave() {
+        dirty = false;
+        return new Object2ObjectOpenHashMap<>(entries);
+    }
+
+    synchronized boolean isComplete() {
+        return complete;
+    }
+
+    synchronized boolean isDirty() {
+        return dirty;
+    }
+
+    private static Entry parse(CompilationUnitTree root, FileFingerprint fingerprint, Attributed attributed) {
+        var packageName = root.getPackageName() == null ? "" : root.getPackageName().toString();
+        var imports = new ArrayList<String>(root.getImports().size());
+        for (var i : root.getImports()) {
+            imports.add(i.getQualifiedIdentifier().toString());
+        }
+        var names = new ObjectOpenHashSet<String>();
+        var declaredTypes = new ArrayList<String>();
+        new TreeScanner<Void, Void>() {
+            final ArrayDeque<String> enclosing = new ArrayDeque<>();
+
+            @Override
+            public Void visitClass(ClassTree t, Void nothing) {
+                var simple = t.getSimpleName().toString();
+                if (simple.isEmpty()) return super.visitClass(t, nothing);
+                names.add(simple);
+                var qualified = enclosing.isEmpty()
+                        ? (packageName.isEmpty() ? simple : packageName + "." + simple)
+                        : enclosing.peek() + "." + simple;
+                declaredTypes.add(qualified);
+                enclosing.push(qualified);
+                try {
+                    return super.visitClass(t, nothing);
+                } finally {
+                    enclosing.pop();
+                }
+            }
+
+            @Override
+            public Void visitIdentifier(IdentifierTree t, Void nothing) {
+                names.add(t.getName().toString());
+                return null;
+            }
+
+            @Override
+            public Void visitMemberSelect(MemberSelectTree t, Void nothing) {
+                names.add(t.getIdentifier().toString());
+                return super.visitMemberSelect(t, nothing);
+            }
+
+            @Override
+            public Void visitMemberReference(MemberReferenceTree t, Void nothing) {
+                names.add(t.getName().toString());
+                return super.visitMemberReference(t, nothing);
+            }
+
+            @Override
+            public Void visitMethod(MethodTree t, Void nothing) {
+                names.add(t.getName().toString());
+                return super.visitMethod(t, nothing);
+            }
+
+            @Override
+            public Void visitVariable(VariableTree t, Void nothing) {
+                names.add(t.getName().toString());
+                return super.visitVariable(t, nothing);
+            }
+        }.scan(root, null);
+        return new Entry(fingerprint, packageName, imports, names, declaredTypes, attributed);
+    }
+
+    /** Walks the same trees as {@code FindReferences} and records what each one resolved to. */
+    private static final class AttributedScan extends TreePathScanner<Void, Void> {
+        private final Trees trees;
+        private final Types types;
+        private final Set<String> referencedTypes = new ObjectOpenHashSet<>();
+        private final Map<String, Set<String>> members = new Object2ObjectOpenHashMap<>();
+        private final Map<String, Set<String>> overrides = new Object2ObjectOpenHashMap<>();
+        private final Set<String> unresolved = new ObjectOpenHashSet<>();
+        private final Set<String> dependsOn = new ObjectOpenHashSet<>();
+        private final Map<TypeElement, List<TypeElement>> supertypes = new Object2ObjectOpenHashMap<>();
+
+        AttributedScan(Trees trees, Types types) {
+            this.trees = trees;
+            this.types = types;
+        }
+
+        Attributed scan(CompilationUnitTree root) {
+            scan(root, null);
+            return new Attributed(referencedTypes, members, overrides, unresolved, dependsOn);
+        }
+
+        @Override
+        public Void visitClass(ClassTree t, Void nothing) {
+            if (trees.getElement(getCurrentPath()) instanceof TypeElement type) {
+                referencedTypes.add(type.getQualifiedName().toString());
+                // Unqualified calls resolve against the enclosing class and its supertypes
+                dependOn(type);
+            }
+            return super.visitClass(t, nothing);
+        }
+
+        @Override
+        public Void visitIdentifier(IdentifierTree t, Void nothing) {
+            record(t.getName().toString());
+            return super.visitIdentifier(t, nothing);
+        }
+
+        @Override
+        public Void visitMemberSelect(MemberSelectTree t, Void nothing) {
+            record(t.getIdentifier().toString());
+            dependOnTypeOf(t.getExpression());
+            return super.visitMemberSelect(t, nothing);
+        }
+
+        @Override
+        public Void visitMemberReference(MemberReferenceTree t, Void nothing) {
+            record(t.getName().toString());
+            dependOnTypeOf(t.getQualifierExpression());
+            return super.visitMemberReference(t, nothing);
+        }
+
+        @Override
+        public Void visitNewClass(NewClassTree t, Void nothing) {
+            record(null);
+            return super.visitNewClass(t, nothing);
+        }
+
+        @Override
+        public Void visitMethod(MethodTree t, Void nothing) {
+            declare(record(t.getName().toString()));
+            return super.visitMethod(t, nothing);
+        }
+
+        @Override
+        public Void visitVariable(VariableTree t, Void nothing) {
+            var element = trees.getElement(getCurrentPath());
+            if (element != null && isMember(element.getKind())) {
+                declare(element);
+                member(element);
+            }
+            return super.visitVariable(t, nothing);
+        }
+
+        /** Record what the current tree resolved to, and return the element if it is a member. */
+        private Element record(String name) {
+            var element = trees.getElement(getCurrentPath());
+            if (element == null || element.asType().getKind() == TypeKind.ERROR) {
+                if (name != null) unresolved.add(name);
+                return null;
+            }
+            if (element instanceof TypeElement type) {
+                referencedTypes.add(type.getQualifiedName().toString());
+                dependOn(type);
+                return null;
+            }
+            if (isMember(element.getKind())) {
+                member(element);
+                return element;
+            }
+            return null;
+        }
+
+        private void member(Element element) {
+            if (!(element.getEnclosingElement() instanceof TypeElement owner)) return;
+            var owners = members.computeIfAbsent(memberName(element, owner), __ -> new ObjectLinkedOpenHashSet<>());
+            owners.add(owner.getQualifiedName().toString());
+            if (element.getKind() != ElementKind.CONSTRUCTOR) {
+                owners.addAll(supertypesDeclaring(owner, element.getSimpleName().toString()));
+            }
+            dependOn(owner);
+        }
+
+        private void declare(Element element) {
+            if (element == null || !(element.getEnclosingElement() instanceof TypeElement owner)) return;
+            var name = memberName(element, owner);
+            var declaring = element.getKind() == ElementKind.CONSTRUCTOR
+                    ? Set.<String>of()
+                    : supertypesDeclaring(owner, name);
+            overrides.put(owner.getQualifiedName() + "#" + name, declaring);
+        }
+
+        private Set<String> supertypesDeclaring(TypeElement owner, String name) {
+            var result = new ObjectLinkedOpenHashSet<String>();
+            for (var type : supertypes(owner)) {
+                for (var member : type.getEnclosedElements()) {
+                    if (member.getSimpleName().contentEquals(name)) {
+                        result.add(type.getQualifiedName().toString());
+                        break;
+                    }
+                }
+            }
+            return result;
+        }
+
+        private void dependOnTypeOf(com.sun.source.tree.Tree expression) {
+            if (expression == null) return;
+            var type = trees.getTypeMirror(new TreePath(getCurrentPath(), expression));
+            var element = asTypeElement(type);
+            if (element != null) dependOn(element);
+        }
+
+        private void dependOn(TypeElement type) {
+            if (!dependsOn.add(type.getQualifiedName().toString())) return;
+            for (var supertype : supertypes(type)) {
+                dependsOn.add(supertype.getQualifiedName().toString());
+            }
+        }
+
+        /** Every proper supertype of {@code type}, nearest first. */
+        private List<TypeElement> supertypes(TypeElement type) {
+            var cached = supertypes.get(type);
+            if (cached != null) return cached;
+            var result = new ArrayList<TypeElement>();
+            var seen = new ObjectOpenHashSet<TypeElement>();
+            var pending = new ArrayDeque<TypeMirror>(types.directSupertypes(type.asType()));
+            while (!pending.isEmpty()) {
+                var next = asTypeElement(pending.removeFirst());
+                if (next == null || !seen.add(next)) continue;
+                result.add(next);
+                pending.addAll(types.directSupertypes(next.asType()));
+            }
+            supertypes.put(type, result);
+            return result;
+        }
+
+        private static TypeElement asTypeElement(TypeMirror type) {
+            if (type instanceof DeclaredType declared && declared.asElement() instanceof TypeElement element) {
+                return element;
+            }
+            return null;
+        }
+
+        private static String memberName(Element element, TypeElement owner) {
+            return element.getKind() == ElementKind.CONSTRUCTOR
+                    ? owner.getSimpleName().toString()
+                    : element.getSimpleName().toString();
+        }
+
+        private static boolean isMember(ElementKind kind) {
+            return switch (kind) {
+                case METHOD, CONSTRUCTOR, FIELD, ENUM_CONSTANT, RECORD_COMPONENT -> true;
+                default -> false;
+            };
+        }
+    }
+}
@@ -0,0 +1,295 @@
+package org.javacs.index;
+
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectLinkedOpenHashSet;
+import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+import org.javacs.CacheDirectories;
+import org.javacs.index.WorkspaceIndexSnapshotStore.FileFingerprint;
+
+/**
+ * Binary snapshot of a {@link ReferenceIndex}, so find-references on a warm start only re-parses the
+ * files that changed while the server was down.
+ *
+ * <p>Entries are keyed by {@link FileFingerprint} exactly like {@link WorkspaceIndexSnapshotStore};
+ * an entry whose file changed on disk is simply stale and gets re-parsed on the next query. Attributed
+ * facts name classpath types, so they are only restored when the classpath is the same as when they
+ * were saved. Entries for open documents describe unsaved text and are not written at all.
+ *
+ * <p>Saves are coalesced: {@link #saveSoon} writes at most once per {@link #SAVE_DELAY_MS} on a
+ * background thread, so a burst of compiles and saves costs one write.
+ */
+public final class ReferenceIndexStore {
+    private static final Logger LOG = Logger.getLogger("main");
+    private static final int MAGIC = 0x4a4c5352; // "JLSR"
+    static final int FORMAT_VERSION = 1;
+    private static final String FILE_NAME = "reference-index.bin";
+    static final long SAVE_DELAY_MS = 2_000;
+
+    private static final ScheduledExecutorService SAVER =
+            Executors.newSingleThreadScheduledExecutor(
+                    Thread.ofPlatform().daemon().name("jls-reference-index-save").factory());
+
+    public static final ReferenceIndexStore DISABLED = new ReferenceIndexStore(null, "");
+
+    private final Path file;
+    private final String classPathKey;
+    private final AtomicBoolean saveScheduled = new AtomicBoolean();
+
+    public ReferenceIndexStore(Path file, String classPathKey) {
+        this.file = file;
+        this.classPathKey = classPathKey;
+    }
+
+    /** Store for the given workspace root, or {@link #DISABLED} when persistent caches are off. */
+    public static ReferenceIndexStore forWorkspace(Path workspaceRoot, Collection<Path> classPath) {
+        var key = classPath.stream().map(Path::toString).sorted().toList().toString();
+        var classPathKey = Integer.toHexString(key.hashCode());
+        return CacheDirectories.workspace(workspaceRoot)
+                .map(dir -> new ReferenceIndexStore(dir.resolve(FILE_NAME), classPathKey))
+                .orElse(DISABLED);
+    }
+
+    public boolean enabled() {
+        return file != null;
+    }
+
+    /** The saved index, or an empty one if there is none or it cannot be read. */
+    public ReferenceIndex load() {
+        if (file == null || !Files.isRegularFile(file)) {
+            return new ReferenceIndex();
+        }
+        var started = System.nanoTime();
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                LOG.info(String.format("[reference-index] ignoring %s: unknown format", file));
+                return new ReferenceIndex();
+            }
+            var reader = new Reader(in);
+            var sameClassPath = classPathKey.equals(reader.readString());
+            var complete = in.readBoolean();
+            var entries = reader.readEntries(sameClassPath);
+            LOG.info(String.format("[perf] reference_index_load files=%d attributed=%b took=%dms",
+                    entries.size(), sameClassPath, (System.nanoTime() - started) / 1_000_000));
+            return new ReferenceIndex(entries, complete);
+        } catch (NoSuchFileException e) {
+            return new ReferenceIndex();
+        } catch (IOException | RuntimeException e) {
+            LOG.warning(String.format("[reference-index] discarding unreadable snapshot %s: %s", file, e.getMessage()));
+            return new ReferenceIndex();
+        }
+    }
+
+    /** Write {@code index} in the background, unless a write is already pending. */
+    public void saveSoon(ReferenceIndex index) {
+        if (file == null || !index.isDirty() || !saveScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        SAVER.schedule(
+                () -> {
+                    saveScheduled.set(false);
+                    save(index);
+                },
+                SAVE_DELAY_MS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    public void save(ReferenceIndex index) {
+        if (file == null) {
+            return;
+        }
+        var complete = index.isComplete();
+        var entries = index.snapshotForSave();
+        var started = System.nanoTime();
+        try {
+            Files.createDirectories(file.getParent());
+            var tmp = Files.createTempFile(file.getParent(), FILE_NAME, ".tmp");
+            try {
+                try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+                    new Writer(out).write(classPathKey, complete, entries);
+                }
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+            LOG.info(String.format("[perf] reference_index_save files=%d took=%dms",
+                    entries.size(), (System.nanoTime() - started) / 1_000_000));
+        } catch (IOException e) {
+            LOG.warning(String.format("[reference-index] failed to write %s: %s", file, e.getMessage()));
+        }
+    }
+
+    /** Strings are interned: the first occurrence writes its bytes, later ones only the table id. */
+    private static final class Writer {
+        private final DataOutputStream out;
+        private final Object2IntOpenHashMap<String> strings = new Object2IntOpenHashMap<>();
+
+        Writer(DataOutputStream out) {
+            this.out = out;
+            strings.defaultReturnValue(-1);
+        }
+
+        void write(String classPathKey, boolean complete, Map<Path, ReferenceIndex.Entry> entries)
+                throws IOException {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            writeString(classPathKey);
+            out.writeBoolean(complete);
+            var saved = new ArrayList<Map.Entry<Path, ReferenceIndex.Entry>>(entries.size());
+            for (var e : entries.entrySet()) {
+                // Open documents are fingerprinted by content hash, which never matches a file on disk
+                if (e.getValue().fingerprint().modifiedMillis() >= 0) saved.add(e);
+            }
+            out.writeInt(saved.size());
+            for (var e : saved) {
+                writeEntry(e.getKey(), e.getValue());
+            }
+        }
+
+        private void writeEntry(Path path, ReferenceIndex.Entry entry) throws IOException {
+            writeString(path.toString());
+            out.writeLong(entry.fingerprint().modifiedMillis());
+            out.writeLong(entry.fingerprint().size());
+            writeString(entry.packageName());
+            writeStrings(entry.imports());
+            writeStrings(entry.names());
+            writeStrings(entry.declaredTypes());
+            var attributed = entry.attributed();
+            out.writeBoolean(attributed != null);
+            if (attributed == null) return;
+            writeStrings(attributed.types());
+            writeMap(attributed.members());
+            writeMap(attributed.overrides());
+            writeStrings(attributed.unresolved());
+            writeStrings(attributed.dependsOn());
+        }
+
+        private void writeMap(Map<String, Set<String>> map) throws IOException {
+            out.writeInt(map.size());
+            for (var e : map.entrySet()) {
+                writeString(e.getKey());
+                writeStrings(e.getValue());
+            }
+        }
+
+        private void writeStrings(Collection<String> values) throws IOException {
+            out.writeInt(values.size());
+            for (var value : values) {
+                writeString(value);
+            }
+        }
+
+        private void writeString(String value) throws IOException {
+            var id = strings.getInt(value);
+            if (id >= 0) {
+                out.writeInt(id);
+                return;
+            }
+            id = strings.size();
+            strings.put(value, id);
+            out.writeInt(id);
+            var bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static final class Reader {
+        private final DataInputStream in;
+        private final ArrayList<String> strings = new ArrayList<>();
+
+        Reader(DataInputStream in) {
+            this.in = in;
+        }
+
+        Map<Path, ReferenceIndex.Entry> readEntries(boolean keepAttributed) throws IOException {
+            var count = in.readInt();
+            var entries = new Object2ObjectOpenHashMap<Path, ReferenceIndex.Entry>(count);
+            for (var i = 0; i < count; i++) {
+                var path = Paths.get(readString());
+                var fingerprint = new FileFingerprint(in.readLong(), in.readLong());
+                var packageName = readString();
+                var imports = readList();
+                var names = readSet();
+                var declaredTypes = readList();
+                ReferenceIndex.Attributed attributed = null;
+                if (in.readBoolean()) {
+                    attributed = new ReferenceIndex.Attributed(readSet(), readMap(), readMap(), readSet(), readSet());
+                }
+                if (!keepAttributed) attributed = null;
+                entries.put(path, new ReferenceIndex.Entry(fingerprint, packageName, imports, names, declaredTypes, attributed));
+            }
+            return entries;
+        }
+
+        private Map<String, Set<String>> readMap() throws IOException {
+            var count = in.readInt();
+            var map = new Object2ObjectOpenHashMap<String, Set<String>>(count);
+            for (var i = 0; i < count; i++) {
+                map.put(readString(), readLinkedSet());
+            }
+            return map;
+        }
+
+        private List<String> readList() throws IOException {
+            var count = in.readInt();
+            var values = new ArrayList<String>(count);
+            for (var i = 0; i < count; i++) {
+                values.add(readString());
+            }
+            return values;
+        }
+
+        private Set<String> readSet() throws IOException {
+            var count = in.readInt();
+            var values = new ObjectOpenHashSet<String>(count);
+            for (var i = 0; i < count; i++) {
+                values.add(readString());
+            }
+            return values;
+        }
+
+        private Set<String> readLinkedSet() throws IOException {
+            var count = in.readInt();
+            var values = new ObjectLinkedOpenHashSet<String>(count);
+            for (var i = 0; i < count; i++) {
+                values.add(readString());
+            }
+            return values;
+        }
+
+        private String readString() throws IOException {
+            var id = in.readInt();
+            if (id < strings.size()) return strings.get(id);
+            if (id != strings.size()) {
+                throw new IOException("corrupt string table id=" + id + " size=" + strings.size());
+            }
+            var bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            var value = new String(bytes, StandardCharsets.UTF_8);
+            strings.add(value);
+            return value;
+        }
+    }
+}
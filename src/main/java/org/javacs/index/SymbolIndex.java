@@ -0,0 +1,428 @@
+package org.javacs.index;
+
+import com.sun.source.tree.ClassTree;
+import com.sun.source.tree.CompilationUnitTree;
+import com.sun.source.tree.LineMap;
+import com.sun.source.tree.MethodTree;
+import com.sun.source.tree.Tree;
+import com.sun.source.tree.VariableTree;
+import com.sun.source.util.SourcePositions;
+import com.sun.source.util.TreePathScanner;
+import com.sun.source.util.Trees;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Set;
+import org.javacs.ParseTask;
+import org.javacs.StringSearch;
+import org.javacs.index.WorkspaceIndexSnapshotStore.FileFingerprint;
+import org.javacs.lsp.SymbolKind;
+
+/**
+ * Every class, method and field declared in the workspace, for {@code workspace/symbol}.
+ *
+ * <p>A query must match like {@link StringSearch#matchesTitleCase}: {@code ABetweenLines} finds
+ * {@code AutocompleteBetweenLines}. Declarations are grouped by name, and two indexes over the
+ * distinct names pick the ones worth checking:
+ *
+ * <ul>
+ *   <li>trigram postings find the names that contain a query of three or more characters as is,
+ *       which are the best ranked matches;
+ *   <li>camel-hump masks record which characters a name has and which ones start one of its humps.
+ *       A name can only match if it has every character of the query and the first one starts a
+ *       hump, which rules out most names with two {@code long} tests.
+ * </ul>
+ *
+ * <p>Results are ranked exact name, then prefix, then contiguous match, then camel-hump match, with
+ * shorter names first within each rank and types before members of the same name. Files are replaced as a whole whenever they
+ * change, and names nothing declares anymore are compacted away once they pile up.
+ *
+ * <p>All methods are thread-safe. {@link SymbolIndexStore} persists the index between sessions.
+ */
+public final class SymbolIndex {
+    /** One declaration; positions are zero-based, like LSP. */
+    public record Symbol(
+            String name, int kind, String container, int startLine, int startColumn, int endLine, int endColumn) {}
+
+    /** The declarations of one version of a file. */
+    public record FileSymbols(FileFingerprint fingerprint, List<Symbol> symbols) {}
+
+    public record Match(Path file, Symbol symbol) {}
+
+    private record Declaration(Path file, Symbol symbol) {}
+
+    private static final int EXACT = 0, PREFIX = 1, CONTIGUOUS = 2, CAMEL_HUMP = 3;
+
+    private final Map<Path, FileSymbols> files = new Object2ObjectLinkedOpenHashMap<>();
+
+    // Distinct names, by id. Ids are never reused; compact() renumbers them.
+    private final Object2IntOpenHashMap<String> nameIds = new Object2IntOpenHashMap<>();
+    private final ObjectArrayList<String> names = new ObjectArrayList<>();
+    private final ObjectArrayList<String> lowerNames = new ObjectArrayList<>();
+    private final ObjectArrayList<ObjectArrayList<Declaration>> declarations = new ObjectArrayList<>();
+    private final LongArrayList charMasks = new LongArrayList();
+    private final LongArrayList humpMasks = new LongArrayList();
+    private final Long2ObjectOpenHashMap<IntArrayList> trigrams = new Long2ObjectOpenHashMap<>();
+    private int unusedNames;
+    private boolean dirty;
+
+    public SymbolIndex() {
+        nameIds.defaultReturnValue(-1);
+    }
+
+    SymbolIndex(Map<Path, FileSymbols> restored) {
+        this();
+        for (var e : restored.entrySet()) {
+            add(e.getKey(), e.getValue());
+        }
+    }
+
+    public synchronized int size() {
+        return files.size();
+    }
+
+    public synchronized boolean isStale(Path file, FileFingerprint fingerprint) {
+        var existing = files.get(file);
+        return existing == null || !existing.fingerprint().equals(fingerprint);
+    }
+
+    public void update(Path file, FileFingerprint fingerprint, ParseTask task) {
+        var symbols = new FileSymbols(fingerprint, symbols(task));
+        synchronized (this) {
+            removeFile(file);
+            add(file, symbols);
+            dirty = true;
+        }
+    }
+
+    public synchronized void remove(Path file) {
+        if (removeFile(file)) dirty = true;
+    }
+
+    /** Forget every file not in {@code keep}, e.g. after the workspace roots changed. */
+    public synchronized void retainOnly(Collection<Path> keep) {
+        var keepSet = keep instanceof Set<Path> set ? set : Set.copyOf(keep);
+        for (var file : new ArrayList<>(files.keySet())) {
+            if (!keepSet.contains(file)) {
+                removeFile(file);
+                dirty = true;
+            }
+        }
+    }
+
+    /** The declarations matching {@code query}, best first. An empty query lists declarations in file order. */
+    public synchronized List<Match> search(String query, int limit) {
+        var result = new ArrayList<Match>(Math.min(limit, 256));
+        if (limit <= 0) return result;
+        if (query.isEmpty()) {
+            for (var e : files.entrySet()) {
+                for (var symbol : e.getValue().symbols()) {
+                    result.add(new Match(e.getKey(), symbol));
+                    if (result.size() >= limit) return result;
+                }
+            }
+            return result;
+        }
+        var lower = query.toLowerCase(Locale.ROOT);
+        // Each name has at least one declaration, so the best `limit` names are enough
+        var best = new PriorityQueue<long[]>(byRank().reversed()); // {rank, name id}, worst on top
+        var seen = new IntOpenHashSet();
+        if (lower.length() >= 3) {
+            var candidates = contiguousCandidates(lower);
+            for (var i = 0; i < candidates.size(); i++) {
+                var id = candidates.getInt(i);
+                seen.add(id);
+                offer(best, limit, id, query, lower, CONTIGUOUS);
+            }
+        }
+        // Anything contiguous was found above, and camel-hump matches rank below all of it
+        if (best.size() < limit || best.peek()[0] == CAMEL_HUMP || lower.length() < 3) {
+            var queryChars = charMask(lower);
+            var first = charBit(lower.charAt(0));
+            for (var id = 0; id < names.size(); id++) {
+                if ((charMasks.getLong(id) & queryChars) != queryChars) continue;
+                if ((humpMasks.getLong(id) & first) == 0) continue;
+                if (seen.contains(id)) continue;
+                offer(best, limit, id, query, lower, lower.length() >= 3 ? CAMEL_HUMP : CONTIGUOUS);
+            }
+        }
+        var ranked = new ArrayList<>(best);
+        ranked.sort(byRank());
+        for (var r : ranked) {
+            var found = new ArrayList<>(declarations.get((int) r[1]));
+            found.sort(Comparator.comparingInt((Declaration d) -> kindOrder(d.symbol().kind()))
+                    .thenComparing(d -> d.file().toString()));
+            for (var d : found) {
+                result.add(new Match(d.file(), d.symbol()));
+                if (result.size() >= limit) return result;
+            }
+        }
+        return result;
+    }
+
+    private Comparator<long[]> byRank() {
+        return Comparator.<long[]>comparingLong(r -> r[0])
+                .thenComparingInt(r -> names.get((int) r[1]).length())
+                .thenComparing(r -> names.get((int) r[1]));
+    }
+
+    /** {@code otherwise} is the best rank a name that doesn't start with the query can still get. */
+    private void offer(PriorityQueue<long[]> best, int limit, int id, String query, String lower, int otherwise) {
+        if (declarations.get(id).isEmpty()) return;
+        var nameLower = lowerNames.get(id);
+        // A prefix always matches, and most other names lose to a full queue before the expensive check
+        var prefix = nameLower.startsWith(lower);
+        var rank = !prefix ? otherwise : nameLower.length() == lower.length() ? EXACT : PREFIX;
+        if (best.size() >= limit) {
+            // rank is the best this name can do; a full queue only takes names that beat its worst
+            var worst = best.peek();
+            if (rank > worst[0]) return;
+            if (rank == worst[0] && nameLower.length() > names.get((int) worst[1]).length()) return;
+        }
+        if (!prefix) {
+            if (!StringSearch.matchesTitleCase(names.get(id), query)) return;
+            if (rank == CONTIGUOUS && !nameLower.contains(lower)) rank = CAMEL_HUMP;
+        }
+        best.add(new long[] {rank, id});
+        if (best.size() > limit) best.poll();
+    }
+
+    synchronized Map<Path, FileSymbols> snapshotForSave() {
+        dirty = false;
+        return new Object2ObjectLinkedOpenHashMap<>(files);
+    }
+
+    synchronized boolean isDirty() {
+        return dirty;
+    }
+
+    /** Declared classes, methods and fields, but not locals; anonymous classes have no name to find. */
+    public static List<Symbol> symbols(ParseTask task) {
+        var found = new ArrayList<Symbol>();
+        new DeclarationScan(task, found).scan(task.root(), null);
+        return found;
+    }
+
+    /** Names that contain {@code lower} as is: the intersection of its trigrams' postings. */
+    private IntArrayList contiguousCandidates(String lower) {
+        IntArrayList smallest = null;
+        var keys = new LongArrayList();
+        for (var i = 0; i + 3 <= lower.length(); i++) {
+            var key = trigram(lower, i);
+            var posting = trigrams.get(key);
+            if (posting == null) return new IntArrayList();
+            keys.add(key);
+            if (smallest == null || posting.size() < smallest.size()) smallest = posting;
+        }
+        var result = new IntArrayList();
+        candidates:
+        for (var i = 0; i < smallest.size(); i++) {
+            var id = smallest.getInt(i);
+            for (var k = 0; k < keys.size(); k++) {
+                var posting = trigrams.get(keys.getLong(k));
+                if (posting != smallest && !contains(posting, id)) continue candidates;
+            }
+            result.add(id);
+        }
+        return result;
+    }
+
+    /** Postings are appended in id order, so they stay sorted. */
+    private static boolean contains(IntArrayList posting, int id) {
+        int lo = 0, hi = posting.size() - 1;
+        while (lo <= hi) {
+            var mid = (lo + hi) >>> 1;
+            var value = posting.getInt(mid);
+            if (value < id) lo = mid + 1;
+            else if (value > id) hi = mid - 1;
+            else return true;
+        }
+        return false;
+    }
+
+    private static int kindOrder(int kind) {
+        return switch (kind) {
+            case SymbolKind.Class, SymbolKind.Interface, SymbolKind.Enum, SymbolKind.Struct -> 0;
+            case SymbolKind.Method -> 1;
+            default -> 2;
+        };
+    }
+
+    private void add(Path file, FileSymbols entry) {
+        files.put(file, entry);
+        for (var symbol : entry.symbols()) {
+            var list = declarations.get(nameId(symbol.name()));
+            if (list.isEmpty()) unusedNames--;
+            list.add(new Declaration(file, symbol));
+        }
+    }
+
+    private boolean removeFile(Path file) {
+        var previous = files.remove(file);
+        if (previous == null) return false;
+        for (var symbol : previous.symbols()) {
+            var id = nameIds.getInt(symbol.name());
+            if (id < 0) continue;
+            var list = declarations.get(id);
+            list.removeIf(d -> d.file().equals(file));
+            if (list.isEmpty()) unusedNames++;
+        }
+        if (unusedNames > 1024 && unusedNames > names.size() / 2) compact();
+        return true;
+    }
+
+    private int nameId(String name) {
+        var id = nameIds.getInt(name);
+        if (id >= 0) return id;
+        id = names.size();
+        nameIds.put(name, id);
+        names.add(name);
+        declarations.add(new ObjectArrayList<>(1));
+        unusedNames++;
+        var lower = name.toLowerCase(Locale.ROOT);
+        lowerNames.add(lower);
+        charMasks.add(charMask(lower));
+        humpMasks.add(humpMask(name));
+        for (var i = 0; i + 3 <= lower.length(); i++) {
+            var posting = trigrams.computeIfAbsent(trigram(lower, i), k -> new IntArrayList(2));
+            // A name can repeat a trigram; keep each id once so postings stay sorted and unique
+            if (posting.isEmpty() || posting.getInt(posting.size() - 1) != id) posting.add(id);
+        }
+        return id;
+    }
+
+    /** Rebuild the name tables without the names nothing declares anymore. */
+    private void compact() {
+        var kept = new Object2ObjectLinkedOpenHashMap<>(files);
+        files.clear();
+        nameIds.clear();
+        names.clear();
+        lowerNames.clear();
+        declarations.clear();
+        charMasks.clear();
+        humpMasks.clear();
+        trigrams.clear();
+        unusedNames = 0;
+        for (var e : kept.entrySet()) {
+            add(e.getKey(), e.getValue());
+        }
+    }
+
+    private static long trigram(String lower, int i) {
+        return ((long) lower.charAt(i) << 32) | ((long) lower.charAt(i + 1) << 16) | lower.charAt(i + 2);
+    }
+
+    private static long charMask(String lower) {
+        var mask = 0L;
+        for (var i = 0; i < lower.length(); i++) {
+            mask |= charBit(lower.charAt(i));
+        }
+        return mask;
+    }
+
+    /** The first character and every upper-case one, which is where a query may jump to. */
+    private static long humpMask(String name) {
+        var mask = 0L;
+        for (var i = 0; i < name.length(); i++) {
+            var c = name.charAt(i);
+            if (i == 0 || Character.isUpperCase(c)) mask |= charBit(Character.toLowerCase(c));
+        }
+        return mask;
+    }
+
+    /** a-z, 0-9, '_' and '$' get a bit each; everything else shares one. */
+    private static long charBit(char lower) {
+        if (lower >= 'a' && lower <= 'z') return 1L << (lower - 'a');
+        if (lower >= '0' && lower <= '9') return 1L << (26 + lower - '0');
+        if (lower == '_') return 1L << 36;
+        if (lower == '$') return 1L << 37;
+        return 1L << 38;
+    }
+
+    /** Same declarations and container names as {@link FindSymbolsMatching}. */
+    private static final class DeclarationScan extends TreePathScanner<Void, Void> {
+        private final CompilationUnitTree root;
+        private final List<Symbol> found;
+        private final SourcePositions positions;
+        private final LineMap lines;
+        private CharSequence containerName;
+
+        DeclarationScan(ParseTask task, List<Symbol> found) {
+            this.root = task.root();
+            this.found = found;
+            this.positions = Trees.instance(task.task()).getSourcePositions();
+            this.lines = root.getLineMap();
+            this.containerName = Objects.toString(root.getPackageName(), "");
+        }
+
+        @Override
+        public Void visitClass(ClassTree t, Void nothing) {
+            add(t.getSimpleName(), kind(t.getKind()), t);
+            var push = containerName;
+            containerName = t.getSimpleName();
+            super.visitClass(t, nothing);
+            containerName = push;
+            return null;
+        }
+
+        @Override
+        public Void visitMethod(MethodTree t, Void nothing) {
+            add(t.getName(), SymbolKind.Method, t);
+            var push = containerName;
+            containerName = t.getName();
+            super.visitMethod(t, nothing);
+            containerName = push;
+            return null;
+        }
+
+        @Override
+        public Void visitVariable(VariableTree t, Void nothing) {
+            if (getCurrentPath().getParentPath().getLeaf() instanceof ClassTree) {
+                add(t.getName(), SymbolKind.Field, t);
+            }
+            var push = containerName;
+            containerName = t.getName();
+            super.visitVariable(t, nothing);
+            containerName = push;
+            return null;
+        }
+
+        private void add(CharSequence name, int kind, Tree t) {
+            if (name.isEmpty()) return;
+            var start = positions.getStartPosition(root, t);
+            var end = positions.getEndPosition(root, t);
+            if (start < 0) return;
+            if (end < start) end = start;
+            found.add(new Symbol(
+                    name.toString(),
+                    kind,
+                    containerName.toString(),
+                    (int) lines.getLineNumber(start) - 1,
+                    (int) lines.getColumnNumber(start) - 1,
+                    (int) lines.getLineNumber(end) - 1,
+                    (int) lines.getColumnNumber(end) - 1));
+        }
+
+        private static int kind(Tree.Kind k) {
+            return switch (k) {
+                case RECORD -> SymbolKind.Struct;
+                case ENUM -> SymbolKind.Enum;
+                case INTERFACE -> SymbolKind.Interface;
+                default -> SymbolKind.Class;
+            };
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package org.javacs.index;
+
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2ObjectLinkedOpenHashMap;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+import org.javacs.CacheDirectories;
+import org.javacs.index.WorkspaceIndexSnapshotStore.FileFingerprint;
+
+/**
+ * Binary snapshot of a {@link SymbolIndex}, so the first {@code workspace/symbol} after a restart only
+ * re-parses the files that changed while the server was down.
+ *
+ * <p>Entries are keyed by {@link FileFingerprint} like {@link ReferenceIndexStore}, and open documents
+ * are not written. Declarations don't depend on the classpath, so there is no classpath key.
+ */
+public final class SymbolIndexStore {
+    private static final Logger LOG = Logger.getLogger("main");
+    private static final int MAGIC = 0x4a4c5359; // "JLSY"
+    static final int FORMAT_VERSION = 1;
+    private static final String FILE_NAME = "symbol-index.bin";
+    static final long SAVE_DELAY_MS = 2_000;
+
+    private static final ScheduledExecutorService SAVER =
+            Executors.newSingleThreadScheduledExecutor(
+                    Thread.ofPlatform().daemon().name("jls-symbol-index-save").factory());
+
+    public static final SymbolIndexStore DISABLED = new SymbolIndexStore(null);
+
+    private final Path file;
+    private final AtomicBoolean saveScheduled = new AtomicBoolean();
+
+    public SymbolIndexStore(Path file) {
+        this.file = file;
+    }
+
+    /** Store for the given workspace root, or {@link #DISABLED} when persistent caches are off. */
+    public static SymbolIndexStore forWorkspace(Path workspaceRoot) {
+        return CacheDirectories.workspace(workspaceRoot)
+                .map(dir -> new SymbolIndexStore(dir.resolve(FILE_NAME)))
+                .orElse(DISABLED);
+    }
+
+    public boolean enabled() {
+        return file != null;
+    }
+
+    /** The saved index, or an empty one if there is none or it cannot be read. */
+    public SymbolIndex load() {
+        if (file == null || !Files.isRegularFile(file)) {
+            return new SymbolIndex();
+        }
+        var started = System.nanoTime();
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                LOG.info(String.format("[symbol-index] ignoring %s: unknown format", file));
+                return new SymbolIndex();
+            }
+            var entries = new Reader(in).readEntries();
+            var index = new SymbolIndex(entries);
+            LOG.info(String.format("[perf] symbol_index_load files=%d took=%dms",
+                    entries.size(), (System.nanoTime() - started) / 1_000_000));
+            return index;
+        } catch (NoSuchFileException e) {
+            return new SymbolIndex();
+        } catch (IOException | RuntimeException e) {
+            LOG.warning(String.format("[symbol-index] discarding unreadable snapshot %s: %s", file, e.getMessage()));
+            return new SymbolIndex();
+        }
+    }
+
+    /** Write {@code index} in the background, unless a write is already pending. */
+    public void saveSoon(SymbolIndex index) {
+        if (file == null || !index.isDirty() || !saveScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        SAVER.schedule(
+                () -> {
+                    saveScheduled.set(false);
+                    save(index);
+                },
+                SAVE_DELAY_MS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    public void save(SymbolIndex index) {
+        if (file == null) {
+            return;
+        }
+        var entries = index.snapshotForSave();
+        var started = System.nanoTime();
+        try {
+            Files.createDirectories(file.getParent());
+            var tmp = Files.createTempFile(file.getParent(), FILE_NAME, ".tmp");
+            try {
+                try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+                    new Writer(out).write(entries);
+                }
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+            LOG.info(String.format("[perf] symbol_index_save files=%d took=%dms",
+                    entries.size(), (System.nanoTime() - started) / 1_000_000));
+        } catch (IOException e) {
+            LOG.warning(String.format("[symbol-index] failed to write %s: %s", file, e.getMessage()));
+        }
+    }
+
+    /** Strings are interned: the first occurrence writes its bytes, later ones only the table id. */
+    private static final class Writer {
+        private final DataOutputStream out;
+        private final Object2IntOpenHashMap<String> strings = new Object2IntOpenHashMap<>();
+
+        Writer(DataOutputStream out) {
+            this.out = out;
+            strings.defaultReturnValue(-1);
+        }
+
+        void write(Map<Path, SymbolIndex.FileSymbols> entries) throws IOException {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            var saved = new ArrayList<Map.Entry<Path, SymbolIndex.FileSymbols>>(entries.size());
+            for (var e : entries.entrySet()) {
+                // Open documents are fingerprinted by content hash, which never matches a file on disk
+                if (e.getValue().fingerprint().modifiedMillis() >= 0) saved.add(e);
+            }
+            out.writeInt(saved.size());
+            for (var e : saved) {
+                writeString(e.getKey().toString());
+                out.writeLong(e.getValue().fingerprint().modifiedMillis());
+                out.writeLong(e.getValue().fingerprint().size());
+                var symbols = e.getValue().symbols();
+                out.writeInt(symbols.size());
+                for (var symbol : symbols) {
+                    writeString(symbol.name());
+                    out.writeByte(symbol.kind());
+                    writeString(symbol.container());
+                    out.writeInt(symbol.startLine());
+                    out.writeInt(symbol.startColumn());
+                    out.writeInt(symbol.endLine());
+                    out.writeInt(symbol.endColumn());
+                }
+            }
+        }
+
+        private void writeString(String value) throws IOException {
+            var id = strings.getInt(value);
+            if (id >= 0) {
+                out.writeInt(id);
+                return;
+            }
+            id = strings.size();
+            strings.put(value, id);
+            out.writeInt(id);
+            var bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static final class Reader {
+        private final DataInputStream in;
+        private final ArrayList<String> strings = new ArrayList<>();
+
+        Reader(DataInputStream in) {
+            this.in = in;
+        }
+
+        Map<Path, SymbolIndex.FileSymbols> readEntries() throws IOException {
+            var count = in.readInt();
+            var entries = new Object2ObjectLinkedOpenHashMap<Path, SymbolIndex.FileSymbols>(count);
+            for (var i = 0; i < count; i++) {
+                var path = Paths.get(readString());
+                var fingerprint = new FileFingerprint(in.readLong(), in.readLong());
+                var symbolCount = in.readInt();
+                var symbols = new ArrayList<SymbolIndex.Symbol>(symbolCount);
+                for (var j = 0; j < symbolCount; j++) {
+                    symbols.add(new SymbolIndex.Symbol(
+                            readString(), in.readByte(), readString(),
+                            in.readInt(), in.readInt(), in.readInt(), in.readInt()));
+                }
+                entries.put(path, new SymbolIndex.FileSymbols(fingerprint, symbols));
+            }
+            return entries;
+        }
+
+        private String readString() throws IOException {
+            var id = in.readInt();
+            if (id < strings.size()) return strings.get(id);
+            if (id != strings.size()) {
+                throw new IOException("corrupt string table id=" + id + " size=" + strings.size());
+            }
+            var bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            var value = new String(bytes, StandardCharsets.UTF_8);
+            strings.add(value);
+            return value;
+        }
+    }
+}
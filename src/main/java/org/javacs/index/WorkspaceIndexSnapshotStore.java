@@ -0,0 +1,496 @@
+package org.javacs.index;
+
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectLinkedOpenHashSet;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.logging.Logger;
+import javax.lang.model.element.Modifier;
+import org.javacs.CacheDirectories;
+import org.javacs.lsp.Position;
+import org.javacs.lsp.Range;
+
+/**
+ * Versioned binary snapshot of a {@link WorkspaceTypeIndex}, used to skip the full parse on warm
+ * startup.
+ *
+ * <p>Every source file in the snapshot is stored with the {@link FileFingerprint} (mtime + size) it
+ * had when it was parsed. {@link #restore} drops the declarations of every file whose fingerprint no
+ * longer matches, and reports those files as stale so the caller can re-parse just them and merge
+ * them back through {@link WorkspaceTypeIndex#replaceWorkspaceDeclarations}.
+ *
+ * <p>Example:
+ *
+ * <pre>{@code
+ * saved:    A.java (mtime=1, size=10), B.java (mtime=1, size=20)
+ * on disk:  A.java (mtime=1, size=10), B.java (mtime=7, size=22), C.java (new)
+ * restore -> index with A's types, stale = [B.java, C.java]
+ * }</pre>
+ *
+ * <p>The format is private to this class. Bump {@link #FORMAT_VERSION} whenever the shape of
+ * {@link IndexedType}, {@link IndexedMember} or {@link WorkspaceTypeIndex.SourceFileSnapshot}
+ * changes; older snapshots are then ignored and rewritten after the next full rebuild.
+ */
+public final class WorkspaceIndexSnapshotStore {
+    private static final Logger LOG = Logger.getLogger("main");
+    private static final int MAGIC = 0x4a4c5357; // "JLSW"
+    static final int FORMAT_VERSION = 1;
+    private static final String FILE_NAME = "workspace-index.bin";
+
+    /** Modification time and size of a source file when its declarations were indexed. */
+    public record FileFingerprint(long modifiedMillis, long size) {
+        /** Current fingerprint of {@code file} on disk, or empty if it cannot be read. */
+        public static Optional<FileFingerprint> of(Path file) {
+            try {
+                var attrs = Files.readAttributes(file, java.nio.file.attribute.BasicFileAttributes.class);
+                return Optional.of(new FileFingerprint(attrs.lastModifiedTime().toMillis(), attrs.size()));
+            } catch (IOException e) {
+                return Optional.empty();
+            }
+        }
+    }
+
+    /**
+     * Result of a warm-start restore.
+     *
+     * @param index declarations of every file whose fingerprint still matches
+     * @param staleFiles files that must be re-parsed and merged into {@code index}
+     * @param fingerprints current fingerprints of every requested file, to pass back to {@link #save}
+     */
+    public record Restored(WorkspaceTypeIndex index, Set<Path> staleFiles, Map<Path, FileFingerprint> fingerprints) {}
+
+    public static final WorkspaceIndexSnapshotStore DISABLED = new WorkspaceIndexSnapshotStore(null);
+
+    private final Path file;
+
+    public WorkspaceIndexSnapshotStore(Path file) {
+        this.file = file;
+    }
+
+    /** Store for the given workspace root, or {@link #DISABLED} when persistent caches are off. */
+    public static WorkspaceIndexSnapshotStore forWorkspace(Path workspaceRoot) {
+        return CacheDirectories.workspace(workspaceRoot)
+                .map(dir -> new WorkspaceIndexSnapshotStore(dir.resolve(FILE_NAME)))
+                .orElse(DISABLED);
+    }
+
+    public boolean enabled() {
+        return file != null;
+    }
+
+    /** Stat every file; files that cannot be read are left out. */
+    public static Map<Path, FileFingerprint> fingerprints(Collection<Path> files) {
+        var result = new Object2ObjectLinkedOpenHashMap<Path, FileFingerprint>(files.size());
+        for (var f : files) {
+            FileFingerprint.of(f).ifPresent(fp -> result.put(f, fp));
+        }
+        return result;
+    }
+
+    /**
+     * Load the snapshot and reconcile it with {@code files}.
+     *
+     * <p>A file is stale when it is new, its fingerprint changed, or it is listed in {@code
+     * volatileFiles} (open documents whose in-memory text may differ from disk). Files in the snapshot
+     * but not in {@code files} are dropped. Files that declare subtypes of a stale or dropped file's
+     * types are also treated as stale, because their inherited members were copied from the old
+     * supertype declarations.
+     */
+    public Optional<Restored> restore(Collection<Path> files, Set<Path> volatileFiles) {
+        if (file == null || !Files.isRegularFile(file)) {
+            return Optional.empty();
+        }
+        Loaded loaded;
+        try {
+            loaded = read(file);
+        } catch (IOException | RuntimeException e) {
+            LOG.warning(String.format("[index-snapshot] discarding unreadable snapshot %s: %s", file, e.getMessage()));
+            return Optional.empty();
+        }
+        if (loaded == null) {
+            return Optional.empty();
+        }
+        var current = fingerprints(files);
+        var stale = new ObjectLinkedOpenHashSet<Path>();
+        for (var entry : current.entrySet()) {
+            var path = entry.getKey();
+            if (volatileFiles.contains(path) || !entry.getValue().equals(loaded.fingerprints.get(path))) {
+                stale.add(path);
+            }
+        }
+        var dropped = new ObjectLinkedOpenHashSet<Path>(stale);
+        for (var path : loaded.index.sourceFiles().keySet()) {
+            if (!current.containsKey(path)) {
+                dropped.add(path);
+            }
+        }
+        addDependentSubtypeFiles(loaded.index, dropped, stale, current.keySet());
+        dropped.addAll(stale);
+        var index = loaded.index.replaceWorkspaceDeclarations(WorkspaceTypeIndex.EMPTY, dropped);
+        return Optional.of(new Restored(index, stale, current));
+    }
+
+    private static void addDependentSubtypeFiles(
+            WorkspaceTypeIndex index, Set<Path> changed, Set<Path> stale, Set<Path> current) {
+        var types = new ArrayList<String>();
+        for (var path : changed) {
+            index.sourceFile(path).ifPresent(snapshot -> types.addAll(snapshot.declaredTypes));
+        }
+        for (var path : index.subtypeFiles(types)) {
+            if (current.contains(path)) {
+                stale.add(path);
+            }
+        }
+    }
+
+    /**
+     * Write {@code index} with the given per-file fingerprints. Files without a fingerprint, or
+     * listed in {@code volatileFiles}, are stored with an impossible fingerprint so they are always
+     * re-parsed on the next restore.
+     */
+    public void save(WorkspaceTypeIndex index, Map<Path, FileFingerprint> fingerprints, Set<Path> volatileFiles) {
+        if (file == null || index == null) {
+            return;
+        }
+        var started = System.nanoTime();
+        try {
+            Files.createDirectories(file.getParent());
+            var tmp = Files.createTempFile(file.getParent(), FILE_NAME, ".tmp");
+            try {
+                try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+                    new Writer(out).write(index, fingerprints, volatileFiles);
+                }
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+            LOG.info(String.format("[perf] index_snapshot_save types=%d files=%d took=%dms",
+                    index.size(), index.sourceFiles().size(), (System.nanoTime() - started) / 1_000_000));
+        } catch (IOException e) {
+            LOG.warning(String.format("[index-snapshot] failed to write %s: %s", file, e.getMessage()));
+        }
+    }
+
+    private record Loaded(WorkspaceTypeIndex index, Map<Path, FileFingerprint> fingerprints) {}
+
+    private static Loaded read(Path file) throws IOException {
+        var started = System.nanoTime();
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                LOG.info(String.format("[index-snapshot] ignoring %s: unknown format", file));
+                return null;
+            }
+            var loaded = new Reader(in).read();
+            LOG.info(String.format("[perf] index_snapshot_load types=%d files=%d took=%dms",
+                    loaded.index.size(), loaded.fingerprints.size(), (System.nanoTime() - started) / 1_000_000));
+            return loaded;
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private static final FileFingerprint ALWAYS_STALE = new FileFingerprint(-1, -1);
+
+    /** Strings are interned: the first occurrence writes its bytes, later ones only the table id. */
+    private static final class Writer {
+        private final DataOutputStream out;
+        private final Object2IntOpenHashMap<String> strings = new Object2IntOpenHashMap<>();
+
+        Writer(DataOutputStream out) {
+            this.out = out;
+            strings.defaultReturnValue(-1);
+        }
+
+        void write(WorkspaceTypeIndex index, Map<Path, FileFingerprint> fingerprints, Set<Path> volatileFiles)
+                throws IOException {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            var files = index.sourceFiles();
+            out.writeInt(files.size());
+            for (var snapshot : files.values()) {
+                var fingerprint = fingerprints.get(snapshot.sourcePath);
+                if (fingerprint == null || volatileFiles.contains(snapshot.sourcePath)) {
+                    fingerprint = ALWAYS_STALE;
+                }
+                writeSourceFile(snapshot, fingerprint);
+            }
+            var types = index.types();
+            out.writeInt(types.size());
+            for (var type : types.values()) {
+                writeType(type);
+            }
+        }
+
+        private void writeSourceFile(WorkspaceTypeIndex.SourceFileSnapshot snapshot, FileFingerprint fingerprint)
+                throws IOException {
+            writeString(snapshot.sourcePath == null ? null : snapshot.sourcePath.toString());
+            writeString(snapshot.sourceUri == null ? null : snapshot.sourceUri.toString());
+            out.writeLong(fingerprint.modifiedMillis());
+            out.writeLong(fingerprint.size());
+            writeString(snapshot.packageName);
+            writeStrings(snapshot.imports);
+            writeStrings(snapshot.staticImports);
+            writeStrings(snapshot.declaredTypes);
+        }
+
+        private void writeType(IndexedType type) throws IOException {
+            writeString(type.qualifiedName);
+            writeString(type.simpleName);
+            writeString(type.sourcePath == null ? null : type.sourcePath.toString());
+            writeString(type.sourceUri == null ? null : type.sourceUri.toString());
+            writeString(type.superclass);
+            writeStrings(type.interfaces);
+            writeStrings(type.nestedTypes);
+            out.writeInt(type.kind);
+            writeModifiers(type.modifiers);
+            writeRange(type.declarationRange);
+            writeString(type.provenance.name());
+            out.writeInt(type.members.size());
+            for (var member : type.members) {
+                writeMember(member);
+            }
+        }
+
+        private void writeMember(IndexedMember m) throws IOException {
+            writeString(m.ownerType);
+            writeString(m.name);
+            out.writeInt(m.kind);
+            out.writeByte((m.isStatic ? 1 : 0)
+                    | (m.isPrivate ? 2 : 0)
+                    | (m.isProtected ? 4 : 0)
+                    | (m.isPublic ? 8 : 0)
+                    | (m.isAbstract ? 16 : 0)
+                    | (m.synthetic ? 32 : 0));
+            out.writeInt(m.priority);
+            writeString(m.detail);
+            writeString(m.returnType);
+            writeString(m.declaredReturnType);
+            writeStringArray(m.parameterNames);
+            writeStringArray(m.erasedParameterTypes);
+            writeStringArray(m.declaredParameterTypes);
+            writeString(m.canonicalKey);
+            writeString(m.logicalKey);
+            writeString(m.backingFieldName);
+            writeString(m.origin.name());
+            writeString(m.provenance.name());
+            writeModifiers(m.modifiers);
+            writeString(m.sourceUri == null ? null : m.sourceUri.toString());
+            writeRange(m.declarationRange);
+            writeString(m.declarationOwnerType);
+            writeString(m.targetDeclarationKey);
+        }
+
+        private void writeModifiers(Set<Modifier> modifiers) throws IOException {
+            out.writeByte(modifiers.size());
+            for (var modifier : modifiers) {
+                writeString(modifier.name());
+            }
+        }
+
+        private void writeRange(Range range) throws IOException {
+            out.writeBoolean(range != null);
+            if (range == null) return;
+            out.writeInt(range.start.line);
+            out.writeInt(range.start.character);
+            out.writeInt(range.end.line);
+            out.writeInt(range.end.character);
+        }
+
+        private void writeStrings(List<String> values) throws IOException {
+            out.writeInt(values.size());
+            for (var value : values) {
+                writeString(value);
+            }
+        }
+
+        private void writeStringArray(String[] values) throws IOException {
+            if (values == null) {
+                out.writeInt(-1);
+                return;
+            }
+            out.writeInt(values.length);
+            for (var value : values) {
+                writeString(value);
+            }
+        }
+
+        private void writeString(String value) throws IOException {
+            if (value == null) {
+                out.writeInt(-1);
+                return;
+            }
+            var id = strings.getInt(value);
+            if (id >= 0) {
+                out.writeInt(id);
+                return;
+            }
+            id = strings.size();
+            strings.put(value, id);
+            out.writeInt(id);
+            var bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static final class Reader {
+        private final DataInputStream in;
+        private final ArrayList<String> strings = new ArrayList<>();
+
+        Reader(DataInputStream in) {
+            this.in = in;
+        }
+
+        Loaded read() throws IOException {
+            var fileCount = in.readInt();
+            var sourceFiles = new Object2ObjectLinkedOpenHashMap<Path, WorkspaceTypeIndex.SourceFileSnapshot>(fileCount);
+            var fingerprints = new Object2ObjectLinkedOpenHashMap<Path, FileFingerprint>(fileCount);
+            for (var i = 0; i < fileCount; i++) {
+                var path = toPath(readString());
+                var uri = toUri(readString());
+                var fingerprint = new FileFingerprint(in.readLong(), in.readLong());
+                var snapshot = new WorkspaceTypeIndex.SourceFileSnapshot(
+                        path, uri, readString(), readStrings(), readStrings(), readStrings());
+                sourceFiles.put(path, snapshot);
+                fingerprints.put(path, fingerprint);
+            }
+            var typeCount = in.readInt();
+            var types = new Object2ObjectLinkedOpenHashMap<String, IndexedType>(typeCount);
+            for (var i = 0; i < typeCount; i++) {
+                var type = readType();
+                types.put(type.qualifiedName, type);
+            }
+            return new Loaded(WorkspaceTypeIndex.of(types, sourceFiles), fingerprints);
+        }
+
+        private IndexedType readType() throws IOException {
+            var qualifiedName = readString();
+            var simpleName = readString();
+            var sourcePath = toPath(readString());
+            var sourceUri = toUri(readString());
+            var superclass = readString();
+            var interfaces = readStrings();
+            var nestedTypes = readStrings();
+            var kind = in.readInt();
+            var modifiers = readModifiers();
+            var declarationRange = readRange();
+            var provenance = IndexedMember.Provenance.valueOf(readString());
+            var memberCount = in.readInt();
+            var members = new ArrayList<IndexedMember>(memberCount);
+            for (var i = 0; i < memberCount; i++) {
+                members.add(readMember());
+            }
+            return new IndexedType(
+                    qualifiedName, simpleName, members, sourcePath, sourceUri, superclass, interfaces,
+                    nestedTypes, kind, modifiers, declarationRange, provenance);
+        }
+
+        private IndexedMember readMember() throws IOException {
+            var ownerType = readString();
+            var name = readString();
+            var kind = in.readInt();
+            var flags = in.readByte();
+            var priority = in.readInt();
+            var detail = readString();
+            var returnType = readString();
+            var declaredReturnType = readString();
+            var parameterNames = readStringArray();
+            var erasedParameterTypes = readStringArray();
+            var declaredParameterTypes = readStringArray();
+            var canonicalKey = readString();
+            var logicalKey = readString();
+            var backingFieldName = readString();
+            var origin = IndexedMember.Origin.valueOf(readString());
+            var provenance = IndexedMember.Provenance.valueOf(readString());
+            var modifiers = readModifiers();
+            var sourceUri = toUri(readString());
+            var declarationRange = readRange();
+            var declarationOwnerType = readString();
+            var targetDeclarationKey = readString();
+            return new IndexedMember(
+                    ownerType, name, kind,
+                    (flags & 1) != 0, (flags & 2) != 0, (flags & 4) != 0, (flags & 8) != 0, (flags & 16) != 0,
+                    priority, detail, returnType, declaredReturnType,
+                    parameterNames, erasedParameterTypes, declaredParameterTypes,
+                    canonicalKey, logicalKey, backingFieldName, (flags & 32) != 0,
+                    origin, provenance, modifiers, sourceUri, declarationRange,
+                    declarationOwnerType, targetDeclarationKey);
+        }
+
+        private Set<Modifier> readModifiers() throws IOException {
+            var count = in.readByte();
+            if (count == 0) return Set.of();
+            var modifiers = EnumSet.noneOf(Modifier.class);
+            for (var i = 0; i < count; i++) {
+                modifiers.add(Modifier.valueOf(readString()));
+            }
+            return modifiers;
+        }
+
+        private Range readRange() throws IOException {
+            if (!in.readBoolean()) return null;
+            var start = new Position(in.readInt(), in.readInt());
+            var end = new Position(in.readInt(), in.readInt());
+            return new Range(start, end);
+        }
+
+        private List<String> readStrings() throws IOException {
+            var count = in.readInt();
+            var values = new ArrayList<String>(count);
+            for (var i = 0; i < count; i++) {
+                values.add(readString());
+            }
+            return values;
+        }
+
+        private String[] readStringArray() throws IOException {
+            var count = in.readInt();
+            if (count < 0) return null;
+            var values = new String[count];
+            for (var i = 0; i < count; i++) {
+                values[i] = readString();
+            }
+            return values;
+        }
+
+        private String readString() throws IOException {
+            var id = in.readInt();
+            if (id < 0) return null;
+            if (id < strings.size()) return strings.get(id);
+            if (id != strings.size()) {
+                throw new IOException("corrupt string table id=" + id + " size=" + strings.size());
+            }
+            var bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            var value = new String(bytes, StandardCharsets.UTF_8);
+            strings.add(value);
+            return value;
+        }
+
+        private static Path toPath(String value) {
+            return value == null ? null : Paths.get(value);
+        }
+
+        private static URI toUri(String value) {
+            return value == null ? null : URI.create(value);
+        }
+    }
+}
@@ -17,7 +17,9 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -90,42 +92,139 @@ public class WorkspaceTypeIndex {
         }
     }
 
-    private final Map<String, IndexedType> typesByQualifiedName;
-    private final Set<String> workspaceOwnedTypeNames;
-    private final Map<String, Set<String>> subtypesByType;
-    private final Map<Path, SourceFileSnapshot> sourceFiles;
+    private final PersistentHashMap<String, IndexedType> typesByQualifiedName;
+    /** Every indexed type name and its enclosing types, counted by how many indexed types contribute it. */
+    private final PersistentHashMap<String, Integer> workspaceOwnedTypeNames;
+    private final PersistentHashMap<String, Set<String>> subtypesByType;
+    private final PersistentHashMap<Path, SourceFileSnapshot> sourceFiles;
     private static final Logger LOG = Logger.getLogger("main");
 
     private WorkspaceTypeIndex(
             Map<String, IndexedType> typesByQualifiedName,
             Map<Path, SourceFileSnapshot> sourceFiles) {
-        var verified = new Object2ObjectLinkedOpenHashMap<String, IndexedType>();
-        for (var entry : typesByQualifiedName.entrySet()) {
-            var key = entry.getKey();
+        this(new Updater(typesByQualifiedName, sourceFiles));
+    }
+
+    private WorkspaceTypeIndex(Updater updater) {
+        this.typesByQualifiedName = updater.types;
+        this.workspaceOwnedTypeNames = updater.owned;
+        this.subtypesByType = updater.subtypes;
+        this.sourceFiles = updater.files;
+    }
+
+    /** Rebuild a published index from previously captured types and file snapshots. */
+    static WorkspaceTypeIndex of(Map<String, IndexedType> typesByQualifiedName, Map<Path, SourceFileSnapshot> sourceFiles) {
+        if (typesByQualifiedName.isEmpty() && sourceFiles.isEmpty()) {
+            return EMPTY;
+        }
+        return new WorkspaceTypeIndex(typesByQualifiedName, sourceFiles);
+    }
+
+    /**
+     * Applies type and file changes to persistent copies of an index's maps.
+     *
+     * <p>Every put or remove also maintains the owned-name counts and the subtype inverse for just
+     * the affected type, so a one-file replacement costs O(types in that file) and the untouched
+     * trie nodes stay shared with the previous snapshot that readers may still hold. A subtype set
+     * is copied the first time an updater touches it and changed in place after that, so a build
+     * where many types share one supertype stays linear.
+     */
+    private static final class Updater {
+        PersistentHashMap<String, IndexedType> types;
+        PersistentHashMap<String, Integer> owned;
+        PersistentHashMap<String, Set<String>> subtypes;
+        PersistentHashMap<Path, SourceFileSnapshot> files;
+        /** Subtype sets this updater copied; no published snapshot can see them yet. */
+        private final Object2ObjectOpenHashMap<String, ObjectLinkedOpenHashSet<String>> copiedSubtypes =
+                new Object2ObjectOpenHashMap<>();
+
+        Updater(WorkspaceTypeIndex base) {
+            this.types = base.typesByQualifiedName;
+            this.owned = base.workspaceOwnedTypeNames;
+            this.subtypes = base.subtypesByType;
+            this.files = base.sourceFiles;
+        }
+
+        Updater(Map<String, IndexedType> typesByQualifiedName, Map<Path, SourceFileSnapshot> sourceFiles) {
+            this.types = PersistentHashMap.empty();
+            this.owned = PersistentHashMap.empty();
+            this.subtypes = PersistentHashMap.empty();
+            this.files = PersistentHashMap.copyOf(sourceFiles);
+            for (var entry : typesByQualifiedName.entrySet()) {
+                putType(entry.getKey(), entry.getValue());
+            }
+        }
+
+        void putType(String key, IndexedType info) {
             var valid = key != null && (key.contains(".") || TypeNames.isPrimitive(key));
             assert valid : "WorkspaceTypeIndex key must be fully qualified or primitive: " + key;
             if (!valid) {
                 throw new IllegalStateException("WorkspaceTypeIndex key must be fully qualified or primitive: " + key);
             }
-            verified.put(key, entry.getValue());
+            var previous = types.get(key);
+            if (previous == info) {
+                return;
+            }
+            if (previous != null) {
+                unlink(key, previous);
+            }
+            types = types.plus(key, info);
+            link(key, info);
         }
-        this.typesByQualifiedName = Collections.unmodifiableMap(verified);
-        this.workspaceOwnedTypeNames = Collections.unmodifiableSet(workspaceOwnedTypeNames(verified));
-        this.sourceFiles = Collections.unmodifiableMap(new Object2ObjectLinkedOpenHashMap<>(sourceFiles));
-        this.subtypesByType = Collections.unmodifiableMap(invertSubtypeMap(verified));
-    }
 
-    private static Set<String> workspaceOwnedTypeNames(Map<String, IndexedType> source) {
-        var owned = new ObjectLinkedOpenHashSet<String>();
-        for (var entry : source.entrySet()) {
-            owned.add(entry.getKey());
-            var info = entry.getValue();
-            if (info == null || info.enclosingTypes == null) {
-                continue;
+        void removeType(String key) {
+            var previous = types.get(key);
+            if (previous == null) {
+                return;
+            }
+            types = types.minus(key);
+            unlink(key, previous);
+        }
+
+        private void link(String key, IndexedType info) {
+            adjustOwned(key, 1);
+            for (var enclosing : info.enclosingTypes) {
+                adjustOwned(enclosing, 1);
+            }
+            for (var superType : info.directSupertypes) {
+                writableSubtypes(superType).add(key);
             }
-            owned.addAll(info.enclosingTypes);
         }
-        return owned;
+
+        private void unlink(String key, IndexedType info) {
+            adjustOwned(key, -1);
+            for (var enclosing : info.enclosingTypes) {
+                adjustOwned(enclosing, -1);
+            }
+            for (var superType : info.directSupertypes) {
+                var current = subtypes.get(superType);
+                if (current == null || !current.contains(key)) {
+                    continue;
+                }
+                if (current.size() == 1) {
+                    subtypes = subtypes.minus(superType);
+                    copiedSubtypes.remove(superType);
+                    continue;
+                }
+                writableSubtypes(superType).remove(key);
+            }
+        }
+
+        private ObjectLinkedOpenHashSet<String> writableSubtypes(String superType) {
+            var copy = copiedSubtypes.get(superType);
+            if (copy == null) {
+                var current = subtypes.get(superType);
+                copy = current == null ? new ObjectLinkedOpenHashSet<>() : new ObjectLinkedOpenHashSet<>(current);
+                copiedSubtypes.put(superType, copy);
+                subtypes = subtypes.plus(superType, Collections.unmodifiableSet(copy));
+            }
+            return copy;
+        }
+
+        private void adjustOwned(String name, int delta) {
+            var count = owned.getOrDefault(name, 0) + delta;
+            owned = count <= 0 ? owned.minus(name) : owned.plus(name, count);
+        }
     }
 
     public Map<String, IndexedType> types() {
@@ -144,12 +243,12 @@ public class WorkspaceTypeIndex {
         if (qualifiedName == null || qualifiedName.isBlank()) {
             return false;
         }
-        if (workspaceOwnedTypeNames.contains(qualifiedName)) {
+        if (workspaceOwnedTypeNames.containsKey(qualifiedName)) {
             return true;
         }
         for (var i = qualifiedName.lastIndexOf('.'); i > 0; i = qualifiedName.lastIndexOf('.', i - 1)) {
             var outer = qualifiedName.substring(0, i);
-            if (workspaceOwnedTypeNames.contains(outer)) {
+            if (workspaceOwnedTypeNames.containsKey(outer)) {
                 return true;
             }
         }
@@ -167,6 +266,10 @@ public class WorkspaceTypeIndex {
         return Optional.ofNullable(sourceFiles.get(file));
     }
 
+    Map<Path, SourceFileSnapshot> sourceFiles() {
+        return sourceFiles;
+    }
+
 
     /**
      * Replace the published declarations for a set of source files.
@@ -188,14 +291,16 @@ public class WorkspaceTypeIndex {
      * after replacing /src/A.java with a snapshot that only declares com.example.A:
      *   old A.Helper is removed from the published workspace index
      * }</pre>
+     *
+     * <p>The result shares every untouched entry with {@code this}, so the cost scales with the
+     * replaced files rather than the workspace, and readers of the old snapshot are unaffected.
      */
     public WorkspaceTypeIndex replaceWorkspaceDeclarations(WorkspaceTypeIndex updates, Set<Path> replacedFiles) {
         if ((updates == null || updates.sourceFiles.isEmpty())
                 && (replacedFiles == null || replacedFiles.isEmpty())) {
             return this;
         }
-        var nextTypes = new Object2ObjectLinkedOpenHashMap<String, IndexedType>(typesByQualifiedName);
-        var nextSourceFiles = new Object2ObjectLinkedOpenHashMap<Path, SourceFileSnapshot>(sourceFiles);
+        var next = new Updater(this);
 
         var filesToReplace = new ObjectLinkedOpenHashSet<Path>();
         if (replacedFiles != null) {
@@ -206,14 +311,15 @@ public class WorkspaceTypeIndex {
         }
 
         for (var file : filesToReplace) {
-            var previousSnapshot = nextSourceFiles.remove(file);
+            var previousSnapshot = next.files.get(file);
             if (previousSnapshot == null) {
                 continue;
             }
+            next.files = next.files.minus(file);
             for (var qualifiedName : previousSnapshot.declaredTypes) {
-                var existing = nextTypes.get(qualifiedName);
+                var existing = next.types.get(qualifiedName);
                 if (existing != null && file.equals(existing.sourcePath)) {
-                    nextTypes.remove(qualifiedName);
+                    next.removeType(qualifiedName);
                 }
             }
         }
@@ -222,17 +328,17 @@ public class WorkspaceTypeIndex {
             for (var entry : updates.sourceFiles.entrySet()) {
                 var file = entry.getKey();
                 var snapshot = entry.getValue();
-                nextSourceFiles.put(file, snapshot);
+                next.files = next.files.plus(file, snapshot);
                 for (var qualifiedName : snapshot.declaredTypes) {
                     var typeInfo = updates.typesByQualifiedName.get(qualifiedName);
                     if (typeInfo != null) {
-                        nextTypes.put(qualifiedName, typeInfo);
+                        next.putType(qualifiedName, typeInfo);
                     }
                 }
             }
         }
 
-        return new WorkspaceTypeIndex(nextTypes, nextSourceFiles);
+        return new WorkspaceTypeIndex(next);
     }
 
     public List<IndexedMember> members(String qualifiedName, boolean staticContext) {
@@ -289,6 +395,25 @@ public class WorkspaceTypeIndex {
         return subtypes;
     }
 
+    /** Source files declaring a workspace subtype of any of {@code qualifiedNames}, direct or not. */
+    public Set<Path> subtypeFiles(Collection<String> qualifiedNames) {
+        var pending = new ArrayDeque<String>(qualifiedNames);
+        var visited = new ObjectLinkedOpenHashSet<String>();
+        var files = new LinkedHashSet<Path>();
+        while (!pending.isEmpty()) {
+            var type = pending.removeFirst();
+            if (!visited.add(type)) continue;
+            for (var subtype : subtypes(type)) {
+                var info = typesByQualifiedName.get(subtype);
+                if (info != null && info.sourcePath != null) {
+                    files.add(info.sourcePath);
+                }
+                pending.add(subtype);
+            }
+        }
+        return files;
+    }
+
     public Set<String> directSupertypes(String qualifiedName) {
         var type = typesByQualifiedName.get(qualifiedName);
         if (type == null || type.directSupertypes.isEmpty()) {
@@ -1033,16 +1158,6 @@ public class WorkspaceTypeIndex {
     }
 
 
-    private static Map<String, Set<String>> invertSubtypeMap(Map<String, IndexedType> typesByQualifiedName) {
-        var subtypes = new Object2ObjectLinkedOpenHashMap<String, Set<String>>();
-        for (var entry : typesByQualifiedName.entrySet()) {
-            for (var superType : entry.getValue().directSupertypes) {
-                subtypes.computeIfAbsent(superType, __ -> new ObjectLinkedOpenHashSet<>()).add(entry.getKey());
-            }
-        }
-        return subtypes;
-    }
-
     private static boolean isValidIndexKey(String key) {
         return key != null && !key.isBlank() && (key.contains(".") || TypeNames.isPrimitive(key));
     }
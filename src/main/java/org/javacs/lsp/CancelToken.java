@@ -0,0 +1,59 @@
+package org.javacs.lsp;
+
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Cooperative cancellation flag for one unit of work. The dispatcher installs the token of the request it is
+ * running on the worker thread, and flips it when the client sends {@code $/cancelRequest}. Background work can
+ * install its own token the same way. Long-running code polls {@link #current()} between units of work and gives
+ * up by throwing {@link CancellationException}, which the dispatcher answers with {@link ErrorCodes#RequestCancelled}.
+ */
+public class CancelToken {
+    /** Token for work that was not started by anything cancellable; never cancelled. */
+    public static final CancelToken NONE = new CancelToken();
+
+    private static final ThreadLocal<CancelToken> CURRENT = ThreadLocal.withInitial(() -> NONE);
+
+    private volatile boolean cancelled;
+
+    /** Token of the work running on this thread, or {@link #NONE}. */
+    public static CancelToken current() {
+        return CURRENT.get();
+    }
+
+    /** Token that also reports cancelled once {@code stale} returns true, e.g. when a newer revision exists. */
+    public static CancelToken polling(BooleanSupplier stale) {
+        return new CancelToken() {
+            @Override
+            public boolean isCancelled() {
+                return super.isCancelled() || stale.getAsBoolean();
+            }
+        };
+    }
+
+    /** Make this the current token of this thread until the returned scope is closed. */
+    public Scope install() {
+        var previous = CURRENT.get();
+        CURRENT.set(this);
+        return () -> CURRENT.set(previous);
+    }
+
+    public void cancel() {
+        if (this != NONE) cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /** Throws {@link CancellationException} if this work has been cancelled. */
+    public void checkCancelled() {
+        if (isCancelled()) throw new CancellationException();
+    }
+
+    public interface Scope extends AutoCloseable {
+        @Override
+        void close();
+    }
+}
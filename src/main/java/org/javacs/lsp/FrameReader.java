@@ -0,0 +1,160 @@
+package org.javacs.lsp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Splits a stream of {@code Content-Length} framed messages. Input is read in blocks into one reusable buffer, headers
+ * are scanned as bytes, and each body is decoded into a reusable char buffer that Gson reads directly, so a message
+ * costs no intermediate {@link String}s however large it is.
+ *
+ * <p>Not thread-safe; the LSP reader thread owns one instance. It reads ahead, so nothing else may read the stream.
+ */
+class FrameReader {
+    private static final int INITIAL_CAPACITY = 16 * 1024;
+    private static final byte[] CONTENT_LENGTH = "content-length:".getBytes(StandardCharsets.US_ASCII);
+
+    private final ReadableByteChannel in;
+    private final CharsetDecoder decoder =
+            StandardCharsets.UTF_8
+                    .newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    /** Unread bytes are between position and limit. */
+    private ByteBuffer bytes = ByteBuffer.allocate(INITIAL_CAPACITY).flip();
+
+    private CharBuffer chars = CharBuffer.allocate(INITIAL_CAPACITY);
+
+    FrameReader(InputStream in) {
+        this.in = Channels.newChannel(in);
+    }
+
+    /**
+     * The body of the next message, as a reader over an internal buffer that is only valid until the next call.
+     *
+     * @throws LSP.EndOfStream when the client closes the stream
+     */
+    Reader next() throws IOException {
+        var body = nextBody();
+        chars.clear();
+        if (chars.capacity() < body.remaining()) {
+            // UTF-8 never decodes to more chars than it has bytes
+            chars = CharBuffer.allocate(Math.max(body.remaining(), 2 * chars.capacity()));
+        }
+        decoder.reset();
+        decoder.decode(body, chars, true);
+        decoder.flush(chars);
+        chars.flip();
+        return new CharBufferReader(chars);
+    }
+
+    /** The raw body of the next message; shares this reader's buffer until the next call. */
+    ByteBuffer nextBody() throws IOException {
+        var contentLength = -1;
+        while (true) {
+            var lineEnd = indexOfLineEnd();
+            if (lineEnd == -1) {
+                fill(bytes.remaining() + 1);
+                continue;
+            }
+            var lineStart = bytes.position();
+            bytes.position(lineEnd + 2);
+            // An empty line ends the header
+            if (lineEnd == lineStart) break;
+            var length = contentLength(lineStart, lineEnd);
+            if (length != -1) contentLength = length;
+        }
+        if (contentLength == -1) {
+            throw new IOException("Message header has no Content-Length");
+        }
+        if (bytes.remaining() < contentLength) {
+            fill(contentLength);
+        }
+        var start = bytes.position();
+        bytes.position(start + contentLength);
+        return bytes.slice(start, contentLength);
+    }
+
+    /** Index of the {@code \r} of the first {@code \r\n} in the unread bytes, or -1. */
+    private int indexOfLineEnd() {
+        var array = bytes.array();
+        for (var i = bytes.position(); i + 1 < bytes.limit(); i++) {
+            if (array[i] == '\r' && array[i + 1] == '\n') return i;
+        }
+        return -1;
+    }
+
+    /** Value of a {@code Content-Length} header line, or -1 for any other header. */
+    private int contentLength(int start, int end) throws IOException {
+        var array = bytes.array();
+        if (end - start < CONTENT_LENGTH.length) return -1;
+        for (var i = 0; i < CONTENT_LENGTH.length; i++) {
+            if (Character.toLowerCase(array[start + i]) != CONTENT_LENGTH[i]) return -1;
+        }
+        var value = 0;
+        var digits = 0;
+        for (var i = start + CONTENT_LENGTH.length; i < end; i++) {
+            var c = array[i];
+            if (c >= '0' && c <= '9') {
+                value = Math.multiplyExact(value, 10) + (c - '0');
+                digits++;
+            } else if (c != ' ' && c != '\t') {
+                throw new IOException("Bad Content-Length header");
+            }
+        }
+        if (digits == 0) throw new IOException("Bad Content-Length header");
+        return value;
+    }
+
+    /** Read until at least {@code needed} unread bytes are buffered, growing the buffer if it is too small. */
+    private void fill(int needed) throws IOException {
+        if (bytes.capacity() < needed) {
+            var grown = ByteBuffer.allocate(Math.max(needed, 2 * bytes.capacity()));
+            grown.put(bytes);
+            bytes = grown;
+        } else {
+            bytes.compact();
+        }
+        // bytes is now in write mode
+        while (bytes.position() < needed) {
+            if (in.read(bytes) == -1) {
+                bytes.flip();
+                throw new LSP.EndOfStream();
+            }
+        }
+        bytes.flip();
+    }
+
+    /** {@link Reader} over a char buffer, without copying it into a string first. */
+    private static class CharBufferReader extends Reader {
+        private final CharBuffer chars;
+
+        CharBufferReader(CharBuffer chars) {
+            this.chars = chars;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) {
+            if (!chars.hasRemaining()) return -1;
+            var n = Math.min(length, chars.remaining());
+            chars.get(buffer, offset, n);
+            return n;
+        }
+
+        @Override
+        public int read() {
+            return chars.hasRemaining() ? chars.get() : -1;
+        }
+
+        @Override
+        public void close() {}
+    }
+}
@@ -0,0 +1,176 @@
+package org.javacs.lsp;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Serializes one JSON-RPC message straight into a reusable byte buffer, then sends header and body with a single
+ * {@code write}. The body is encoded after a gap reserved for the header, so the {@code Content-Length} line is
+ * filled in afterwards without copying the body or building intermediate strings.
+ *
+ * <p>Each thread that answers requests keeps its own instance, see {@link #get()}.
+ */
+class FrameWriter {
+    /** Room for "Content-Length: 2147483647\r\n\r\n". */
+    private static final int HEADER_RESERVE = 32;
+
+    private static final int INITIAL_CAPACITY = 16 * 1024;
+    private static final int MAX_RETAINED = 1024 * 1024;
+    private static final byte[] CONTENT_LENGTH = "Content-Length: ".getBytes(StandardCharsets.US_ASCII);
+
+    private static final ThreadLocal<FrameWriter> WRITER = ThreadLocal.withInitial(FrameWriter::new);
+
+    private final Body body = new Body();
+    private final Writer utf8 = new OutputStreamWriter(body, StandardCharsets.UTF_8);
+
+    static FrameWriter get() {
+        return WRITER.get();
+    }
+
+    /** {@code {"jsonrpc":"2.0","id":<id>,"result":<result>}} */
+    void response(OutputStream client, int id, Gson gson, Object result) {
+        send(client, json -> {
+            json.name("id").value(id);
+            json.name("result");
+            value(json, gson, result);
+        });
+    }
+
+    /** {@code {"jsonrpc":"2.0","id":<id>,"error":<error>}} */
+    void error(OutputStream client, int id, Gson gson, ResponseError error) {
+        send(client, json -> {
+            json.name("id").value(id);
+            json.name("error");
+            value(json, gson, error);
+        });
+    }
+
+    /** A notification, or a server-to-client request when {@code id} is non-null. */
+    void request(OutputStream client, Integer id, String method, Gson gson, Object params) {
+        send(client, json -> {
+            if (id != null) json.name("id").value(id);
+            json.name("method").value(method);
+            json.name("params");
+            value(json, gson, params);
+        });
+    }
+
+    private interface Fields {
+        void write(JsonWriter json) throws IOException;
+    }
+
+    private void send(OutputStream client, Fields fields) {
+        try {
+            var json = begin();
+            fields.write(json);
+            end(json, client);
+        } catch (IOException e) {
+            discard();
+            throw new UncheckedIOException(e);
+        } catch (RuntimeException e) {
+            discard();
+            throw e;
+        }
+    }
+
+    /**
+     * Forget this thread's writer after a failed message. The encoder may still hold bytes of it, which would
+     * otherwise end up at the front of the next message, such as the error reporting this failure.
+     */
+    private static void discard() {
+        WRITER.remove();
+    }
+
+    private JsonWriter begin() throws IOException {
+        body.reset();
+        // Each message gets a fresh JsonWriter, since a finished one cannot start another document.
+        var json = new JsonWriter(utf8);
+        json.beginObject();
+        json.name("jsonrpc").value("2.0");
+        return json;
+    }
+
+    private static void value(JsonWriter json, Gson gson, Object value) throws IOException {
+        // Gson drops null members unless serializeNulls is set, but "result": null must be sent
+        if (value == null) {
+            json.nullValue();
+        } else if (value instanceof JsonElement element) {
+            gson.toJson(element, json);
+        } else {
+            gson.toJson(value, value.getClass(), json);
+        }
+    }
+
+    private void end(JsonWriter json, OutputStream client) throws IOException {
+        json.endObject();
+        json.flush();
+        var start = body.header();
+        synchronized (client) {
+            client.write(body.buffer(), start, body.end() - start);
+        }
+    }
+
+    /** Growable byte sink with {@link #HEADER_RESERVE} free bytes at the front. */
+    private static class Body extends OutputStream {
+        private byte[] bytes = new byte[INITIAL_CAPACITY];
+        private int end = HEADER_RESERVE;
+
+        void reset() {
+            // Don't let one huge completion list pin megabytes to every worker thread
+            if (bytes.length > MAX_RETAINED) bytes = new byte[INITIAL_CAPACITY];
+            end = HEADER_RESERVE;
+        }
+
+        byte[] buffer() {
+            return bytes;
+        }
+
+        int end() {
+            return end;
+        }
+
+        /** Write the header right before the body and return where it starts. */
+        int header() {
+            var length = end - HEADER_RESERVE;
+            var at = HEADER_RESERVE;
+            bytes[--at] = '\n';
+            bytes[--at] = '\r';
+            bytes[--at] = '\n';
+            bytes[--at] = '\r';
+            do {
+                bytes[--at] = (byte) ('0' + length % 10);
+                length /= 10;
+            } while (length > 0);
+            at -= CONTENT_LENGTH.length;
+            System.arraycopy(CONTENT_LENGTH, 0, bytes, at, CONTENT_LENGTH.length);
+            return at;
+        }
+
+        private void ensure(int extra) {
+            if (end + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(end + extra, 2 * bytes.length));
+            }
+        }
+
+        @Override
+        public void write(int b) {
+            ensure(1);
+            bytes[end++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            ensure(len);
+            System.arraycopy(b, off, bytes, end, len);
+            end += len;
+        }
+    }
+}
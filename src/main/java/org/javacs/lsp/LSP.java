@@ -3,8 +3,6 @@ package org.javacs.lsp;
 import com.google.gson.Gson;
 import com.google.gson.JsonElement;
 import java.io.*;
-import java.nio.charset.Charset;
-import java.nio.charset.StandardCharsets;
 import java.util.Optional;
 import java.util.Random;
 import java.util.UUID;
@@ -17,85 +15,10 @@ import java.util.logging.Logger;
 public class LSP {
     private static final Gson gson = new Gson();
 
-    private static String readHeader(InputStream client) {
-        var line = new StringBuilder();
-        for (var next = read(client); true; next = read(client)) {
-            if (next == '\r') {
-                var last = read(client);
-                assert last == '\n';
-                break;
-            }
-            line.append(next);
-        }
-        return line.toString();
-    }
-
-    private static int parseHeader(String header) {
-        var contentLength = "Content-Length: ";
-        if (header.startsWith(contentLength)) {
-            var tail = header.substring(contentLength.length());
-            var length = Integer.parseInt(tail);
-            return length;
-        }
-        return -1;
-    }
-
     static class EndOfStream extends RuntimeException {}
 
-    // TODO this seems like it's probably really inefficient. Read in bulk?
-    private static char read(InputStream client) {
-        try {
-            var c = client.read();
-            if (c == -1) {
-                LOG.warning("Stream from client has been closed, throwing kill exception...");
-                throw new EndOfStream();
-            }
-            return (char) c;
-        } catch (IOException e) {
-            LOG.log(Level.SEVERE, e.getMessage(), e);
-            throw new EndOfStream();
-        }
-    }
-
-    private static String readLength(InputStream client, int byteLength) {
-        // Eat whitespace
-        try {
-            return new String(client.readNBytes(byteLength), StandardCharsets.UTF_8).stripLeading();
-        } catch (IOException e) {
-            throw new RuntimeException("An error occurred during the reading of client data", e);
-        }
-    }
-
-    static String nextToken(InputStream client) {
-        var contentLength = -1;
-        while (true) {
-            var line = readHeader(client);
-            // If header is empty, next line is the start of the message
-            if (line.isEmpty()) return readLength(client, contentLength);
-            // If header contains length, save it
-            var maybeLength = parseHeader(line);
-            if (maybeLength != -1) contentLength = maybeLength;
-        }
-    }
-
-    static Message parseMessage(String token) {
-        return gson.fromJson(token, Message.class);
-    }
-
-    private static final Charset UTF_8 = StandardCharsets.UTF_8;
-
-    private static void writeClient(OutputStream client, String messageText) {
-        var messageBytes = messageText.getBytes(UTF_8);
-        var headerText = String.format("Content-Length: %d\r\n\r\n", messageBytes.length);
-        var headerBytes = headerText.getBytes(UTF_8);
-        try {
-            synchronized (client) {
-                client.write(headerBytes);
-                client.write(messageBytes);
-            }
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+    static Message parseMessage(Reader body) {
+        return gson.fromJson(body, Message.class);
     }
 
     static String toJson(Object message) {
@@ -111,15 +34,11 @@ public class LSP {
             var option = (Optional) params;
             params = option.orElse(null);
         }
-        var jsonText = toJson(params);
-        var messageText = String.format("{\"jsonrpc\":\"2.0\",\"id\":%d,\"result\":%s}", requestId, jsonText);
-        writeClient(client, messageText);
+        FrameWriter.get().response(client, requestId, gson, params);
     }
 
     static void error(OutputStream client, int requestId, ResponseError error) {
-        var jsonText = toJson(error);
-        var messageText = String.format("{\"jsonrpc\":\"2.0\",\"id\":%d,\"error\":%s}", requestId, jsonText);
-        writeClient(client, messageText);
+        FrameWriter.get().error(client, requestId, gson, error);
     }
 
     @SuppressWarnings("unchecked")
@@ -128,9 +47,7 @@ public class LSP {
             var option = (Optional) params;
             params = option.orElse(null);
         }
-        var jsonText = toJson(params);
-        var messageText = String.format("{\"jsonrpc\":\"2.0\",\"method\":\"%s\",\"params\":%s}", method, jsonText);
-        writeClient(client, messageText);
+        FrameWriter.get().request(client, null, method, gson, params);
     }
 
     private static class RealClient implements LanguageClient {
@@ -158,26 +75,15 @@ public class LSP {
             registration.method = method;
             registration.registerOptions = options;
             params.registrations.add(registration);
-            var jsonText = toJson(params);
-            var requestMethod = "client/registerCapability";
             // The request should contain the id param. Otherwise, it will be considered a notification.
             var id = new Random().nextInt();
-            var messageText =
-                    String.format(
-                            "{\"jsonrpc\":\"2.0\",\"id\":%d,\"method\":\"%s\",\"params\":%s}",
-                            id, requestMethod, jsonText);
-            writeClient(send, messageText);
+            FrameWriter.get().request(send, id, "client/registerCapability", gson, params);
         }
 
         @Override
         public void sendRequest(String method, JsonElement params) {
-            var jsonText = toJson(params);
             var id = new Random().nextInt();
-            var messageText =
-                    String.format(
-                            "{\"jsonrpc\":\"2.0\",\"id\":%d,\"method\":\"%s\",\"params\":%s}",
-                            id, method, jsonText);
-            writeClient(send, messageText);
+            FrameWriter.get().request(send, id, method, gson, params);
         }
 
         @Override
@@ -191,6 +97,7 @@ public class LSP {
         var server = serverFactory.apply(new RealClient(send));
         var pending = new ArrayBlockingQueue<Message>(10);
         var endOfStream = new Message();
+        var dispatcher = new RequestDispatcher(server, send);
 
         // Read messages and process cancellations on a separate thread
         class MessageReader implements Runnable {
@@ -198,8 +105,15 @@ public class LSP {
                 if ("$/cancelRequest".equals(message.method)) {
                     var params = gson.fromJson(message.params, CancelParams.class);
                     var removed = pending.removeIf(r -> r.id != null && r.id.equals(params.id));
-                    if (removed) LOG.info(String.format("Cancelled request %d, which had not yet started", params.id));
-                    else LOG.info(String.format("Cannot cancel request %d because it has already started", params.id));
+                    if (removed) {
+                        dispatcher.forget(params.id);
+                        LOG.info(String.format("Cancelled request %d, which had not yet started", params.id));
+                        error(send, params.id, new ResponseError(ErrorCodes.RequestCancelled, "Request cancelled", null));
+                    } else if (dispatcher.cancel(params.id)) {
+                        LOG.info(String.format("Asked running request %d to stop", params.id));
+                    } else {
+                        LOG.info(String.format("Cannot cancel request %d because it has already finished", params.id));
+                    }
                 }
             }
 
@@ -218,13 +132,18 @@ public class LSP {
             public void run() {
                 LOG.info("Placing incoming messages on queue...");
 
+                var frames = new FrameReader(receive);
                 while (true) {
                     try {
-                        var token = nextToken(receive);
-                        var message = parseMessage(token);
+                        var message = parseMessage(frames.next());
                         peek(message);
+                        dispatcher.received(message);
                         pending.put(message);
                     } catch (EndOfStream __) {
+                        LOG.warning("Stream from client has been closed, throwing kill exception...");
+                        if (kill()) return;
+                    } catch (IOException e) {
+                        LOG.log(Level.SEVERE, e.getMessage(), e);
                         if (kill()) return;
                     } catch (Exception e) {
                         LOG.log(Level.SEVERE, e.getMessage(), e);
@@ -236,7 +155,7 @@ public class LSP {
         reader.setDaemon(true);
         reader.start();
 
-        // Process messages on main thread
+        // Dispatch messages from the main thread; reads run on the dispatcher's workers
         LOG.info("Reading messages from queue...");
         var hasAsyncWork = false;
         processMessages:
@@ -256,7 +175,7 @@ public class LSP {
             }
             // If poll(_) failed, loop again
             if (r == null) {
-                if (hasAsyncWork) {
+                if (hasAsyncWork && dispatcher.isIdle()) {
                     server.doAsyncWork();
                     hasAsyncWork = false;
                 }
@@ -268,240 +187,244 @@ public class LSP {
                 // Response to a server-initiated request; we don't track callbacks.
                 continue;
             }
-            try {
-                switch (r.method) {
-                    case "initialize":
-                        {
-                            var params = gson.fromJson(r.params, InitializeParams.class);
-                            var response = server.initialize(params);
-                            respond(send, r.id, response);
-                            break;
-                        }
-                    case "initialized":
-                        {
-                            server.initialized();
-                            break;
-                        }
-                    case "shutdown":
-                        {
-                            LOG.warning("Got shutdown message");
-                            respond(send, r.id, null);
-                            break;
-                        }
-                    case "exit":
-                        {
-                            LOG.warning("Got exit message, exiting...");
-                            break processMessages;
-                        }
-                    case "workspace/didChangeWorkspaceFolders":
-                        {
-                            var params = gson.fromJson(r.params, DidChangeWorkspaceFoldersParams.class);
-                            server.didChangeWorkspaceFolders(params);
-                            break;
-                        }
-                    case "workspace/didChangeConfiguration":
-                        {
-                            var params = gson.fromJson(r.params, DidChangeConfigurationParams.class);
-                            server.didChangeConfiguration(params);
-                            break;
-                        }
-                    case "workspace/didChangeWatchedFiles":
-                        {
-                            var params = gson.fromJson(r.params, DidChangeWatchedFilesParams.class);
-                            server.didChangeWatchedFiles(params);
-                            break;
-                        }
-                    case "workspace/symbol":
-                        {
-                            var params = gson.fromJson(r.params, WorkspaceSymbolParams.class);
-                            var response = server.workspaceSymbols(params);
-                            respond(send, r.id, response);
-                            break;
-                        }
-                    case "textDocument/documentLink":
-                        {
-                            var params = gson.fromJson(r.params, DocumentLinkParams.class);
-                            var response = server.documentLink(params);
-                            respond(send, r.id, response);
-                            break;
-                        }
-                    case "textDocument/inlayHint":
-                        {
-                            var params = gson.fromJson(r.params, InlayHintParams.class);
-                            var response = server.inlayHint(params);
-                            respond(send, r.id, response);
-                            break;
-                        }
-                    case "textDocument/didOpen":
-                        {
-                            var params = gson.fromJson(r.params, DidOpenTextDocumentParams.class);
-                            server.didOpenTextDocument(params);
-                            break;
-                        }
-                    case "textDocument/didChange":
-                        {
-                            var params = gson.fromJson(r.params, DidChangeTextDocumentParams.class);
-                            server.didChangeTextDocument(params);
-                            break;
-                        }
-                    case "textDocument/willSave":
-                        {
-                            var params = gson.fromJson(r.params, WillSaveTextDocumentParams.class);
-                            server.willSaveTextDocument(params);
-                            break;
-                        }
-                    case "textDocument/willSaveWaitUntil":
-                        {
-                            var params = gson.fromJson(r.params, WillSaveTextDocumentParams.class);
-                            var response = server.willSaveWaitUntilTextDocument(params);
-                            respond(send, r.id, response);
-                            break;
-                        }
-                    case "textDocument/didSave":
-                        {
-                            var params = gson.fromJson(r.params, DidSaveTextDocumentParams.class);
-                            server.didSaveTextDocument(params);
-                            break;
-                        }
-                    case "textDocument/didClose":
-                        {
-                            var params = gson.fromJson(r.params, DidCloseTextDocumentParams.class);
-                            server.didCloseTextDocument(params);
-                            break;
-                        }
-                    case "textDocument/completion":
-                        {
-                            var params = gson.fromJson(r.params, TextDocumentPositionParams.class);
-                            var response = server.completion(params);
-                            respond(send, r.id, response);
-                            break;
-                        }
-                    case "completionItem/resolve":
-                        {
-                            var params = gson.fromJson(r.params, CompletionItem.class);
-                            var response = server.resolveCompletionItem(params);
-                            respond(send, r.id, response);
-                            break;
-                        }
-                    case "textDocument/hover":
-                        {
-                            var params = gson.fromJson(r.params, TextDocumentPositionParams.class);
-                            var response = server.hover(params);
-                            respond(send, r.id, response);
-                            break;
-                        }
-                    case "textDocument/signatureHelp":
-                        {
-                            var params = gson.fromJson(r.params, TextDocumentPositionParams.class);
-                            var response = server.signatureHelp(params);
-                            respond(send, r.id, response);
-                            break;
-                        }
-                    case "textDocument/definition":
-                        {
-                            var params = gson.fromJson(r.params, TextDocumentPositionParams.class);
-                            var response = server.gotoDefinition(params);
-                            respond(send, r.id, response);
-                            break;
-                        }
-                    case "textDocument/references":
-                        {
-                            var params = gson.fromJson(r.params, ReferenceParams.class);
-                            var response = server.findReferences(params);
-                            respond(send, r.id, response);
-                            break;
-                        }
-                    case "textDocument/documentSymbol":
-                        {
-                            var params = gson.fromJson(r.params, DocumentSymbolParams.class);
-                            var response = server.documentSymbol(params);
-                            respond(send, r.id, response);
-                            break;
-                        }
-                    case "textDocument/codeAction":
-                        {
-                            var params = gson.fromJson(r.params, CodeActionParams.class);
-                            var response = server.codeAction(params);
-                            respond(send, r.id, response);
-                            break;
-                        }
-                    case "codeAction/resolve":
-                        {
-                            var params = gson.fromJson(r.params, CodeAction.class);
-                            var response = server.resolveCodeAction(params);
-                            respond(send, r.id, response);
-                            break;
-                        }
-                    case "textDocument/codeLens":
-                        {
-                            var params = gson.fromJson(r.params, CodeLensParams.class);
-                            var response = server.codeLens(params);
-                            respond(send, r.id, response);
-                            break;
-                        }
-                    case "codeLens/resolve":
-                        {
-                            var params = gson.fromJson(r.params, CodeLens.class);
-                            var response = server.resolveCodeLens(params);
-                            respond(send, r.id, response);
-                            break;
-                        }
-                    case "textDocument/prepareRename":
-                        {
-                            var params = gson.fromJson(r.params, TextDocumentPositionParams.class);
-                            var response = server.prepareRename(params);
-                            respond(send, r.id, response);
-                            break;
-                        }
-                    case "textDocument/rename":
-                        {
-                            var params = gson.fromJson(r.params, RenameParams.class);
-                            var response = server.rename(params);
-                            respond(send, r.id, response);
-                            break;
-                        }
-                    case "workspace/executeCommand":
-                        {
-                            var params = gson.fromJson(r.params, ExecuteCommandParams.class);
-                            var response = server.executeCommand(params);
-                            respond(send, r.id, response);
-                            break;
-                        }
-                    case "textDocument/formatting":
-                        {
-                            var params = gson.fromJson(r.params, DocumentFormattingParams.class);
-                            var response = server.formatting(params);
-                            respond(send, r.id, response);
-                            break;
-                        }
-                    case "textDocument/foldingRange":
-                        {
-                            var params = gson.fromJson(r.params, FoldingRangeParams.class);
-                            var response = server.foldingRange(params);
-                            respond(send, r.id, response);
-                            break;
-                        }
-                    case "textDocument/diagnostic":
-                        {
-                            var params = gson.fromJson(r.params, DocumentDiagnosticParams.class);
-                            var response = server.textDocumentDiagnostic(params);
-                            respond(send, r.id, response);
-                            break;
-                        }
-                    case "$/cancelRequest":
-                        // Already handled in peek(message)
-                        break;
-                    default:
-                        LOG.warning(String.format("Don't know what to do with method `%s`", r.method));
+            if ("exit".equals(r.method)) {
+                LOG.warning("Got exit message, exiting...");
+                break processMessages;
+            }
+            dispatcher.dispatch(r);
+        }
+        dispatcher.shutdown();
+    }
+
+    /** Run one message against {@code server} and send its response, if it is a request. */
+    static void handle(LanguageServer server, OutputStream send, Message r) {
+        switch (r.method) {
+            case "initialize":
+                {
+                    var params = gson.fromJson(r.params, InitializeParams.class);
+                    var response = server.initialize(params);
+                    reply(send, r, response);
+                    break;
                 }
-            } catch (Exception e) {
-                LOG.log(Level.SEVERE, e.getMessage(), e);
-                if (r.id != null) {
-                    error(send, r.id, new ResponseError(ErrorCodes.InternalError, e.getMessage(), null));
+            case "initialized":
+                {
+                    server.initialized();
+                    break;
                 }
-            }
+            case "shutdown":
+                {
+                    LOG.warning("Got shutdown message");
+                    reply(send, r, null);
+                    break;
+                }
+            case "workspace/didChangeWorkspaceFolders":
+                {
+                    var params = gson.fromJson(r.params, DidChangeWorkspaceFoldersParams.class);
+                    server.didChangeWorkspaceFolders(params);
+                    break;
+                }
+            case "workspace/didChangeConfiguration":
+                {
+                    var params = gson.fromJson(r.params, DidChangeConfigurationParams.class);
+                    server.didChangeConfiguration(params);
+                    break;
+                }
+            case "workspace/didChangeWatchedFiles":
+                {
+                    var params = gson.fromJson(r.params, DidChangeWatchedFilesParams.class);
+                    server.didChangeWatchedFiles(params);
+                    break;
+                }
+            case "workspace/symbol":
+                {
+                    var params = gson.fromJson(r.params, WorkspaceSymbolParams.class);
+                    var response = server.workspaceSymbols(params);
+                    reply(send, r, response);
+                    break;
+                }
+            case "textDocument/documentLink":
+                {
+                    var params = gson.fromJson(r.params, DocumentLinkParams.class);
+                    var response = server.documentLink(params);
+                    reply(send, r, response);
+                    break;
+                }
+            case "textDocument/inlayHint":
+                {
+                    var params = gson.fromJson(r.params, InlayHintParams.class);
+                    var response = server.inlayHint(params);
+                    reply(send, r, response);
+                    break;
+                }
+            case "textDocument/didOpen":
+                {
+                    var params = gson.fromJson(r.params, DidOpenTextDocumentParams.class);
+                    server.didOpenTextDocument(params);
+                    break;
+                }
+            case "textDocument/didChange":
+                {
+                    var params = gson.fromJson(r.params, DidChangeTextDocumentParams.class);
+                    server.didChangeTextDocument(params);
+                    break;
+                }
+            case "textDocument/willSave":
+                {
+                    var params = gson.fromJson(r.params, WillSaveTextDocumentParams.class);
+                    server.willSaveTextDocument(params);
+                    break;
+                }
+            case "textDocument/willSaveWaitUntil":
+                {
+                    var params = gson.fromJson(r.params, WillSaveTextDocumentParams.class);
+                    var response = server.willSaveWaitUntilTextDocument(params);
+                    reply(send, r, response);
+                    break;
+                }
+            case "textDocument/didSave":
+                {
+                    var params = gson.fromJson(r.params, DidSaveTextDocumentParams.class);
+                    server.didSaveTextDocument(params);
+                    break;
+                }
+            case "textDocument/didClose":
+                {
+                    var params = gson.fromJson(r.params, DidCloseTextDocumentParams.class);
+                    server.didCloseTextDocument(params);
+                    break;
+                }
+            case "textDocument/completion":
+                {
+                    var params = gson.fromJson(r.params, TextDocumentPositionParams.class);
+                    var response = server.completion(params);
+                    reply(send, r, response);
+                    break;
+                }
+            case "completionItem/resolve":
+                {
+                    var params = gson.fromJson(r.params, CompletionItem.class);
+                    var response = server.resolveCompletionItem(params);
+                    reply(send, r, response);
+                    break;
+                }
+            case "textDocument/hover":
+                {
+                    var params = gson.fromJson(r.params, TextDocumentPositionParams.class);
+                    var response = server.hover(params);
+                    reply(send, r, response);
+                    break;
+                }
+            case "textDocument/signatureHelp":
+                {
+                    var params = gson.fromJson(r.params, TextDocumentPositionParams.class);
+                    var response = server.signatureHelp(params);
+                    reply(send, r, response);
+                    break;
+                }
+            case "textDocument/definition":
+                {
+                    var params = gson.fromJson(r.params, TextDocumentPositionParams.class);
+                    var response = server.gotoDefinition(params);
+                    reply(send, r, response);
+                    break;
+                }
+            case "textDocument/references":
+                {
+                    var params = gson.fromJson(r.params, ReferenceParams.class);
+                    var response = server.findReferences(params);
+                    reply(send, r, response);
+                    break;
+                }
+            case "textDocument/documentSymbol":
+                {
+                    var params = gson.fromJson(r.params, DocumentSymbolParams.class);
+                    var response = server.documentSymbol(params);
+                    reply(send, r, response);
+                    break;
+                }
+            case "textDocument/codeAction":
+                {
+                    var params = gson.fromJson(r.params, CodeActionParams.class);
+                    var response = server.codeAction(params);
+                    reply(send, r, response);
+                    break;
+                }
+            case "codeAction/resolve":
+                {
+                    var params = gson.fromJson(r.params, CodeAction.class);
+                    var response = server.resolveCodeAction(params);
+                    reply(send, r, response);
+                    break;
+                }
+            case "textDocument/codeLens":
+                {
+                    var params = gson.fromJson(r.params, CodeLensParams.class);
+                    var response = server.codeLens(params);
+                    reply(send, r, response);
+                    break;
+                }
+            case "codeLens/resolve":
+                {
+                    var params = gson.fromJson(r.params, CodeLens.class);
+                    var response = server.resolveCodeLens(params);
+                    reply(send, r, response);
+                    break;
+                }
+            case "textDocument/prepareRename":
+                {
+                    var params = gson.fromJson(r.params, TextDocumentPositionParams.class);
+                    var response = server.prepareRename(params);
+                    reply(send, r, response);
+                    break;
+                }
+            case "textDocument/rename":
+                {
+                    var params = gson.fromJson(r.params, RenameParams.class);
+                    var response = server.rename(params);
+                    reply(send, r, response);
+                    break;
+                }
+            case "workspace/executeCommand":
+                {
+                    var params = gson.fromJson(r.params, ExecuteCommandParams.class);
+                    var response = server.executeCommand(params);
+                    reply(send, r, response);
+                    break;
+                }
+            case "textDocument/formatting":
+                {
+                    var params = gson.fromJson(r.params, DocumentFormattingParams.class);
+                    var response = server.formatting(params);
+                    reply(send, r, response);
+                    break;
+                }
+            case "textDocument/foldingRange":
+                {
+                    var params = gson.fromJson(r.params, FoldingRangeParams.class);
+                    var response = server.foldingRange(params);
+                    reply(send, r, response);
+                    break;
+                }
+            case "textDocument/diagnostic":
+                {
+                    var params = gson.fromJson(r.params, DocumentDiagnosticParams.class);
+                    var response = server.textDocumentDiagnostic(params);
+                    reply(send, r, response);
+                    break;
+                }
+            case "$/cancelRequest":
+                // Already handled by the reader thread
+                break;
+            default:
+                LOG.warning(String.format("Don't know what to do with method `%s`", r.method));
         }
     }
 
+    /** Respond to {@code r}, unless the client cancelled it while it was running. */
+    private static void reply(OutputStream send, Message r, Object response) {
+        CancelToken.current().checkCancelled();
+        respond(send, r.id, response);
+    }
+
     private static final Logger LOG = Logger.getLogger("main");
 }
@@ -1,5 +1,9 @@
 package org.javacs.lsp;
 
+import com.google.gson.JsonElement;
+
 public class ReferenceParams extends TextDocumentPositionParams {
     public ReferenceContext context;
+    /** Set by clients that accept results in chunks through {@code $/progress}; a string or a number. */
+    public JsonElement partialResultToken;
 }
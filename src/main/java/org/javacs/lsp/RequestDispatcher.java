@@ -0,0 +1,208 @@
+package org.javacs.lsp;
+
+import com.google.gson.JsonElement;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs incoming messages with as much overlap as the protocol allows.
+ *
+ * <ul>
+ *   <li>Read-only requests go to a small worker pool, so a slow find-references does not hold up hover.
+ *   <li>Document notifications (didOpen, didChange, willSave, didSave, didClose) run on the dispatcher thread in
+ *       arrival order, after the reads already running against the same document, or against no one document (such
+ *       as workspace/symbol), have finished. Reads that arrive later are only submitted once the notification has
+ *       been applied, so they always see the new text.
+ *   <li>Protocol notifications ({@code $/...}) are dropped without waiting: the reader thread has already acted on
+ *       {@code $/cancelRequest}, and the rest are optional.
+ *   <li>Everything else (lifecycle, configuration, edits such as rename and code actions) waits for all running
+ *       reads, then runs on the dispatcher thread.
+ * </ul>
+ *
+ * <p>A request's cancel token is registered by the reader thread as soon as the request arrives, so a cancel that
+ * comes in while the request is between the queue and a worker still reaches it.
+ *
+ * <p>The server still decides how much of a read really overlaps: the compiler serializes its own javac work.
+ */
+class RequestDispatcher {
+    static final Set<String> CONCURRENT_READS =
+            Set.of(
+                    "textDocument/hover",
+                    "textDocument/completion",
+                    "completionItem/resolve",
+                    "textDocument/signatureHelp",
+                    "textDocument/definition",
+                    "textDocument/references",
+                    "textDocument/inlayHint",
+                    "textDocument/foldingRange",
+                    "textDocument/documentSymbol",
+                    "textDocument/documentLink",
+                    "textDocument/codeLens",
+                    "textDocument/diagnostic",
+                    "textDocument/prepareRename",
+                    "workspace/symbol");
+
+    static final Set<String> DOCUMENT_NOTIFICATIONS =
+            Set.of(
+                    "textDocument/didOpen",
+                    "textDocument/didChange",
+                    "textDocument/willSave",
+                    "textDocument/didSave",
+                    "textDocument/didClose");
+
+    static final int WORKERS = Math.clamp(Runtime.getRuntime().availableProcessors() / 2, 2, 4);
+
+    private final LanguageServer server;
+    private final OutputStream send;
+    private final ExecutorService workers =
+            Executors.newFixedThreadPool(WORKERS, Thread.ofPlatform().daemon().name("lsp-worker-", 0).factory());
+
+    /** Tokens of requests that have been received and not yet answered, by request id. */
+    private final Map<Integer, CancelToken> running = new ConcurrentHashMap<>();
+
+    // Guarded by this: reads in flight, in total and per document URI ("" for requests without a document).
+    private int readsInFlight;
+    private final Object2IntOpenHashMap<String> readsInFlightByUri = new Object2IntOpenHashMap<>();
+
+    RequestDispatcher(LanguageServer server, OutputStream send) {
+        this.server = server;
+        this.send = send;
+    }
+
+    /** Called on the dispatcher thread, in the order messages arrived. */
+    void dispatch(Message r) {
+        if (CONCURRENT_READS.contains(r.method)) {
+            var uri = documentUri(r.params);
+            var token = register(r);
+            beginRead(uri);
+            try {
+                workers.execute(() -> runRead(r, token, uri));
+            } catch (RuntimeException e) {
+                endRead(uri);
+                throw e;
+            }
+        } else if (DOCUMENT_NOTIFICATIONS.contains(r.method)) {
+            awaitReads(documentUri(r.params));
+            run(r, CancelToken.NONE);
+        } else if (r.id == null && r.method.startsWith("$/")) {
+            LOG.fine(String.format("Ignoring %s", r.method));
+        } else {
+            awaitReads(null);
+            run(r, register(r));
+        }
+    }
+
+    /** Called from the reader thread for each message, before it is queued for {@link #dispatch}. */
+    void received(Message r) {
+        if (r.id != null && r.method != null) running.put(r.id, new CancelToken());
+    }
+
+    /** Called from the reader thread when a request is cancelled before it left the queue. */
+    void forget(int requestId) {
+        running.remove(requestId);
+    }
+
+    /** Called from the reader thread; flags the request if it has been received but not answered. */
+    boolean cancel(int requestId) {
+        var token = running.get(requestId);
+        if (token == null) return false;
+        token.cancel();
+        return true;
+    }
+
+    /** True when no read is running, so the server may do idle work. */
+    synchronized boolean isIdle() {
+        return readsInFlight == 0;
+    }
+
+    void shutdown() {
+        workers.shutdown();
+        try {
+            workers.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        workers.shutdownNow();
+    }
+
+    private CancelToken register(Message r) {
+        if (r.id == null) return CancelToken.NONE;
+        return running.computeIfAbsent(r.id, id -> new CancelToken());
+    }
+
+    private void runRead(Message r, CancelToken token, String uri) {
+        try {
+            run(r, token);
+        } finally {
+            endRead(uri);
+        }
+    }
+
+    private void run(Message r, CancelToken token) {
+        try (var scope = token.install()) {
+            token.checkCancelled();
+            LSP.handle(server, send, r);
+        } catch (CancellationException e) {
+            LOG.info(String.format("Cancelled request %d (%s)", r.id, r.method));
+            if (r.id != null) {
+                LSP.error(send, r.id, new ResponseError(ErrorCodes.RequestCancelled, "Request cancelled", null));
+            }
+        } catch (Exception e) {
+            LOG.log(Level.SEVERE, e.getMessage(), e);
+            if (r.id != null) {
+                LSP.error(send, r.id, new ResponseError(ErrorCodes.InternalError, e.getMessage(), null));
+            }
+        } finally {
+            if (r.id != null) running.remove(r.id, token);
+        }
+    }
+
+    private synchronized void beginRead(String uri) {
+        readsInFlight++;
+        readsInFlightByUri.addTo(uri, 1);
+    }
+
+    private synchronized void endRead(String uri) {
+        readsInFlight--;
+        if (readsInFlightByUri.addTo(uri, -1) == 1) readsInFlightByUri.removeInt(uri);
+        notifyAll();
+    }
+
+    /**
+     * Block until no read is running against {@code uri} or against no particular document, or until no read is
+     * running at all if {@code uri} is null. Reads without a document may look at any of them.
+     */
+    private synchronized void awaitReads(String uri) {
+        var interrupted = false;
+        while (uri == null
+                ? readsInFlight > 0
+                : readsInFlightByUri.getInt(uri) > 0 || readsInFlightByUri.getInt("") > 0) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    /** The {@code textDocument.uri} of a request, or "" for requests that are not about one document. */
+    static String documentUri(JsonElement params) {
+        if (params == null || !params.isJsonObject()) return "";
+        var document = params.getAsJsonObject().get("textDocument");
+        if (document == null || !document.isJsonObject()) return "";
+        var uri = document.getAsJsonObject().get("uri");
+        return uri == null || !uri.isJsonPrimitive() ? "" : uri.getAsString();
+    }
+
+    private static final Logger LOG = Logger.getLogger("main");
+}
@@ -47,10 +47,12 @@ import javax.lang.model.element.Name;
 import javax.lang.model.type.DeclaredType;
 import javax.lang.model.type.TypeKind;
 import javax.lang.model.type.TypeVariable;
+import javax.tools.JavaFileObject;
 
 import org.javacs.CacheAudit;
 import org.javacs.CompilerProvider;
 import org.javacs.CompletionData;
+import org.javacs.DocCache;
 import org.javacs.FileStore;
 import org.javacs.FindHelper;
 import org.javacs.JsonHelper;
@@ -67,6 +69,8 @@ import org.javacs.lsp.CompletionItem;
 import org.javacs.lsp.CompletionItemKind;
 import org.javacs.lsp.CompletionList;
 import org.javacs.lsp.InsertTextFormat;
+import org.javacs.lsp.MarkupContent;
+import org.javacs.lsp.MarkupKind;
 import org.javacs.lsp.TextEdit;
 import org.javacs.resolve.ParseTypeResolver;
 import org.javacs.resolve.TypeNames;
@@ -97,6 +101,8 @@ public class CompletionProvider {
 
     public static final CompletionList NOT_SUPPORTED = new CompletionList(false, List.of());
     public static final int MAX_COMPLETION_ITEMS = 50;
+    /** Caps background doc rendering for files that import many large types. */
+    private static final int MAX_PREWARM_MEMBERS = 2_000;
     private static final Set<String> OBJECT_MEMBER_LABELS =
             Set.of("equals", "getClass", "hashCode", "notify", "notifyAll", "toString", "wait");
     private static final Cache<MemberCompletionCacheKey, CompletionList> MEMBER_COMPLETION_CACHE =
@@ -175,9 +181,61 @@ public class CompletionProvider {
     public void resolveCompletionItem(CompletionItem item) {
         if (item.data == null || item.data == JsonNull.INSTANCE) return;
         var data = JsonHelper.GSON.fromJson(item.data, CompletionData.class);
+        var rendered = renderedDocs(data);
+        if (rendered.detail() != null) {
+            item.detail = rendered.detail();
+            if (data.plusOverloads != 0) {
+                item.detail += " (+" + data.plusOverloads + " overloads)";
+            }
+        }
+        if (rendered.markdown() != null) {
+            item.documentation = new MarkupContent(MarkupKind.Markdown, rendered.markdown());
+        }
+    }
+
+    /**
+     * Render the docs of every type imported by {@code file} into {@link DocCache}, so resolving
+     * completion items for those types is a lookup by the time the user asks for them.
+     */
+    public void prewarmImportedDocs(Path file) {
+        var root = compiler.parse(file).root();
+        var members = 0;
+        for (var imp : root.getImports()) {
+            var name = imp.getQualifiedIdentifier().toString();
+            if (imp.isStatic()) {
+                name = name.substring(0, name.lastIndexOf('.'));
+            } else if (name.endsWith(".*")) {
+                continue;
+            }
+            var type = typeIndexRouter.typeInfo(name);
+            if (type.isEmpty()) continue;
+            var data = new CompletionData();
+            data.className = name;
+            renderedDocs(data);
+            for (var member : type.get().members) {
+                if (!name.equals(member.ownerType) || member.synthetic) continue;
+                if (members++ >= MAX_PREWARM_MEMBERS) return;
+                data = new CompletionData();
+                data.className = member.ownerType;
+                data.memberName = member.name;
+                if (member.kind == CompletionItemKind.Method) {
+                    data.erasedParameterTypes =
+                            member.erasedParameterTypes == null ? new String[0] : member.erasedParameterTypes;
+                }
+                renderedDocs(data);
+            }
+        }
+    }
+
+    private DocCache.Rendered renderedDocs(CompletionData data) {
         var source = compiler.findAnywhere(data.className);
-        if (source.isEmpty()) return;
-        var task = compiler.parse(source.get());
+        if (source.isEmpty()) return DocCache.NONE;
+        var key = DocCache.symbolKey(data.className, data.memberName, data.erasedParameterTypes);
+        return DocCache.get(source.get(), key, () -> renderDocs(source.get(), data));
+    }
+
+    private DocCache.Rendered renderDocs(JavaFileObject source, CompletionData data) {
+        var task = compiler.parse(source);
         Tree tree;
         try {
             tree = findItem(task, data);
@@ -186,14 +244,9 @@ public class CompletionProvider {
                     String.format(
                             "Skip completion item resolve for unresolved member %s#%s",
                             data.className, data.memberName));
-            return;
+            return DocCache.NONE;
         }
-        resolveDetail(item, data, tree);
-        var path = Trees.instance(task.task()).getPath(task.root(), tree);
-        if (path == null) return;
-        var docTree = DocTrees.instance(task.task()).getDocCommentTree(path);
-        if (docTree == null) return;
-        item.documentation = MarkdownHelper.asMarkupContent(docTree);
+        return DocCache.render(task, tree);
     }
 
     public CompletionList complete(Path file, int line, int column) {
@@ -813,26 +866,6 @@ public class CompletionProvider {
         return false;
     }
 
-    private void resolveDetail(CompletionItem item, CompletionData data, Tree tree) {
-        if (tree instanceof MethodTree method) {
-            var parameters = new StringJoiner(", ");
-            for (var p : method.getParameters()) {
-                parameters.add(p.getType() + " " + p.getName());
-            }
-            item.detail = method.getReturnType() + " " + method.getName() + "(" + parameters + ")";
-            if (!method.getThrows().isEmpty()) {
-                var exceptions = new StringJoiner(", ");
-                for (var e : method.getThrows()) {
-                    exceptions.add(e.toString());
-                }
-                item.detail += " throws " + exceptions;
-            }
-            if (data.plusOverloads != 0) {
-                item.detail += " (+" + data.plusOverloads + " overloads)";
-            }
-        }
-    }
-
     private Tree findItem(ParseTask task, CompletionData data) {
         if (data.erasedParameterTypes != null) {
             return FindHelper.findMethod(task, data.className, data.memberName, data.erasedParameterTypes);
@@ -1397,8 +1430,10 @@ public class CompletionProvider {
                 uniques.add(item.detail);
             }
         }
-        for (var className : compiler.publicTopLevelTypes()) {
-            if (!StringSearch.matchesPartialName(TypeNames.simpleName(className), partial)) continue;
+        var candidates = compiler.topLevelTypesMatching(partial);
+        // Stable, so within each tier the index's order (prefix matches first) is kept
+        candidates.sort(Comparator.comparingInt(className -> classProximity(root, className)));
+        for (var className : candidates) {
             if (!uniques.add(className)) {
                 continue;
             }
@@ -1422,13 +1457,33 @@ public class CompletionProvider {
     }
 
     private void applyClassSortPriority(CompilationUnitTree root, String className, CompletionItem item) {
-        var imported = isDirectlyImported(root, className);
-        var samePackage = isSamePackageTopLevel(root, className);
-        var javaLang = className.startsWith("java.lang.");
-        var priority = (imported || samePackage || javaLang) ? Priority.IMPORTED_CLASS : Priority.NOT_IMPORTED_CLASS;
+        var priority =
+                switch (classProximity(root, className)) {
+                    case 0 -> Priority.IMPORTED_CLASS;
+                    case 1 -> Priority.NEARBY_CLASS;
+                    default -> Priority.NOT_IMPORTED_CLASS;
+                };
         item.sortText = sortKey(priority, item.label);
     }
 
+    /**
+     * 0 for classes usable without an import (imported, same package or java.lang), 1 for classes in a
+     * package that shares its first two segments with this file's, 2 for the rest.
+     */
+    private int classProximity(CompilationUnitTree root, String className) {
+        if (isDirectlyImported(root, className)
+                || isSamePackageTopLevel(root, className)
+                || className.startsWith("java.lang.")) {
+            return 0;
+        }
+        var packageName = Objects.toString(root.getPackageName(), "");
+        var firstDot = packageName.indexOf('.');
+        var secondDot = firstDot < 0 ? -1 : packageName.indexOf('.', firstDot + 1);
+        var projectPackage = secondDot < 0 ? packageName : packageName.substring(0, secondDot);
+        if (!projectPackage.isEmpty() && className.startsWith(projectPackage + ".")) return 1;
+        return 2;
+    }
+
     private boolean isDirectlyImported(CompilationUnitTree root, String className) {
         for (var i : root.getImports()) {
             if (i.isStatic()) continue;
@@ -1899,6 +1954,7 @@ public class CompletionProvider {
         static final int METHOD = iota++;
         static final int INHERITED_METHOD = iota++;
         static final int IMPORTED_CLASS = iota++;
+        static final int NEARBY_CLASS = iota++;
         static final int NOT_IMPORTED_CLASS = iota++;
         static final int KEYWORD = iota++;
         static final int PACKAGE_MEMBER = iota++;
@@ -3,23 +3,336 @@ package org.javacs.provider;
 import com.sun.source.tree.*;
 import com.sun.source.util.*;
 import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.StringJoiner;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import javax.lang.model.element.*;
 import javax.lang.model.type.*;
 import java.util.logging.Logger;
 import org.javacs.*;
+import org.javacs.index.IndexedMember;
+import org.javacs.index.IndexedType;
+import org.javacs.index.TypeIndexRouter;
 import org.javacs.lsp.*;
+import org.javacs.resolve.ParseTypeResolver;
 
+/**
+ * Hover tries the parse tree and the type indexes first, and only compiles the file when that path
+ * can't name the symbol under the cursor with certainty.
+ *
+ * <p>The index path answers declared workspace members, workspace classes and typed locals, which
+ * covers most hovers while editing. Anything that needs inference or isn't in the workspace index
+ * ({@code var}, lambdas, overloads, JDK and jar members, Lombok accessors, interfaces whose members
+ * carry implicit modifiers) goes to javac, so both paths render the same text. The share of hovers
+ * answered without a compile is counted as {@code hover.index} in {@link CacheAudit}.
+ */
 public class HoverProvider {
     private static final Logger LOG = Logger.getLogger("main");
+    static final String INDEX_METRIC = "hover.index";
+    private static final Pattern QUALIFIER = Pattern.compile("\\b(?:[\\w$]+\\.)+(?=[\\w$])");
+
     final CompilerProvider compiler;
+    private final TypeIndexRouter index;
 
     public HoverProvider(CompilerProvider compiler) {
+        this(compiler, TypeIndexRouter.EMPTY);
+    }
+
+    public HoverProvider(CompilerProvider compiler, TypeIndexRouter index) {
         this.compiler = compiler;
+        this.index = index == null ? TypeIndexRouter.EMPTY : index;
+    }
+
+    /** Result of the index path; {@code resolved == false} means the compile path has to decide. */
+    private record IndexedHover(boolean resolved, MarkupContent content) {
+        static final IndexedHover AMBIGUOUS = new IndexedHover(false, null);
+        static final IndexedHover NOTHING = new IndexedHover(true, null);
     }
 
     public MarkupContent hover(Path file, int line, int column) {
+        var indexed = hoverFromIndex(file, line, column);
+        if (indexed.resolved()) {
+            CacheAudit.hit(INDEX_METRIC);
+            return indexed.content();
+        }
+        CacheAudit.miss(INDEX_METRIC);
+        return hoverFromCompile(file, line, column);
+    }
+
+    private IndexedHover hoverFromIndex(Path file, int line, int column) {
+        var start = System.currentTimeMillis();
+        var resolved = false;
+        try {
+            var parse = compiler.parse(file);
+            var root = parse.root();
+            var cursor = FileStore.offset(root.getSourceFile().getCharContent(true).toString(), line, column);
+            var path = new FindNameAt(parse).scan(root, (long) cursor);
+            if (path == null) {
+                resolved = true;
+                return IndexedHover.NOTHING;
+            }
+            var markdown = new IndexHover(parse, path, cursor).render();
+            if (markdown == null) return IndexedHover.AMBIGUOUS;
+            resolved = true;
+            return new IndexedHover(true, new MarkupContent(MarkupKind.Markdown, markdown));
+        } catch (java.io.IOException | RuntimeException e) {
+            LOG.fine(String.format("[perf] hover_index_skip file=%s reason=%s message=%s",
+                    file.getFileName(), e.getClass().getSimpleName(), e.getMessage()));
+            return IndexedHover.AMBIGUOUS;
+        } finally {
+            LOG.info(String.format("[cache] hover:index %s %dms",
+                    resolved ? "hit" : "miss", System.currentTimeMillis() - start));
+        }
+    }
+
+    /**
+     * Resolves one hover from the parse tree. Every method returns {@code null} when the answer
+     * isn't certain, which sends the request to javac.
+     */
+    private final class IndexHover {
+        private final ParseTask parse;
+        private final TreePath path;
+        private final ParseTypeResolver resolver;
+
+        IndexHover(ParseTask parse, TreePath path, long cursor) {
+            this.parse = parse;
+            this.path = path;
+            this.resolver = new ParseTypeResolver(parse, compiler, index, cursor);
+        }
+
+        String render() {
+            // javac names members of anonymous classes without a package line
+            for (var p = path; p.getParentPath() != null; p = p.getParentPath()) {
+                if (p.getLeaf() instanceof ClassTree && p.getParentPath().getLeaf() instanceof NewClassTree) {
+                    return null;
+                }
+            }
+            var leaf = path.getLeaf();
+            var parent = path.getParentPath() == null ? null : path.getParentPath().getLeaf();
+            var invoked = parent instanceof MethodInvocationTree invoke && invoke.getMethodSelect() == leaf;
+            if (leaf instanceof IdentifierTree id) {
+                var name = id.getName().toString();
+                if (invoked) {
+                    var owner = resolver.currentEnclosingTypeName();
+                    if (owner.isEmpty()) return null;
+                    var overloads = index.methodOverloads(owner.get(), name, false);
+                    if (overloads.isEmpty()) overloads = index.methodOverloads(owner.get(), name, true);
+                    return method(only(overloads));
+                }
+                var local = resolver.resolveVisibleDeclaration(name);
+                if (local.isPresent()) {
+                    return local.get().getLeaf() instanceof VariableTree variable ? local(variable) : null;
+                }
+                var field = resolver.resolveInheritedFieldMember(name);
+                if (field.isPresent()) return field(field.get());
+                return index.resolveType(name, parse.root()).map(this::type).orElse(null);
+            }
+            if (leaf instanceof MemberSelectTree select) {
+                var receiver = resolver.resolveExpression(select.getExpression());
+                if (receiver.isEmpty() || receiver.get().arrayType()) return null;
+                var owner = receiver.get().qualifiedType();
+                var name = select.getIdentifier().toString();
+                if (invoked) {
+                    return method(only(index.methodOverloads(owner, name, receiver.get().staticContext())));
+                }
+                return index.member(owner, name, receiver.get().staticContext())
+                        .filter(m -> m.kind == CompletionItemKind.Field || m.kind == CompletionItemKind.EnumMember)
+                        .map(this::field)
+                        .orElse(null);
+            }
+            if (leaf instanceof MethodTree declaration) {
+                var owner = resolver.currentEnclosingTypeName();
+                if (owner.isEmpty() || declaration.getName().contentEquals("<init>")) return null;
+                var isStatic = declaration.getModifiers().getFlags().contains(Modifier.STATIC);
+                var declaredTypes = declaration.getParameters().stream()
+                        .map(p -> String.valueOf(p.getType()))
+                        .toList();
+                var matching = index.methodOverloads(owner.get(), declaration.getName().toString(), isStatic).stream()
+                        .filter(m -> owner.get().equals(m.ownerType))
+                        .filter(m -> m.declaredParameterTypes != null
+                                && List.of(m.declaredParameterTypes).equals(declaredTypes))
+                        .toList();
+                return method(only(matching));
+            }
+            if (leaf instanceof VariableTree variable) {
+                if (!(parent instanceof ClassTree)) return local(variable);
+                var owner = resolver.currentEnclosingTypeName();
+                if (owner.isEmpty()) return null;
+                var isStatic = variable.getModifiers().getFlags().contains(Modifier.STATIC);
+                return index.member(owner.get(), variable.getName().toString(), isStatic)
+                        .filter(m -> owner.get().equals(m.ownerType))
+                        .map(this::field)
+                        .orElse(null);
+            }
+            if (leaf instanceof ClassTree) {
+                return resolver.currentEnclosingTypeName().flatMap(index::typeInfo).map(this::type).orElse(null);
+            }
+            return null;
+        }
+
+        private String method(IndexedMember method) {
+            if (!declaredInWorkspace(method) || method.kind != CompletionItemKind.Method) return null;
+            var owner = index.typeInfo(method.ownerType);
+            if (owner.isEmpty() || owner.get().kind == CompletionItemKind.Interface) return null;
+            var declaringFile = parseOf(owner.get());
+            if (declaringFile == null) return null;
+            // The index only picks the declaration; it refreshes in the background, so an overload it
+            // hasn't seen yet means it may have picked the wrong one
+            if (!indexedAllOverloads(declaringFile, method)) return null;
+            var tree = FindHelper.findMethod(declaringFile, method.ownerType, method.name, method.erasedParameterTypes);
+
+            // The signature comes from the current parse, which may be newer than the index
+            var sb = new StringBuilder();
+            appendModifiers(sb, tree.getModifiers().getFlags());
+            if (!tree.getTypeParameters().isEmpty()) {
+                var tp = new StringJoiner(", ");
+                for (var t : tree.getTypeParameters()) tp.add(t.getName());
+                sb.append("<").append(tp).append("> ");
+            }
+            var returnType = tree.getReturnType() == null ? null : simpleTypeText(tree.getReturnType().toString());
+            if (returnType == null) return null;
+            sb.append(returnType).append(" ").append(method.name).append("(");
+            var params = new StringJoiner(", ");
+            for (var parameter : tree.getParameters()) {
+                var type = parameter.getType() == null ? null : simpleTypeText(parameter.getType().toString());
+                if (type == null) return null;
+                params.add(type + " " + parameter.getName());
+            }
+            sb.append(params).append(")");
+            if (!tree.getThrows().isEmpty()) {
+                // javac prints thrown types fully qualified
+                var thrown = new StringJoiner(", ");
+                for (var t : tree.getThrows()) {
+                    var qualified = index.resolveTypeName(t.toString(), declaringFile.root());
+                    if (qualified.isEmpty()) return null;
+                    thrown.add(qualified.get());
+                }
+                sb.append(" throws ").append(thrown);
+            }
+            return markdown(method.ownerType, sb.toString(), docOf(declaringFile, tree));
+        }
+
+        private String field(IndexedMember field) {
+            if (!declaredInWorkspace(field)) return null;
+            var owner = index.typeInfo(field.ownerType);
+            if (owner.isEmpty()) return null;
+            var declaringFile = parseOf(owner.get());
+            if (declaringFile == null) return null;
+            var tree = FindHelper.findField(declaringFile, field.ownerType, field.name);
+            var type = tree.getType() == null ? null : simpleTypeText(tree.getType().toString());
+            if (type == null) return null;
+            return markdown(field.ownerType, type + " " + field.name, docOf(declaringFile, tree));
+        }
+
+        private String local(VariableTree variable) {
+            // Without a declared type (var, implicit lambda parameters) only javac knows what to print
+            var type = variable.getType() == null ? null : simpleTypeText(variable.getType().toString());
+            if (type == null || type.equals("var")) return null;
+            var owner = resolver.currentEnclosingTypeName();
+            if (owner.isEmpty()) return null;
+            return markdown(owner.get(), type + " " + variable.getName(), "");
+        }
+
+        private String type(IndexedType type) {
+            if (type.provenance != IndexedMember.Provenance.WORKSPACE || type.sourcePath == null) return null;
+            var declaringFile = parseOf(type);
+            if (declaringFile == null) return null;
+            var tree = FindHelper.findType(declaringFile, type.qualifiedName);
+            // Records, enums, interfaces and annotations pick up implicit modifiers the index doesn't store
+            if (tree == null || tree.getKind() != Tree.Kind.CLASS) return null;
+            var enclosing = type.qualifiedName;
+            if (!type.enclosingTypes.isEmpty()) {
+                var outer = index.typeInfo(enclosing.substring(0, enclosing.lastIndexOf('.')));
+                if (outer.isEmpty() || outer.get().kind == CompletionItemKind.Interface) return null;
+                enclosing = outer.get().qualifiedName;
+            }
+            var sb = new StringBuilder();
+            appendModifiers(sb, tree.getModifiers().getFlags());
+            sb.append("class ").append(tree.getSimpleName());
+            return markdown(enclosing, sb.toString(), docOf(declaringFile, tree));
+        }
+
+        /** True if the index knows every method the current parse declares with {@code method}'s name. */
+        private boolean indexedAllOverloads(ParseTask declaringFile, IndexedMember method) {
+            var declared = 0;
+            for (var member : FindHelper.findType(declaringFile, method.ownerType).getMembers()) {
+                if (member instanceof MethodTree m && m.getName().contentEquals(method.name)) declared++;
+            }
+            var indexed = new HashSet<String>();
+            for (var isStatic : List.of(false, true)) {
+                for (var m : index.methodOverloads(method.ownerType, method.name, isStatic)) {
+                    if (method.ownerType.equals(m.ownerType) && m.origin == IndexedMember.Origin.DECLARED && !m.synthetic) {
+                        indexed.add(String.join(",", m.erasedParameterTypes == null ? new String[0] : m.erasedParameterTypes));
+                    }
+                }
+            }
+            return declared == indexed.size();
+        }
+
+        private ParseTask parseOf(IndexedType type) {
+            if (type.sourcePath == null) return null;
+            if (type.sourcePath.equals(Path.of(parse.root().getSourceFile().toUri()))) return parse;
+            return compiler.parse(type.sourcePath);
+        }
+
+        private static boolean declaredInWorkspace(IndexedMember member) {
+            return member != null
+                    && member.provenance == IndexedMember.Provenance.WORKSPACE
+                    && member.origin == IndexedMember.Origin.DECLARED
+                    && !member.synthetic;
+        }
+
+        private static IndexedMember only(List<IndexedMember> candidates) {
+            return candidates.size() == 1 ? candidates.get(0) : null;
+        }
+
+        private static void appendModifiers(StringBuilder sb, Set<Modifier> modifiers) {
+            // javac lists modifiers in declaration order of the enum
+            var sorted = modifiers.stream()
+                    .sorted(Comparator.naturalOrder())
+                    .map(m -> m.toString().toLowerCase())
+                    .collect(Collectors.joining(" "));
+            if (!sorted.isEmpty()) sb.append(sorted).append(" ");
+        }
+
+        private static String docOf(ParseTask declaringFile, Tree declaration) {
+            var trees = Trees.instance(declaringFile.task());
+            var declarationPath = trees.getPath(declaringFile.root(), declaration);
+            if (declarationPath == null) return "";
+            var doc = DocTrees.instance(declaringFile.task()).getDocComment(declarationPath);
+            return doc == null || doc.isEmpty() ? "" : MarkdownHelper.asMarkdown(doc.trim());
+        }
+    }
+
+    /**
+     * Print source type text the way {@link #simpleTypeName} prints the attributed type, or
+     * {@code null} when only the attributed type would be right (wildcard bounds, annotations).
+     */
+    static String simpleTypeText(String declared) {
+        if (declared == null || declared.isBlank() || declared.indexOf('@') >= 0 || declared.contains("? ")) {
+            return null;
+        }
+        return QUALIFIER.matcher(declared.replace("...", "[]")).replaceAll("");
+    }
+
+    private static String markdown(String enclosingType, String signature, String doc) {
+        var markdown = new StringBuilder();
+        var lastDot = enclosingType.lastIndexOf('.');
+        if (lastDot >= 0) {
+            markdown.append("**").append(enclosingType, 0, lastDot).append("**\n\n");
+        }
+        markdown.append("```java\n").append(signature).append("\n```");
+        if (!doc.isEmpty()) {
+            markdown.append("\n\n---\n\n").append(doc);
+        }
+        return markdown.toString();
+    }
+
+    private MarkupContent hoverFromCompile(Path file, int line, int column) {
         var start = System.currentTimeMillis();
         try (var task = compiler.compile(file)) {
             var root = task.root(file);
@@ -233,17 +546,18 @@ public class HoverProvider {
         var sourceFile = compiler.findAnywhere(className);
         if (sourceFile.isEmpty()) return "";
 
-        try {
-            var parse = compiler.parse(sourceFile.get());
-            var erasedTypes = FindHelper.erasedParameterTypes(task, method);
-            var methodTree = FindHelper.findMethod(
-                    parse, className, method.getSimpleName().toString(), erasedTypes);
-            var path = Trees.instance(parse.task()).getPath(parse.root(), methodTree);
-            var docTree = DocTrees.instance(parse.task()).getDocCommentTree(path);
-            return docTree != null ? MarkdownHelper.asMarkdown(docTree) : "";
-        } catch (RuntimeException e) {
-            return "";
-        }
+        var erasedTypes = FindHelper.erasedParameterTypes(task, method);
+        var methodName = method.getSimpleName().toString();
+        var key = DocCache.symbolKey(className, methodName, erasedTypes);
+        return markdownOrEmpty(DocCache.get(sourceFile.get(), key, () -> {
+            try {
+                var parse = compiler.parse(sourceFile.get());
+                var methodTree = FindHelper.findMethod(parse, className, methodName, erasedTypes);
+                return DocCache.render(parse, methodTree);
+            } catch (RuntimeException e) {
+                return DocCache.NONE;
+            }
+        }));
     }
 
     private String typeDocFromSource(TypeElement type, CompileTask task) {
@@ -251,16 +565,19 @@ public class HoverProvider {
         var sourceFile = compiler.findAnywhere(className);
         if (sourceFile.isEmpty()) return "";
 
-        try {
-            var parse = compiler.parse(sourceFile.get());
-            var typeTree = FindHelper.findType(parse, className);
-            if (typeTree == null) return "";
-            var path = Trees.instance(parse.task()).getPath(parse.root(), typeTree);
-            if (path == null) return "";
-            var docTree = DocTrees.instance(parse.task()).getDocCommentTree(path);
-            return docTree != null ? MarkdownHelper.asMarkdown(docTree) : "";
-        } catch (RuntimeException e) {
-            return "";
-        }
+        var key = DocCache.symbolKey(className, null, null);
+        return markdownOrEmpty(DocCache.get(sourceFile.get(), key, () -> {
+            try {
+                var parse = compiler.parse(sourceFile.get());
+                var typeTree = FindHelper.findType(parse, className);
+                return typeTree == null ? DocCache.NONE : DocCache.render(parse, typeTree);
+            } catch (RuntimeException e) {
+                return DocCache.NONE;
+            }
+        }));
+    }
+
+    private static String markdownOrEmpty(DocCache.Rendered rendered) {
+        return rendered.markdown() == null ? "" : rendered.markdown();
     }
 }
@@ -1,10 +1,17 @@
 package org.javacs.provider;
+import com.sun.source.tree.CompilationUnitTree;
 import com.sun.source.util.TreePath;
+import com.sun.source.util.TreePathScanner;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.logging.Logger;
 import javax.lang.model.element.Element;
 import javax.lang.model.element.ElementKind;
@@ -14,6 +21,7 @@ import org.javacs.CompileTask;
 import org.javacs.CompilerProvider;
 import org.javacs.FindHelper;
 import org.javacs.LombokAnnotations;
+import org.javacs.lsp.CancelToken;
 import org.javacs.lsp.Location;
 import org.javacs.navigation.FindLombokReferences;
 import org.javacs.navigation.FindReferences;
@@ -24,65 +32,90 @@ public class ReferenceProvider {
     private final CompilerProvider compiler;
     private final Path file;
     private final int line, column;
+    private final Consumer<List<Location>> partialResults;
 
     public static final List<Location> NOT_SUPPORTED = List.of();
 
+    /** Searches with more candidate files than this compile them in chunks of this size. */
+    static final int CHUNK_SIZE = 64;
+
     private static final Logger LOG = Logger.getLogger("main");
 
     public ReferenceProvider(CompilerProvider compiler, Path file, int line, int column) {
+        this(compiler, file, line, column, found -> {});
+    }
+
+    /**
+     * {@code partialResults} receives the locations of each chunk as soon as it is scanned, when the
+     * search is large enough to be chunked. {@link #find()} still returns every location.
+     */
+    public ReferenceProvider(
+            CompilerProvider compiler, Path file, int line, int column, Consumer<List<Location>> partialResults) {
         this.compiler = compiler;
         this.file = file;
         this.line = line;
         this.column = column;
+        this.partialResults = partialResults;
     }
 
     public List<Location> find() {
         var start = System.currentTimeMillis();
+        try {
+            return search();
+        } finally {
+            LOG.info(String.format("[cache] references:total %dms", System.currentTimeMillis() - start));
+        }
+    }
+
+    /**
+     * Locals are found in the compile of the file itself. Members and types are looked up in that
+     * compile, which is closed before the search compiles the files that may refer to them.
+     */
+    private List<Location> search() {
+        Supplier<List<Location>> search;
         try (var task = compiler.compile(file)) {
             var element = NavigationHelper.findElement(task, file, line, column);
-            if (element == null) { LOG.info(String.format("[cache] references:total %dms", System.currentTimeMillis() - start)); return NOT_SUPPORTED; }
-            if (NavigationHelper.isMember(element)) {
-                var parentClass = (TypeElement) element.getEnclosingElement();
-                var className = parentClass.getQualifiedName().toString();
-                var memberName = element.getSimpleName().toString();
-                LOG.info(String.format("[ref] isMember kind=%s name=%s in=%s", element.getKind(), memberName, className));
-                if (memberName.equals("<init>")) {
-                    memberName = parentClass.getSimpleName().toString();
-                }
-                // Lombok gate first — skip all Lombok logic when not on classpath
-                if (compiler.lombokPresentOnClasspath()) {
-                    LOG.info("[ref] lombokOnClasspath=true");
-                    var names = lombokSearchNames(element, memberName, task);
-                    if (!names.isEmpty()) {
-                        task.close();
-                        LOG.info(String.format("[cache] references:total %dms", System.currentTimeMillis() - start));
-                        return findLombokReferences(className, names);
-                    }
-                    LOG.info("[ref] names empty, falling back to findMemberReferences");
-                }
-                task.close();
-                LOG.info(String.format("[cache] references:total %dms", System.currentTimeMillis() - start));
-                return findMemberReferences(className, memberName);
-            }
-            if (NavigationHelper.isLocal(element)) {
-                LOG.info(String.format("[cache] references:total %dms", System.currentTimeMillis() - start));
+            if (element == null) return NOT_SUPPORTED;
+            if (NavigationHelper.isLocal(element) && !NavigationHelper.isMember(element)) {
                 return findReferences(task);
             }
-            if (NavigationHelper.isType(element)) {
-                var type = (TypeElement) element;
-                var className = type.getQualifiedName().toString();
-                task.close();
-                LOG.info(String.format("[cache] references:total %dms", System.currentTimeMillis() - start));
-                return findTypeReferences(className);
+            search = workspaceSearch(element, task);
+        }
+        return search.get();
+    }
+
+    private Supplier<List<Location>> workspaceSearch(Element element, CompileTask task) {
+        if (NavigationHelper.isMember(element)) {
+            var parentClass = (TypeElement) element.getEnclosingElement();
+            var className = parentClass.getQualifiedName().toString();
+            var memberName = element.getSimpleName().toString();
+            LOG.info(String.format("[ref] isMember kind=%s name=%s in=%s", element.getKind(), memberName, className));
+            if (memberName.equals("<init>")) {
+                memberName = parentClass.getSimpleName().toString();
             }
-            LOG.info(String.format("[cache] references:total %dms", System.currentTimeMillis() - start));
-            return NOT_SUPPORTED;
+            // Lombok gate first — skip all Lombok logic when not on classpath
+            if (compiler.lombokPresentOnClasspath()) {
+                LOG.info("[ref] lombokOnClasspath=true");
+                var names = lombokSearchNames(element, memberName, task);
+                if (!names.isEmpty()) {
+                    return () -> findLombokReferences(className, names);
+                }
+                LOG.info("[ref] names empty, falling back to findMemberReferences");
+            }
+            var name = memberName;
+            return () -> findMemberReferences(className, name);
+        }
+        if (NavigationHelper.isType(element)) {
+            var className = ((TypeElement) element).getQualifiedName().toString();
+            return () -> findTypeReferences(className);
         }
+        return () -> NOT_SUPPORTED;
     }
 
     private List<Location> findTypeReferences(String className) {
         var files = compiler.findTypeReferences(className);
         if (files.length == 0) return List.of();
+        if (files.length > CHUNK_SIZE) return findChunked(files, file, this::elementFinder);
         try (var task = compiler.compileFresh(files)) {
             return findReferences(task);
         }
@@ -91,24 +124,79 @@ public class ReferenceProvider {
     private List<Location> findMemberReferences(String className, String memberName) {
         var files = compiler.findMemberReferences(className, memberName);
         if (files.length == 0) return List.of();
+        if (files.length > CHUNK_SIZE) return findChunked(files, file, this::elementFinder);
         try (var task = compiler.compileFresh(files)) {
             return findReferences(task);
         }
     }
 
     private List<Location> findReferences(CompileTask task) {
+        var finder = elementFinder(task);
+        if (finder == null) return List.of();
+        return scan(task, task.roots, finder);
+    }
+
+    /** Elements are per compile, so every chunk looks the element up again in its own task. */
+    private TreePathScanner<Void, List<TreePath>> elementFinder(CompileTask task) {
         var element = NavigationHelper.findElement(task, file, line, column);
+        if (element == null) return null;
+        return new FindReferences(task, element);
+    }
+
+    private static List<Location> scan(
+            CompileTask task, List<CompilationUnitTree> roots, TreePathScanner<Void, List<TreePath>> finder) {
         var paths = new ArrayList<TreePath>();
-        for (var root : task.roots) {
-                new FindReferences(task, element).scan(root, paths);
+        var cancel = CancelToken.current();
+        for (var root : roots) {
+            cancel.checkCancelled();
+            finder.scan(root, paths);
         }
-        var locations = new ArrayList<Location>();
+        var locations = new ArrayList<Location>(paths.size());
         for (var p : paths) {
             locations.add(FindHelper.location(task, p));
         }
         return locations;
     }
 
+    /**
+     * Compile the candidates in chunks of {@link #CHUNK_SIZE} instead of all at once, and report each
+     * chunk's locations as it finishes. When the finder needs the element under the cursor, every chunk
+     * also compiles {@code anchor}, but only the chunk that has it as a candidate scans it.
+     */
+    private List<Location> findChunked(
+            Path[] files, Path anchor, Function<CompileTask, TreePathScanner<Void, List<TreePath>>> finders) {
+        var chunks = new ArrayList<List<Path>>();
+        var scansAnchor = new ArrayList<Boolean>();
+        for (var start = 0; start < files.length; start += CHUNK_SIZE) {
+            var chunk = new ArrayList<>(Arrays.asList(files).subList(start, Math.min(files.length, start + CHUNK_SIZE)));
+            var candidate = anchor == null || chunk.contains(anchor);
+            if (!candidate) chunk.add(anchor);
+            chunks.add(chunk);
+            scansAnchor.add(candidate);
+        }
+        LOG.info(String.format("[perf] references_chunked files=%d chunks=%d", files.length, chunks.size()));
+        var locations = new ArrayList<Location>();
+        compiler.<List<Location>>compileChunks(
+                chunks,
+                (index, task) -> {
+                    var finder = finders.apply(task);
+                    if (finder == null) return List.of();
+                    var roots = new ArrayList<CompilationUnitTree>(task.roots.size());
+                    for (var root : task.roots) {
+                        if (scansAnchor.get(index) || !Paths.get(root.getSourceFile().toUri()).equals(anchor)) {
+                            roots.add(root);
+                        }
+                    }
+                    return scan(task, roots, finder);
+                },
+                found -> {
+                    if (found.isEmpty()) return;
+                    locations.addAll(found);
+                    partialResults.accept(found);
+                });
+        return locations;
+    }
+
     private Set<String> lombokSearchNames(Element element, String memberName, CompileTask task) {
         var parent = element.getEnclosingElement();
         LOG.info(String.format("[ref] lombokSearchNames element.kind=%s memberName=%s", element.getKind(), memberName));
@@ -150,16 +238,11 @@ public class ReferenceProvider {
             }
         }
         if (files.isEmpty()) return List.of();
+        Function<CompileTask, TreePathScanner<Void, List<TreePath>>> finder =
+                task -> new FindLombokReferences(task, names, className);
+        if (files.size() > CHUNK_SIZE) return findChunked(files.toArray(Path[]::new), null, finder);
         try (var task = compiler.compileFresh(files.toArray(Path[]::new))) {
-            var paths = new ArrayList<TreePath>();
-            for (var root : task.roots) {
-                new FindLombokReferences(task, names, className).scan(root, paths);
-            }
-            var locations = new ArrayList<Location>();
-            for (var p : paths) {
-                locations.add(FindHelper.location(task, p));
-            }
-            return locations;
+            return scan(task, task.roots, finder.apply(task));
         }
     }
 }
@@ -7,6 +7,7 @@ import java.util.logging.Logger;
 import org.javacs.CompilerProvider;
 import org.javacs.ParseTask;
 import org.javacs.index.FindSymbolsMatching;
+import org.javacs.lsp.CancelToken;
 import org.javacs.lsp.SymbolInformation;
 
 public class SymbolProvider {
@@ -19,8 +20,12 @@ public class SymbolProvider {
 
     public List<SymbolInformation> findSymbols(String query, int limit) {
         LOG.info(String.format("Searching for `%s`...", query));
+        var indexed = compiler.searchSymbols(query, limit);
+        if (indexed.isPresent()) return indexed.get();
         var result = new ArrayList<SymbolInformation>();
+        var cancel = CancelToken.current();
         for (var file : compiler.search(query)) {
+            cancel.checkCancelled();
             // Parse the file and check class members for matches
             LOG.info(String.format("...%s contains text matches", file.getFileName()));
             var task = compiler.parse(file);
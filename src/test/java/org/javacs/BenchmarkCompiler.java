@@ -0,0 +1,52 @@
+package org.javacs;
+
+import com.sun.source.util.JavacTask;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import javax.tools.ToolProvider;
+import org.openjdk.jmh.annotations.*;
+
+/** One-file compiles against the project's own classpath, with and without javac context reuse. */
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+public class BenchmarkCompiler {
+
+    @State(Scope.Benchmark)
+    public static class CompilerState {
+        public SourceFileObject file =
+                new SourceFileObject(Paths.get("src/main/java/org/javacs/InferConfig.java").normalize());
+        public JavaCompilerService compiler = createCompiler();
+
+        private static JavaCompilerService createCompiler() {
+            LOG.info("Create new compiler...");
+
+            var workspaceRoot = Paths.get(".").normalize().toAbsolutePath();
+            FileStore.setWorkspaceRoots(Set.of(workspaceRoot));
+            var classPath = new InferConfig(workspaceRoot, Collections.emptySet()).classPath();
+            return new JavaCompilerService(
+                    classPath, Collections.emptySet(), Collections.emptySet(), Collections.emptySet());
+        }
+    }
+
+    /** A new javac context per compile, as ReusableCompiler did before it pooled contexts. */
+    @Benchmark
+    public void compileFreshContext(CompilerState state) throws IOException {
+        var options = CompileBatch.options(state.compiler.classPath, state.compiler.addExports, state.compiler.extraArgs);
+        var task = (JavacTask) ToolProvider.getSystemJavaCompiler()
+                .getTask(null, state.compiler.fileManager, d -> {}, options, null, List.of(state.file));
+        task.analyze();
+    }
+
+    @Benchmark
+    public void compileReusedContext(CompilerState state) {
+        state.compiler.compileFresh(state.file.path).close();
+    }
+
+    private static final Logger LOG = Logger.getLogger("main");
+}
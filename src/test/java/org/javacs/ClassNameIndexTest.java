@@ -0,0 +1,69 @@
+package org.javacs;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+public class ClassNameIndexTest {
+    private final ClassNameIndex index =
+            ClassNameIndex.of(
+                    List.of(
+                            "java.util.HashMap",
+                            "java.util.HashSet",
+                            "java.util.IdentityHashMap",
+                            "java.util.concurrent.ConcurrentHashMap",
+                            "java.net.URLConnection",
+                            "java.lang.NullPointerException",
+                            "javax.swing.JTable"));
+
+    @Test
+    public void prefix() {
+        assertThat(index.matching("Hash"), contains("java.util.HashMap", "java.util.HashSet"));
+        assertThat(index.matching("hash"), empty());
+        assertThat(index.matching(""), hasSize(7));
+    }
+
+    @Test
+    public void camelHumps() {
+        assertThat(index.matching("HM"), contains("java.util.HashMap"));
+        assertThat(index.matching("HaMa"), contains("java.util.HashMap"));
+        assertThat(index.matching("NPE"), contains("java.lang.NullPointerException"));
+        assertThat(index.matching("CHM"), contains("java.util.concurrent.ConcurrentHashMap"));
+        assertThat(index.matching("URLC"), contains("java.net.URLConnection"));
+        assertThat(index.matching("HS"), contains("java.util.HashSet"));
+        assertThat(index.matching("HMx"), empty());
+    }
+
+    @Test
+    public void prefixMatchesComeBeforeHumps() {
+        var withJTable = ClassNameIndex.of(List.of("lib.JTree", "lib.JsonTable", "lib.JTable"));
+        assertThat(withJTable.matching("JT"), contains("lib.JTable", "lib.JTree", "lib.JsonTable"));
+    }
+
+    @Test
+    public void subsequenceOnlyWhenNothingElseMatches() {
+        assertThat(index.matching("Hmap"), contains("java.util.HashMap"));
+        assertThat(index.matching("Idmap"), contains("java.util.IdentityHashMap"));
+        assertThat(index.matching("Hm"), empty());
+    }
+
+    @Test
+    public void workspaceNamesUpdateWithEachFile() {
+        var file = Paths.get("/workspace/src/app/HashCache.java");
+        index.updateWorkspaceFile(file, "app.HashCache");
+        assertThat(index.matching("Hash"), contains("app.HashCache", "java.util.HashMap", "java.util.HashSet"));
+
+        index.updateWorkspaceFile(file, "moved.HashCache");
+        assertThat(index.matching("HC"), contains("moved.HashCache"));
+
+        index.updateWorkspaceFile(file, null);
+        assertThat(index.matching("HC"), empty());
+
+        index.replaceWorkspace(Map.of(Paths.get("/workspace/src/app/Hashes.java"), "app.Hashes"));
+        assertThat(index.matching("Hashe"), contains("app.Hashes"));
+    }
+}
@@ -0,0 +1,77 @@
+package org.javacs;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.jar.*;
+import org.junit.*;
+
+public class ClassPathCatalogTest {
+    private Path dir;
+
+    @Before
+    public void setup() throws Exception {
+        ClassPathCatalog.clear();
+        dir = Files.createTempDirectory("classpath-catalog-test-");
+    }
+
+    @After
+    public void teardown() throws Exception {
+        ClassPathCatalog.clear();
+        Files.walk(dir)
+                .sorted(Comparator.reverseOrder())
+                .forEach(p -> { try { Files.deleteIfExists(p); } catch (Exception e) {} });
+    }
+
+    private Path jar(String name, String classPath, String... entries) throws Exception {
+        var manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        if (classPath != null) manifest.getMainAttributes().put(Attributes.Name.CLASS_PATH, classPath);
+        var file = dir.resolve(name);
+        try (var out = new JarOutputStream(Files.newOutputStream(file), manifest)) {
+            for (var entry : entries) {
+                out.putNextEntry(new JarEntry(entry));
+                out.closeEntry();
+            }
+        }
+        return file;
+    }
+
+    @Test
+    public void topLevelClassesOfJarsAndTheirManifests() throws Exception {
+        var main = jar("main.jar", "lib/other.jar",
+                "a/B.class", "a/B$Inner.class", "a/package-info.class", "module-info.class",
+                "META-INF/versions/11/a/C.class", "a/notes.txt");
+        Files.createDirectories(dir.resolve("lib"));
+        jar("lib/other.jar", null, "x/Y.class");
+
+        assertThat(ScanClassPath.classPathTopLevelClasses(Set.of(main)), containsInAnyOrder("a.B", "x.Y"));
+    }
+
+    @Test
+    public void rescansOnlyChangedJarsAndSurvivesRestart() throws Exception {
+        var first = jar("first.jar", null, "a/First.class");
+        var second = jar("second.jar", null, "b/Second.class");
+        var classPath = Set.of(first, second);
+        ScanClassPath.classPathTopLevelClasses(classPath);
+
+        var file = dir.resolve("cache/catalog.bin");
+        ClassPathCatalog.save(file);
+        ClassPathCatalog.clear();
+        ClassPathCatalog.load(file);
+
+        var misses = CacheAudit.misses("classpath_catalog.jar");
+        assertThat(ScanClassPath.classPathTopLevelClasses(classPath), containsInAnyOrder("a.First", "b.Second"));
+        assertThat(CacheAudit.misses("classpath_catalog.jar"), equalTo(misses));
+
+        jar("second.jar", null, "b/Second.class", "b/Third.class");
+        Files.setLastModifiedTime(second, FileTime.fromMillis(System.currentTimeMillis() + 10_000));
+        assertThat(
+                ScanClassPath.classPathTopLevelClasses(classPath),
+                containsInAnyOrder("a.First", "b.Second", "b.Third"));
+        assertThat(CacheAudit.misses("classpath_catalog.jar"), equalTo(misses + 1));
+    }
+}
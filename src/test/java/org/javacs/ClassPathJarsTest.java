@@ -0,0 +1,145 @@
+package org.javacs;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.jar.*;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import org.junit.*;
+
+public class ClassPathJarsTest {
+    private Path dir;
+
+    @Before
+    public void setup() throws Exception {
+        dir = Files.createTempDirectory("classpath-jars-test-");
+    }
+
+    @After
+    public void teardown() throws Exception {
+        Files.walk(dir)
+                .sorted(Comparator.reverseOrder())
+                .forEach(p -> { try { Files.deleteIfExists(p); } catch (Exception e) {} });
+    }
+
+    /** A jar whose entries hold their own names; names starting with "stored:" aren't compressed. */
+    private Path jar(String name, String... entries) throws Exception {
+        var file = dir.resolve(name);
+        try (var out = new JarOutputStream(Files.newOutputStream(file))) {
+            for (var entry : entries) {
+                var stored = entry.startsWith("stored:");
+                var entryName = stored ? entry.substring("stored:".length()) : entry;
+                var bytes = contents(name, entryName);
+                var jarEntry = new JarEntry(entryName);
+                if (stored) {
+                    var crc = new CRC32();
+                    crc.update(bytes);
+                    jarEntry.setMethod(ZipEntry.STORED);
+                    jarEntry.setSize(bytes.length);
+                    jarEntry.setCrc(crc.getValue());
+                }
+                out.putNextEntry(jarEntry);
+                out.write(bytes);
+                out.closeEntry();
+            }
+        }
+        return file;
+    }
+
+    private static byte[] contents(String jar, String entry) {
+        return (jar + "!" + entry + " ").repeat(50).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String read(ClassPathJars jars, String relative) {
+        return jars.read(relative).map(bytes -> new String(bytes, StandardCharsets.UTF_8)).orElse(null);
+    }
+
+    @Test
+    public void readsStoredAndDeflatedEntries() throws Exception {
+        var lib = jar("lib.jar", "a/Deflated.class", "stored:a/Stored.class");
+        var jars = ClassPathJars.of(List.of(lib));
+
+        assertThat(jars.read("a/Deflated.class").get(), equalTo(contents("lib.jar", "a/Deflated.class")));
+        assertThat(jars.read("a/Stored.class").get(), equalTo(contents("lib.jar", "a/Stored.class")));
+        assertThat(jars.read("a/Missing.class"), equalTo(Optional.empty()));
+        assertThat(jars.rootOf("a/Stored.class"), equalTo(Optional.of(lib)));
+    }
+
+    @Test
+    public void firstRootWins() throws Exception {
+        var first = jar("first.jar", "a/Shared.class");
+        var second = jar("second.jar", "a/Shared.class", "b/Only.class");
+        var classes = Files.createDirectories(dir.resolve("classes"));
+        Files.createDirectories(classes.resolve("a"));
+        Files.write(classes.resolve("a/Shared.class"), "from classes".getBytes(StandardCharsets.UTF_8));
+
+        var jars = ClassPathJars.of(List.of(first, classes, second));
+        assertThat(read(jars, "a/Shared.class"), equalTo(new String(contents("first.jar", "a/Shared.class"), StandardCharsets.UTF_8)));
+        assertThat(jars.rootOf("b/Only.class"), equalTo(Optional.of(second)));
+
+        var classesFirst = ClassPathJars.of(List.of(classes, first, second));
+        assertThat(read(classesFirst, "a/Shared.class"), equalTo("from classes"));
+        assertThat(classesFirst.rootOf("a/Shared.class"), equalTo(Optional.of(classes)));
+    }
+
+    @Test
+    public void rebuiltJarIsReread() throws Exception {
+        var lib = jar("lib.jar", "a/Old.class");
+        var before = ClassPathJars.of(List.of(lib));
+        assertThat(before.rootOf("a/Old.class"), equalTo(Optional.of(lib)));
+        assertThat(ClassPathJars.of(List.of(lib)), sameInstance(before));
+
+        jar("lib.jar", "a/New.class", "a/Newer.class");
+        Files.setLastModifiedTime(lib, FileTime.fromMillis(Files.getLastModifiedTime(lib).toMillis() + 2_000));
+        var after = ClassPathJars.of(List.of(lib));
+        assertThat(after.rootOf("a/Old.class"), equalTo(Optional.empty()));
+        assertThat(read(after, "a/New.class"), equalTo(new String(contents("lib.jar", "a/New.class"), StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void evictedViewStillReads() throws Exception {
+        var lib = jar("lib.jar", "a/Kept.class");
+        var evicted = ClassPathJars.of(List.of(lib));
+        for (var i = 0; i < 8; i++) {
+            ClassPathJars.of(List.of(jar("other" + i + ".jar", "b/Other.class")));
+        }
+
+        // The mapping was closed with the view; reads go through ZipFile instead
+        assertThat(read(evicted, "a/Kept.class"), equalTo(new String(contents("lib.jar", "a/Kept.class"), StandardCharsets.UTF_8)));
+        assertThat(read(ClassPathJars.of(List.of(lib)), "a/Kept.class"), equalTo(new String(contents("lib.jar", "a/Kept.class"), StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void viewIsCheckedAgainOnlyAfterAChange() throws Exception {
+        var lib = jar("lib.jar", "a/Old.class");
+        var view = ClassPathJars.of(List.of(lib));
+        assertThat(view.current(), sameInstance(view));
+
+        jar("lib.jar", "a/New.class");
+        Files.setLastModifiedTime(lib, FileTime.fromMillis(Files.getLastModifiedTime(lib).toMillis() + 2_000));
+        assertThat(view.current(), sameInstance(view));
+
+        ClassPathJars.changed();
+        var after = view.current();
+        assertThat(after, not(sameInstance(view)));
+        assertThat(after.isCurrent(), equalTo(true));
+        assertThat(read(after, "a/New.class"), equalTo(new String(contents("lib.jar", "a/New.class"), StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void evictedViewIsNotCurrent() throws Exception {
+        var lib = jar("lib.jar", "a/Kept.class");
+        var evicted = ClassPathJars.of(List.of(lib));
+        for (var i = 0; i < 8; i++) {
+            ClassPathJars.of(List.of(jar("other" + i + ".jar", "b/Other.class")));
+        }
+
+        assertThat(evicted.isCurrent(), equalTo(false));
+        assertThat(evicted.current().isCurrent(), equalTo(true));
+    }
+}
@@ -0,0 +1,62 @@
+package org.javacs;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.nio.file.*;
+import java.util.*;
+import javax.tools.ToolProvider;
+import org.junit.*;
+
+public class ClassPathSwapTest {
+    private Path dir;
+
+    @Before
+    public void setup() throws Exception {
+        dir = Files.createTempDirectory("classpath-swap-test-");
+    }
+
+    @After
+    public void teardown() throws Exception {
+        Files.walk(dir)
+                .sorted(Comparator.reverseOrder())
+                .forEach(p -> { try { Files.deleteIfExists(p); } catch (Exception e) {} });
+    }
+
+    /** Compile {@code source}, declaring lib.{@code name}, into its own class directory. */
+    private Path classes(String name, String source) throws Exception {
+        var file = Files.createDirectories(dir.resolve("src-" + name + "/lib")).resolve(name + ".java");
+        Files.writeString(file, source);
+        var out = Files.createDirectories(dir.resolve("classes-" + name));
+        var status = ToolProvider.getSystemJavaCompiler().run(null, null, null, "-d", out.toString(), file.toString());
+        assertThat(status, equalTo(0));
+        return out;
+    }
+
+    @Test
+    public void swapUpdatesClassNamesInPlace() throws Exception {
+        var widgets = classes("Widget", "package lib; public class Widget {}");
+        var gadgets = classes("Gadget", "package lib; public class Gadget {}");
+        var compiler = new JavaCompilerService(Set.of(widgets), Set.of(), Set.of(), Set.of());
+        assertThat(compiler.topLevelTypesMatching("Widg"), contains("lib.Widget"));
+
+        assertThat(compiler.swapClassPath(Set.of(gadgets)), equalTo(true));
+        assertThat(compiler.classPathRoots(), contains(gadgets));
+        assertThat(compiler.classPathClasses, hasItem("lib.Gadget"));
+        assertThat(compiler.topLevelTypesMatching("Widg"), empty());
+        assertThat(compiler.topLevelTypesMatching("Gadg"), contains("lib.Gadget"));
+
+        assertThat(compiler.swapClassPath(Set.of(gadgets)), equalTo(false));
+    }
+
+    @Test
+    public void swapKeepsAddedModuleOutputs() throws Exception {
+        var widgets = classes("Widget", "package lib; public class Widget {}");
+        var output = Files.createDirectories(dir.resolve("module-output"));
+        var compiler = new JavaCompilerService(Set.of(widgets), Set.of(), Set.of(), Set.of());
+        compiler.addClassPathEntries(Set.of(output));
+
+        assertThat(compiler.swapClassPath(Set.of(widgets)), equalTo(false));
+        assertThat(compiler.classPathRoots(), containsInAnyOrder(widgets, output));
+    }
+}
@@ -0,0 +1,144 @@
+package org.javacs;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.nio.file.*;
+import java.util.*;
+import org.javacs.lsp.DidChangeTextDocumentParams;
+import org.javacs.lsp.DidOpenTextDocumentParams;
+import org.javacs.lsp.TextDocumentContentChangeEvent;
+import org.junit.*;
+
+public class CompileCacheTest {
+    static {
+        Main.setRootFormat();
+    }
+
+    private Path workspaceRoot, pkgDir;
+    private Path user, helper, unrelated;
+    private JavaCompilerService compiler;
+
+    @Before
+    public void setup() throws Exception {
+        workspaceRoot = Files.createTempDirectory("compile-cache-test-");
+        pkgDir = workspaceRoot.resolve("pkg");
+        Files.createDirectories(pkgDir);
+        user = write("User.java", "package pkg;\nclass User {\n    int run() { return Helper.value(); }\n}\n");
+        helper = write("Helper.java", "package pkg;\nclass Helper {\n    static int value() { return 1; }\n}\n");
+        unrelated = write("Unrelated.java", "package pkg;\nclass Unrelated {\n    void noop() {}\n}\n");
+        FileStore.setWorkspaceRoots(Set.of(workspaceRoot));
+        compiler = new JavaCompilerService(
+                Collections.emptySet(), Collections.emptySet(), Collections.emptySet(), Collections.emptySet());
+    }
+
+    @After
+    public void teardown() throws Exception {
+        FileStore.reset();
+        Files.walk(workspaceRoot)
+                .sorted(Comparator.reverseOrder())
+                .forEach(p -> { try { Files.deleteIfExists(p); } catch (Exception e) {} });
+    }
+
+    private Path write(String name, String contents) throws Exception {
+        var file = pkgDir.resolve(name);
+        Files.writeString(file, contents);
+        return file;
+    }
+
+    private Object compiledRoot(Path file) {
+        try (var task = compiler.compile(file)) {
+            return task.root();
+        }
+    }
+
+    private void edit(Path file, int version, String text) throws Exception {
+        if (version == 1) {
+            var open = new DidOpenTextDocumentParams();
+            open.textDocument.uri = file.toUri();
+            open.textDocument.version = 0;
+            open.textDocument.text = Files.readString(file);
+            FileStore.open(open);
+        }
+        var params = new DidChangeTextDocumentParams();
+        params.textDocument.uri = file.toUri();
+        params.textDocument.version = version;
+        var change = new TextDocumentContentChangeEvent();
+        change.text = text;
+        params.contentChanges.add(change);
+        FileStore.change(params);
+    }
+
+    @Test
+    public void editingAnUnrelatedFileKeepsTheBatch() throws Exception {
+        var first = compiledRoot(user);
+        edit(unrelated, 1, "package pkg;\nclass Unrelated {\n    void noop() { int x; }\n}\n");
+        assertThat(compiledRoot(user), sameInstance(first));
+    }
+
+    @Test
+    public void editingADependencyRecompiles() throws Exception {
+        var first = compiledRoot(user);
+        edit(helper, 1, "package pkg;\nclass Helper {\n    static int value() { return 2; }\n}\n");
+        assertThat(compiledRoot(user), not(sameInstance(first)));
+    }
+
+    @Test
+    public void editingASourceBehindBuildOutputRecompiles() throws Exception {
+        var classes = Files.createDirectories(workspaceRoot.resolve("classes"));
+        var javac = javax.tools.ToolProvider.getSystemJavaCompiler();
+        assertThat(javac.run(null, null, null, "-d", classes.toString(), helper.toString()), equalTo(0));
+        compiler = new JavaCompilerService(
+                Set.of(classes), Collections.emptySet(), Collections.emptySet(), Collections.emptySet());
+
+        var first = compiledRoot(user);
+        edit(unrelated, 1, "package pkg;\nclass Unrelated {\n    void noop() { int x; }\n}\n");
+        assertThat(compiledRoot(user), sameInstance(first));
+        edit(helper, 1, "package pkg;\nclass Helper {\n    static int value() { return 2; }\n}\n");
+        assertThat(compiledRoot(user), not(sameInstance(first)));
+    }
+
+    @Test
+    public void releasingTwiceKeepsTheOwnersReference() throws Exception {
+        var batch = new CompileBatch(compiler, List.of(new SourceFileObject(user)));
+        var release = batch.retain();
+        release.run();
+        release.run();
+        assertThat(batch.closed, equalTo(false));
+        batch.close();
+        assertThat(batch.closed, equalTo(true));
+    }
+
+    @Test
+    public void evictsOldestBatchOverBudget() throws Exception {
+        var cache = new CompileCache(CompileCache.CONTEXT_BYTES * 2);
+        var batches = new ArrayList<CompileBatch>();
+        for (var file : List.of(user, helper, unrelated)) {
+            var sources = List.of(new SourceFileObject(file));
+            var batch = new CompileBatch(compiler, sources);
+            batches.add(batch);
+            cache.put(sources, batch, FileStore.contentRevision());
+        }
+        assertThat(cache.size(), lessThan(3));
+        assertThat(batches.get(0).closed, equalTo(true));
+        assertThat(cache.get(List.of(new SourceFileObject(unrelated))), sameInstance(batches.get(2)));
+        cache.clear();
+        assertThat(batches.get(2).closed, equalTo(true));
+    }
+
+    @Test
+    public void capsBatchCountWhateverTheBudget() throws Exception {
+        var cache = new CompileCache(Long.MAX_VALUE, 2);
+        var batches = new ArrayList<CompileBatch>();
+        for (var file : List.of(user, helper, unrelated)) {
+            var sources = List.of(new SourceFileObject(file));
+            var batch = new CompileBatch(compiler, sources);
+            batches.add(batch);
+            cache.put(sources, batch, FileStore.contentRevision());
+        }
+        assertThat(cache.size(), equalTo(2));
+        assertThat(batches.get(0).closed, equalTo(true));
+        assertThat(batches.get(2).closed, equalTo(false));
+        cache.clear();
+    }
+}
@@ -0,0 +1,79 @@
+package org.javacs;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import org.junit.*;
+
+public class DocCacheTest {
+    private final AtomicInteger renders = new AtomicInteger();
+
+    @Before
+    public void clear() {
+        DocCache.clear();
+    }
+
+    private static JavaFileObject source(String location) {
+        return new SimpleJavaFileObject(URI.create("file:///A.java"), JavaFileObject.Kind.SOURCE) {
+            @Override
+            public URI toUri() {
+                return URI.create(location);
+            }
+        };
+    }
+
+    private DocCache.Rendered render() {
+        renders.incrementAndGet();
+        return new DocCache.Rendered("void add(int x)", "Adds **x**.");
+    }
+
+    @Test
+    public void rendersOncePerSymbolAndSource() {
+        var file = source("file:///tmp/doc-cache/A.java");
+        var key = DocCache.symbolKey("p.A", "add", new String[] {"int"});
+        assertThat(DocCache.get(file, key, this::render).markdown(), equalTo("Adds **x**."));
+        assertThat(DocCache.get(file, key, this::render).detail(), equalTo("void add(int x)"));
+        assertThat(renders.get(), equalTo(1));
+
+        DocCache.get(source("file:///tmp/doc-cache/B.java"), key, this::render);
+        DocCache.get(file, DocCache.symbolKey("p.A", "add", new String[] {"long"}), this::render);
+        assertThat(renders.get(), equalTo(3));
+    }
+
+    @Test
+    public void editsInTheSameMillisecondGetTheirOwnEntries() {
+        var file = Paths.get("/tmp/doc-cache/A.java");
+        var modified = Instant.now();
+        var before = new SourceFileObject(file, "/** Adds x. */ class A {}", modified, 1);
+        var after = new SourceFileObject(file, "/** Adds y. */ class A {}", modified, 2);
+        DocCache.get(before, "p.A", this::render);
+        DocCache.get(after, "p.A", this::render);
+        assertThat(renders.get(), equalTo(2));
+        DocCache.get(after, "p.A", this::render);
+        assertThat(renders.get(), equalTo(2));
+    }
+
+    @Test
+    public void archiveEntriesSurviveRestart() throws Exception {
+        var archived = source("jar:file:///tmp/doc-cache/src.zip!/p/A.java");
+        var workspace = source("file:///tmp/doc-cache/A.java");
+        DocCache.get(archived, "p.A", this::render);
+        DocCache.get(workspace, "p.A", this::render);
+        var file = Files.createTempDirectory("doc-cache-test-").resolve("javadoc.bin");
+        DocCache.save(file);
+
+        DocCache.clear();
+        DocCache.load(file);
+        DocCache.get(archived, "p.A", this::render);
+        assertThat(renders.get(), equalTo(2));
+        DocCache.get(workspace, "p.A", this::render);
+        assertThat(renders.get(), equalTo(3));
+    }
+}
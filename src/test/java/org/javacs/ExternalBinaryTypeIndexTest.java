@@ -0,0 +1,111 @@
+package org.javacs;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.nio.file.*;
+import java.util.*;
+import javax.tools.ToolProvider;
+import org.javacs.index.ExternalBinaryTypeIndex;
+import org.javacs.index.IndexedMember;
+import org.junit.*;
+
+public class ExternalBinaryTypeIndexTest {
+    private Path dir;
+
+    @Before
+    public void setup() throws Exception {
+        dir = Files.createTempDirectory("external-binary-index-test-");
+    }
+
+    @After
+    public void teardown() throws Exception {
+        Files.walk(dir)
+                .sorted(Comparator.reverseOrder())
+                .forEach(p -> { try { Files.deleteIfExists(p); } catch (Exception e) {} });
+    }
+
+    /** Compile {@code sources} (name to text) with {@code -g} but without {@code -parameters}. */
+    private Path classes(Map<String, String> sources) throws Exception {
+        var src = Files.createDirectories(dir.resolve("src"));
+        var out = Files.createDirectories(dir.resolve("classes"));
+        var args = new ArrayList<String>(List.of("-g", "-d", out.toString()));
+        for (var source : sources.entrySet()) {
+            var file = src.resolve(source.getKey());
+            Files.createDirectories(file.getParent());
+            Files.writeString(file, source.getValue());
+            args.add(file.toString());
+        }
+        var status = ToolProvider.getSystemJavaCompiler().run(null, null, null, args.toArray(String[]::new));
+        assertThat("compile " + sources.keySet(), status, equalTo(0));
+        return out;
+    }
+
+    private static IndexedMember method(List<IndexedMember> members, String name) {
+        return members.stream().filter(m -> m.name.equals(name)).findFirst().orElseThrow();
+    }
+
+    @Test
+    public void readsJdkTypesFromClassFiles() {
+        var index = new ExternalBinaryTypeIndex(new JavaCompilerService(Set.of(), Set.of(), Set.of(), Set.of()));
+        var type = index.typeInfo("java.util.ArrayList").orElseThrow();
+        assertThat(type.superclass, equalTo("java.util.AbstractList"));
+        assertThat(type.interfaces, hasItem("java.util.List"));
+
+        var members = index.members("java.util.ArrayList", false);
+        assertThat(method(members, "add").priority, equalTo(0));
+        assertThat(method(members, "stream").ownerType, equalTo("java.util.Collection"));
+        assertThat(method(members, "stream").declaredReturnType, equalTo("java.util.stream.Stream<E>"));
+        assertThat(method(members, "getClass").priority, equalTo(2));
+    }
+
+    @Test
+    public void readsGenericSignaturesAndLocalVariableNames() throws Exception {
+        var out =
+                classes(
+                        Map.of(
+                                "lib/Base.java",
+                                "package lib; public class Base { public String name; public void inherited(int count) {} }",
+                                "lib/Widget.java",
+                                "package lib;\n"
+                                        + "public class Widget extends Base {\n"
+                                        + "  public Widget(String label) {}\n"
+                                        + "  public <T> T read(String json, Class<T> type) { return null; }\n"
+                                        + "  public static void move(long distance, int steps) {}\n"
+                                        + "}"));
+        var index = new ExternalBinaryTypeIndex(new JavaCompilerService(Set.of(out), Set.of(), Set.of(), Set.of()));
+
+        var read = index.rawMember("lib.Widget", "read", false).orElseThrow();
+        assertThat(read.parameterNames, arrayContaining("json", "type"));
+        assertThat(read.erasedParameterTypes, arrayContaining("java.lang.String", "java.lang.Class"));
+        assertThat(read.declaredParameterTypes, arrayContaining("java.lang.String", "java.lang.Class<T>"));
+        assertThat(read.declaredReturnType, equalTo("T"));
+
+        var move = index.rawMember("lib.Widget", "move", true).orElseThrow();
+        assertThat(move.parameterNames, arrayContaining("distance", "steps"));
+        assertThat(index.rawMember("lib.Widget", "inherited", false).orElseThrow().ownerType, equalTo("lib.Base"));
+        assertThat(index.rawMember("lib.Widget", "name", false).orElseThrow().returnType, equalTo("java.lang.String"));
+
+        var constructor = index.constructors("lib.Widget");
+        assertThat(constructor, hasSize(1));
+        assertThat(constructor.get(0).parameterNames, arrayContaining("label"));
+    }
+
+    @Test
+    public void missingSupertypeKeepsOwnMembers() throws Exception {
+        var out =
+                classes(
+                        Map.of(
+                                "lib/Base.java",
+                                "package lib; public class Base { public void inherited() {} }",
+                                "lib/Child.java",
+                                "package lib; public class Child extends Base { public void own() {} }"));
+        Files.delete(out.resolve("lib/Base.class"));
+        var index = new ExternalBinaryTypeIndex(new JavaCompilerService(Set.of(out), Set.of(), Set.of(), Set.of()));
+
+        var type = index.typeInfo("lib.Child").orElseThrow();
+        assertThat(type.superclass, equalTo("lib.Base"));
+        assertThat(index.rawMember("lib.Child", "own", false).isPresent(), equalTo(true));
+        assertThat(index.rawMember("lib.Child", "inherited", false).isPresent(), equalTo(false));
+    }
+}
@@ -0,0 +1,95 @@
+package org.javacs;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.Set;
+import org.junit.*;
+
+public class FileCatalogTest {
+    private Path dir, root;
+    private FileCatalog catalog;
+
+    @Before
+    public void setup() throws Exception {
+        dir = Files.createTempDirectory("file-catalog-test-");
+        root = Files.createDirectories(dir.resolve("workspace"));
+        catalog = new FileCatalog(dir.resolve("cache/file-catalog.bin"));
+        FileStore.reset();
+    }
+
+    @After
+    public void teardown() throws Exception {
+        FileStore.reset();
+        FileStore.setWorkspaceRoots(Set.of(LanguageServerFixture.DEFAULT_WORKSPACE_ROOT));
+        Files.walk(dir)
+                .sorted(Comparator.reverseOrder())
+                .forEach(p -> { try { Files.deleteIfExists(p); } catch (Exception e) {} });
+    }
+
+    private Path write(String relative, String text) throws Exception {
+        var file = root.resolve(relative);
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, text);
+        return file;
+    }
+
+    @Test
+    public void warmCrawlReadsOnlyChangedFiles() throws Exception {
+        var a = write("src/app/A.java", "package app;\nclass A {}");
+        write("src/app/util/B.java", "package app.util;\nclass B {}");
+        write("src/app/util/C.java", "package app.util;\nclass C {}");
+        write("target/generated/D.java", "package gen;\nclass D {}");
+        assertThat(FileStore.addFiles(root, catalog), equalTo(3));
+        assertThat(FileStore.all(), hasSize(3));
+
+        FileStore.reset();
+        assertThat(FileStore.addFiles(root, catalog), equalTo(0));
+        assertThat(FileStore.packageName(a), equalTo("app"));
+        assertThat(FileStore.list("app.util"), hasSize(2));
+
+        Files.writeString(a, "package app.moved;\nclass A {}");
+        Files.setLastModifiedTime(a, FileTime.fromMillis(System.currentTimeMillis() + 10_000));
+        FileStore.reset();
+        assertThat(FileStore.addFiles(root, catalog), equalTo(1));
+        assertThat(FileStore.packageName(a), equalTo("app.moved"));
+        assertThat(FileStore.list("app"), empty());
+    }
+
+    @Test
+    public void lombokImportsAreCountedAndSaved() throws Exception {
+        var a = write("src/app/A.java", "package app;\nimport lombok.Data;\n@Data\nclass A {}");
+        write("src/app/B.java", "package app;\nclass B {}");
+        FileStore.addFiles(root, catalog);
+        assertThat(FileStore.workspaceUsesLombok(), equalTo(true));
+        assertThat(catalog.load().get(a).importsLombok(), equalTo(true));
+
+        FileStore.reset();
+        assertThat(FileStore.workspaceUsesLombok(), equalTo(false));
+        assertThat(FileStore.addFiles(root, catalog), equalTo(0));
+        assertThat(FileStore.workspaceUsesLombok(), equalTo(true));
+
+        Files.writeString(a, "package app;\nclass A {}");
+        FileStore.externalChange(a);
+        assertThat(FileStore.workspaceUsesLombok(), equalTo(false));
+        Files.writeString(a, "package app;\nimport lombok.Getter;\nclass A {}");
+        FileStore.externalChange(a);
+        assertThat(FileStore.workspaceUsesLombok(), equalTo(true));
+        Files.delete(a);
+        FileStore.externalDelete(a);
+        assertThat(FileStore.workspaceUsesLombok(), equalTo(false));
+    }
+
+    @Test
+    public void unreadableCatalogIsIgnored() throws Exception {
+        write("src/app/A.java", "package app;\nclass A {}");
+        Files.createDirectories(dir.resolve("cache"));
+        Files.writeString(dir.resolve("cache/file-catalog.bin"), "not a catalog");
+        assertThat(catalog.load().isEmpty(), equalTo(true));
+        assertThat(FileStore.addFiles(root, catalog), equalTo(1));
+        assertThat(catalog.load().keySet(), contains(root.resolve("src/app/A.java")));
+    }
+}
@@ -4,6 +4,7 @@ import static org.hamcrest.Matchers.*;
 import static org.hamcrest.MatcherAssert.assertThat;
 
 import java.nio.file.Path;
+import java.util.Random;
 import java.util.Set;
 import org.javacs.lsp.DidChangeTextDocumentParams;
 import org.javacs.lsp.DidOpenTextDocumentParams;
@@ -54,6 +55,49 @@ public class FileStoreTest {
         assertThat(updated, not(containsString("txn txn")));
     }
 
+    @Test
+    public void incrementalLineIndexMatchesRescan() {
+        var random = new Random(42);
+        var alphabet = new String[] {"a", "b", " ", "\n", "\r", "\r\n"};
+        var text = PieceTable.of("class T {\r\n  int x;\n}\r");
+        var lines = LineIndex.scan(text);
+        for (var step = 0; step < 2_000; step++) {
+            var start = random.nextInt(text.length() + 1);
+            var end = start + random.nextInt(Math.min(8, text.length() - start) + 1);
+            var inserted = new StringBuilder();
+            for (var i = random.nextInt(4); i > 0; i--) {
+                inserted.append(alphabet[random.nextInt(alphabet.length)]);
+            }
+            var expected = text.toString().substring(0, start) + inserted + text.toString().substring(end);
+            text = text.replace(start, end, inserted.toString());
+            lines = lines.edit(text, start, end, inserted.length());
+
+            assertThat(text.toString(), equalTo(expected));
+            var rescanned = LineIndex.scan(expected);
+            assertThat(lines.lineCount(), equalTo(rescanned.lineCount()));
+            for (var line = 0; line < rescanned.lineCount(); line++) {
+                assertThat(lines.lineStart(line), equalTo(rescanned.lineStart(line)));
+            }
+        }
+        assertThat(text.pieceCount(), lessThanOrEqualTo(PieceTable.MAX_PIECES + 2));
+    }
+
+    @Test
+    public void positionsRoundTrip() {
+        var text = "class T {\r\n  int x;\n\n}\rend";
+        var lines = LineIndex.of(text);
+        assertThat(lines.lineCount(), equalTo(5));
+        for (var offset = 0; offset <= text.length(); offset++) {
+            var position = FileStore.positionAt(text, offset);
+            var back = lines.offsetAt(position.line, position.character);
+            // The only offset without its own position is between '\r' and '\n'
+            assertThat(back, equalTo(offset == 10 ? 11 : offset));
+        }
+        assertThat(FileStore.offset(text, 2, 3), equalTo(13));
+        assertThat(FileStore.offset(text, 5, 1), equalTo(23));
+        assertThat(FileStore.offset(text, 9, 1), equalTo(text.length()));
+    }
+
     private void open(Path file, String text, int version) {
         var open = new DidOpenTextDocumentParams();
         open.textDocument.uri = file.toUri();
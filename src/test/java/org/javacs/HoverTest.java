@@ -3,9 +3,14 @@ package org.javacs;
 import static org.hamcrest.Matchers.*;
 import static org.hamcrest.MatcherAssert.assertThat;
 
+import java.nio.file.Files;
 import java.util.List;
 import java.util.StringJoiner;
+import org.javacs.index.ExternalBinaryTypeIndex;
+import org.javacs.index.TypeIndexRouter;
+import org.javacs.index.WorkspaceTypeIndex;
 import org.javacs.lsp.*;
+import org.javacs.provider.HoverProvider;
 import org.junit.Test;
 
 public class HoverTest {
@@ -76,6 +81,44 @@ public class HoverTest {
                 symbolAt("/org/javacs/example/LocalMethodDoc.java", 5, 9), containsString("A great method"));
     }
 
+    @Test
+    public void workspaceMembersSkipCompile() {
+        var hits = CacheAudit.hits("hover.index");
+        var found = symbolAt("/org/javacs/example/SymbolUnderCursor.java", 13, 17);
+        assertThat(found, containsString("**org.javacs.example**"));
+        assertThat(found, containsString("public String method(String methodParameter)"));
+        assertThat(symbolAt("/org/javacs/example/SymbolUnderCursor.java", 10, 16), containsString("String localVariable"));
+        assertThat(CacheAudit.hits("hover.index"), equalTo(hits + 2));
+    }
+
+    @Test
+    public void methodReferenceFallsBackToCompile() {
+        var misses = CacheAudit.misses("hover.index");
+        symbolAt("/org/javacs/example/SymbolUnderCursor.java", 14, 65);
+        assertThat(CacheAudit.misses("hover.index"), equalTo(misses + 1));
+    }
+
+    @Test
+    public void indexedHoverShowsTheCurrentSignature() throws Exception {
+        var file = FindResource.path("/org/javacs/example/SymbolUnderCursor.java");
+        var compiler = server.getOrCreateCompiler();
+        // An index built before the edit, as if its background refresh hadn't caught up yet
+        var stale = new TypeIndexRouter(
+                WorkspaceTypeIndex.fromParseTrees(compiler.parseAll(List.of(file))), ExternalBinaryTypeIndex.EMPTY);
+        var open = new DidOpenTextDocumentParams();
+        open.textDocument.uri = file.toUri();
+        open.textDocument.version = 1;
+        open.textDocument.text = Files.readString(file).replace("public String method(", "public Object method(");
+        FileStore.open(open);
+        try {
+            var found = new HoverProvider(compiler, stale).hover(file, 13, 17).value;
+            assertThat(found, containsString("public Object method(String methodParameter)"));
+        } finally {
+            var close = new DidCloseTextDocumentParams();
+            close.textDocument.uri = file.toUri();
+            FileStore.close(close);
+        }
+    }
 
     // Re-using the language server makes these tests go a lot faster, but it will potentially produce surprising output
     // if things go wrong
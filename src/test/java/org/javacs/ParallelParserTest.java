@@ -0,0 +1,65 @@
+package org.javacs;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import org.javacs.lsp.CancelToken;
+import org.junit.*;
+
+public class ParallelParserTest {
+    private static Path workspaceRoot;
+    private static List<Path> files = new ArrayList<>();
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        workspaceRoot = Files.createTempDirectory("parallel-parse-test-");
+        var pkgDir = workspaceRoot.resolve("pkg");
+        Files.createDirectories(pkgDir);
+        for (var i = 0; i < 200; i++) {
+            var file = pkgDir.resolve("Type" + i + ".java");
+            Files.writeString(file, "package pkg;\nclass Type" + i + " {\n    int field" + i + ";\n}\n");
+            files.add(file);
+        }
+        FileStore.setWorkspaceRoots(Set.of(workspaceRoot));
+    }
+
+    @AfterClass
+    public static void teardown() throws Exception {
+        FileStore.reset();
+        Files.walk(workspaceRoot)
+                .sorted(Comparator.reverseOrder())
+                .forEach(p -> { try { Files.deleteIfExists(p); } catch (Exception e) {} });
+    }
+
+    @Test
+    public void resultsKeepInputOrder() {
+        var result = ParallelParser.parseAll(files);
+        assertThat(result.tasks(), hasSize(files.size()));
+        for (var i = 0; i < files.size(); i++) {
+            var root = result.tasks().get(i).root();
+            assertThat(Paths.get(root.getSourceFile().toUri()), equalTo(files.get(i)));
+            assertThat(root.getTypeDecls().get(0).toString(), containsString("field" + i));
+        }
+        assertThat(result.workers(), greaterThanOrEqualTo(1));
+        assertThat(result.workers(), lessThanOrEqualTo(ParallelParser.MAX_WORKERS));
+    }
+
+    @Test(expected = CancellationException.class)
+    public void cancelledParseStops() {
+        var token = new CancelToken();
+        token.cancel();
+        try (var scope = token.install()) {
+            ParallelParser.parseAll(files);
+        }
+    }
+
+    @Test
+    public void smallBatchParsesOnCaller() {
+        var result = ParallelParser.parseAll(files.subList(0, 3));
+        assertThat(result.workers(), equalTo(1));
+        assertThat(result.tasks(), hasSize(3));
+    }
+}
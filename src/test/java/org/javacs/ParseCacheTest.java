@@ -0,0 +1,83 @@
+package org.javacs;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.nio.file.Path;
+import java.util.Set;
+import org.javacs.lsp.DidChangeTextDocumentParams;
+import org.javacs.lsp.DidCloseTextDocumentParams;
+import org.javacs.lsp.DidOpenTextDocumentParams;
+import org.javacs.lsp.TextDocumentContentChangeEvent;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ParseCacheTest {
+    private final Path file = FindResource.path("/org/javacs/example/HelloWorld.java");
+
+    @Before
+    public void setWorkspaceRoot() {
+        FileStore.setWorkspaceRoots(Set.of(LanguageServerFixture.DEFAULT_WORKSPACE_ROOT));
+    }
+
+    @After
+    public void closeFile() {
+        var close = new DidCloseTextDocumentParams();
+        close.textDocument.uri = file.toUri();
+        FileStore.close(close);
+    }
+
+    private ParseTask parse() {
+        return ParseCache.get(new SourceFileObject(file));
+    }
+
+    @Test
+    public void sameVersionSharesOneParse() {
+        open("class A { void m() {} }", 1);
+        var first = parse();
+        assertThat(parse(), sameInstance(first));
+        assertThat(parse().root().getTypeDecls(), hasSize(1));
+    }
+
+    @Test
+    public void editsReparseAndUnchangedTextKeepsTheParse() throws Exception {
+        open("class A { void m() {} }", 1);
+        var original = parse();
+
+        replace(2, "class A { void m() {} void n() {} }");
+        var edited = parse();
+        assertThat(edited, not(sameInstance(original)));
+        assertThat(edited.root().getSourceFile().getCharContent(true).toString(), containsString("void n()"));
+
+        replace(3, "class A { void m() {} void n() {} }");
+        assertThat(parse(), sameInstance(edited));
+    }
+
+    @Test
+    public void closingForgetsTheParse() {
+        open("class A {}", 1);
+        var before = parse();
+        closeFile();
+        open("class A {}", 1);
+        assertThat(parse(), not(sameInstance(before)));
+    }
+
+    private void open(String text, int version) {
+        var open = new DidOpenTextDocumentParams();
+        open.textDocument.uri = file.toUri();
+        open.textDocument.version = version;
+        open.textDocument.text = text;
+        FileStore.open(open);
+    }
+
+    private void replace(int version, String text) {
+        var params = new DidChangeTextDocumentParams();
+        params.textDocument.uri = file.toUri();
+        params.textDocument.version = version;
+        var event = new TextDocumentContentChangeEvent();
+        event.text = text;
+        params.contentChanges.add(event);
+        FileStore.change(params);
+    }
+}
@@ -0,0 +1,101 @@
+package org.javacs;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.nio.file.*;
+import java.util.*;
+import javax.tools.Diagnostic;
+import org.javacs.rewrite.RenameMethod;
+import org.junit.*;
+
+public class PrunedSourcesTest {
+    static {
+        Main.setRootFormat();
+    }
+
+    private Path workspaceRoot, pkgDir;
+
+    @Before
+    public void setup() throws Exception {
+        workspaceRoot = Files.createTempDirectory("pruned-sources-test-");
+        pkgDir = Files.createDirectories(workspaceRoot.resolve("pkg"));
+        FileStore.setWorkspaceRoots(Set.of(workspaceRoot));
+    }
+
+    @After
+    public void teardown() throws Exception {
+        FileStore.reset();
+        Files.walk(workspaceRoot)
+                .sorted(Comparator.reverseOrder())
+                .forEach(p -> { try { Files.deleteIfExists(p); } catch (Exception e) {} });
+    }
+
+    private Path write(String name, String contents) throws Exception {
+        var file = pkgDir.resolve(name);
+        Files.writeString(file, contents);
+        FileStore.externalCreate(file);
+        return file;
+    }
+
+    @Test
+    public void bodiesAreBlankedInPlace() throws Exception {
+        var text =
+                "package pkg;\n"
+                        + "class Support extends Base {\n"
+                        + "    Support() { super(\"name\"); }\n"
+                        + "    int compute(int x) {\n"
+                        + "        var y = x * 2; // doubled\n"
+                        + "        return new Object() { int z() { return y; } }.z();\n"
+                        + "    }\n"
+                        + "    void small() { }\n"
+                        + "}\n";
+        var file = write("Support.java", text);
+        var pruned = PrunedSources.prune(file, text);
+
+        assertThat(pruned.length(), equalTo(text.length()));
+        assertThat(pruned.lines().count(), equalTo(text.lines().count()));
+        assertThat(pruned, containsString("Support() { super(\"name\"); }"));
+        assertThat(pruned, containsString("int compute(int x) {"));
+        assertThat(pruned, containsString("throw null;"));
+        assertThat(pruned, not(containsString("doubled")));
+        assertThat(pruned, containsString("void small() { }"));
+    }
+
+    @Test
+    public void supportingFilesCompileWithoutBodies() throws Exception {
+        var user = write("User.java", "package pkg;\nclass User {\n    int run() { return Helper.value(); }\n}\n");
+        // Not named after the class, so only the compile's fallback search finds it
+        write("Helpers.java",
+                "package pkg;\nclass Helper {\n    static int value() {\n        return missing();\n    }\n}\n");
+        var compiler = new JavaCompilerService(
+                Collections.emptySet(), Collections.emptySet(), Collections.emptySet(), Collections.emptySet());
+        try (var task = compiler.compile(user)) {
+            assertThat(task.roots, hasSize(2));
+            var errors = task.diagnostics.stream().filter(d -> d.getKind() == Diagnostic.Kind.ERROR).toList();
+            // missing() is only called from a pruned body, so javac never sees it
+            assertThat(errors, empty());
+        }
+    }
+
+    @Test
+    public void renameReachesBodiesOfAPrunedDependency() throws Exception {
+        var user = write("User.java", "package pkg;\nclass User {\n    int run() { return Helper.value(); }\n}\n");
+        var helpers = write("Helpers.java",
+                "package pkg;\nclass Helper {\n    static int value() {\n        return 1;\n    }\n"
+                        + "    static int twice() {\n        return value() + value();\n    }\n}\n");
+        var compiler = new JavaCompilerService(
+                Collections.emptySet(), Collections.emptySet(), Collections.emptySet(), Collections.emptySet());
+        // Caches a batch for User with a bodyless copy of Helpers
+        try (var task = compiler.compile(user)) {
+            assertThat(task.roots, hasSize(2));
+        }
+        try (var task = compiler.compile(user, helpers)) {
+            assertThat(task.root(helpers).getSourceFile().getCharContent(true).toString(),
+                    containsString("value() + value()"));
+        }
+        var edits = new RenameMethod("pkg.Helper", "value", new String[0], "renamed").rewrite(compiler);
+        assertThat(edits.get(user), arrayWithSize(1));
+        assertThat(edits.get(helpers), arrayWithSize(3));
+    }
+}
@@ -0,0 +1,179 @@
+package org.javacs;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import javax.tools.JavaFileObject;
+import org.javacs.index.ReferenceIndex;
+import org.javacs.index.ReferenceIndexStore;
+import org.javacs.lsp.Location;
+import org.javacs.provider.ReferenceProvider;
+import org.junit.*;
+
+public class ReferenceIndexTest {
+    static {
+        Main.setRootFormat();
+    }
+
+    private Path workspaceRoot;
+    private Path repo, usesRepo, usesList, base, impl, caller;
+    private JavaCompilerService compiler;
+
+    @Before
+    public void setup() throws Exception {
+        workspaceRoot = Files.createTempDirectory("reference-index-test-");
+        var pkgDir = workspaceRoot.resolve("pkg");
+        Files.createDirectories(pkgDir);
+        repo = write(pkgDir, "Repo.java", "package pkg;\npublic class Repo {\n    public String get() { return \"\"; }\n}\n");
+        usesRepo = write(pkgDir, "UsesRepo.java",
+                "package pkg;\nclass UsesRepo {\n    String run(Repo repo) { return repo.get(); }\n}\n");
+        usesList = write(pkgDir, "UsesList.java",
+                "package pkg;\nimport java.util.List;\nclass UsesList {\n"
+                        + "    // Repo is mentioned here, but only in a comment\n"
+                        + "    String run(List<String> list) { return list.get(0); }\n}\n");
+        base = write(pkgDir, "Base.java", "package pkg;\npublic class Base {\n    public void work() {}\n}\n");
+        impl = write(pkgDir, "Impl.java",
+                "package pkg;\npublic class Impl extends Base {\n    @Override public void work() {}\n}\n");
+        caller = write(pkgDir, "Caller.java",
+                "package pkg;\nclass Caller {\n    void call(Base base) { base.work(); }\n}\n");
+        FileStore.setWorkspaceRoots(Set.of(workspaceRoot));
+        compiler = new JavaCompilerService(
+                Collections.emptySet(), Collections.emptySet(), Collections.emptySet(), Collections.emptySet());
+    }
+
+    @After
+    public void teardown() throws Exception {
+        FileStore.reset();
+        Files.walk(workspaceRoot)
+                .sorted(Comparator.reverseOrder())
+                .forEach(p -> { try { Files.deleteIfExists(p); } catch (Exception e) {} });
+    }
+
+    private static Path write(Path dir, String name, String contents) throws Exception {
+        var file = dir.resolve(name);
+        Files.writeString(file, contents);
+        return file;
+    }
+
+    private void compileAll() {
+        try (var task = compiler.compileFresh(repo, usesRepo, usesList, base, impl, caller)) {
+            assertThat(task.roots, hasSize(6));
+        }
+    }
+
+    @Test
+    public void parseFactsIgnoreComments() {
+        assertThat(Arrays.asList(compiler.findTypeReferences("pkg.Repo")), containsInAnyOrder(repo, usesRepo));
+        assertThat(Arrays.asList(compiler.findMemberReferences("pkg.Repo", "get")),
+                containsInAnyOrder(repo, usesRepo, usesList));
+    }
+
+    @Test
+    public void attributedFilesThatResolveElsewhereAreDropped() {
+        compileAll();
+        assertThat(Arrays.asList(compiler.findMemberReferences("pkg.Repo", "get")), containsInAnyOrder(repo, usesRepo));
+        assertThat(Arrays.asList(compiler.findTypeReferences("pkg.Repo")), containsInAnyOrder(repo, usesRepo));
+    }
+
+    @Test
+    public void overridesMatchInBothDirections() {
+        compileAll();
+        assertThat(Arrays.asList(compiler.findMemberReferences("pkg.Impl", "work")),
+                containsInAnyOrder(base, impl, caller));
+        assertThat(Arrays.asList(compiler.findMemberReferences("pkg.Base", "work")),
+                containsInAnyOrder(base, impl, caller));
+    }
+
+    @Test
+    public void changedDeclarationDropsDependentFacts() throws Exception {
+        compileAll();
+        Files.writeString(repo, "package pkg;\npublic class Repo {\n    public String get() { return \"changed\"; }\n}\n");
+        Files.setLastModifiedTime(repo, FileTime.fromMillis(System.currentTimeMillis() + 10_000));
+
+        // Repo and UsesRepo must be attributed again before get() can be narrowed
+        assertThat(Arrays.asList(compiler.findMemberReferences("pkg.Repo", "get")),
+                containsInAnyOrder(repo, usesRepo, usesList));
+        try (var task = compiler.compileFresh(repo, usesRepo)) {}
+        assertThat(Arrays.asList(compiler.findMemberReferences("pkg.Repo", "get")), containsInAnyOrder(repo, usesRepo));
+    }
+
+    @Test
+    public void classPathSwapDropsAttributedFacts() throws Exception {
+        compileAll();
+        assertThat(Arrays.asList(compiler.findMemberReferences("pkg.Repo", "get")), containsInAnyOrder(repo, usesRepo));
+
+        assertThat(compiler.swapClassPath(Set.of(Files.createDirectories(workspaceRoot.resolve("classes")))), equalTo(true));
+        assertThat(Arrays.asList(compiler.findMemberReferences("pkg.Repo", "get")),
+                containsInAnyOrder(repo, usesRepo, usesList));
+    }
+
+    @Test
+    public void factsCompiledAgainstAnOldClassPathAreDropped() throws Exception {
+        var sources = List.<JavaFileObject>of(new SourceFileObject(repo), new SourceFileObject(usesRepo), new SourceFileObject(usesList));
+        // Like a reference search chunk, which compiles without the compile lock
+        var batch = new CompileBatch(compiler, sources, new ReusableCompiler(), new SourceFileManager(), new ArrayList<>());
+        try {
+            compiler.swapClassPath(Set.of(Files.createDirectories(workspaceRoot.resolve("classes"))));
+            compiler.recordReferences(batch);
+        } finally {
+            batch.close();
+        }
+        assertThat(Arrays.asList(compiler.findMemberReferences("pkg.Repo", "get")),
+                containsInAnyOrder(repo, usesRepo, usesList));
+    }
+
+    @Test
+    public void manyCandidatesAreSearchedInChunks() throws Exception {
+        var pkgDir = workspaceRoot.resolve("pkg");
+        var users = new ArrayList<String>();
+        for (var i = 0; i < 150; i++) {
+            var name = "User" + i;
+            write(pkgDir, name + ".java",
+                    "package pkg;\nclass " + name + " {\n    String run(Repo repo) { return repo.get(); }\n}\n");
+            users.add(name + ".java");
+        }
+        FileStore.reset();
+        FileStore.setWorkspaceRoots(Set.of(workspaceRoot));
+
+        var partials = new ArrayList<List<Location>>();
+        var found = new ReferenceProvider(compiler, repo, 3, 19, partials::add).find();
+        var files = new HashSet<String>();
+        for (var l : found) {
+            files.add(Paths.get(l.uri).getFileName().toString());
+        }
+        assertThat(files, hasItems(users.toArray(String[]::new)));
+        assertThat(files, hasItem("UsesRepo.java"));
+        assertThat(partials.size(), greaterThan(1));
+        var streamed = partials.stream().mapToInt(List::size).sum();
+        assertThat(streamed, equalTo(found.size()));
+    }
+
+    @Test
+    public void roundTripKeepsAttributedFactsForSameClassPath() {
+        var index = new ReferenceIndex();
+        try (var task = compiler.compileFresh(repo, usesList)) {
+            var attributed = new HashMap<Path, ReferenceIndex.Entry>();
+            for (var root : task.roots) {
+                var file = Paths.get(root.getSourceFile().toUri());
+                attributed.put(file, ReferenceIndex.attribute(
+                        JavaCompilerService.referenceFingerprint(file), root, task.trees, task.types));
+            }
+            index.updateAttributed(attributed);
+        }
+        var file = workspaceRoot.resolve("cache/reference-index.bin");
+        new ReferenceIndexStore(file, "cp1").save(index);
+
+        var restored = new ReferenceIndexStore(file, "cp1").load();
+        assertThat(restored.size(), equalTo(2));
+        assertThat(restored.entry(usesList).attributed().members().get("get"), contains("java.util.List"));
+        assertThat(restored.entry(repo).attributed().overrides(), hasKey("pkg.Repo#get"));
+        assertThat(restored.entry(usesList).names(), not(hasItem("Repo")));
+
+        var otherClassPath = new ReferenceIndexStore(file, "cp2").load();
+        assertThat(otherClassPath.entry(usesList).attributed(), nullValue());
+        assertThat(otherClassPath.entry(usesList).imports(), contains("java.util.List"));
+    }
+}
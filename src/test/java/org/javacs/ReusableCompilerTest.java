@@ -1,18 +1,157 @@
 package org.javacs;
 
 import static org.hamcrest.MatcherAssert.assertThat;
-import static org.hamcrest.Matchers.is;
-import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.*;
 
 import com.sun.tools.javac.main.JavaCompiler;
 import com.sun.tools.javac.util.JCDiagnostic;
 import com.sun.tools.javac.util.Log;
 import java.lang.reflect.Field;
-import java.util.List;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Predicate;
-import org.junit.Test;
+import javax.tools.Diagnostic;
+import org.javacs.lsp.CancelToken;
+import org.junit.*;
 
 public class ReusableCompilerTest {
+    static {
+        Main.setRootFormat();
+    }
+
+    private Path workspaceRoot;
+    private Path lib, user;
+    private JavaCompilerService compiler;
+
+    @Before
+    public void setup() throws Exception {
+        workspaceRoot = Files.createTempDirectory("reusable-compiler-test-");
+        var pkgDir = workspaceRoot.resolve("pkg");
+        Files.createDirectories(pkgDir);
+        lib = pkgDir.resolve("Lib.java");
+        Files.writeString(lib, "package pkg;\npublic class Lib {\n    public static int first() { return 1; }\n}\n");
+        user = pkgDir.resolve("User.java");
+        Files.writeString(user, "package pkg;\nclass User {\n    int value() { return Lib.first(); }\n}\n");
+        FileStore.setWorkspaceRoots(Set.of(workspaceRoot));
+        compiler = new JavaCompilerService(
+                Collections.emptySet(), Collections.emptySet(), Collections.emptySet(), Collections.emptySet());
+    }
+
+    @After
+    public void teardown() throws Exception {
+        FileStore.reset();
+        Files.walk(workspaceRoot)
+                .sorted(Comparator.reverseOrder())
+                .forEach(p -> { try { Files.deleteIfExists(p); } catch (Exception e) {} });
+    }
+
+    private static void rewrite(Path file, String contents) throws Exception {
+        Files.writeString(file, contents);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() + 10_000));
+    }
+
+    private static List<String> errors(CompileTask task) {
+        var errors = new ArrayList<String>();
+        for (var d : task.diagnostics) {
+            if (d.getKind() == Diagnostic.Kind.ERROR) errors.add(d.getCode());
+        }
+        return errors;
+    }
+
+    @Test
+    public void secondCompileKeepsClasspathSymbols() {
+        Object firstString;
+        try (var task = compiler.compileFresh(user, lib)) {
+            assertThat(errors(task), empty());
+            firstString = task.elements.getTypeElement("java.lang.String");
+        }
+        try (var task = compiler.compileFresh(user, lib)) {
+            assertThat(errors(task), empty());
+            assertThat(task.elements.getTypeElement("java.lang.String"), sameInstance(firstString));
+        }
+    }
+
+    @Test
+    public void reusedContextSeesEditedSources() throws Exception {
+        Object firstLib;
+        try (var task = compiler.compileFresh(user, lib)) {
+            assertThat(errors(task), empty());
+            firstLib = task.elements.getTypeElement("pkg.Lib");
+        }
+
+        rewrite(lib, "package pkg;\npublic class Lib {\n    public static int second() { return 2; }\n}\n");
+        try (var task = compiler.compileFresh(user, lib)) {
+            assertThat(errors(task), contains("compiler.err.cant.resolve.location.args"));
+            assertThat(task.elements.getTypeElement("pkg.Lib"), not(sameInstance(firstLib)));
+        }
+
+        rewrite(user, "package pkg;\nclass User {\n    int value() { return Lib.second(); }\n}\n");
+        try (var task = compiler.compileFresh(user, lib)) {
+            assertThat(errors(task), empty());
+        }
+    }
+
+    @Test
+    public void closingTwiceUnlocksOnce() throws Exception {
+        var task = compiler.compile(user);
+        task.close();
+        task.close();
+        var other = new Thread(() -> {
+            try (var again = compiler.compile(user)) {
+                assertThat(errors(again), empty());
+            }
+        });
+        other.start();
+        other.join(30_000);
+        assertThat("compile on another thread should not wait for the lock", other.isAlive(), equalTo(false));
+    }
+
+    @Test
+    public void openBatchKeepsItsOwnContext() {
+        try (var outer = compiler.compileFresh(user, lib)) {
+            var outerLib = outer.elements.getTypeElement("pkg.Lib");
+            try (var inner = compiler.compileFresh(user, lib)) {
+                assertThat(errors(inner), empty());
+                assertThat(inner.elements.getTypeElement("pkg.Lib"), not(sameInstance(outerLib)));
+            }
+            assertThat(outer.elements.getTypeElement("pkg.Lib"), sameInstance(outerLib));
+        }
+    }
+
+    @Test
+    public void cancelledCompileLeavesPoolUsable() {
+        // Flip to cancelled part way through, so the javac task listener is what notices
+        var polls = new AtomicInteger();
+        var token = CancelToken.polling(() -> polls.incrementAndGet() > 3);
+        try (var scope = token.install()) {
+            compiler.compileFresh(user, lib).close();
+            Assert.fail("compile should have been cancelled");
+        } catch (CancellationException expected) {
+        }
+        try (var task = compiler.compileFresh(user, lib)) {
+            assertThat(errors(task), empty());
+        }
+    }
+
+    @Test
+    public void cachedBatchUsesTheCurrentRequestsToken() throws Exception {
+        var other = workspaceRoot.resolve("pkg/Other.java");
+        Files.writeString(other, "package pkg;\nclass Other {}\n");
+        FileStore.externalCreate(other);
+        var first = new CancelToken();
+        try (var scope = first.install(); var task = compiler.compile(user)) {
+            assertThat(errors(task), empty());
+        }
+        first.cancel();
+        // Loading Other from the source path runs javac phases on the cached batch
+        try (var scope = new CancelToken().install(); var task = compiler.compile(user)) {
+            assertThat(task.elements.getTypeElement("pkg.Other"), notNullValue());
+        }
+    }
+
     // @Test
     // public void clearResetsAnnotationProcessingState() throws Exception {
     //     var context = new ReusableCompiler.ReusableContext(List.of("-proc:full"));
@@ -0,0 +1,114 @@
+package org.javacs;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import org.javacs.index.SymbolIndex;
+import org.javacs.index.SymbolIndexStore;
+import org.javacs.lsp.SymbolInformation;
+import org.javacs.lsp.SymbolKind;
+import org.junit.*;
+
+public class SymbolIndexTest {
+    static {
+        Main.setRootFormat();
+    }
+
+    private Path workspaceRoot, pkgDir;
+    private Path repo, repoUser;
+    private JavaCompilerService compiler;
+
+    @Before
+    public void setup() throws Exception {
+        workspaceRoot = Files.createTempDirectory("symbol-index-test-");
+        pkgDir = workspaceRoot.resolve("pkg");
+        Files.createDirectories(pkgDir);
+        repo = write("Repo.java",
+                "package pkg;\npublic class Repo {\n    int repoSize;\n    public String findRepository() { return \"\"; }\n}\n");
+        repoUser = write("RepoUser.java",
+                "package pkg;\nclass RepoUser {\n    void run() { class Local {} int notAField = 0; }\n}\n");
+        FileStore.setWorkspaceRoots(Set.of(workspaceRoot));
+        compiler = new JavaCompilerService(
+                Collections.emptySet(), Collections.emptySet(), Collections.emptySet(), Collections.emptySet());
+    }
+
+    @After
+    public void teardown() throws Exception {
+        FileStore.reset();
+        Files.walk(workspaceRoot)
+                .sorted(Comparator.reverseOrder())
+                .forEach(p -> { try { Files.deleteIfExists(p); } catch (Exception e) {} });
+    }
+
+    private Path write(String name, String contents) throws Exception {
+        var file = pkgDir.resolve(name);
+        Files.writeString(file, contents);
+        return file;
+    }
+
+    private List<String> names(String query) {
+        return compiler.searchSymbols(query, 50).orElseThrow().stream().map(s -> s.name).toList();
+    }
+
+    @Test
+    public void rankedExactThenPrefixThenCamelHump() {
+        assertThat(names("repo"), contains("Repo", "RepoUser", "repoSize", "findRepository"));
+        assertThat(names("fRepo"), contains("findRepository"));
+        assertThat(names("RU"), contains("run", "RepoUser"));
+        assertThat(names("notAField"), empty());
+    }
+
+    @Test
+    public void locationsAndContainers() {
+        var found = compiler.searchSymbols("findRepository", 1).orElseThrow();
+        assertThat(found, hasSize(1));
+        SymbolInformation info = found.get(0);
+        assertThat(info.kind, equalTo(SymbolKind.Method));
+        assertThat(info.containerName, equalTo("Repo"));
+        assertThat(info.location.uri, equalTo(repo.toUri()));
+        assertThat(info.location.range.start.line, equalTo(3));
+        assertThat(info.location.range.start.character, equalTo(4));
+        var local = compiler.searchSymbols("Local", 1).orElseThrow();
+        assertThat(local.get(0).containerName, equalTo("run"));
+    }
+
+    @Test
+    public void followsFileStoreChanges() throws Exception {
+        assertThat(names("findRepository"), hasSize(1));
+
+        Files.writeString(repo, "package pkg;\npublic class Repo {\n    public String loadRepository() { return \"\"; }\n}\n");
+        Files.setLastModifiedTime(repo, FileTime.fromMillis(System.currentTimeMillis() + 10_000));
+        FileStore.externalChange(repo);
+        var created = write("Branch.java", "package pkg;\nclass Branch {}\n");
+        FileStore.externalCreate(created);
+        Files.delete(repoUser);
+        FileStore.externalDelete(repoUser);
+
+        assertThat(names("findRepository"), empty());
+        assertThat(names("loadRepository"), contains("loadRepository"));
+        assertThat(names("Branch"), contains("Branch"));
+        assertThat(names("RepoUser"), empty());
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        var index = new SymbolIndex();
+        for (var file : List.of(repo, repoUser)) {
+            var task = compiler.parse(file);
+            index.update(file, JavaCompilerService.referenceFingerprint(file), task);
+        }
+        var file = workspaceRoot.resolve("cache/symbol-index.bin");
+        new SymbolIndexStore(file).save(index);
+
+        var restored = new SymbolIndexStore(file).load();
+        assertThat(restored.size(), equalTo(2));
+        var matches = restored.search("rSize", 10);
+        assertThat(matches, hasSize(1));
+        assertThat(matches.get(0).symbol().name(), equalTo("repoSize"));
+        assertThat(matches.get(0).file(), equalTo(repo));
+        assertThat(restored.isStale(repo, JavaCompilerService.referenceFingerprint(repo)), equalTo(false));
+    }
+}
@@ -0,0 +1,122 @@
+package org.javacs;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import org.javacs.index.WorkspaceIndexSnapshotStore;
+import org.javacs.index.WorkspaceTypeIndex;
+import org.junit.*;
+
+public class WorkspaceIndexSnapshotStoreTest {
+    static {
+        Main.setRootFormat();
+    }
+
+    private Path workspaceRoot;
+    private Path base, child, other;
+    private JavaCompilerService compiler;
+
+    @Before
+    public void setup() throws Exception {
+        workspaceRoot = Files.createTempDirectory("index-snapshot-test-");
+        var pkgDir = workspaceRoot.resolve("pkg");
+        Files.createDirectories(pkgDir);
+        base = pkgDir.resolve("Base.java");
+        Files.writeString(base, "package pkg;\npublic class Base {\n    public void baseMethod() {}\n}\n");
+        child = pkgDir.resolve("Child.java");
+        Files.writeString(child, "package pkg;\npublic class Child extends Base {\n    public int childField;\n}\n");
+        other = pkgDir.resolve("Other.java");
+        Files.writeString(other, "package pkg;\npublic record Other(String name) {}\n");
+        FileStore.setWorkspaceRoots(Set.of(workspaceRoot));
+        compiler = new JavaCompilerService(
+                Collections.emptySet(), Collections.emptySet(), Collections.emptySet(), Collections.emptySet());
+    }
+
+    @After
+    public void teardown() throws Exception {
+        FileStore.reset();
+        Files.walk(workspaceRoot)
+                .sorted(Comparator.reverseOrder())
+                .forEach(p -> { try { Files.deleteIfExists(p); } catch (Exception e) {} });
+    }
+
+    private WorkspaceTypeIndex build(List<Path> files) {
+        return WorkspaceTypeIndex.fromParseTrees(compiler.parseAll(files));
+    }
+
+    @Test
+    public void roundTripKeepsTypesAndMembers() {
+        var files = List.of(base, child, other);
+        var store = new WorkspaceIndexSnapshotStore(workspaceRoot.resolve("cache/index.bin"));
+        var index = build(files);
+        store.save(index, WorkspaceIndexSnapshotStore.fingerprints(files), Set.of());
+
+        var restored = store.restore(files, Set.of()).orElseThrow();
+        assertThat(restored.staleFiles(), empty());
+        assertThat(restored.index().types().keySet(), equalTo(index.types().keySet()));
+        assertThat(restored.index().member("pkg.Child", "baseMethod", false).isPresent(), is(true));
+        assertThat(restored.index().constructors("pkg.Other"), not(empty()));
+        assertThat(restored.index().subtypes("pkg.Base"), contains("pkg.Child"));
+        assertThat(restored.index().sourceFile(other).orElseThrow().declaredTypes, contains("pkg.Other"));
+    }
+
+    @Test
+    public void changedSupertypeMarksSubtypeFilesStale() throws Exception {
+        var files = List.of(base, child, other);
+        var store = new WorkspaceIndexSnapshotStore(workspaceRoot.resolve("cache/index.bin"));
+        store.save(build(files), WorkspaceIndexSnapshotStore.fingerprints(files), Set.of());
+
+        Files.writeString(base, "package pkg;\npublic class Base {\n    public void renamed() {}\n}\n");
+        Files.setLastModifiedTime(base, FileTime.fromMillis(System.currentTimeMillis() + 10_000));
+
+        var restored = store.restore(files, Set.of()).orElseThrow();
+        assertThat(restored.staleFiles(), containsInAnyOrder(base, child));
+        assertThat(restored.index().containsType("pkg.Other"), is(true));
+        assertThat(restored.index().containsType("pkg.Child"), is(false));
+
+        var merged = restored.index().replaceWorkspaceDeclarations(
+                build(List.copyOf(restored.staleFiles())), restored.staleFiles());
+        assertThat(merged.member("pkg.Child", "renamed", false).isPresent(), is(true));
+        assertThat(merged.member("pkg.Child", "baseMethod", false).isPresent(), is(false));
+    }
+
+    @Test
+    public void volatileAndRemovedFiles() {
+        var files = List.of(base, child, other);
+        var store = new WorkspaceIndexSnapshotStore(workspaceRoot.resolve("cache/index.bin"));
+        store.save(build(files), WorkspaceIndexSnapshotStore.fingerprints(files), Set.of(other));
+
+        var restored = store.restore(List.of(base, other), Set.of()).orElseThrow();
+        assertThat(restored.staleFiles(), contains(other));
+        assertThat(restored.index().containsType("pkg.Child"), is(false));
+        assertThat(restored.index().containsType("pkg.Base"), is(true));
+    }
+
+    @Test
+    public void deletedSupertypeMarksSubtypeFilesStale() throws Exception {
+        var files = List.of(base, child, other);
+        var store = new WorkspaceIndexSnapshotStore(workspaceRoot.resolve("cache/index.bin"));
+        store.save(build(files), WorkspaceIndexSnapshotStore.fingerprints(files), Set.of());
+
+        Files.delete(base);
+        var remaining = List.of(child, other);
+        var restored = store.restore(remaining, Set.of()).orElseThrow();
+        assertThat(restored.staleFiles(), contains(child));
+        assertThat(restored.index().containsType("pkg.Base"), is(false));
+        assertThat(restored.index().containsType("pkg.Child"), is(false));
+
+        var merged = restored.index().replaceWorkspaceDeclarations(
+                build(List.copyOf(restored.staleFiles())), restored.staleFiles());
+        assertThat(merged.containsType("pkg.Child"), is(true));
+        assertThat(merged.member("pkg.Child", "baseMethod", false).isPresent(), is(false));
+    }
+
+    @Test
+    public void missingSnapshot() {
+        var store = new WorkspaceIndexSnapshotStore(workspaceRoot.resolve("cache/none.bin"));
+        assertThat(store.restore(List.of(base), Set.of()).isPresent(), is(false));
+    }
+}
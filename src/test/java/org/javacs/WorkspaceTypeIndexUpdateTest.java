@@ -0,0 +1,95 @@
+package org.javacs;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.nio.file.*;
+import java.util.*;
+import org.javacs.index.WorkspaceTypeIndex;
+import org.junit.*;
+
+public class WorkspaceTypeIndexUpdateTest {
+    static {
+        Main.setRootFormat();
+    }
+
+    private Path workspaceRoot;
+    private List<Path> files = new ArrayList<>();
+    private JavaCompilerService compiler;
+
+    @Before
+    public void setup() throws Exception {
+        workspaceRoot = Files.createTempDirectory("index-update-test-");
+        var pkgDir = workspaceRoot.resolve("pkg");
+        Files.createDirectories(pkgDir);
+        for (var i = 0; i < 60; i++) {
+            var file = pkgDir.resolve("Type" + i + ".java");
+            var superclass = i == 0 ? "" : " extends Type" + (i / 2);
+            Files.writeString(
+                    file,
+                    "package pkg;\npublic class Type" + i + superclass + " {\n"
+                            + "    public static class Nested" + i + " {}\n"
+                            + "    public void method" + i + "() {}\n}\n");
+            files.add(file);
+        }
+        FileStore.setWorkspaceRoots(Set.of(workspaceRoot));
+        compiler = new JavaCompilerService(
+                Collections.emptySet(), Collections.emptySet(), Collections.emptySet(), Collections.emptySet());
+    }
+
+    @After
+    public void teardown() throws Exception {
+        FileStore.reset();
+        Files.walk(workspaceRoot)
+                .sorted(Comparator.reverseOrder())
+                .forEach(p -> { try { Files.deleteIfExists(p); } catch (Exception e) {} });
+    }
+
+    private WorkspaceTypeIndex build(List<Path> files) {
+        return WorkspaceTypeIndex.fromParseTrees(compiler.parseAll(files));
+    }
+
+    @Test
+    public void incrementalReplaceMatchesFullRebuild() throws Exception {
+        var index = build(files);
+        var random = new Random(42);
+        for (var round = 0; round < 10; round++) {
+            var i = 1 + random.nextInt(files.size() - 1);
+            var file = files.get(i);
+            // Re-parent Type<i> and drop its nested type, so both inverse maps have entries to move.
+            // The new supertype is qualified: a one-file parse cannot see same-package simple names.
+            Files.writeString(
+                    file,
+                    "package pkg;\npublic class Type" + i + " extends pkg.Type" + random.nextInt(i) + " {\n"
+                            + "    public void method" + i + "() {}\n}\n");
+            index = index.replaceWorkspaceDeclarations(build(List.of(file)), Set.of(file));
+        }
+        var deleted = files.get(files.size() - 1);
+        index = index.replaceWorkspaceDeclarations(WorkspaceTypeIndex.EMPTY, Set.of(deleted));
+        Files.delete(deleted);
+
+        var expected = build(files.subList(0, files.size() - 1));
+        assertThat(index.types().keySet(), equalTo(expected.types().keySet()));
+        for (var name : expected.types().keySet()) {
+            assertThat(name, index.subtypes(name), equalTo(expected.subtypes(name)));
+            assertThat(name, index.ownsTypeOrEnclosingType(name), is(true));
+        }
+        assertThat(index.ownsTypeOrEnclosingType("pkg.Type" + (files.size() - 1)), is(false));
+        assertThat(index.ownsTypeOrEnclosingType("pkg.Type0.Nested0.Inner"), is(true));
+    }
+
+    @Test
+    public void replaceLeavesPreviousSnapshotIntact() {
+        var index = build(files);
+        var file = files.get(3);
+        var before = index.types().size();
+        var next = index.replaceWorkspaceDeclarations(WorkspaceTypeIndex.EMPTY, Set.of(file));
+        assertThat(index.types().size(), equalTo(before));
+        assertThat(index.containsType("pkg.Type3"), is(true));
+        assertThat(index.subtypes("pkg.Type1"), hasItem("pkg.Type3"));
+        assertThat(next.containsType("pkg.Type3"), is(false));
+        assertThat(next.containsType("pkg.Type3.Nested3"), is(false));
+        assertThat(next.subtypes("pkg.Type1"), not(hasItem("pkg.Type3")));
+        assertThat(next.types().size(), equalTo(before - 2));
+    }
+}
@@ -0,0 +1,131 @@
+package org.javacs.index;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.jar.*;
+import javax.tools.ToolProvider;
+import org.javacs.ClassPathJars;
+import org.junit.*;
+
+public class DependencyTypeShardsTest {
+    private Path dir;
+
+    @Before
+    public void setup() throws Exception {
+        dir = Files.createTempDirectory("dependency-shards-test-");
+    }
+
+    @After
+    public void teardown() throws Exception {
+        Files.walk(dir)
+                .sorted(Comparator.reverseOrder())
+                .forEach(p -> { try { Files.deleteIfExists(p); } catch (Exception e) {} });
+    }
+
+    /** Compile {@code source} as lib/Widget.java with {@code -g} and pack the classes into {@code name}. */
+    private Path jar(String name, String source) throws Exception {
+        var src = Files.createDirectories(dir.resolve("src/lib"));
+        var out = dir.resolve("classes-" + name);
+        Files.createDirectories(out);
+        Files.writeString(src.resolve("Widget.java"), source);
+        var status = ToolProvider.getSystemJavaCompiler()
+                .run(null, null, null, "-g", "-d", out.toString(), src.resolve("Widget.java").toString());
+        assertThat(status, equalTo(0));
+        var file = dir.resolve(name);
+        try (var jar = new JarOutputStream(Files.newOutputStream(file));
+                var classes = Files.walk(out)) {
+            for (var classFile : classes.filter(Files::isRegularFile).toList()) {
+                jar.putNextEntry(new JarEntry(out.relativize(classFile).toString().replace('\\', '/')));
+                jar.write(Files.readAllBytes(classFile));
+                jar.closeEntry();
+            }
+        }
+        return file;
+    }
+
+    private List<Path> shardFiles() throws Exception {
+        try (var files = Files.list(dir.resolve("shards"))) {
+            return files.filter(f -> !f.getFileName().toString().startsWith("jdk-")).toList();
+        }
+    }
+
+    @Test
+    public void prescanPersistsDeclarationsPerJar() throws Exception {
+        var lib = jar("lib.jar",
+                "package lib;\n"
+                        + "public class Widget implements Comparable<Widget> {\n"
+                        + "  public static final int LIMIT = 3;\n"
+                        + "  public Widget(String label) {}\n"
+                        + "  public <T> T read(String json, Class<T> type) { return null; }\n"
+                        + "  public int compareTo(Widget other) { return 0; }\n"
+                        + "  public static class Part {}\n"
+                        + "  Runnable task = new Runnable() { public void run() {} };\n"
+                        + "}");
+        var jars = ClassPathJars.of(List.of(lib));
+        var shards = new DependencyTypeShards(dir.resolve("shards"), jars);
+        // Widget and Widget$Part; the anonymous Widget$1 isn't worth a shard entry
+        assertThat(shards.prescan(Set.of()), equalTo(2));
+        assertThat(shardFiles(), hasSize(1));
+
+        var restarted = new DependencyTypeShards(dir.resolve("shards"), jars);
+        assertThat(restarted.prescan(Set.of()), equalTo(0));
+        var shard = DependencyTypeShards.open(shardFiles().get(0)).orElseThrow();
+        assertThat(shard.size(), equalTo(2));
+        assertThat(shard.find("lib/Missing").isPresent(), equalTo(false));
+
+        var stored = shard.find("lib/Widget").orElseThrow();
+        var parsed = ClassFileTypeReader.parse("lib/Widget", jars.read("lib/Widget.class").orElseThrow()).orElseThrow();
+        assertThat(stored.superclass(), equalTo("java/lang/Object"));
+        assertThat(stored.interfaces(), contains("java/lang/Comparable"));
+        assertThat(stored.fields(), equalTo(parsed.fields()));
+        assertThat(stored.methods(), hasSize(parsed.methods().size()));
+        var read = stored.methods().stream().filter(m -> m.name().equals("read")).findFirst().orElseThrow();
+        assertThat(read.declaringType(), equalTo("lib.Widget"));
+        assertThat(read.parameterNames(), arrayContaining("json", "type"));
+        assertThat(read.declaredParameterTypes(), arrayContaining("java.lang.String", "java.lang.Class<T>"));
+        assertThat(read.declaredReturnType(), equalTo("T"));
+        assertThat(stored.constructors().get(0).erasedParameterTypes(), arrayContaining("java.lang.String"));
+        assertThat(restarted.declared("lib/Widget$Part").isPresent(), equalTo(true));
+    }
+
+    @Test
+    public void rebuiltJarGetsANewShard() throws Exception {
+        var lib = jar("lib.jar", "package lib; public class Widget { public void before() {} }");
+        new DependencyTypeShards(dir.resolve("shards"), ClassPathJars.of(List.of(lib))).prescan(Set.of());
+        var before = shardFiles();
+
+        jar("lib.jar", "package lib; public class Widget { public void after() {} }");
+        Files.setLastModifiedTime(lib, FileTime.fromMillis(System.currentTimeMillis() + 10_000));
+        var shards = new DependencyTypeShards(dir.resolve("shards"), ClassPathJars.of(List.of(lib)));
+        assertThat(shards.prescan(Set.of()), equalTo(1));
+
+        var after = shardFiles();
+        assertThat(after, hasSize(1));
+        assertThat(after, not(equalTo(before)));
+        var methods = shards.declared("lib/Widget").orElseThrow().methods();
+        assertThat(methods.stream().map(ClassFileTypeReader.DeclaredMethod::name).toList(), contains("after"));
+    }
+
+    @Test
+    public void staticMethodsOfSuperinterfacesArentInherited() throws Exception {
+        var lib = jar("lib.jar",
+                "package lib;\n"
+                        + "public class Widget implements Shape {}\n"
+                        + "interface Shape {\n"
+                        + "  static Shape unit() { return null; }\n"
+                        + "  default int area() { return 0; }\n"
+                        + "}");
+        var shards = new DependencyTypeShards(dir.resolve("shards"), ClassPathJars.of(List.of(lib)));
+        var reader = new ClassFileTypeReader(shards::declared, null);
+
+        var widget = reader.read("lib.Widget").orElseThrow().members.stream().map(m -> m.name).toList();
+        assertThat(widget, hasItem("area"));
+        assertThat(widget, not(hasItem("unit")));
+        var shape = reader.read("lib.Shape").orElseThrow().members.stream().map(m -> m.name).toList();
+        assertThat(shape, hasItems("unit", "area"));
+    }
+}
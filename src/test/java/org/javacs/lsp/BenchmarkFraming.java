@@ -0,0 +1,85 @@
+package org.javacs.lsp;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** Message throughput of the LSP framing layer: large didChange payloads in, completion lists out. */
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class BenchmarkFraming {
+    static final int MESSAGES = 100;
+
+    @State(Scope.Benchmark)
+    public static class FramingState {
+        /** {@link #MESSAGES} full-document didChange notifications of about 64KB each. */
+        byte[] didChanges;
+
+        CompletionList completions;
+
+        final OutputStream discard =
+                new OutputStream() {
+                    @Override
+                    public void write(int b) {}
+
+                    @Override
+                    public void write(byte[] b, int off, int len) {}
+                };
+
+        @Setup
+        public void setup() throws IOException {
+            var line = "        var result = compiler.compile(file); // éè \"quoted\" \\\\ text\n";
+            var text = line.repeat(64 * 1024 / line.length());
+            var params = new DidChangeTextDocumentParams();
+            params.textDocument.uri = java.net.URI.create("file:///workspace/src/Big.java");
+            params.textDocument.version = 7;
+            var change = new TextDocumentContentChangeEvent();
+            change.text = text;
+            params.contentChanges.add(change);
+            var body =
+                    ("{\"jsonrpc\":\"2.0\",\"method\":\"textDocument/didChange\",\"params\":"
+                                    + LSP.toJson(params)
+                                    + "}")
+                            .getBytes(StandardCharsets.UTF_8);
+            var out = new ByteArrayOutputStream();
+            for (var i = 0; i < MESSAGES; i++) {
+                out.write(("Content-Length: " + body.length + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                out.write(body);
+            }
+            didChanges = out.toByteArray();
+
+            var items = new ArrayList<CompletionItem>();
+            for (var i = 0; i < 50; i++) {
+                var item = new CompletionItem();
+                item.label = "completionCandidate" + i;
+                item.kind = CompletionItemKind.Method;
+                item.detail = "java.util.List<java.lang.String> completionCandidate" + i + "(int index)";
+                item.sortText = String.format("%04d", i);
+                items.add(item);
+            }
+            completions = new CompletionList(false, items);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void readDidChange(FramingState state, Blackhole blackhole) throws IOException {
+        var frames = new FrameReader(new ByteArrayInputStream(state.didChanges));
+        for (var i = 0; i < MESSAGES; i++) {
+            blackhole.consume(LSP.parseMessage(frames.next()));
+        }
+    }
+
+    @Benchmark
+    public void writeCompletionList(FramingState state) {
+        LSP.respond(state.discard, 1, state.completions);
+    }
+}
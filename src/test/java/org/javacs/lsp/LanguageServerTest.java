@@ -3,9 +3,12 @@ package org.javacs.lsp;
 import static org.hamcrest.Matchers.*;
 import static org.hamcrest.MatcherAssert.assertThat;
 
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import java.io.IOException;
 import java.io.PipedInputStream;
 import java.io.PipedOutputStream;
+import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
@@ -34,16 +37,17 @@ public class LanguageServerTest {
         }
     }
 
-    class SequentialRequestServer extends TestLanguageServer {
+    class ConcurrentReadServer extends TestLanguageServer {
         final AtomicInteger inFlight = new AtomicInteger();
         final AtomicInteger maxInFlight = new AtomicInteger();
+        final CountDownLatch bothStarted = new CountDownLatch(2);
         final CountDownLatch handled = new CountDownLatch(2);
 
         @Override
         public Optional<Hover> hover(TextDocumentPositionParams params) {
             enter();
             try {
-                sleepBriefly();
+                awaitOther();
                 return Optional.empty();
             } finally {
                 exit();
@@ -54,7 +58,7 @@ public class LanguageServerTest {
         public Optional<CompletionList> completion(TextDocumentPositionParams params) {
             enter();
             try {
-                sleepBriefly();
+                awaitOther();
                 return Optional.of(new CompletionList(false, java.util.List.of()));
             } finally {
                 exit();
@@ -64,6 +68,7 @@ public class LanguageServerTest {
         private void enter() {
             var active = inFlight.incrementAndGet();
             maxInFlight.accumulateAndGet(active, Math::max);
+            bothStarted.countDown();
         }
 
         private void exit() {
@@ -71,15 +76,82 @@ public class LanguageServerTest {
             handled.countDown();
         }
 
-        private void sleepBriefly() {
+        private void awaitOther() {
             try {
-                Thread.sleep(120);
+                bothStarted.await(2, TimeUnit.SECONDS);
             } catch (InterruptedException interrupted) {
                 Thread.currentThread().interrupt();
             }
         }
     }
 
+    class OrderedDocumentServer extends TestLanguageServer {
+        final java.util.List<String> events = java.util.Collections.synchronizedList(new java.util.ArrayList<>());
+        final CountDownLatch handled = new CountDownLatch(1);
+
+        @Override
+        public void didChangeTextDocument(DidChangeTextDocumentParams params) {
+            sleep(150);
+            events.add("change " + params.textDocument.version);
+        }
+
+        @Override
+        public Optional<Hover> hover(TextDocumentPositionParams params) {
+            events.add("hover");
+            handled.countDown();
+            return Optional.empty();
+        }
+    }
+
+    class WorkspaceReadServer extends OrderedDocumentServer {
+        @Override
+        public void didChangeTextDocument(DidChangeTextDocumentParams params) {
+            events.add("change " + params.textDocument.version);
+            handled.countDown();
+        }
+
+        @Override
+        public List<SymbolInformation> workspaceSymbols(WorkspaceSymbolParams params) {
+            sleep(150);
+            events.add("symbols");
+            return List.of();
+        }
+    }
+
+    class CancellableServer extends TestLanguageServer {
+        final CountDownLatch started = new CountDownLatch(1);
+
+        @Override
+        public Optional<List<Location>> findReferences(ReferenceParams params) {
+            started.countDown();
+            var token = CancelToken.current();
+            var deadline = System.currentTimeMillis() + 10_000;
+            while (System.currentTimeMillis() < deadline) {
+                token.checkCancelled();
+                sleep(10);
+            }
+            return Optional.of(List.of());
+        }
+    }
+
+    class CancelDuringReadServer extends CancellableServer {
+        final CountDownLatch hovered = new CountDownLatch(1);
+
+        @Override
+        public Optional<Hover> hover(TextDocumentPositionParams params) {
+            hovered.countDown();
+            return Optional.empty();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     static {
         Main.setRootFormat();
     }
@@ -88,8 +160,8 @@ public class LanguageServerTest {
     public void connectServerAndInitialize() throws IOException {
         writeClientToServer = new PipedOutputStream(clientToServer);
         writeServerToClient = new PipedOutputStream(serverToClient);
+        // Started by the first message, so a test can install its own mockServer first
         main = new Thread(this::runServer, "runServer");
-        main.start();
     }
 
     @After
@@ -113,6 +185,7 @@ public class LanguageServerTest {
     }
 
     private void sendToServer(String message) throws IOException {
+        if (main.getState() == Thread.State.NEW) main.start();
         var header = String.format("Content-Length: %d\r\n\r\n", message.getBytes().length);
         writeClientToServer.write(header.getBytes());
         writeClientToServer.write(message.getBytes());
@@ -148,8 +221,8 @@ public class LanguageServerTest {
     }
 
     @Test
-    public void requestDispatchIsSequential() throws Exception {
-        mockServer = new SequentialRequestServer();
+    public void readRequestsRunConcurrently() throws Exception {
+        mockServer = new ConcurrentReadServer();
         sendToServer(initializeMessage);
         receivedInitialize.get(10, TimeUnit.SECONDS);
 
@@ -158,8 +231,93 @@ public class LanguageServerTest {
         sendToServer(
                 "{\"jsonrpc\":\"2.0\",\"id\":3,\"method\":\"textDocument/completion\",\"params\":{\"textDocument\":{\"uri\":\"file:///Test.java\"},\"position\":{\"line\":0,\"character\":0}}}");
 
-        var server = (SequentialRequestServer) mockServer;
+        var server = (ConcurrentReadServer) mockServer;
         assertThat("both requests should complete", server.handled.await(10, TimeUnit.SECONDS), equalTo(true));
-        assertThat("LSP request processing should stay single-threaded", server.maxInFlight.get(), equalTo(1));
+        assertThat("hover and completion should overlap", server.maxInFlight.get(), equalTo(2));
+    }
+
+    @Test
+    public void documentChangeIsAppliedBeforeLaterRead() throws Exception {
+        mockServer = new OrderedDocumentServer();
+        sendToServer(initializeMessage);
+        receivedInitialize.get(10, TimeUnit.SECONDS);
+
+        sendToServer(
+                "{\"jsonrpc\":\"2.0\",\"method\":\"textDocument/didChange\",\"params\":{\"textDocument\":{\"uri\":\"file:///Test.java\",\"version\":2},\"contentChanges\":[]}}");
+        sendToServer(
+                "{\"jsonrpc\":\"2.0\",\"method\":\"textDocument/didChange\",\"params\":{\"textDocument\":{\"uri\":\"file:///Test.java\",\"version\":3},\"contentChanges\":[]}}");
+        sendToServer(
+                "{\"jsonrpc\":\"2.0\",\"id\":2,\"method\":\"textDocument/hover\",\"params\":{\"textDocument\":{\"uri\":\"file:///Test.java\"},\"position\":{\"line\":0,\"character\":0}}}");
+
+        var server = (OrderedDocumentServer) mockServer;
+        assertThat("hover should complete", server.handled.await(10, TimeUnit.SECONDS), equalTo(true));
+        assertThat(server.events, contains("change 2", "change 3", "hover"));
+    }
+
+    @Test
+    public void documentChangeWaitsForWorkspaceRead() throws Exception {
+        mockServer = new WorkspaceReadServer();
+        sendToServer(initializeMessage);
+        receivedInitialize.get(10, TimeUnit.SECONDS);
+
+        sendToServer("{\"jsonrpc\":\"2.0\",\"id\":2,\"method\":\"workspace/symbol\",\"params\":{\"query\":\"A\"}}");
+        sendToServer(
+                "{\"jsonrpc\":\"2.0\",\"method\":\"textDocument/didChange\",\"params\":{\"textDocument\":{\"uri\":\"file:///Test.java\",\"version\":2},\"contentChanges\":[]}}");
+
+        var server = (WorkspaceReadServer) mockServer;
+        assertThat("change should be applied", server.handled.await(10, TimeUnit.SECONDS), equalTo(true));
+        assertThat(server.events, contains("symbols", "change 2"));
+    }
+
+    @Test
+    public void cancelRunningRequest() throws Exception {
+        mockServer = new CancellableServer();
+        sendToServer(initializeMessage);
+        receivedInitialize.get(10, TimeUnit.SECONDS);
+
+        sendToServer(
+                "{\"jsonrpc\":\"2.0\",\"id\":2,\"method\":\"textDocument/references\",\"params\":{\"textDocument\":{\"uri\":\"file:///Test.java\"},\"position\":{\"line\":0,\"character\":0},\"context\":{\"includeDeclaration\":true}}}");
+        var server = (CancellableServer) mockServer;
+        assertThat("references should start", server.started.await(10, TimeUnit.SECONDS), equalTo(true));
+        sendToServer("{\"jsonrpc\":\"2.0\",\"method\":\"$/cancelRequest\",\"params\":{\"id\":2}}");
+
+        var response = awaitResponse(2);
+        assertThat(response.get("error").getAsJsonObject().get("code").getAsInt(), equalTo(ErrorCodes.RequestCancelled));
+    }
+
+    @Test
+    public void cancelNotificationDoesNotWaitForReads() throws Exception {
+        mockServer = new CancelDuringReadServer();
+        sendToServer(initializeMessage);
+        receivedInitialize.get(10, TimeUnit.SECONDS);
+
+        sendToServer(
+                "{\"jsonrpc\":\"2.0\",\"id\":2,\"method\":\"textDocument/references\",\"params\":{\"textDocument\":{\"uri\":\"file:///Test.java\"},\"position\":{\"line\":0,\"character\":0},\"context\":{\"includeDeclaration\":true}}}");
+        var server = (CancelDuringReadServer) mockServer;
+        assertThat("references should start", server.started.await(10, TimeUnit.SECONDS), equalTo(true));
+        // Cancels a request that already finished; must not hold up the hover behind references
+        sendToServer("{\"jsonrpc\":\"2.0\",\"method\":\"$/cancelRequest\",\"params\":{\"id\":1}}");
+        sendToServer(
+                "{\"jsonrpc\":\"2.0\",\"id\":3,\"method\":\"textDocument/hover\",\"params\":{\"textDocument\":{\"uri\":\"file:///Other.java\"},\"position\":{\"line\":0,\"character\":0}}}");
+
+        assertThat("hover should run while references does", server.hovered.await(5, TimeUnit.SECONDS), equalTo(true));
+        sendToServer("{\"jsonrpc\":\"2.0\",\"method\":\"$/cancelRequest\",\"params\":{\"id\":2}}");
+        var response = awaitResponse(2);
+        assertThat(response.get("error").getAsJsonObject().get("code").getAsInt(), equalTo(ErrorCodes.RequestCancelled));
+    }
+
+    private JsonObject awaitResponse(int id) throws Exception {
+        var frames = new FrameReader(serverToClient);
+        var response = CompletableFuture.supplyAsync(() -> {
+            try {
+                while (true) {
+                    var message = JsonParser.parseReader(frames.next()).getAsJsonObject();
+                    if (message.has("id") && message.get("id").getAsInt() == id) return message;
+                }
+            } catch (IOException e) {
+                throw new java.io.UncheckedIOException(e);
+            }
+        });
+        return response.get(10, TimeUnit.SECONDS);
     }
 }
@@ -50,6 +50,22 @@ public class LspTest {
         assertThat(bufferToString(), equalTo(expected));
     }
 
+    @Test
+    public void failedResponseDoesNotCorruptTheNextFrame() {
+        var result = new java.util.LinkedHashMap<String, Object>();
+        result.put("text", "x".repeat(100));
+        result.put("bad", Double.NaN);
+        try {
+            LSP.respond(writer, 1, result);
+            throw new AssertionError("NaN should not serialize");
+        } catch (IllegalArgumentException expected) {
+        }
+        LSP.error(writer, 1, new ResponseError(-100, "something went wrong", null));
+        var expected =
+                "Content-Length: 79\r\n\r\n{\"jsonrpc\":\"2.0\",\"id\":1,\"error\":{\"code\":-100,\"message\":\"something went wrong\"}}";
+        assertThat(bufferToString(), equalTo(expected));
+    }
+
     @Test
     public void writeError() {
         LSP.error(writer, 1, new ResponseError(-100, "something went wrong", null));
@@ -86,10 +102,7 @@ public class LspTest {
         writer.write(header.getBytes());
         writer.write(message.getBytes());
 
-        var token = LSP.nextToken(buffer);
-        assertThat(token, equalTo(message));
-
-        var parse = LSP.parseMessage(token);
+        var parse = LSP.parseMessage(new FrameReader(buffer).next());
         assertThat(parse.jsonrpc, equalTo("2.0"));
         assertThat(parse.id, equalTo(1));
         assertThat(parse.method, equalTo("initialize"));
@@ -107,16 +120,42 @@ public class LspTest {
         writer.write(header.getBytes());
         writer.write(message.getBytes());
 
-        var token = LSP.nextToken(buffer);
-        assertThat(token, equalTo(message));
-
-        var parse = LSP.parseMessage(token);
+        var parse = LSP.parseMessage(new FrameReader(buffer).next());
         assertThat(parse.jsonrpc, equalTo("2.0"));
         assertThat(parse.id, equalTo(1));
         assertThat(parse.method, equalTo("initialize"));
         assertThat(parse.params, equalTo(gson.toJsonTree(params)));
     }
 
+    @Test
+    public void readBackToBackMessages() throws IOException {
+        var first = "{\"jsonrpc\":\"2.0\",\"method\":\"exit\"}";
+        var second = "{\"text\":\"🔥\"}";
+        writer.write(("content-length: " + first.getBytes(StandardCharsets.UTF_8).length + "\r\n").getBytes());
+        writer.write("Content-Type: application/vscode-jsonrpc; charset=utf-8\r\n\r\n".getBytes());
+        writer.write(first.getBytes(StandardCharsets.UTF_8));
+        writer.write(("Content-Length: " + second.getBytes(StandardCharsets.UTF_8).length + "\r\n\r\n").getBytes());
+        writer.write(second.getBytes(StandardCharsets.UTF_8));
+        writer.close();
+
+        var frames = new FrameReader(buffer);
+        assertThat(StandardCharsets.UTF_8.decode(frames.nextBody()).toString(), equalTo(first));
+        assertThat(StandardCharsets.UTF_8.decode(frames.nextBody()).toString(), equalTo(second));
+        try {
+            frames.nextBody();
+            org.junit.Assert.fail("expected end of stream");
+        } catch (LSP.EndOfStream expected) {
+        }
+    }
+
+    @Test
+    public void writeLargeResponse() {
+        var text = "x".repeat(100_000);
+        LSP.respond(writer, 1, text);
+        var body = "{\"jsonrpc\":\"2.0\",\"id\":1,\"result\":\"" + text + "\"}";
+        assertThat(bufferToString(), equalTo("Content-Length: " + body.length() + "\r\n\r\n" + body));
+    }
+
     @Test
     public void excludeDefaults() {
         var item = new CompletionItem();